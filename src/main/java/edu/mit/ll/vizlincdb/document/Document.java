@@ -59,13 +59,13 @@ public class Document implements Serializable {
         this.text = text;
     }
 
+    // Return the text given by setText(), if any; otherwise fetch it. Text fetched from a VizLincRDBMem is not kept
+    // here, so that documents don't pin their texts in memory: VizLincRDBMem caches texts, within a bound.
     public String getText(VizLincRDBMem db) throws SQLException {
-        if (text == null) {
-            text = db.getDocumentText(id);
-        }
-        return text;
+        return text != null ? text : db.getDocumentText(id);
     }
 
+    // VizLincRDB has no cache of its own, so text fetched from it is kept.
     public String getText(VizLincRDB db) throws SQLException {
         if (text == null) {
             text = db.getDocumentText(id);
@@ -60,6 +60,18 @@ public class MentionLocation
         }
     }
 
+    /**
+     * Create a MentionLocation whose type is already in the type code table.
+     */
+    public MentionLocation(int documentId, int entityId, int index, int textStart, int textStop, short mentionTypeCode) {
+        this.documentId = documentId;
+        this.entityId = entityId;
+        this.index = index;
+        this.textStart = textStart;
+        this.textStop = textStop;
+        this.mentionTypeCode = mentionTypeCode;
+    }
+
     @Override
     public String toString() {
         return "MentionLocation{" + "documentId=" + documentId + ", entityId=" + entityId + ", index=" + index + ", textStart=" + textStart + ", textStop=" + textStop + '}';
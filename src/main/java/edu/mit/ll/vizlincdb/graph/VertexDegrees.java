@@ -0,0 +1,188 @@
+package edu.mit.ll.vizlincdb.graph;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of vertex degrees (number of edges with a given direction and label), counted the first time each is asked
+ * for, and of the neighbor ids of hubs: vertices with at least HUB_DEGREE such edges. Blueprints has no degree lookup,
+ * and Neo4j 1.9 can only find an edge between two nodes by walking the relationships of one of them, so otherwise
+ * every degree is a walk over the edges, and so is every edge check against a hub. Whoever adds or removes edges must
+ * invalidate the vertices at both ends, or clear the cache.
+ *
+ * The cache holds up to a total weight of degrees and neighbor ids, one for each, and evicts the vertices least
+ * recently used beyond that.
+ */
+class VertexDegrees {
+
+    /**
+     * Degree from which a vertex's neighbor ids are cached.
+     */
+    static final int HUB_DEGREE = 256;
+
+    /**
+     * Default total number of degrees and hub neighbor ids cached.
+     */
+    static final long DEFAULT_MAXIMUM_WEIGHT = 1L << 20;
+
+    // Vertex id -> its cached degrees and neighbor ids. Entries are replaced, not changed, so that they keep the
+    // weight they were put with.
+    private final Cache<Object, Entry> entries;
+
+    VertexDegrees() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * @param maximumWeight total number of degrees and hub neighbor ids cached
+     */
+    VertexDegrees(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("cache size must not be negative");
+        }
+        // A single segment, so that the whole budget is available to any one hub.
+        entries = CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maximumWeight)
+            .weigher(new Weigher<Object, Entry>() {
+                @Override
+                public int weigh(Object id, Entry entry) {
+                    return entry.weight();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Return the number of edges of the given direction and label at a vertex.
+     */
+    int degree(Vertex v, Direction direction, String label) {
+        return degreeUpTo(v, direction, label, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the number of edges of the given direction and label at a vertex if it is at most limit, and otherwise
+     * some number greater than limit, walking no more than limit + 1 edges. Only complete counts are cached.
+     */
+    int degreeUpTo(Vertex v, Direction direction, String label, int limit) {
+        Object id = v.getId();
+        String key = direction.name() + ' ' + label;
+        Entry entry = entries.getIfPresent(id);
+        Integer degree = entry == null ? null : entry.degrees.get(key);
+        if (degree != null) {
+            return degree;
+        }
+        int count = 0;
+        for (Edge e : v.getEdges(direction, label)) {
+            if (count == limit) {
+                return limit + 1;
+            }
+            count++;
+        }
+        entries.put(id, (entry == null ? Entry.EMPTY : entry).withDegree(key, count));
+        return count;
+    }
+
+    /**
+     * Return true if the degree of the given direction and label at a vertex is cached.
+     */
+    boolean isCached(Vertex v, Direction direction, String label) {
+        Entry entry = entries.getIfPresent(v.getId());
+        return entry != null && entry.degrees.containsKey(direction.name() + ' ' + label);
+    }
+
+    /**
+     * Return true if an edge of the given direction and label joins v to neighbor. Looks in the cached neighbor ids
+     * if v is a hub, and walks v's edges otherwise.
+     */
+    boolean isNeighbor(Vertex v, Direction direction, String label, Vertex neighbor) {
+        if (degree(v, direction, label) >= HUB_DEGREE) {
+            return neighborIds(v, direction, label).contains(neighbor.getId());
+        }
+        for (Vertex w : v.getVertices(direction, label)) {
+            if (w.equals(neighbor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<Object> neighborIds(Vertex v, Direction direction, String label) {
+        Object id = v.getId();
+        String key = direction.name() + ' ' + label;
+        Entry entry = entries.getIfPresent(id);
+        Set<Object> ids = entry == null ? null : entry.neighborIds.get(key);
+        if (ids == null) {
+            ids = new HashSet<Object>();
+            for (Vertex w : v.getVertices(direction, label)) {
+                ids.add(w.getId());
+            }
+            ids = Collections.unmodifiableSet(ids);
+            entries.put(id, (entry == null ? Entry.EMPTY : entry).withNeighborIds(key, ids));
+        }
+        return ids;
+    }
+
+    /**
+     * Forget the degrees and neighbors of a vertex whose edges have changed.
+     */
+    void invalidate(Vertex v) {
+        entries.invalidate(v.getId());
+    }
+
+    void clear() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Number of vertices with cached degrees or neighbor ids.
+     */
+    int size() {
+        return (int) entries.size();
+    }
+
+    /**
+     * The cached degrees and neighbor ids of one vertex, each by direction and label.
+     */
+    private static final class Entry {
+
+        static final Entry EMPTY = new Entry(Collections.<String, Integer>emptyMap(), Collections.<String, Set<Object>>emptyMap());
+
+        final Map<String, Integer> degrees;
+        final Map<String, Set<Object>> neighborIds;
+
+        private Entry(Map<String, Integer> degrees, Map<String, Set<Object>> neighborIds) {
+            this.degrees = degrees;
+            this.neighborIds = neighborIds;
+        }
+
+        Entry withDegree(String key, int degree) {
+            Map<String, Integer> newDegrees = new HashMap<String, Integer>(degrees);
+            newDegrees.put(key, degree);
+            return new Entry(newDegrees, neighborIds);
+        }
+
+        Entry withNeighborIds(String key, Set<Object> ids) {
+            Map<String, Set<Object>> newNeighborIds = new HashMap<String, Set<Object>>(neighborIds);
+            newNeighborIds.put(key, ids);
+            return new Entry(degrees, newNeighborIds);
+        }
+
+        int weight() {
+            int weight = degrees.size();
+            for (Set<Object> ids : neighborIds.values()) {
+                weight += ids.size();
+            }
+            return weight;
+        }
+    }
+}
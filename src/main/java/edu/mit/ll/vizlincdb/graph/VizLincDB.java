@@ -12,13 +12,19 @@ import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
 import com.tinkerpop.gremlin.java.GremlinPipeline;
 import edu.mit.ll.vizlincdb.geo.GeoBoundingBox;
 import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import edu.mit.ll.vizlincdb.util.AutoCommitter;
 import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -59,9 +65,13 @@ public class VizLincDB {
         }
     }
 
+    /** Edges added or removed directly through graph are not seen by getDegree(); use addEdge() or clearDegreeCache(). */
     public KeyIndexableGraph graph;
     /** The same object as graph, but will be null if graph is not transactional. Then commit becomes a no-op and rollback is not implemented. */
     TransactionalGraph transactionalGraph;
+    // Null unless auto-commit is set.
+    private AutoCommitter autoCommitter;
+    private final VertexDegrees degrees = new VertexDegrees();
 
     /**
      * Open an existing VizLinc database or create a new one at the path specified by the File (which will be a directory).
@@ -179,7 +189,9 @@ public class VizLincDB {
      * Commit a transaction in progress.
      */
     public void commit() {
-        if (isTransactional()) {
+        if (autoCommitter != null) {
+            autoCommitter.commit();
+        } else if (isTransactional()) {
             transactionalGraph.commit();
         }
     }
@@ -192,6 +204,49 @@ public class VizLincDB {
             throw new UnsupportedOperationException("graph type being used does not support rollback");
         }
         transactionalGraph.rollback();
+        degrees.clear();
+        if (autoCommitter != null) {
+            autoCommitter.reset();
+        }
+    }
+
+    /**
+     * Commit automatically, every maxMutations vertices and edges added or changed through this VizLincDB, or at the
+     * first change maxMillis after the first uncommitted one, so that long runs of writes don't build up one huge
+     * transaction. A rollback then only discards the changes since the last commit. The time limit is only checked
+     * on a change, so the last changes of a run stay uncommitted until commit() is called. No-op if the graph is not
+     * transactional.
+     *
+     * @param maxMutations 0 for no limit
+     * @param maxMillis 0 for no limit
+     */
+    public void setAutoCommit(int maxMutations, long maxMillis) {
+        if (!isTransactional() || (maxMutations == 0 && maxMillis == 0)) {
+            autoCommitter = null;
+            return;
+        }
+        autoCommitter = new AutoCommitter(new AutoCommitter.Committable() {
+            @Override
+            public void commit() {
+                transactionalGraph.commit();
+            }
+        }, maxMutations, maxMillis);
+    }
+
+    /**
+     * Return the auto-commit counters, or null if auto-commit is not set.
+     *
+     * @return AutoCommitter or null
+     */
+    public AutoCommitter getAutoCommitter() {
+        return autoCommitter;
+    }
+
+    // Count n changes for auto-commit.
+    private void mutated(int n) {
+        if (autoCommitter != null) {
+            autoCommitter.mutated(n);
+        }
     }
 
     /**
@@ -210,6 +265,9 @@ public class VizLincDB {
      */
     public void deleteNode(Vertex node) {
         graph.removeVertex(node);
+        // The node's neighbors lost edges too.
+        degrees.clear();
+        mutated(1);
     }
 
     /**
@@ -280,7 +338,7 @@ public class VizLincDB {
      * @return  true if an out edge exists from v1 to v2 with the given label
      */
     public boolean outEdgeExists(Vertex v1, Vertex v2, String label) {
-        return new GremlinPipeline(v1).outE(label).inV().retain(Collections.singletonList(v2)).hasNext();
+        return edgeExists(v1, Direction.OUT, v2, label);
     }
 
     /**
@@ -291,7 +349,19 @@ public class VizLincDB {
      * @return  true if an edge exists from v1 to v2 with the given label
      */
     public boolean edgeExists(Vertex v1, Vertex v2, String label) {
-        return new GremlinPipeline(v1).bothE(label).bothV().retain(Collections.singletonList(v2)).hasNext();
+        return edgeExists(v1, Direction.BOTH, v2, label);
+    }
+
+    /**
+     * Return true if an edge with the given label and direction joins v1 to v2. Walks the edges of whichever end has
+     * fewer, by the cached degrees, so a check against a hub costs no more than the degree of the other end.
+     */
+    private boolean edgeExists(Vertex v1, Direction direction, Vertex v2, String label) {
+        Direction back = direction.opposite();
+        if (degrees.degree(v2, back, label) < degrees.degree(v1, direction, label)) {
+            return degrees.isNeighbor(v2, back, label, v1);
+        }
+        return degrees.isNeighbor(v1, direction, label, v2);
     }
 
     /**
@@ -330,6 +400,33 @@ public class VizLincDB {
         return new GremlinPipeline(v1).bothE(label).bothV().retain(v2List).dedup().count() == v2List.size();
      }
 
+    /**
+     * Return the number of edges with the given direction and label at a vertex. Degrees are cached, and the cache is
+     * kept up to date by addEdge() and deleteNode(); call clearDegreeCache() after changing edges directly through
+     * graph.
+     * @param v   the vertex
+     * @param direction   OUT, IN or BOTH
+     * @param label   edges must be of label
+     * @return   the number of edges
+     */
+    public int getDegree(Vertex v, Direction direction, String label) {
+        return degrees.degree(v, direction, label);
+    }
+
+    /**
+     * Forget all the cached degrees.
+     */
+    public void clearDegreeCache() {
+        degrees.clear();
+    }
+
+    /**
+     * Return true if the degree of the given direction and label at a vertex is cached.
+     */
+    boolean isDegreeCached(Vertex v, Direction direction, String label) {
+        return degrees.isCached(v, direction, label);
+    }
+
     /**
      * Return all the nodes in the graph that are named entities.
      *
@@ -360,13 +457,23 @@ public class VizLincDB {
     }
 
     /**
-     * Return the document in which a mention occurs.
+     * Return the document in which a mention occurs: the one named by its P_MENTION_DOCUMENT_ID property if that is a
+     * document, or else the one at the other end of its L_DOCUMENT_TO_MENTION edge.
      *
      * @param mention Vertex
      * @return the document
-     * @throws VizLincDBException if the mention is not connected to exactly one document
+     * @throws VizLincDBException if the mention's P_MENTION_DOCUMENT_ID is missing or not a document, and the mention
+     * is not connected to exactly one document
      */
     public Vertex getDocumentForMention(Vertex mention) throws VizLincDBException {
+        Object documentId = mention.getProperty(P_MENTION_DOCUMENT_ID);
+        if (documentId != null) {
+            // The id may have been left behind by a deleted document and reused for another node.
+            Vertex document = graph.getVertex(documentId);
+            if (document != null && NODE_TYPE_DOCUMENT.equals(document.getProperty(P_NODE_TYPE))) {
+                return document;
+            }
+        }
         List<Vertex> documents = new GremlinPipeline(mention).in(L_DOCUMENT_TO_MENTION).toList();
         if (documents.size() != 1) {
             throw new VizLincDBException("a mention should be connected to exactly one document");
@@ -453,14 +560,7 @@ public class VizLincDB {
      * @return an Iterable for the document nodes.
      */
     public Iterable<Vertex> getDocumentsWithAllOfTheseEntities(Iterable<Vertex> entities) {
-        List<Vertex> entitiesList = makeList(entities);
-        List<Vertex> docsWithAllEntities = new ArrayList<Vertex>();
-        for (Vertex doc : getDocumentsForAnyEntities(entitiesList)) {
-            if (allOutEdgesExist(doc, entitiesList, L_DOCUMENT_TO_ENTITY)) {
-                docsWithAllEntities.add(doc);
-            }
-        }
-        return docsWithAllEntities;
+        return neighborsOfAll(entities, Direction.IN);
     }
 
     /**
@@ -480,14 +580,91 @@ public class VizLincDB {
      * @return an Iterable for the document nodes.
      */
     public Iterable<Vertex> getEntitiesInAllOfTheseDocuments(Iterable<Vertex> documents) {
-        List<Vertex> documentsList = makeList(documents);
-        List<Vertex> entitiesForAllDocuments = new ArrayList<Vertex>();
-        for (Vertex entity : getEntitiesInAnyOfTheseDocuments(documentsList)) {
-            if (allInEdgesExist(entity, documentsList, L_DOCUMENT_TO_ENTITY)) {
-                entitiesForAllDocuments.add(entity);
+        return neighborsOfAll(documents, Direction.OUT);
+    }
+
+    /**
+     * Return the vertices joined by an L_DOCUMENT_TO_ENTITY edge in the given direction to every one of the given
+     * vertices: documents (IN) of entities, or entities (OUT) of documents. Intersects their neighbors smallest degree
+     * first, starting from the neighbors of the vertex with the fewest. For each of the others, either all its
+     * neighbors are read, or each remaining candidate is checked for an edge back to it, whichever walks fewer edges.
+     *
+     * Degrees not yet cached are counted only up to a limit that starts small and grows fourfold until the choice is
+     * made, so the edges counted are a few times those walked. So a conjunction with a hub entity never reads all
+     * the documents of the hub, even the first time.
+     */
+    private List<Vertex> neighborsOfAll(Iterable<Vertex> vertices, final Direction direction) {
+        List<Vertex> vertexList = new ArrayList<Vertex>(makeSet(vertices));
+        if (vertexList.isEmpty()) {
+            return vertexList;
+        }
+        // Degrees, or for vertices over the limit, limit + 1: enough to find the vertex of least degree.
+        final Map<Vertex, Integer> degreeOf = new HashMap<Vertex, Integer>();
+        for (long limit = MIN_DEGREE_LIMIT; ; limit *= 4) {
+            for (Vertex v : vertexList) {
+                degreeOf.put(v, degrees.degreeUpTo(v, direction, L_DOCUMENT_TO_ENTITY, intLimit(limit)));
+            }
+            if (Collections.min(degreeOf.values()) <= limit) {
+                break;
+            }
+        }
+        Collections.sort(vertexList, new Comparator<Vertex>() {
+            @Override
+            public int compare(Vertex a, Vertex b) {
+                return Integer.compare(degreeOf.get(a), degreeOf.get(b));
+            }
+        });
+
+        Direction back = direction.opposite();
+        Set<Vertex> candidates = new LinkedHashSet<Vertex>();
+        for (Vertex neighbor : vertexList.get(0).getVertices(direction, L_DOCUMENT_TO_ENTITY)) {
+            candidates.add(neighbor);
+        }
+        for (Vertex v : vertexList.subList(1, vertexList.size())) {
+            if (candidates.isEmpty()) {
+                break;
+            }
+            // Each candidate has at least one edge back, so probing walks at least candidates.size() edges.
+            for (long limit = Math.max(candidates.size(), MIN_DEGREE_LIMIT); ; limit *= 4) {
+                int degree = degrees.degreeUpTo(v, direction, L_DOCUMENT_TO_ENTITY, intLimit(limit));
+                long probeCost = probeCostUpTo(candidates, back, limit);
+                if (degree <= limit && degree <= probeCost) {
+                    candidates.retainAll(makeSet(v.getVertices(direction, L_DOCUMENT_TO_ENTITY)));
+                    break;
+                }
+                if (probeCost <= limit) {
+                    for (Iterator<Vertex> it = candidates.iterator(); it.hasNext();) {
+                        if (!degrees.isNeighbor(it.next(), back, L_DOCUMENT_TO_ENTITY, v)) {
+                            it.remove();
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return new ArrayList<Vertex>(candidates);
+    }
+
+    // The limit from which neighborsOfAll() counts degrees.
+    private static final int MIN_DEGREE_LIMIT = 16;
+
+    private static int intLimit(long limit) {
+        return (int) Math.min(limit, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     * Return the number of edges walked to check each candidate for an edge in the given direction, if it is at most
+     * limit, and otherwise some number greater than limit.
+     */
+    private long probeCostUpTo(Collection<Vertex> candidates, Direction direction, long limit) {
+        long cost = 0;
+        for (Vertex candidate : candidates) {
+            cost += degrees.degreeUpTo(candidate, direction, L_DOCUMENT_TO_ENTITY, intLimit(limit - cost));
+            if (cost > limit) {
+                break;
             }
         }
-        return entitiesForAllDocuments;
+        return cost;
     }
 
     /**
@@ -498,16 +675,39 @@ public class VizLincDB {
      * @throws VizLincDBException
      */
      public Iterable<Vertex> getMentionsInDocumentsForEntity(Iterable<Vertex> documents, Vertex entity) throws VizLincDBException {
-        Set<Vertex> documentsSet = makeSet(documents);
+        Set<Object> documentIds = makeSetOfIds(documents);
         List<Vertex> mentions = new ArrayList<Vertex>();
         for (Vertex mention : getMentionsForEntity(entity)) {
-            if (documentsSet.contains(getDocumentForMention(mention))) {
+            // The P_MENTION_DOCUMENT_ID property, if it's there and a document, saves walking the edge to the document.
+            Object documentId = getDocumentForMention(mention).getId();
+            if (documentIds.contains(documentId)) {
                 mentions.add(mention);
             }
         }
         return mentions;
     }
 
+    /**
+     * Set the P_MENTION_DOCUMENT_ID property of every mention that doesn't have it or has the wrong one, as in a
+     * database made before the property was added. Use setAutoCommit() first to commit as it goes.
+     *
+     * @return the number of mentions changed
+     */
+    public int backfillMentionDocumentIds() {
+        int changed = 0;
+        for (Vertex documentNode : getDocuments()) {
+            Object documentId = documentNode.getId();
+            for (Vertex mentionNode : getMentionsInDocument(documentNode)) {
+                if (!documentId.equals(mentionNode.getProperty(P_MENTION_DOCUMENT_ID))) {
+                    mentionNode.setProperty(P_MENTION_DOCUMENT_ID, documentId);
+                    changed++;
+                    mutated(1);
+                }
+            }
+        }
+        return changed;
+    }
+
     /**
      * Add a document to the graph, with the given properties.
      *
@@ -522,6 +722,7 @@ public class VizLincDB {
         documentNode.setProperty(P_DOCUMENT_NAME, documentName);
         documentNode.setProperty(P_DOCUMENT_PATH, documentPath);
         documentNode.setProperty(P_DOCUMENT_TEXT, text);
+        mutated(1);
         return documentNode;
     }
 
@@ -548,8 +749,10 @@ public class VizLincDB {
         }
         mentionNode.setProperty(P_MENTION_TEXT_START, textStart);
         mentionNode.setProperty(P_MENTION_TEXT_STOP, textStop);
+        mentionNode.setProperty(P_MENTION_DOCUMENT_ID, documentNode.getId());
 
-        Edge e = graph.addEdge(null, documentNode, mentionNode, L_DOCUMENT_TO_MENTION);
+        addEdge(documentNode, mentionNode, L_DOCUMENT_TO_MENTION);
+        mutated(1);
         return mentionNode;
     }
 
@@ -583,6 +786,7 @@ public class VizLincDB {
         entityNode.setProperty(P_ENTITY_TYPE, type);
         entityNode.setProperty(P_ENTITY_TEXT, text);
         entityNode.setProperty(P_CREATED_BY, createdBy);
+        mutated(1);
         return entityNode;
     }
 
@@ -595,13 +799,49 @@ public class VizLincDB {
      */
     public void connectEntityToMentionsAndDocuments(Vertex entityNode, Iterable<Vertex> mentionNodes) {
         for (Vertex documentNode : getDocumentsWithMentions(mentionNodes)) {
-            graph.addEdge(null, documentNode, entityNode, L_DOCUMENT_TO_ENTITY);
+            addEdge(documentNode, entityNode, L_DOCUMENT_TO_ENTITY);
         }
         for (Vertex mentionNode : mentionNodes) {
-            graph.addEdge(null, mentionNode, entityNode, L_MENTION_TO_ENTITY);
+            addEdge(mentionNode, entityNode, L_MENTION_TO_ENTITY);
         }
     }
 
+    /**
+     * Add an edge between two existing nodes, keeping the cached degrees of both up to date. All the edges this class
+     * and VizLincDBEntityLoader create are added here.
+     *
+     * @param outNode the node the edge starts from
+     * @param inNode the node the edge points to
+     * @param label the edge label
+     * @return the new edge
+     */
+    public Edge addEdge(Vertex outNode, Vertex inNode, String label) {
+        Edge edge = graph.addEdge(null, outNode, inNode, label);
+        degrees.invalidate(outNode);
+        degrees.invalidate(inNode);
+        mutated(1);
+        return edge;
+    }
+
+    /**
+     * Return a loader for creating entities in bulk, with the default commit size. The loader must be closed when done.
+     *
+     * @return VizLincDBEntityLoader
+     */
+    public VizLincDBEntityLoader newEntityLoader() {
+        return new VizLincDBEntityLoader(this);
+    }
+
+    /**
+     * Return a loader for creating entities in bulk. The loader must be closed when done.
+     *
+     * @param commitSize number of new vertices and edges per transaction
+     * @return VizLincDBEntityLoader
+     */
+    public VizLincDBEntityLoader newEntityLoader(int commitSize) {
+        return new VizLincDBEntityLoader(this, commitSize);
+    }
+
     /**
      * Get the plain text stored with the document.
      *
@@ -635,6 +875,7 @@ public class VizLincDB {
             locationNode.removeProperty(P_GEO_NGA_DESIGNATION_LIST);
             locationNode.removeProperty(P_GEO_COUNTRY_LIST);
             locationNode.removeProperty(P_GEO_SOURCE_LIST);
+            mutated(1);
             return;
         }
 
@@ -702,6 +943,7 @@ public class VizLincDB {
         locationNode.setProperty(P_GEO_NGA_DESIGNATION_LIST, ngaDesignationArray);
         locationNode.setProperty(P_GEO_COUNTRY_LIST, countryArray);
         locationNode.setProperty(P_GEO_SOURCE_LIST, sourceArray);
+        mutated(1);
     }
 
     /**
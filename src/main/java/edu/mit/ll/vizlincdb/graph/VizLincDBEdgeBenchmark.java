@@ -0,0 +1,120 @@
+package edu.mit.ll.vizlincdb.graph;
+
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
+import edu.mit.ll.vizlincdb.graph.VizLincDB.Implementation;
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-call latency of VizLincDB.outEdgeExists and edgeExists on star-shaped graphs, where one document (the hub) has
+ * many mentions (the leaves), in each Implementation, against the Gremlin pipelines they used to be.
+ */
+public class VizLincDBEdgeBenchmark {
+
+    private static final int CALLS = 10000;
+
+    private interface Check {
+        boolean call(int i);
+    }
+
+    private static void time(String label, int calls, Check check) {
+        // Warm up first.
+        for (int i = 0; i < calls / 10; i++) {
+            check.call(i);
+        }
+        ElapsedTime t = new ElapsedTime();
+        int found = 0;
+        for (int i = 0; i < calls; i++) {
+            if (check.call(i)) {
+                found++;
+            }
+        }
+        System.out.println(String.format("  %-44s %10.1f us/call (%d found)", label, t.secondsElapsed() * 1e6 / calls, found));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @param args optionally, the numbers of leaves of the stars to generate
+     */
+    public static void main(String[] args) throws IOException {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (String arg : args) {
+            sizes.add(Integer.parseInt(arg));
+        }
+        if (sizes.isEmpty()) {
+            Collections.addAll(sizes, 100, 10000, 100000);
+        }
+
+        File root = Files.createTempDirectory("vizlinc-stars").toFile();
+        try {
+            for (Implementation impl : Implementation.values()) {
+                for (final int leafCount : sizes) {
+                    System.out.println(impl + ", " + leafCount + " leaves:");
+                    final VizLincDB db = new VizLincDB(new File(root, "star" + leafCount + "." + impl.tags[0]).getPath(), true, impl);
+                    final Vertex hub = db.newDocument("hub", "hub", "hub");
+                    final List<Vertex> leaves = new ArrayList<Vertex>();
+                    for (int m = 0; m < leafCount; m++) {
+                        leaves.add(db.newMention(hub, "PERSON", "leaf" + m, m, null, 0, 4));
+                    }
+                    // A leaf of another document, for checks that fail.
+                    final Vertex other = db.newMention(db.newDocument("other", "other", "other"), "PERSON", "other", 0, null, 0, 5);
+                    db.commit();
+
+                    // The old pipelines walk every edge of the hub, so make fewer calls.
+                    int pipelineCalls = Math.max(10, Math.min(CALLS, 10000000 / leafCount));
+                    time("pipeline outE(hub -> leaf)", pipelineCalls, new Check() {
+                        @Override
+                        public boolean call(int i) {
+                            return new GremlinPipeline(hub).outE(L_DOCUMENT_TO_MENTION).inV()
+                                    .retain(Collections.singletonList(leaves.get(i % leafCount))).hasNext();
+                        }
+                    });
+                    time("outEdgeExists(hub -> leaf)", CALLS, new Check() {
+                        @Override
+                        public boolean call(int i) {
+                            return db.outEdgeExists(hub, leaves.get(i % leafCount), L_DOCUMENT_TO_MENTION);
+                        }
+                    });
+                    time("pipeline bothE(hub, other)", pipelineCalls, new Check() {
+                        @Override
+                        public boolean call(int i) {
+                            return new GremlinPipeline(hub).bothE(L_DOCUMENT_TO_MENTION).bothV()
+                                    .retain(Collections.singletonList(other)).hasNext();
+                        }
+                    });
+                    time("edgeExists(hub, other)", CALLS, new Check() {
+                        @Override
+                        public boolean call(int i) {
+                            return db.edgeExists(hub, other, L_DOCUMENT_TO_MENTION);
+                        }
+                    });
+                    time("edgeExists(leaf, hub)", CALLS, new Check() {
+                        @Override
+                        public boolean call(int i) {
+                            return db.edgeExists(leaves.get(i % leafCount), hub, L_DOCUMENT_TO_MENTION);
+                        }
+                    });
+                    db.shutdown();
+                }
+            }
+        } finally {
+            delete(root);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package edu.mit.ll.vizlincdb.graph;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import edu.mit.ll.vizlincdb.util.AutoCommitter;
+import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk loader for the entities of a VizLincDB, for entity linking runs that create many entities. Does what
+ * VizLincDB.newEntity and connectEntityToMentionsAndDocuments do, but:
+ * <ul>
+ * <li>commits every commitSize new vertices and edges, instead of leaving it all to one transaction or committing
+ * each entity;</li>
+ * <li>finds the document of each mention in a cache of mention ids to document ids, filled as mentions are seen or
+ * all at once by cacheMentionDocuments(), instead of running a Gremlin pipeline per entity;</li>
+ * <li>takes mentions by id as well as by Vertex.</li>
+ * </ul>
+ *
+ * The graph is otherwise used directly, so what is loaded can be read back right away. Not thread-safe. Use it like
+ * this:
+ * <pre>
+ *   VizLincDBEntityLoader loader = db.newEntityLoader();
+ *   try {
+ *       loader.newEntity(...);
+ *       ...
+ *   } finally {
+ *       loader.close();
+ *   }
+ * </pre>
+ */
+public class VizLincDBEntityLoader implements AutoCloseable {
+
+    public static final int DEFAULT_COMMIT_SIZE = 10000;
+
+    private final VizLincDB db;
+    private final int commitSize;
+    private final Map<Object, Object> documentIdForMentionId = new HashMap<Object, Object>();
+    private final AutoCommitter committer;
+    private long entitiesLoaded = 0;
+    private long edgesLoaded = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a loader with the default commit size.
+     *
+     * @param db
+     */
+    public VizLincDBEntityLoader(VizLincDB db) {
+        this(db, DEFAULT_COMMIT_SIZE);
+    }
+
+    /**
+     * Create a loader.
+     *
+     * @param db
+     * @param commitSize number of new vertices and edges per transaction
+     */
+    public VizLincDBEntityLoader(VizLincDB db, int commitSize) {
+        if (commitSize < 1) {
+            throw new IllegalArgumentException("commitSize must be positive");
+        }
+        this.db = db;
+        this.commitSize = commitSize;
+        this.committer = new AutoCommitter(new AutoCommitter.Committable() {
+            @Override
+            public void commit() {
+                VizLincDBEntityLoader.this.db.commit();
+            }
+        }, commitSize, 0);
+    }
+
+    /**
+     * Cache the document of every mention in the graph, in one pass over the documents, so that no mention's document
+     * needs looking up one at a time later.
+     *
+     * @return the number of mentions cached
+     */
+    public int cacheMentionDocuments() {
+        for (Vertex documentNode : db.getDocuments()) {
+            Object documentId = documentNode.getId();
+            for (Vertex mentionNode : documentNode.getVertices(Direction.OUT, L_DOCUMENT_TO_MENTION)) {
+                documentIdForMentionId.put(mentionNode.getId(), documentId);
+            }
+        }
+        return documentIdForMentionId.size();
+    }
+
+    /**
+     * Create a new named entity node and connect it to existing mention nodes and their documents, as
+     * VizLincDB.newEntity does.
+     *
+     * @param mentionNodes the mention nodes that refer to this entity
+     * @param type the entity type: PERSON, LOCATION, etc.
+     * @param text the canonical text for this entity
+     * @param createdBy a String designating by what algorithm, when, etc. this entity was created
+     * @return the new entity node
+     */
+    public Vertex newEntity(Iterable<Vertex> mentionNodes, String type, String text, String createdBy) {
+        Vertex entityNode = newEntity(type, text, createdBy);
+        connectEntityToMentionsAndDocuments(entityNode, mentionNodes);
+        return entityNode;
+    }
+
+    /**
+     * Create a new named entity node and connect it to the mention nodes with the given ids and their documents.
+     *
+     * @param mentionIds ids of the mention nodes that refer to this entity
+     * @param type the entity type: PERSON, LOCATION, etc.
+     * @param text the canonical text for this entity
+     * @param createdBy a String designating by what algorithm, when, etc. this entity was created
+     * @return the new entity node
+     * @throws IllegalArgumentException if there is no node with one of the ids
+     */
+    public Vertex newEntityForMentionIds(Iterable<?> mentionIds, String type, String text, String createdBy) {
+        Vertex entityNode = newEntity(type, text, createdBy);
+        Set<Object> documentIds = new LinkedHashSet<Object>();
+        for (Object mentionId : mentionIds) {
+            Vertex mentionNode = db.getNodeWithId(mentionId);
+            if (mentionNode == null) {
+                throw new IllegalArgumentException("No mention node with id " + mentionId);
+            }
+            documentIds.add(getDocumentIdForMention(mentionNode));
+            addEdge(mentionNode, entityNode, L_MENTION_TO_ENTITY);
+        }
+        connectEntityToDocuments(entityNode, documentIds);
+        return entityNode;
+    }
+
+    /**
+     * Create a new named entity node, unconnected to anything.
+     */
+    public Vertex newEntity(String type, String text, String createdBy) {
+        checkOpen();
+        Vertex entityNode = db.newEntity(type, text, createdBy);
+        entitiesLoaded++;
+        committer.mutated();
+        return entityNode;
+    }
+
+    /**
+     * Connect an entity to the given mentions and, once each, to their documents, as
+     * VizLincDB.connectEntityToMentionsAndDocuments does.
+     *
+     * @param entityNode the named entity
+     * @param mentionNodes the mentions that correspond to the entity
+     */
+    public void connectEntityToMentionsAndDocuments(Vertex entityNode, Iterable<Vertex> mentionNodes) {
+        checkOpen();
+        Set<Object> documentIds = new LinkedHashSet<Object>();
+        for (Vertex mentionNode : mentionNodes) {
+            documentIds.add(getDocumentIdForMention(mentionNode));
+            addEdge(mentionNode, entityNode, L_MENTION_TO_ENTITY);
+        }
+        connectEntityToDocuments(entityNode, documentIds);
+    }
+
+    private void connectEntityToDocuments(Vertex entityNode, Set<Object> documentIds) {
+        for (Object documentId : documentIds) {
+            addEdge(db.getNodeWithId(documentId), entityNode, L_DOCUMENT_TO_ENTITY);
+        }
+    }
+
+    /**
+     * Return the id of the document in which a mention occurs, from the cache if it is there.
+     *
+     * @throws IllegalArgumentException if the mention is not connected to exactly one document
+     */
+    private Object getDocumentIdForMention(Vertex mentionNode) {
+        Object mentionId = mentionNode.getId();
+        Object documentId = documentIdForMentionId.get(mentionId);
+        if (documentId == null) {
+            try {
+                documentId = db.getDocumentForMention(mentionNode).getId();
+            } catch (VizLincDBException ex) {
+                throw new IllegalArgumentException("Mention " + mentionId + ": " + ex.getMessage(), ex);
+            }
+            documentIdForMentionId.put(mentionId, documentId);
+        }
+        return documentId;
+    }
+
+    private Edge addEdge(Vertex outNode, Vertex inNode, String label) {
+        Edge edge = db.addEdge(outNode, inNode, label);
+        edgesLoaded++;
+        committer.mutated();
+        return edge;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("loader is closed");
+        }
+    }
+
+    /**
+     * Commit what has been loaded so far.
+     */
+    public void commit() {
+        committer.commit();
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * Number of mentions whose documents are cached.
+     */
+    public int getCachedMentionCount() {
+        return documentIdForMentionId.size();
+    }
+
+    public long getEntitiesLoaded() {
+        return entitiesLoaded;
+    }
+
+    public long getEdgesLoaded() {
+        return edgesLoaded;
+    }
+
+    /**
+     * Return the counts of commits, their latency and the loading rate.
+     */
+    public AutoCommitter getCommitter() {
+        return committer;
+    }
+
+    /**
+     * Commit, and drop the cache.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        commit();
+        closed = true;
+        documentIdForMentionId.clear();
+    }
+}
@@ -150,6 +150,7 @@ public class VizLincGraphPopulator {
         }
         mentionNode.setProperty(P_MENTION_TEXT_START, begin);
         mentionNode.setProperty(P_MENTION_TEXT_STOP, end);
+        mentionNode.setProperty(P_MENTION_DOCUMENT_ID, documentNode.getId());
 
         batchGraph.addEdge(null, documentNode, mentionNode, VizLincProperties.L_DOCUMENT_TO_MENTION);
 
@@ -0,0 +1,376 @@
+package edu.mit.ll.vizlincdb.io;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import edu.mit.ll.vizlincdb.graph.VizLincDB;
+import edu.mit.ll.vizlincdb.relational.VizLincRDB;
+import edu.mit.ll.vizlincdb.relational.VizLincRDBLoader;
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * Copy a VizLinc graph database into a new VizLincRDB, e.g. to rebuild the relational copy after entity resolution.
+ *
+ * Entities are copied first, with their geolocations and their document and mention counts, and then documents, each
+ * with its mentions and its per-entity mention counts (the document_entity table). Elements get new integer ids,
+ * numbered from 1 in each table; the graph's own ids are not kept.
+ *
+ * Each pass reads the graph with several producer threads, which turn vertices into rows and hand them through a
+ * bounded queue to the calling thread. That thread alone writes, through a VizLincRDBLoader, so the inserts are
+ * batched and the loader need not be thread-safe. Progress and throughput are printed every reportInterval seconds.
+ */
+public class VizLincGraphToRDBConverter {
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final float DEFAULT_REPORT_INTERVAL = 10.0f;
+
+    // Number of converted vertices that may wait to be written.
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private final VizLincDB graphDB;
+    private final VizLincRDB rdb;
+    private final int threads;
+    private final int batchSize;
+    private float reportInterval = DEFAULT_REPORT_INTERVAL;
+
+    // Graph vertex id to relational entity id.
+    private final ConcurrentMap<Object, Integer> entityIds = new ConcurrentHashMap<Object, Integer>();
+    private final AtomicInteger nextEntityId = new AtomicInteger(1);
+    private final AtomicInteger nextDocumentId = new AtomicInteger(1);
+    private final AtomicInteger nextMentionId = new AtomicInteger(1);
+
+    // Written only by the loading thread.
+    private int documentCount = 0;
+    private int entityCount = 0;
+    private int mentionCount = 0;
+    private int skippedEntityCount = 0;
+    private VizLincRDBLoader loader;
+    private final ElapsedTime elapsed = new ElapsedTime();
+    private float lastReport = 0.0f;
+
+    /**
+     * @param graphDB the graph to copy
+     * @param rdb a new, empty relational database
+     * @param threads number of producer threads reading the graph
+     * @param batchSize number of rows of one table inserted at once
+     */
+    public VizLincGraphToRDBConverter(VizLincDB graphDB, VizLincRDB rdb, int threads, int batchSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.graphDB = graphDB;
+        this.rdb = rdb;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set how often progress is printed.
+     *
+     * @param reportInterval seconds between progress reports
+     */
+    public void setReportInterval(float reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Copy everything. May be called only once.
+     */
+    public void convert() throws SQLException {
+        elapsed.reset();
+        loader = rdb.newLoader(batchSize, VizLincRDBLoader.DEFAULT_COMMIT_SIZE, true);
+        try {
+            stream(graphDB.getEntities(), new Converter() {
+                @Override
+                public Rows convert(Vertex entityNode) {
+                    return convertEntity(entityNode);
+                }
+            });
+            stream(graphDB.getDocuments(), new Converter() {
+                @Override
+                public Rows convert(Vertex documentNode) {
+                    return convertDocument(documentNode);
+                }
+            });
+        } finally {
+            loader.close();
+        }
+        report("done");
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public int getMentionCount() {
+        return mentionCount;
+    }
+
+    /**
+     * Return the number of entities that could not be copied because their type is not a known entity type. Their
+     * mentions are copied without an entity.
+     *
+     * @return number of entities skipped
+     */
+    public int getSkippedEntityCount() {
+        return skippedEntityCount;
+    }
+
+    public long getRowsLoaded() {
+        return loader == null ? 0 : loader.getRowsLoaded();
+    }
+
+    /**
+     * The rows made from one vertex, ready to be written.
+     */
+    private interface Rows {
+        void load() throws SQLException;
+    }
+
+    private interface Converter {
+        /** Return the rows for a vertex, or null if there are none. Called concurrently. */
+        Rows convert(Vertex v);
+    }
+
+    // Marks the end of one producer's output.
+    private static final Rows END = new Rows() {
+        @Override
+        public void load() {
+        }
+    };
+
+    /**
+     * Convert the vertices on the producer threads and load the rows on this one.
+     */
+    private void stream(Iterable<Vertex> vertices, final Converter converter) throws SQLException {
+        final Iterator<Vertex> iterator = vertices.iterator();
+        final BlockingQueue<Rows> queue = new ArrayBlockingQueue<Rows>(QUEUE_CAPACITY);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> producers = new ArrayList<Future<Void>>(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                producers.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        try {
+                            while (true) {
+                                Vertex v;
+                                synchronized (iterator) {
+                                    if (!iterator.hasNext()) {
+                                        break;
+                                    }
+                                    v = iterator.next();
+                                }
+                                Rows rows = converter.convert(v);
+                                if (rows != null) {
+                                    queue.put(rows);
+                                }
+                            }
+                        } finally {
+                            queue.put(END);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            int finished = 0;
+            while (finished < threads) {
+                Rows rows = queue.take();
+                if (rows == END) {
+                    finished++;
+                } else {
+                    rows.load();
+                    if (elapsed.secondsElapsed() - lastReport >= reportInterval) {
+                        report("progress");
+                    }
+                }
+            }
+            for (Future<Void> producer : producers) {
+                producer.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while converting graph");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to convert graph: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void report(String label) {
+        float seconds = elapsed.secondsElapsed();
+        lastReport = seconds;
+        System.out.println(String.format("%s: %d entities, %d documents, %d mentions, %d rows in %.1f s (%.0f rows/s)",
+                                         label, entityCount, documentCount, mentionCount, getRowsLoaded(), seconds,
+                                         seconds > 0 ? getRowsLoaded() / seconds : 0.0));
+    }
+
+    private Rows convertEntity(Vertex entityNode) {
+        String type = (String) entityNode.getProperty(P_ENTITY_TYPE);
+        final int entityId = nextEntityId.getAndIncrement();
+        final Entity entity;
+        try {
+            entity = Entity.create(type, (String) entityNode.getProperty(P_ENTITY_TEXT),
+                                   VizLincDB.makeSet(graphDB.getDocumentsForEntity(entityNode)).size(),
+                                   VizLincDB.count(graphDB.getMentionsForEntity(entityNode)),
+                                   (String) entityNode.getProperty(P_CREATED_BY), entityId);
+        } catch (IllegalArgumentException ex) {
+            return new Rows() {
+                @Override
+                public void load() {
+                    skippedEntityCount++;
+                }
+            };
+        }
+        // Record the id before the rows are queued, so it is known before any documents are converted.
+        entityIds.put(entityNode.getId(), entityId);
+        final GeoLocation[] geoLocations = graphDB.getGeoLocations(entityNode);
+        return new Rows() {
+            @Override
+            public void load() throws SQLException {
+                loader.addEntity(entity);
+                if (geoLocations != null) {
+                    for (int rank = 0; rank < geoLocations.length; rank++) {
+                        loader.addGeoLocation(entityId, rank, geoLocations[rank]);
+                    }
+                }
+                entityCount++;
+            }
+        };
+    }
+
+    private static class MentionRow {
+        int mentionId;
+        Integer entityId;
+        String type;
+        String text;
+        int index;
+        Integer globalId;
+        int textStart;
+        int textStop;
+    }
+
+    private Rows convertDocument(Vertex documentNode) {
+        final int documentId = nextDocumentId.getAndIncrement();
+        final String name = (String) documentNode.getProperty(P_DOCUMENT_NAME);
+        final String path = (String) documentNode.getProperty(P_DOCUMENT_PATH);
+        final String text = graphDB.getDocumentText(documentNode);
+        final List<MentionRow> mentions = new ArrayList<MentionRow>();
+        final Map<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
+        for (Vertex mentionNode : graphDB.getMentionsInDocument(documentNode)) {
+            MentionRow mention = new MentionRow();
+            mention.mentionId = nextMentionId.getAndIncrement();
+            Iterator<Vertex> entityNodes = mentionNode.getVertices(Direction.OUT, L_MENTION_TO_ENTITY).iterator();
+            mention.entityId = entityNodes.hasNext() ? entityIds.get(entityNodes.next().getId()) : null;
+            mention.type = (String) mentionNode.getProperty(P_MENTION_TYPE);
+            mention.text = (String) mentionNode.getProperty(P_MENTION_TEXT);
+            mention.index = intProperty(mentionNode, P_MENTION_INDEX);
+            mention.globalId = (Integer) mentionNode.getProperty(P_MENTION_GLOBAL_ID);
+            mention.textStart = intProperty(mentionNode, P_MENTION_TEXT_START);
+            mention.textStop = intProperty(mentionNode, P_MENTION_TEXT_STOP);
+            mentions.add(mention);
+            if (mention.entityId != null) {
+                Integer count = entityIdToMentionCount.get(mention.entityId);
+                entityIdToMentionCount.put(mention.entityId, count == null ? 1 : count + 1);
+            }
+        }
+        return new Rows() {
+            @Override
+            public void load() throws SQLException {
+                loader.addDocument(documentId, name, path, text);
+                for (MentionRow mention : mentions) {
+                    loader.addMention(mention.mentionId, documentId, mention.entityId, mention.type, mention.text,
+                                      mention.index, mention.globalId, mention.textStart, mention.textStop);
+                }
+                for (Map.Entry<Integer, Integer> entry : entityIdToMentionCount.entrySet()) {
+                    loader.addDocumentEntity(documentId, entry.getKey(), entry.getValue());
+                }
+                documentCount++;
+                mentionCount += mentions.size();
+            }
+        };
+    }
+
+    /** Return an int property, or 0 if it is missing. */
+    private static int intProperty(Vertex v, String key) {
+        Object value = v.getProperty(key);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public static void main(String[] args) {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        Option graph_option = new Option("g", "graph", true, "graph database directory to read");
+        graph_option.setRequired(true);
+        options.addOption(graph_option);
+        Option database_option = new Option("d", "database", true, "relational database directory to create");
+        database_option.setRequired(true);
+        options.addOption(database_option);
+        options.addOption("t", "threads", true, "number of threads reading the graph (default: number of processors)");
+        options.addOption("b", "batch-size", true, "number of rows inserted at once (default: " + VizLincRDBLoader.DEFAULT_BATCH_SIZE + ")");
+
+        VizLincDB graphDB = null;
+        VizLincRDB rdb = null;
+        try {
+            CommandLine line = parser.parse(options, args);
+            int threads = Integer.parseInt(line.getOptionValue("threads", Integer.toString(DEFAULT_THREADS)));
+            int batchSize = Integer.parseInt(line.getOptionValue("batch-size", Integer.toString(VizLincRDBLoader.DEFAULT_BATCH_SIZE)));
+            graphDB = new VizLincDB(line.getOptionValue("graph"));
+            rdb = new VizLincRDB(line.getOptionValue("database"), true);
+            VizLincGraphToRDBConverter converter = new VizLincGraphToRDBConverter(graphDB, rdb, threads, batchSize);
+            converter.convert();
+            System.out.println(String.format("Converted %d entities", converter.getEntityCount()));
+            System.out.println(String.format("Converted %d documents", converter.getDocumentCount()));
+            System.out.println(String.format("Converted %d mentions", converter.getMentionCount()));
+            if (converter.getSkippedEntityCount() > 0) {
+                System.err.println(String.format("Skipped %d entities of unknown type", converter.getSkippedEntityCount()));
+            }
+        } catch (org.apache.commons.cli.ParseException ex) {
+            System.err.println(ex.getMessage());
+        } catch (NumberFormatException ex) {
+            System.err.println("ERROR: bad number: " + ex.getMessage());
+        } catch (SQLException ex) {
+            System.err.println(ex.getMessage());
+        } finally {
+            if (rdb != null) {
+                try {
+                    rdb.shutdown();
+                } catch (SQLException ex) {
+                    System.err.println(ex.getMessage());
+                }
+            }
+            if (graphDB != null) {
+                graphDB.shutdown();
+            }
+        }
+    }
+}
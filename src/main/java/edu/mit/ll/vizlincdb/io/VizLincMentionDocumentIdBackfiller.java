@@ -0,0 +1,43 @@
+package edu.mit.ll.vizlincdb.io;
+
+import edu.mit.ll.vizlincdb.graph.VizLincDB;
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * Add the P_MENTION_DOCUMENT_ID property to the mentions of an existing graph database made before the property was
+ * added, so that VizLincDB finds the document of a mention without walking its edges.
+ */
+public class VizLincMentionDocumentIdBackfiller {
+
+    private static final int COMMIT_SIZE = 10000;
+
+    public static void main(String[] args) {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+        Option database_option = new Option("d", "database", true, "graph database directory");
+        database_option.setRequired(true);
+        options.addOption(database_option);
+
+        VizLincDB db = null;
+        try {
+            CommandLine line = parser.parse(options, args);
+            db = new VizLincDB(line.getOptionValue("database"));
+            db.setAutoCommit(COMMIT_SIZE, 0);
+            ElapsedTime t = new ElapsedTime();
+            int changed = db.backfillMentionDocumentIds();
+            db.commit();
+            System.out.println(String.format("Set the document id of %d mentions in %.2f s", changed, t.secondsElapsed()));
+        } catch (org.apache.commons.cli.ParseException ex) {
+            System.err.println(ex.getMessage());
+        } finally {
+            if (db != null) {
+                db.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,657 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A single file holding a set of named columns (int, short, double, or string), laid out so that it can be memory
+ * mapped and queried in place. Several JVMs opening the same snapshot share its pages through the OS page cache.
+ *
+ * File layout (all values little-endian):
+ * <pre>
+ *   int magic, int formatVersion, int contentVersion, int sectionCount
+ *   sectionCount * (short nameLength, byte[] utf8Name, byte encoding, long offset, long length, long rawLength, int crc32)
+ *   int headerCrc32
+ *   sections, each starting on an 8-byte boundary
+ * </pre>
+ * formatVersion describes this layout; contentVersion is chosen by the caller to describe what the sections mean.
+ * A string column named "x" is stored as two sections: "x.lengths" (int, -1 for null) and "x.utf8".
+ *
+ * Numeric sections are always stored raw, so that they can be used in place. String data (".utf8" sections) is only
+ * ever decoded into a List, so it is deflated when that makes it smaller, and inflated the first time it is read.
+ * Each section's crc32 is of its stored bytes, and is checked the first time the section is read, so that opening a
+ * snapshot and using part of it reads only that part of the file. verify() checks all the sections at once.
+ *
+ * A snapshot file is written to a temporary file in the same directory, forced to disk, and then renamed into place,
+ * and the directory is forced to disk too where the platform allows it, so a crash leaves either the old file or the
+ * new one, never a partial file. Processes that have the old file mapped keep their mappings.
+ *
+ * A snapshot that is rewritten while it is mapped, as VizLincRDBMem does, is kept as a series of generations,
+ * baseName.1, baseName.2, ..., with writeGeneration(): each new generation gets a name of its own rather than replacing
+ * the mapped file, which Windows does not allow, and the older generations are deleted where the platform allows it,
+ * or else the next time a generation is written.
+ */
+class ColumnarSnapshot {
+
+    static final int MAGIC = 0x534C5A56;  // "VZLS" when read as little-endian bytes.
+    static final int FORMAT_VERSION = 2;
+    static final byte RAW = 0;
+    static final byte DEFLATE = 1;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int contentVersion;
+    private final Map<String, ByteBuffer> sections;
+    private final Map<String, Integer> crcs;
+    // Uncompressed lengths of the deflated sections.
+    private final Map<String, Integer> rawLengths;
+    private final ConcurrentMap<String, ByteBuffer> inflated = new ConcurrentHashMap<String, ByteBuffer>();
+    // Sections whose stored bytes have been checked against their crc32.
+    private final Set<String> verified = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private ColumnarSnapshot(int contentVersion, Map<String, ByteBuffer> sections, Map<String, Integer> crcs, Map<String, Integer> rawLengths) {
+        this.contentVersion = contentVersion;
+        this.sections = sections;
+        this.crcs = crcs;
+        this.rawLengths = rawLengths;
+    }
+
+    /**
+     * Open and memory-map an existing snapshot file. Only the header is read and checked; the sections are mapped
+     * but not touched until they are read.
+     *
+     * @param file
+     * @param expectedContentVersion the snapshot is rejected if it was written with a different content version
+     * @return the snapshot
+     * @throws IOException if the file is missing, unreadable, corrupt, or of the wrong version
+     */
+    static ColumnarSnapshot open(File file, int expectedContentVersion) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileLength = channel.size();
+            ByteBuffer fixed = readFully(channel, 0, 16);
+            if (fixed.getInt() != MAGIC) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            int formatVersion = fixed.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot format version " + formatVersion + ": " + file);
+            }
+            int contentVersion = fixed.getInt();
+            if (contentVersion != expectedContentVersion) {
+                throw new IOException("snapshot content version " + contentVersion + ", expected " + expectedContentVersion + ": " + file);
+            }
+            int sectionCount = fixed.getInt();
+
+            // The table of contents is variable length, so read generously and parse.
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(fixed.array(), 0, 16);
+            long position = 16;
+            Map<String, ByteBuffer> sections = new LinkedHashMap<String, ByteBuffer>();
+            Map<String, Integer> crcs = new LinkedHashMap<String, Integer>();
+            Map<String, Integer> rawLengths = new HashMap<String, Integer>();
+            for (int i = 0; i < sectionCount; i++) {
+                ByteBuffer nameLength = readFully(channel, position, 2);
+                int n = nameLength.getShort();
+                ByteBuffer entry = readFully(channel, position + 2, n + ENTRY_LENGTH);
+                headerCrc.update(nameLength.array(), 0, 2);
+                headerCrc.update(entry.array(), 0, n + ENTRY_LENGTH);
+                position += 2 + n + ENTRY_LENGTH;
+
+                byte[] nameBytes = new byte[n];
+                entry.get(nameBytes);
+                String name = new String(nameBytes, UTF8);
+                byte encoding = entry.get();
+                long offset = entry.getLong();
+                long length = entry.getLong();
+                long rawLength = entry.getLong();
+                int crc = entry.getInt();
+                if (offset < 0 || length < 0 || offset + length > fileLength || length > Integer.MAX_VALUE) {
+                    throw new IOException("snapshot section " + name + " is out of bounds (truncated file?): " + file);
+                }
+                if (encoding == DEFLATE) {
+                    if (rawLength < 0 || rawLength > Integer.MAX_VALUE) {
+                        throw new IOException("snapshot section " + name + " has a bad length: " + file);
+                    }
+                    rawLengths.put(name, (int) rawLength);
+                } else if (encoding != RAW) {
+                    throw new IOException("snapshot section " + name + " has unknown encoding " + encoding + ": " + file);
+                }
+                sections.put(name, channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ORDER));
+                crcs.put(name, crc);
+            }
+            int storedHeaderCrc = readFully(channel, position, 4).getInt();
+            if (storedHeaderCrc != (int) headerCrc.getValue()) {
+                throw new IOException("snapshot header checksum mismatch: " + file);
+            }
+            return new ColumnarSnapshot(contentVersion, sections, crcs, rawLengths);
+        } finally {
+            // The mappings stay valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Return the generations of a snapshot in a directory, newest first: the files named baseName.n for a number n,
+     * and a file named baseName itself, which counts as the oldest.
+     *
+     * @param directory
+     * @param baseName
+     * @return the files, which may be empty
+     */
+    static List<File> generations(File directory, final String baseName) {
+        List<File> files = new ArrayList<File>();
+        File[] candidates = directory.listFiles();
+        if (candidates != null) {
+            for (File file : candidates) {
+                if (generation(file, baseName) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(generation(b, baseName), generation(a, baseName));
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Return the generation number of a snapshot file: n for baseName.n, 0 for baseName, and -1 for anything else.
+     */
+    private static long generation(File file, String baseName) {
+        String name = file.getName();
+        if (name.equals(baseName)) {
+            return 0;
+        }
+        if (!name.startsWith(baseName + ".")) {
+            return -1;
+        }
+        String suffix = name.substring(baseName.length() + 1);
+        if (suffix.isEmpty() || suffix.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(suffix);
+    }
+
+    /**
+     * Force a directory's entries to disk, so that a file just renamed into it survives a crash. Some platforms
+     * (Windows among them) cannot open a directory, and there this is left to the file system.
+     */
+    private static void syncDirectory(File directory) {
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            // Not supported here.
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of snapshot file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Length of a table of contents entry, not counting the name and its length.
+    private static final int ENTRY_LENGTH = 1 + 8 + 8 + 8 + 4;
+
+    /**
+     * Check every section not yet read against its stored checksum. This reads the whole file, which is worth doing
+     * up front only if all of it is going to be read anyway.
+     *
+     * @throws IOException naming the first bad section
+     */
+    void verify() throws IOException {
+        for (String name : sections.keySet()) {
+            if (!isVerified(name)) {
+                throw new IOException("snapshot checksum mismatch in section " + name);
+            }
+        }
+    }
+
+    /**
+     * Return true if a section's stored bytes match its checksum, checking them if that hasn't been done yet.
+     */
+    private boolean isVerified(String name) {
+        if (verified.contains(name)) {
+            return true;
+        }
+        if (crc32(sections.get(name)) != crcs.get(name)) {
+            return false;
+        }
+        verified.add(name);
+        return true;
+    }
+
+    int getContentVersion() {
+        return contentVersion;
+    }
+
+    boolean has(String name) {
+        return sections.containsKey(name);
+    }
+
+    /** Return the names of the sections that start with prefix, in file order. */
+    List<String> names(String prefix) {
+        List<String> names = new ArrayList<String>();
+        for (String name : sections.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Return the raw (uncompressed) bytes of a section, positioned at 0.
+     *
+     * @throws IllegalStateException if this is the first read of the section, and it doesn't match its checksum
+     */
+    ByteBuffer bytes(String name) {
+        ByteBuffer section = sections.get(name);
+        if (section == null) {
+            throw new IllegalArgumentException("no such snapshot section: " + name);
+        }
+        if (!isVerified(name)) {
+            throw new IllegalStateException("snapshot checksum mismatch in section " + name);
+        }
+        Integer rawLength = rawLengths.get(name);
+        if (rawLength != null) {
+            section = inflated.get(name);
+            if (section == null) {
+                section = inflate(name, rawLength);
+                ByteBuffer existing = inflated.putIfAbsent(name, section);
+                if (existing != null) {
+                    section = existing;
+                }
+            }
+        }
+        return section.duplicate().order(ORDER);
+    }
+
+    private ByteBuffer inflate(String name, int rawLength) {
+        ByteBuffer stored = sections.get(name).duplicate();
+        byte[] input = new byte[stored.remaining()];
+        stored.get(input);
+        byte[] output = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int inflatedBytes = inflater.inflate(output, n, rawLength - n);
+                if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflatedBytes;
+            }
+            if (n != rawLength) {
+                throw new IllegalStateException("snapshot section " + name + " inflated to " + n + " bytes, expected " + rawLength);
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("corrupt snapshot section " + name, ex);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(output).order(ORDER);
+    }
+
+    IntBuffer ints(String name) {
+        return bytes(name).asIntBuffer();
+    }
+
+    ShortBuffer shorts(String name) {
+        return bytes(name).asShortBuffer();
+    }
+
+    DoubleBuffer doubles(String name) {
+        return bytes(name).asDoubleBuffer();
+    }
+
+    /** Decode a string column into a List. */
+    List<String> strings(String name) {
+        IntBuffer lengths = ints(name + ".lengths");
+        ByteBuffer utf8 = bytes(name + ".utf8");
+        List<String> strings = new ArrayList<String>(lengths.remaining());
+        byte[] scratch = new byte[256];
+        while (lengths.hasRemaining()) {
+            int length = lengths.get();
+            if (length < 0) {
+                strings.add(null);
+            } else {
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, 2 * scratch.length)];
+                }
+                utf8.get(scratch, 0, length);
+                strings.add(new String(scratch, 0, length, UTF8));
+            }
+        }
+        return strings;
+    }
+
+    static int crc32(ByteBuffer section) {
+        ByteBuffer buffer = section.duplicate();
+        buffer.position(0);
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        } else {
+            byte[] chunk = new byte[64 * 1024];
+            while (buffer.hasRemaining()) {
+                int n = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Accumulates named columns in memory, then writes them out as a snapshot file or wraps them as an in-memory
+     * snapshot.
+     */
+    static class Writer {
+
+        private final int contentVersion;
+        private final Map<String, ByteBuffer> sections = new LinkedHashMap<String, ByteBuffer>();
+
+        Writer(int contentVersion) {
+            this.contentVersion = contentVersion;
+        }
+
+        Writer putBytes(String name, ByteBuffer bytes) {
+            ByteBuffer copy = ByteBuffer.allocate(bytes.remaining()).order(ORDER);
+            copy.put(bytes.duplicate());
+            copy.flip();
+            sections.put(name, copy);
+            return this;
+        }
+
+        /**
+         * Add all the sections of another writer, in its order.
+         */
+        Writer putAll(Writer other) {
+            sections.putAll(other.sections);
+            return this;
+        }
+
+        /**
+         * Copy the sections of a snapshot whose names start with prefix.
+         */
+        Writer putAll(ColumnarSnapshot snapshot, String prefix) {
+            for (String name : snapshot.names(prefix)) {
+                putBytes(name, snapshot.bytes(name));
+            }
+            return this;
+        }
+
+        Writer putInts(String name, int[] values, int size) {
+            return putInts(name, IntBuffer.wrap(values, 0, size));
+        }
+
+        Writer putInts(String name, IntBuffer values) {
+            ByteBuffer bytes = ByteBuffer.allocate(4 * values.remaining()).order(ORDER);
+            bytes.asIntBuffer().put(values.duplicate());
+            sections.put(name, bytes);
+            return this;
+        }
+
+        Writer putShorts(String name, short[] values, int size) {
+            return putShorts(name, ShortBuffer.wrap(values, 0, size));
+        }
+
+        Writer putShorts(String name, ShortBuffer values) {
+            ByteBuffer bytes = ByteBuffer.allocate(2 * values.remaining()).order(ORDER);
+            bytes.asShortBuffer().put(values.duplicate());
+            sections.put(name, bytes);
+            return this;
+        }
+
+        Writer putDoubles(String name, double[] values, int size) {
+            ByteBuffer bytes = ByteBuffer.allocate(8 * size).order(ORDER);
+            bytes.asDoubleBuffer().put(values, 0, size);
+            sections.put(name, bytes);
+            return this;
+        }
+
+        Writer putStrings(String name, List<String> values) {
+            int[] lengths = new int[values.size()];
+            List<byte[]> encoded = new ArrayList<byte[]>(values.size());
+            int total = 0;
+            int i = 0;
+            for (String value : values) {
+                byte[] bytes = value == null ? null : value.getBytes(UTF8);
+                encoded.add(bytes);
+                lengths[i++] = bytes == null ? -1 : bytes.length;
+                total += bytes == null ? 0 : bytes.length;
+            }
+            ByteBuffer utf8 = ByteBuffer.allocate(total).order(ORDER);
+            for (byte[] bytes : encoded) {
+                if (bytes != null) {
+                    utf8.put(bytes);
+                }
+            }
+            utf8.flip();
+            putInts(name + ".lengths", lengths, lengths.length);
+            sections.put(name + ".utf8", utf8);
+            return this;
+        }
+
+        /** Return the accumulated columns as a snapshot backed by heap memory. */
+        ColumnarSnapshot toSnapshot() {
+            Map<String, Integer> crcs = new LinkedHashMap<String, Integer>();
+            for (Map.Entry<String, ByteBuffer> entry : sections.entrySet()) {
+                crcs.put(entry.getKey(), crc32(entry.getValue()));
+            }
+            return new ColumnarSnapshot(contentVersion, sections, crcs, new HashMap<String, Integer>());
+        }
+
+        /**
+         * Write the accumulated columns to the given file, replacing it atomically if it exists. Platforms that do not
+         * allow a file to be replaced while it is mapped (Windows) need writeGeneration() instead.
+         */
+        void write(File file) throws IOException {
+            File directory = file.getAbsoluteFile().getParentFile();
+            File temp = writeTemp(directory, file.getName());
+            boolean moved = false;
+            try {
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+            } finally {
+                if (!moved) {
+                    temp.delete();
+                }
+            }
+            syncDirectory(directory);
+        }
+
+        /**
+         * Write the accumulated columns as a new generation of a snapshot, newer than any in the directory, then delete
+         * the older generations. An older generation that is still open or mapped somewhere may not be deletable
+         * (on Windows); it is left for the next call.
+         *
+         * @param directory
+         * @param baseName
+         * @return the file written
+         */
+        File writeGeneration(File directory, String baseName) throws IOException {
+            List<File> older = generations(directory, baseName);
+            long newest = older.isEmpty() ? 0 : generation(older.get(0), baseName);
+            File file = new File(directory, baseName + "." + (newest + 1));
+            File temp = writeTemp(directory, baseName);
+            boolean moved = false;
+            try {
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp.toPath(), file.toPath());
+                }
+                moved = true;
+            } finally {
+                if (!moved) {
+                    temp.delete();
+                }
+            }
+            syncDirectory(directory);
+            for (File old : older) {
+                old.delete();
+            }
+            return file;
+        }
+
+        /**
+         * Write the accumulated columns to a new temporary file in a directory, forced to disk, and return it.
+         */
+        private File writeTemp(File directory, String name) throws IOException {
+            // Compress first, so that the stored section lengths and offsets are known.
+            List<byte[]> names = new ArrayList<byte[]>(sections.size());
+            List<ByteBuffer> stored = new ArrayList<ByteBuffer>(sections.size());
+            List<Boolean> deflated = new ArrayList<Boolean>(sections.size());
+            int headerLength = 16 + 4;
+            for (Map.Entry<String, ByteBuffer> entry : sections.entrySet()) {
+                byte[] nameBytes = entry.getKey().getBytes(UTF8);
+                names.add(nameBytes);
+                headerLength += 2 + nameBytes.length + ENTRY_LENGTH;
+                ByteBuffer compressed = entry.getKey().endsWith(".utf8") ? deflate(entry.getValue()) : null;
+                stored.add(compressed != null ? compressed : entry.getValue());
+                deflated.add(compressed != null);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(ORDER);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(contentVersion).putInt(sections.size());
+            long offset = align(headerLength);
+            int i = 0;
+            for (ByteBuffer section : sections.values()) {
+                ByteBuffer data = stored.get(i);
+                byte[] nameBytes = names.get(i);
+                header.putShort((short) nameBytes.length).put(nameBytes).put(deflated.get(i) ? DEFLATE : RAW);
+                header.putLong(offset).putLong(data.limit()).putLong(section.limit()).putInt(crc32(data));
+                offset = align(offset + data.limit());
+                i++;
+            }
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(header.array(), 0, header.position());
+            header.putInt((int) headerCrc.getValue());
+            header.flip();
+
+            File temp = File.createTempFile(name + ".", ".tmp", directory);
+            boolean written = false;
+            try {
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    FileChannel channel = out.getChannel();
+                    writeFully(channel, header);
+                    for (ByteBuffer section : stored) {
+                        pad(channel);
+                        ByteBuffer data = section.duplicate();
+                        data.position(0);
+                        writeFully(channel, data);
+                    }
+                    channel.force(true);
+                } finally {
+                    out.close();
+                }
+                written = true;
+                return temp;
+            } finally {
+                if (!written) {
+                    temp.delete();
+                }
+            }
+        }
+
+        /**
+         * Return a section deflated, or null if deflating does not make it smaller.
+         */
+        private static ByteBuffer deflate(ByteBuffer section) {
+            ByteBuffer buffer = section.duplicate();
+            buffer.position(0);
+            byte[] input = new byte[buffer.remaining()];
+            buffer.get(input);
+            // Anything that doesn't fit in the space of the input isn't worth compressing.
+            byte[] output = new byte[input.length];
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(input);
+                deflater.finish();
+                int n = 0;
+                while (!deflater.finished() && n < output.length) {
+                    n += deflater.deflate(output, n, output.length - n);
+                }
+                if (!deflater.finished() || n >= input.length) {
+                    return null;
+                }
+                return ByteBuffer.wrap(output, 0, n).slice().order(ORDER);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+
+        private static void pad(FileChannel channel) throws IOException {
+            long position = channel.position();
+            int padding = (int) (align(position) - position);
+            if (padding > 0) {
+                writeFully(channel, ByteBuffer.allocate(padding));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A fixed number of connections to one database, each leased to one thread at a time. Connections are opened as
+ * they are first needed; when all are leased, acquire() waits for one to be released.
+ *
+ * Leases are reentrant: a thread that already holds a connection gets the same one again, so a VizLincRDB method may
+ * call another without taking a second connection. A lease may be closed on another thread than the one that took
+ * it, e.g. by a Reader handed over to another thread; it still ends the lease of the thread that took it.
+ *
+ * A pool can also be made around a single existing connection, to give one thread at a time the use of that
+ * connection and its cached statements. The existing connection is left open when the pool is closed.
+ */
+class ConnectionPool {
+
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private final String url;
+    private final SqlDialect dialect;
+    private final int size;
+    private final Connection sharedConnection;
+    private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<PooledConnection>();
+    private final List<PooledConnection> opened = new ArrayList<PooledConnection>();
+    // The connection leased to each thread, by thread rather than in a ThreadLocal, so that a lease can be ended from
+    // another thread.
+    private final Map<Thread, PooledConnection> leased = new ConcurrentHashMap<Thread, PooledConnection>();
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private boolean closed = false;
+
+    /**
+     * @param url JDBC URL
+     * @param dialect of the database at url
+     * @param size maximum number of connections
+     */
+    ConnectionPool(String url, SqlDialect dialect, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.url = url;
+        this.dialect = dialect;
+        this.size = size;
+        this.sharedConnection = null;
+    }
+
+    /**
+     * Make a pool of the one given connection.
+     *
+     * @param connection
+     * @param dialect of the connection's database
+     */
+    ConnectionPool(Connection connection, SqlDialect dialect) {
+        this.url = null;
+        this.dialect = dialect;
+        this.size = 1;
+        this.sharedConnection = connection;
+    }
+
+    SqlDialect getDialect() {
+        return dialect;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Set the maximum number of prepared statements kept by each connection. Takes effect at each connection's next
+     * prepareStatement().
+     *
+     * @param statementCacheSize 0 to prepare each statement afresh and close it with the lease
+     */
+    void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("statementCacheSize must not be negative");
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Lease a connection to the current thread. Close the lease to release it.
+     */
+    PooledConnection acquire() throws SQLException {
+        Thread thread = Thread.currentThread();
+        PooledConnection pc = leased.get(thread);
+        // The lease may have just been ended from another thread.
+        if (pc != null && pc.leaseAgain(thread)) {
+            return pc;
+        }
+        pc = idle.poll();
+        if (pc == null) {
+            pc = openOrWait();
+        }
+        pc.lease(thread);
+        leased.put(thread, pc);
+        return pc;
+    }
+
+    private PooledConnection openOrWait() throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+            if (opened.size() < size) {
+                Connection connection = sharedConnection;
+                if (connection == null) {
+                    connection = DriverManager.getConnection(url, dialect.user(), dialect.password());
+                    dialect.initConnection(connection);
+                }
+                PooledConnection pc = new PooledConnection(this, connection);
+                opened.add(pc);
+                return pc;
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection");
+        }
+    }
+
+    /**
+     * End one lease of a connection, on whichever thread. The connection goes back to the pool when the outermost
+     * lease of the thread that holds it ends.
+     */
+    void release(PooledConnection pc) throws SQLException {
+        Thread owner = pc.endLease();
+        if (owner == null) {
+            return;
+        }
+        leased.remove(owner);
+        try {
+            pc.closeLeaseStatements();
+        } finally {
+            boolean returned;
+            synchronized (this) {
+                returned = !closed && idle.add(pc);
+            }
+            if (!returned) {
+                pc.close(sharedConnection == null);
+            }
+        }
+    }
+
+    /**
+     * Return the statement cache statistics of all the connections, as {hits, misses, evictions}.
+     */
+    synchronized long[] statementCacheStats() {
+        long[] stats = new long[3];
+        for (PooledConnection pc : opened) {
+            stats[0] += pc.getStatementCache().getHits();
+            stats[1] += pc.getStatementCache().getMisses();
+            stats[2] += pc.getStatementCache().getEvictions();
+        }
+        return stats;
+    }
+
+    /**
+     * Close all the idle connections now, and the leased ones when they are released.
+     */
+    void close() throws SQLException {
+        List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            closed = true;
+            idle.drainTo(toClose);
+        }
+        for (PooledConnection pc : toClose) {
+            pc.close(sharedConnection == null);
+        }
+    }
+}
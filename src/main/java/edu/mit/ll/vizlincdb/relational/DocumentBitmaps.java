@@ -0,0 +1,195 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.util.IntArrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Boolean combinations (AND, OR, AND NOT) of the document sets of entities, computed as bitmap operations over
+ * document numbers. A document's number is its position in the sorted array of all document ids.
+ *
+ * Each entity's document set is kept in whichever form is smaller, in the manner of a roaring bitmap's containers:
+ * for an entity in at least 1/32 of the documents, a BitSet, built the first time it is used and then cached; for
+ * any other entity, its sorted postings in the DocumentEntityIndex, which are used as they are.
+ *
+ * Safe for concurrent use: cached BitSets are never modified after they are published.
+ */
+class DocumentBitmaps {
+
+    private final DocumentEntityIndex index;
+    private final int[] documentIds;
+    private final int denseDegree;
+    private final ConcurrentMap<Integer, BitSet> denseBitmaps = new ConcurrentHashMap<Integer, BitSet>();
+
+    /**
+     * @param index
+     * @param documentIds sorted, distinct ids of all documents, including any that mention no entities
+     */
+    DocumentBitmaps(DocumentEntityIndex index, int[] documentIds) {
+        this.index = index;
+        this.documentIds = documentIds;
+        this.denseDegree = Math.max(1, documentIds.length / 32);
+    }
+
+    /**
+     * Return the set of documents that mention all the entities in allOf, at least one entity in anyOf (unless
+     * anyOf is empty), and none of the entities in noneOf. If allOf and anyOf are both empty, start from all
+     * documents.
+     *
+     * @return a new BitSet of document numbers, which the caller may modify
+     */
+    BitSet matching(int[] allOf, int[] anyOf, int[] noneOf) {
+        // Intersect the smallest document sets first, so the result shrinks as fast as possible.
+        final int[] degrees = new int[allOf.length];
+        int[] order = new int[allOf.length];
+        for (int i = 0; i < allOf.length; i++) {
+            int row = index.entityRow(allOf[i]);
+            if (row < 0) {
+                return new BitSet(0);
+            }
+            degrees[i] = index.entityDegree(row);
+            order[i] = i;
+        }
+        IntArrays.sort(order, 0, order.length, new IntArrays.IntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return degrees[a] < degrees[b] ? -1 : (degrees[a] == degrees[b] ? 0 : 1);
+            }
+        });
+
+        BitSet result = null;
+        for (int i : order) {
+            result = and(result, allOf[i]);
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+        if (anyOf.length > 0) {
+            BitSet union = new BitSet(documentIds.length);
+            for (int entityId : anyOf) {
+                or(union, entityId);
+            }
+            if (result == null) {
+                result = union;
+            } else {
+                result.and(union);
+            }
+        }
+        if (result == null) {
+            result = new BitSet(documentIds.length);
+            result.set(0, documentIds.length);
+        }
+        for (int entityId : noneOf) {
+            if (result.isEmpty()) {
+                break;
+            }
+            andNot(result, entityId);
+        }
+        return result;
+    }
+
+    /**
+     * Return the document ids, in increasing order, of the documents in a BitSet returned by matching().
+     */
+    List<Integer> documentIds(BitSet documents) {
+        List<Integer> ids = new ArrayList<Integer>(documents.cardinality());
+        for (int d = documents.nextSetBit(0); d >= 0; d = documents.nextSetBit(d + 1)) {
+            ids.add(documentIds[d]);
+        }
+        return ids;
+    }
+
+    /**
+     * Intersect result with an entity's documents. A null result stands for all documents.
+     */
+    private BitSet and(BitSet result, int entityId) {
+        int row = index.entityRow(entityId);
+        if (row < 0) {
+            return new BitSet(0);
+        }
+        BitSet dense = denseBitmap(row, entityId);
+        if (dense != null) {
+            if (result == null) {
+                return (BitSet) dense.clone();
+            }
+            result.and(dense);
+            return result;
+        }
+        // Sparse: keep only the postings that are already in the result.
+        BitSet intersection = new BitSet(documentIds.length);
+        for (int k = index.entityPostingsFrom(row); k < index.entityPostingsTo(row); k++) {
+            int d = documentNumber(index.entityPostingDocumentId(k));
+            if (d >= 0 && (result == null || result.get(d))) {
+                intersection.set(d);
+            }
+        }
+        return intersection;
+    }
+
+    private void or(BitSet result, int entityId) {
+        int row = index.entityRow(entityId);
+        if (row < 0) {
+            return;
+        }
+        BitSet dense = denseBitmap(row, entityId);
+        if (dense != null) {
+            result.or(dense);
+            return;
+        }
+        for (int k = index.entityPostingsFrom(row); k < index.entityPostingsTo(row); k++) {
+            int d = documentNumber(index.entityPostingDocumentId(k));
+            if (d >= 0) {
+                result.set(d);
+            }
+        }
+    }
+
+    private void andNot(BitSet result, int entityId) {
+        int row = index.entityRow(entityId);
+        if (row < 0) {
+            return;
+        }
+        BitSet dense = denseBitmap(row, entityId);
+        if (dense != null) {
+            result.andNot(dense);
+            return;
+        }
+        for (int k = index.entityPostingsFrom(row); k < index.entityPostingsTo(row); k++) {
+            int d = documentNumber(index.entityPostingDocumentId(k));
+            if (d >= 0) {
+                result.clear(d);
+            }
+        }
+    }
+
+    /**
+     * Return the cached BitSet for a dense entity, building it if necessary, or null if the entity is sparse.
+     */
+    private BitSet denseBitmap(int row, int entityId) {
+        if (index.entityDegree(row) < denseDegree) {
+            return null;
+        }
+        BitSet bitmap = denseBitmaps.get(entityId);
+        if (bitmap == null) {
+            bitmap = new BitSet(documentIds.length);
+            for (int k = index.entityPostingsFrom(row); k < index.entityPostingsTo(row); k++) {
+                int d = documentNumber(index.entityPostingDocumentId(k));
+                if (d >= 0) {
+                    bitmap.set(d);
+                }
+            }
+            BitSet existing = denseBitmaps.putIfAbsent(entityId, bitmap);
+            if (existing != null) {
+                bitmap = existing;
+            }
+        }
+        return bitmap;
+    }
+
+    private int documentNumber(int documentId) {
+        return IntArrays.indexOf(documentIds, 0, documentIds.length, documentId);
+    }
+}
@@ -0,0 +1,304 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.util.IntArrays;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact bidirectional index of the document_entity table, kept entirely in primitive arrays.
+ *
+ * Each direction is stored in compressed sparse row (CSR) form: a sorted array of keys, an array of offsets (one
+ * more than the number of keys), and a postings array. The postings for key number k are in
+ * postings[offsets[k]..offsets[k+1]) and are sorted. The entity-to-document direction also has a mention count array
+ * parallel to its postings.
+ *
+ * Ids need not be dense; keys are looked up by binary search.
+ *
+ * The arrays are held as IntBuffers so that the index can be used in place from a memory-mapped ColumnarSnapshot
+ * as well as from heap arrays.
+ */
+class DocumentEntityIndex {
+
+    private IntBuffer entityIds;
+    private IntBuffer entityOffsets;
+    private IntBuffer entityDocumentIds;
+    private IntBuffer entityMentionCounts;
+
+    private IntBuffer documentIds;
+    private IntBuffer documentOffsets;
+    private IntBuffer documentEntityIds;
+
+    private DocumentEntityIndex() {
+    }
+
+    /**
+     * Build an index from parallel arrays of (document id, entity id, mention count) rows, in any order. Only the
+     * first size elements of each array are used. Each (document id, entity id) pair should occur only once.
+     */
+    static DocumentEntityIndex build(int[] rowDocumentIds, int[] rowEntityIds, int[] rowMentionCounts, int size) {
+        int[] documentIds = IntArrays.sortedDistinct(rowDocumentIds, size);
+        int[] entityIds = IntArrays.sortedDistinct(rowEntityIds, size);
+
+        int[] documentRows = new int[size];
+        int[] entityRows = new int[size];
+        for (int i = 0; i < size; i++) {
+            documentRows[i] = Arrays.binarySearch(documentIds, rowDocumentIds[i]);
+            entityRows[i] = Arrays.binarySearch(entityIds, rowEntityIds[i]);
+        }
+
+        // Two stable counting sorts give the rows in (entity, document) order; a third gives (document, entity) order.
+        int[] identity = new int[size];
+        for (int i = 0; i < size; i++) {
+            identity[i] = i;
+        }
+        int[] documentOffsets = new int[documentIds.length + 1];
+        int[] entityOffsets = new int[entityIds.length + 1];
+        int[] byDocument = countingSort(identity, documentRows, documentOffsets);
+        int[] byEntityThenDocument = countingSort(byDocument, entityRows, entityOffsets);
+        int[] byDocumentThenEntity = countingSort(byEntityThenDocument, documentRows, documentOffsets);
+
+        int[] entityDocumentIds = new int[size];
+        int[] entityMentionCounts = new int[size];
+        int[] documentEntityIds = new int[size];
+        for (int k = 0; k < size; k++) {
+            int row = byEntityThenDocument[k];
+            entityDocumentIds[k] = rowDocumentIds[row];
+            entityMentionCounts[k] = rowMentionCounts[row];
+            documentEntityIds[k] = rowEntityIds[byDocumentThenEntity[k]];
+        }
+
+        DocumentEntityIndex index = new DocumentEntityIndex();
+        index.entityIds = IntBuffer.wrap(entityIds);
+        index.entityOffsets = IntBuffer.wrap(entityOffsets);
+        index.entityDocumentIds = IntBuffer.wrap(entityDocumentIds);
+        index.entityMentionCounts = IntBuffer.wrap(entityMentionCounts);
+        index.documentIds = IntBuffer.wrap(documentIds);
+        index.documentOffsets = IntBuffer.wrap(documentOffsets);
+        index.documentEntityIds = IntBuffer.wrap(documentEntityIds);
+        return index;
+    }
+
+    /**
+     * Add this index's arrays to a snapshot, as sections whose names start with prefix.
+     */
+    void writeTo(ColumnarSnapshot.Writer writer, String prefix) {
+        writer.putInts(prefix + "entityIds", entityIds);
+        writer.putInts(prefix + "entityOffsets", entityOffsets);
+        writer.putInts(prefix + "entityDocumentIds", entityDocumentIds);
+        writer.putInts(prefix + "entityMentionCounts", entityMentionCounts);
+        writer.putInts(prefix + "documentIds", documentIds);
+        writer.putInts(prefix + "documentOffsets", documentOffsets);
+        writer.putInts(prefix + "documentEntityIds", documentEntityIds);
+    }
+
+    /**
+     * Return an index that reads directly from the sections of a snapshot written by writeTo(). Nothing is copied.
+     */
+    static DocumentEntityIndex readFrom(ColumnarSnapshot snapshot, String prefix) {
+        DocumentEntityIndex index = new DocumentEntityIndex();
+        index.entityIds = snapshot.ints(prefix + "entityIds");
+        index.entityOffsets = snapshot.ints(prefix + "entityOffsets");
+        index.entityDocumentIds = snapshot.ints(prefix + "entityDocumentIds");
+        index.entityMentionCounts = snapshot.ints(prefix + "entityMentionCounts");
+        index.documentIds = snapshot.ints(prefix + "documentIds");
+        index.documentOffsets = snapshot.ints(prefix + "documentOffsets");
+        index.documentEntityIds = snapshot.ints(prefix + "documentEntityIds");
+        return index;
+    }
+
+    /**
+     * Stably reorder order[] by keys[order[i]], where keys are dense in [0, offsets.length - 1). Fills in offsets as
+     * a side effect.
+     */
+    private static int[] countingSort(int[] order, int[] keys, int[] offsets) {
+        Arrays.fill(offsets, 0);
+        for (int row : order) {
+            offsets[keys[row] + 1]++;
+        }
+        for (int k = 1; k < offsets.length; k++) {
+            offsets[k] += offsets[k - 1];
+        }
+        int[] cursors = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] sorted = new int[order.length];
+        for (int row : order) {
+            sorted[cursors[keys[row]]++] = row;
+        }
+        return sorted;
+    }
+
+    /** Number of (document, entity) rows in the index. */
+    int size() {
+        return entityDocumentIds.limit();
+    }
+
+    /**
+     * Return the sorted ids of the documents that mention all of the given entities. Intersects the postings,
+     * starting with the shortest list.
+     *
+     * @param wantedEntityIds sorted, distinct entity ids
+     */
+    int[] documentIdsWithAllEntities(int[] wantedEntityIds) {
+        if (wantedEntityIds.length == 0) {
+            return new int[0];
+        }
+        int[] rows = new int[wantedEntityIds.length];
+        for (int i = 0; i < wantedEntityIds.length; i++) {
+            rows[i] = entityRow(wantedEntityIds[i]);
+            if (rows[i] < 0) {
+                return new int[0];
+            }
+        }
+        // Shortest postings first.
+        int shortest = 0;
+        for (int i = 1; i < rows.length; i++) {
+            if (entityDegree(rows[i]) < entityDegree(rows[shortest])) {
+                shortest = i;
+            }
+        }
+        int n = entityDegree(rows[shortest]);
+        int[] result = new int[n];
+        int start = entityOffsets.get(rows[shortest]);
+        for (int j = 0; j < n; j++) {
+            result[j] = entityDocumentIds.get(start + j);
+        }
+        for (int i = 0; i < rows.length && n > 0; i++) {
+            if (i == shortest) {
+                continue;
+            }
+            int from = entityOffsets.get(rows[i]);
+            int to = entityOffsets.get(rows[i] + 1);
+            int kept = 0;
+            for (int j = 0; j < n; j++) {
+                int found = IntArrays.binarySearch(entityDocumentIds, from, to, result[j]);
+                if (found >= 0) {
+                    result[kept++] = result[j];
+                    // Postings are sorted, so later candidates can only be further along.
+                    from = found + 1;
+                } else {
+                    from = -found - 1;
+                }
+            }
+            n = kept;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Return the sorted ids of all the entities mentioned in any of the given documents.
+     */
+    int[] entityIdsInAnyDocuments(int[] wantedDocumentIds) {
+        int total = 0;
+        for (int documentId : wantedDocumentIds) {
+            int row = documentRow(documentId);
+            if (row >= 0) {
+                total += documentOffsets.get(row + 1) - documentOffsets.get(row);
+            }
+        }
+        int[] union = new int[total];
+        int n = 0;
+        for (int documentId : wantedDocumentIds) {
+            int row = documentRow(documentId);
+            if (row >= 0) {
+                int to = documentOffsets.get(row + 1);
+                for (int k = documentOffsets.get(row); k < to; k++) {
+                    union[n++] = documentEntityIds.get(k);
+                }
+            }
+        }
+        return IntArrays.sortedDistinct(union, n);
+    }
+
+    /**
+     * Return the total number of mentions of the entity in the given documents.
+     *
+     * @param sortedDocumentIds sorted, distinct document ids
+     */
+    int mentionCountInDocuments(int entityId, int[] sortedDocumentIds) {
+        return sumInDocuments(entityId, sortedDocumentIds, 0, sortedDocumentIds.length, true);
+    }
+
+    /**
+     * Return the number of the given documents that mention the entity.
+     *
+     * @param sortedDocumentIds sorted, distinct document ids
+     */
+    int documentCountInDocuments(int entityId, int[] sortedDocumentIds) {
+        return sumInDocuments(entityId, sortedDocumentIds, 0, sortedDocumentIds.length, false);
+    }
+
+    /**
+     * Walk the intersection of an entity's postings with sortedDocumentIds[from, to), adding up either the mention
+     * counts or the number of matches. Binary-searches the longer list for each element of the shorter one.
+     *
+     * @param sortedDocumentIds sorted, distinct document ids
+     */
+    int sumInDocuments(int entityId, int[] sortedDocumentIds, int from, int to, boolean sumMentionCounts) {
+        int row = entityRow(entityId);
+        if (row < 0) {
+            return 0;
+        }
+        int postingsFrom = entityOffsets.get(row);
+        int postingsTo = entityOffsets.get(row + 1);
+        int sum = 0;
+        if (postingsTo - postingsFrom <= to - from) {
+            int searchFrom = from;
+            for (int k = postingsFrom; k < postingsTo; k++) {
+                int found = Arrays.binarySearch(sortedDocumentIds, searchFrom, to, entityDocumentIds.get(k));
+                if (found >= 0) {
+                    sum += sumMentionCounts ? entityMentionCounts.get(k) : 1;
+                    searchFrom = found + 1;
+                } else {
+                    searchFrom = -found - 1;
+                }
+            }
+        } else {
+            int searchFrom = postingsFrom;
+            for (int i = from; i < to; i++) {
+                int found = IntArrays.binarySearch(entityDocumentIds, searchFrom, postingsTo, sortedDocumentIds[i]);
+                if (found >= 0) {
+                    sum += sumMentionCounts ? entityMentionCounts.get(found) : 1;
+                    searchFrom = found + 1;
+                } else {
+                    searchFrom = -found - 1;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /** Return the key row for an entity id, or -1 if the entity is in no documents. */
+    int entityRow(int entityId) {
+        return IntArrays.indexOf(entityIds, 0, entityIds.limit(), entityId);
+    }
+
+    /** Return the key row for a document id, or -1 if the document mentions no entities. */
+    int documentRow(int documentId) {
+        return IntArrays.indexOf(documentIds, 0, documentIds.limit(), documentId);
+    }
+
+    /** First postings position of the entity at the given key row. */
+    int entityPostingsFrom(int entityRow) {
+        return entityOffsets.get(entityRow);
+    }
+
+    /** One past the last postings position of the entity at the given key row. */
+    int entityPostingsTo(int entityRow) {
+        return entityOffsets.get(entityRow + 1);
+    }
+
+    /** Document id at the given position of the entity-to-document postings. */
+    int entityPostingDocumentId(int k) {
+        return entityDocumentIds.get(k);
+    }
+
+    /** Return the sorted ids of all the documents that mention any entity. */
+    int[] documentIds() {
+        int[] ids = new int[documentIds.limit()];
+        documentIds.duplicate().get(ids);
+        return ids;
+    }
+
+    int entityDegree(int row) {
+        return entityOffsets.get(row + 1) - entityOffsets.get(row);
+    }
+}
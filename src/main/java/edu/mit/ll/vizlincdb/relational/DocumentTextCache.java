@@ -0,0 +1,267 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Document texts fetched from a VizLincRDB, kept in least-recently-used order up to a total number of characters.
+ *
+ * Optionally, texts evicted for size are kept compressed in a second, colder tier bounded by total compressed bytes.
+ * A text found there is decompressed and moved back to the first tier.
+ */
+public class DocumentTextCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final VizLincRDB rdb;
+    private final long maxCharacters;
+    private final long maxCompressedBytes;
+    private final Cache<Integer, String> texts;
+    // Null if there is no compressed tier.
+    private final Cache<Integer, byte[]> compressedTexts;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compressedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong compressedEvictions = new AtomicLong();
+
+    /**
+     * @param rdb where to fetch texts from
+     * @param maxCharacters total length of the texts kept; 0 to keep none
+     * @param maxCompressedBytes total size of the compressed texts kept; 0 for no compressed tier
+     */
+    DocumentTextCache(VizLincRDB rdb, long maxCharacters, long maxCompressedBytes) {
+        if (maxCharacters < 0 || maxCompressedBytes < 0) {
+            throw new IllegalArgumentException("cache sizes must not be negative");
+        }
+        this.rdb = rdb;
+        this.maxCharacters = maxCharacters;
+        this.maxCompressedBytes = maxCompressedBytes;
+        // A single segment, so that the whole budget is available to any one text; texts are written far less
+        // often than they are read.
+        texts = CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxCharacters)
+            .weigher(new Weigher<Integer, String>() {
+                @Override
+                public int weigh(Integer documentId, String text) {
+                    return text.length();
+                }
+            })
+            .removalListener(new RemovalListener<Integer, String>() {
+                @Override
+                public void onRemoval(RemovalNotification<Integer, String> removal) {
+                    if (removal.wasEvicted()) {
+                        evictions.incrementAndGet();
+                        if (compressedTexts != null) {
+                            compressedTexts.put(removal.getKey(), compress(removal.getValue()));
+                        }
+                    }
+                }
+            })
+            .build();
+        compressedTexts = maxCompressedBytes == 0 ? null : CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxCompressedBytes)
+            .weigher(new Weigher<Integer, byte[]>() {
+                @Override
+                public int weigh(Integer documentId, byte[] compressed) {
+                    return compressed.length;
+                }
+            })
+            .removalListener(new RemovalListener<Integer, byte[]>() {
+                @Override
+                public void onRemoval(RemovalNotification<Integer, byte[]> removal) {
+                    if (removal.wasEvicted()) {
+                        compressedEvictions.incrementAndGet();
+                    }
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Return the text of the document with the given id, or null if there is no such document.
+     */
+    String get(int documentId) throws SQLException {
+        String text = getCached(documentId);
+        if (text != null) {
+            return text;
+        }
+        misses.incrementAndGet();
+        text = rdb.getDocumentText(documentId);
+        if (text != null) {
+            texts.put(documentId, text);
+        }
+        return text;
+    }
+
+    /**
+     * Return the texts of the documents with the given ids, fetching all the ones not cached in one query. Ids that
+     * are not found are left out.
+     */
+    Map<Integer, String> getAll(Collection<Integer> documentIds) throws SQLException {
+        Map<Integer, String> found = new HashMap<Integer, String>(documentIds.size());
+        List<Integer> missing = new ArrayList<Integer>();
+        for (Integer documentId : documentIds) {
+            String text = getCached(documentId);
+            if (text != null) {
+                found.put(documentId, text);
+            } else {
+                missing.add(documentId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            misses.addAndGet(missing.size());
+            Map<Integer, String> fetched = rdb.getDocumentTexts(missing);
+            texts.putAll(fetched);
+            found.putAll(fetched);
+        }
+        return found;
+    }
+
+    private String getCached(int documentId) {
+        String text = texts.getIfPresent(documentId);
+        if (text != null) {
+            hits.incrementAndGet();
+            return text;
+        }
+        if (compressedTexts != null) {
+            byte[] compressed = compressedTexts.getIfPresent(documentId);
+            if (compressed != null) {
+                compressedHits.incrementAndGet();
+                compressedTexts.invalidate(documentId);
+                text = decompress(compressed);
+                texts.put(documentId, text);
+                return text;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop all the cached texts.
+     */
+    public void invalidateAll() {
+        // Explicit removals are not evictions, so nothing moves to the compressed tier.
+        texts.invalidateAll();
+        if (compressedTexts != null) {
+            compressedTexts.invalidateAll();
+        }
+    }
+
+    public long getMaxCharacters() {
+        return maxCharacters;
+    }
+
+    public long getMaxCompressedBytes() {
+        return maxCompressedBytes;
+    }
+
+    /**
+     * Number of texts cached uncompressed.
+     */
+    public long size() {
+        return texts.size();
+    }
+
+    /**
+     * Number of texts cached compressed.
+     */
+    public long compressedSize() {
+        return compressedTexts == null ? 0 : compressedTexts.size();
+    }
+
+    /**
+     * Number of lookups found uncompressed.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups found compressed.
+     */
+    public long getCompressedHitCount() {
+        return compressedHits.get();
+    }
+
+    /**
+     * Number of lookups fetched from the database.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of texts evicted from the uncompressed tier for size.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of texts evicted from the compressed tier for size, and so dropped altogether.
+     */
+    public long getCompressedEvictionCount() {
+        return compressedEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("document text cache: %d texts, %d compressed; %d hits, %d compressed hits, %d misses, %d evictions, %d compressed evictions",
+                size(), compressedSize(), getHitCount(), getCompressedHitCount(), getMissCount(), getEvictionCount(), getCompressedEvictionCount());
+    }
+
+    static byte[] compress(String text) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(text.getBytes(UTF8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new RuntimeException("Truncated compressed document text");
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), UTF8);
+        } catch (DataFormatException ex) {
+            throw new RuntimeException("Corrupt compressed document text", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * H2, with its original page store or, optionally, the MVStore. The MVStore (experimental in H2 1.3) keeps
+ * multiple versions of rows, so readers don't lock out a writer. Its other settings are given by an H2Tuning.
+ */
+public class H2Dialect extends SqlDialect {
+
+    private final boolean mvStore;
+    private final H2Tuning tuning;
+
+    public H2Dialect(boolean mvStore) {
+        this(mvStore, H2Tuning.DEFAULT);
+    }
+
+    /**
+     * @param mvStore whether to use the MVStore, unless tuning says
+     * @param tuning
+     */
+    public H2Dialect(boolean mvStore, H2Tuning tuning) {
+        this.mvStore = tuning.getMvStore() == null ? mvStore : tuning.getMvStore();
+        this.tuning = tuning;
+    }
+
+    /**
+     * Return this dialect, with the given tuning.
+     */
+    public H2Dialect withTuning(H2Tuning tuning) {
+        return new H2Dialect(mvStore, tuning);
+    }
+
+    public H2Tuning getTuning() {
+        return tuning;
+    }
+
+    @Override
+    public String url(String databasePath, boolean pooled) {
+        if (pooled && tuning.getLockMode() == 0) {
+            throw new IllegalArgumentException("H2 can't combine LOCK_MODE=0 with the MULTI_THREADED setting of a connection pool");
+        }
+        // MULTI_THREADED lets pooled connections' sessions run in parallel.
+        return "jdbc:h2:" + databasePath + "/data" + tuning.urlSettings() + (mvStore ? ";MV_STORE=TRUE" : "")
+            + (pooled ? ";MULTI_THREADED=1" : "");
+    }
+
+    @Override
+    public String schema() {
+        return VizLincRDB.H2_SCHEMA;
+    }
+
+    @Override
+    public String createIdTable(String table) {
+        // TRANSACTIONAL, so as not to commit a transaction in progress.
+        return "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS " + table + " (id INT PRIMARY KEY) TRANSACTIONAL";
+    }
+
+    @Override
+    public String createStampTriggers(String table) {
+        // A statement trigger, which TableStampTrigger makes fire once per transaction.
+        return "CREATE TRIGGER IF NOT EXISTS " + table + "_stamp AFTER INSERT, UPDATE, DELETE ON " + table
+            + " CALL \"" + TableStampTrigger.class.getName() + "\"";
+    }
+
+    @Override
+    public String dropStampTriggers(String table) {
+        return "DROP TRIGGER IF EXISTS " + table + "_stamp";
+    }
+
+    @Override
+    public Map<String, String> secondaryIndexes(Connection connection, Collection<String> tables) throws SQLException {
+        StringBuilder names = new StringBuilder();
+        for (String table : tables) {
+            names.append(names.length() == 0 ? "'" : ", '").append(table.toUpperCase()).append("'");
+        }
+        Map<String, String> indexes = new LinkedHashMap<String, String>();
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(
+                "SELECT DISTINCT index_name, sql FROM information_schema.indexes" +
+                " WHERE table_schema = SCHEMA() AND NOT primary_key AND constraint_name IS NULL" +
+                " AND table_name IN (" + names + ")");
+            while (rs.next()) {
+                indexes.put(rs.getString(1), rs.getString(2));
+            }
+        } finally {
+            stmt.close();
+        }
+        return indexes;
+    }
+}
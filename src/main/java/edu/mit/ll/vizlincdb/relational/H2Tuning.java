@@ -0,0 +1,168 @@
+package edu.mit.ll.vizlincdb.relational;
+
+/**
+ * Settings for the H2 database behind a VizLincRDB, added to its connection URL. An H2Tuning is immutable; the with
+ * methods return a changed copy. Start from DEFAULT or one of the presets:
+ * <pre>
+ *   VizLincRDB rdb = new VizLincRDB(path, true, Implementation.H2, 0, H2Tuning.bulkLoad());
+ *   VizLincRDB rdb = new VizLincRDB(path, VizLincRDB.DEFAULT_POOL_SIZE, H2Tuning.readOnlyServing());
+ * </pre>
+ *
+ * See the H2 documentation of SET CACHE_SIZE, SET LOG, SET LOCK_MODE, SET MAX_MEMORY_ROWS and ACCESS_MODE_DATA for
+ * what each does. H2 stores some of them, like LOCK_MODE, in the database, so all of them are always put in the URL:
+ * that way a database opened with DEFAULT after a bulk load is not left without locking.
+ */
+public class H2Tuning {
+
+    /**
+     * What VizLincRDB has always used: a 128 MB cache and H2's defaults otherwise.
+     */
+    public static final H2Tuning DEFAULT = new H2Tuning(131072, null, 2, 3, 10000, false);
+
+    private static final long KB = 1024;
+    private static final long GB = 1024 * 1024 * 1024;
+
+    private final int cacheSize;
+    private final Boolean mvStore;
+    private final int log;
+    private final int lockMode;
+    private final int maxMemoryRows;
+    private final boolean readOnly;
+
+    private H2Tuning(int cacheSize, Boolean mvStore, int log, int lockMode, int maxMemoryRows, boolean readOnly) {
+        this.cacheSize = cacheSize;
+        this.mvStore = mvStore;
+        this.log = log;
+        this.lockMode = lockMode;
+        this.maxMemoryRows = maxMemoryRows;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * For loading a new database on one connection, which can be loaded again if loading fails: a cache of a quarter
+     * of the heap, no transaction log (LOG=0) and no locking (LOCK_MODE=0). A database whose load is interrupted may
+     * be corrupt. LOCK_MODE=0 cannot be combined with a connection pool.
+     */
+    public static H2Tuning bulkLoad() {
+        return DEFAULT.withCacheSize(cacheSizeForHeap(0.25)).withLog(0).withLockMode(0);
+    }
+
+    /**
+     * For query nodes serving a database that is not changed: read-only (ACCESS_MODE_DATA=r), a cache of half the
+     * heap, and, so that large results are not buffered to disk, up to 100,000 rows per GB of heap kept in memory.
+     */
+    public static H2Tuning readOnlyServing() {
+        long rows = Math.max(10000, 100000 * Runtime.getRuntime().maxMemory() / GB);
+        return DEFAULT.withCacheSize(cacheSizeForHeap(0.5)).withMaxMemoryRows((int) Math.min(rows, Integer.MAX_VALUE)).withReadOnly(true);
+    }
+
+    /**
+     * Return the CACHE_SIZE, in KB, that is the given fraction of this JVM's maximum heap, and no smaller than the
+     * DEFAULT's.
+     */
+    public static int cacheSizeForHeap(double fraction) {
+        long kb = (long) (Runtime.getRuntime().maxMemory() * fraction / KB);
+        return (int) Math.min(Math.max(kb, DEFAULT.cacheSize), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param cacheSize CACHE_SIZE, in KB
+     */
+    public H2Tuning withCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative");
+        }
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    /**
+     * @param mvStore true for the MVStore, false for the page store, or null to leave it to the VizLincRDB's
+     * Implementation. An existing database must be opened with the store it was created with.
+     */
+    public H2Tuning withMvStore(Boolean mvStore) {
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    /**
+     * @param log LOG: 0 for no transaction log, 1 or 2 (the default) for more
+     */
+    public H2Tuning withLog(int log) {
+        if (log < 0 || log > 2) {
+            throw new IllegalArgumentException("log must be 0, 1 or 2");
+        }
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    /**
+     * @param lockMode LOCK_MODE: 0 for no locking, 1 for table locks, 3 (the default) for table locks with reads
+     * not locking
+     */
+    public H2Tuning withLockMode(int lockMode) {
+        if (lockMode < 0 || lockMode > 3) {
+            throw new IllegalArgumentException("lockMode must be 0 through 3");
+        }
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    /**
+     * @param maxMemoryRows MAX_MEMORY_ROWS: rows of a result kept in memory before it is buffered to disk; 10,000
+     * by default
+     */
+    public H2Tuning withMaxMemoryRows(int maxMemoryRows) {
+        if (maxMemoryRows < 1) {
+            throw new IllegalArgumentException("maxMemoryRows must be positive");
+        }
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    /**
+     * @param readOnly true to open the database read-only (ACCESS_MODE_DATA=r). A read-only database can't be
+     * created, loaded or migrated.
+     */
+    public H2Tuning withReadOnly(boolean readOnly) {
+        return new H2Tuning(cacheSize, mvStore, log, lockMode, maxMemoryRows, readOnly);
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public Boolean getMvStore() {
+        return mvStore;
+    }
+
+    public int getLog() {
+        return log;
+    }
+
+    public int getLockMode() {
+        return lockMode;
+    }
+
+    public int getMaxMemoryRows() {
+        return maxMemoryRows;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Return the settings, other than MV_STORE, to append to an H2 URL, each starting with ';'.
+     */
+    String urlSettings() {
+        StringBuilder settings = new StringBuilder(";CACHE_SIZE=").append(cacheSize)
+            .append(";LOG=").append(log)
+            .append(";LOCK_MODE=").append(lockMode)
+            .append(";MAX_MEMORY_ROWS=").append(maxMemoryRows);
+        if (readOnly) {
+            settings.append(";ACCESS_MODE_DATA=r");
+        }
+        return settings.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "H2Tuning" + (mvStore == null ? "" : mvStore ? ";MV_STORE=TRUE" : ";MV_STORE=FALSE") + urlSettings();
+    }
+}
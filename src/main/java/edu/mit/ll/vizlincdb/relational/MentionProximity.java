@@ -0,0 +1,276 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import edu.mit.ll.vizlincdb.entity.EntityCounts;
+import edu.mit.ll.vizlincdb.relational.VizLincRDBMem.NeighborhoodType;
+import edu.mit.ll.vizlincdb.util.IntArrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds mentions of "wanted" entities that are within a given distance of a mention of any "query" entity, one
+ * document at a time, over the MentionTables supplied by a MentionSource.
+ *
+ * Each document is handled by a sweep over its mentions in position order. A second cursor runs ahead over the same
+ * mentions to the first query mention at or after (position - distance); the mention is near a query mention iff that
+ * one is at or before (position + distance). Both cursors only move forward, so a document costs time linear in its
+ * number of mentions (times a binary search for entity membership), and nothing is allocated per mention or per
+ * document.
+ *
+ * The earlier TreeRangeSet implementation is kept as referenceEntityCounts() and referenceDocumentsNear(), for
+ * equivalence testing.
+ */
+class MentionProximity {
+
+    private final MentionSource mentions;
+    private final int[] queryEntityIds;
+    private final int[] wantedEntityIds;
+    private final int distance;
+    private final NeighborhoodType neighborhoodType;
+
+    /**
+     * @param mentions
+     * @param queryEntityIds
+     * @param wantedEntityIds
+     * @param distance
+     * @param neighborhoodType which mention position to measure distance with
+     */
+    MentionProximity(MentionSource mentions, Collection<Integer> queryEntityIds, Collection<Integer> wantedEntityIds, int distance, NeighborhoodType neighborhoodType) {
+        this.mentions = mentions;
+        this.queryEntityIds = IntArrays.toSortedDistinct(queryEntityIds);
+        this.wantedEntityIds = IntArrays.toSortedDistinct(wantedEntityIds);
+        this.distance = distance;
+        this.neighborhoodType = neighborhoodType;
+    }
+
+    /**
+     * Per-wanted-entity accumulators, indexed by the entity's slot in the sorted wanted entity ids.
+     */
+    class Counts {
+
+        final int[] mentionCounts = new int[wantedEntityIds.length];
+        final int[] documentCounts = new int[wantedEntityIds.length];
+        // The document number in which each slot was last counted, so that each document is counted once per slot.
+        private final int[] lastDocument = new int[wantedEntityIds.length];
+        private int document = 0;
+
+        /** Add another accumulator's counts into this one. */
+        void add(Counts other) {
+            for (int slot = 0; slot < mentionCounts.length; slot++) {
+                mentionCounts[slot] += other.mentionCounts[slot];
+                documentCounts[slot] += other.documentCounts[slot];
+            }
+        }
+
+        /** Return a map from entity id to counts, for the entities with any nearby mentions. */
+        Map<Integer, EntityCounts> toMap() {
+            Map<Integer, EntityCounts> entityIdToCounts = new HashMap<Integer, EntityCounts>();
+            for (int slot = 0; slot < mentionCounts.length; slot++) {
+                if (mentionCounts[slot] > 0) {
+                    entityIdToCounts.put(wantedEntityIds[slot], new EntityCounts(mentionCounts[slot], documentCounts[slot]));
+                }
+            }
+            return entityIdToCounts;
+        }
+    }
+
+    Counts newCounts() {
+        return new Counts();
+    }
+
+    /**
+     * Return the counts of wanted-entity mentions near query-entity mentions, over all the given documents. A
+     * document listed more than once is counted more than once.
+     */
+    Map<Integer, EntityCounts> entityCounts(Collection<Integer> docIds) {
+        Counts counts = newCounts();
+        for (int docId : docIds) {
+            countDocument(docId, counts);
+        }
+        return counts.toMap();
+    }
+
+    /**
+     * Add the mentions in the given document that are near a query mention to counts.
+     */
+    void countDocument(int docId, Counts counts) {
+        sweep(docId, counts);
+    }
+
+    /**
+     * Return the ids of the given documents that have a wanted-entity mention near a query-entity mention.
+     */
+    Set<Integer> documentsNear(Collection<Integer> docIds) {
+        Set<Integer> matchingDocIds = new HashSet<Integer>();
+        for (int docId : docIds) {
+            if (sweep(docId, null)) {
+                matchingDocIds.add(docId);
+            }
+        }
+        return matchingDocIds;
+    }
+
+    /**
+     * Sweep one document. If counts is null, stop at the first near mention.
+     *
+     * @return true if any wanted mention was near a query mention
+     */
+    private boolean sweep(int docId, Counts counts) {
+        MentionTable table = mentions.tableFor(docId);
+        int documentRow = table.documentRow(docId);
+        if (documentRow < 0 || queryEntityIds.length == 0 || wantedEntityIds.length == 0) {
+            return false;
+        }
+        if (counts != null) {
+            counts.document++;
+        }
+        int from = table.from(documentRow);
+        int to = table.to(documentRow);
+        boolean found = false;
+        int ahead = from;
+        for (int k = from; k < to; k++) {
+            int row = table.rowInOrder(k, neighborhoodType);
+            int slot = IntArrays.indexOf(wantedEntityIds, 0, wantedEntityIds.length, table.entityId(row));
+            if (slot < 0) {
+                continue;
+            }
+            long position = table.position(row, neighborhoodType);
+            // Move to the first query mention at or after the start of this mention's neighborhood.
+            while (ahead < to) {
+                int aheadRow = table.rowInOrder(ahead, neighborhoodType);
+                if (table.position(aheadRow, neighborhoodType) >= position - distance
+                        && IntArrays.indexOf(queryEntityIds, 0, queryEntityIds.length, table.entityId(aheadRow)) >= 0) {
+                    break;
+                }
+                ahead++;
+            }
+            if (ahead == to) {
+                // No query mentions remain, so no later mention can be near one.
+                break;
+            }
+            if (table.position(table.rowInOrder(ahead, neighborhoodType), neighborhoodType) <= position + distance) {
+                found = true;
+                if (counts == null) {
+                    break;
+                }
+                counts.mentionCounts[slot]++;
+                if (counts.lastDocument[slot] != counts.document) {
+                    counts.lastDocument[slot] = counts.document;
+                    counts.documentCounts[slot]++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reference implementation of entityCounts(), using a TreeRangeSet of query mention neighborhoods per
+     * document.
+     */
+    static Map<Integer, EntityCounts> referenceEntityCounts(MentionSource mentions, Collection<Integer> queryEntityIds, Collection<Integer> wantedEntityIds, Collection<Integer> docIds, int distance, NeighborhoodType neighborhoodType) {
+        // Make sets for fast lookups.
+        Set<Integer> wantedEntityIdsSet = new HashSet<Integer>(wantedEntityIds);
+        Map<Integer, RangeSet<Integer>> docIdToMentionRanges = mentionRanges(mentions, queryEntityIds, docIds, distance, neighborhoodType);
+
+        // The map for the return value.
+        Map<Integer, EntityCounts> entityIdToCounts = new HashMap<Integer, EntityCounts>();
+
+        // Now look at all the mentions for each document and see if their positions are inside the range set. Cull out any mentions for entities we're not interested in.
+        for (int docId : docIds) {
+            // Accumulate the mention counts for the current document.
+            Map<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
+            MentionTable table = mentions.tableFor(docId);
+            int documentRow = table.documentRow(docId);
+            if (documentRow < 0) {
+                continue;
+            }
+            for (int row = table.from(documentRow); row < table.to(documentRow); row++) {
+                int entityId = table.entityId(row);
+                int pos = table.position(row, neighborhoodType);
+                if (wantedEntityIdsSet.contains(entityId) && docIdToMentionRanges.get(docId).contains(pos)) {
+                    // This is a mention in the desired entity set, within range. Remember it and increment its count.
+                    Integer mentionCount = entityIdToMentionCount.get(entityId);
+                    if (mentionCount == null) {
+                        entityIdToMentionCount.put(entityId, 1);
+                    } else {
+                        entityIdToMentionCount.put(entityId, mentionCount + 1);
+                    }
+                }
+            }
+
+            // Now accumulate the mention counts for this doc in the counts for all docs.
+            for (int entityId : entityIdToMentionCount.keySet()) {
+                int mentionCount = entityIdToMentionCount.get(entityId);
+                EntityCounts counts = entityIdToCounts.get(entityId);
+                if (counts == null) {
+                    entityIdToCounts.put(entityId, new EntityCounts(mentionCount, 1));  /* 1 document */
+                } else {
+                    counts.mentionCount += mentionCount;
+                    counts.documentCount++;
+                }
+            }
+        }
+
+        return entityIdToCounts;
+    }
+
+    /**
+     * Reference implementation of documentsNear(), using a TreeRangeSet of query mention neighborhoods per
+     * document.
+     */
+    static Set<Integer> referenceDocumentsNear(MentionSource mentions, Collection<Integer> queryEntityIds, int wantedEntityId, Collection<Integer> docIds, int distance, NeighborhoodType neighborhoodType) {
+        Map<Integer, RangeSet<Integer>> docIdToMentionRanges = mentionRanges(mentions, queryEntityIds, docIds, distance, neighborhoodType);
+
+        // Return value.
+        Set<Integer> matchingDocIds = new HashSet<Integer>();
+
+        // Now look at all the mentions for each document and see if their positions are inside the range set.
+        for (int docId : docIds) {
+            MentionTable table = mentions.tableFor(docId);
+            int documentRow = table.documentRow(docId);
+            if (documentRow < 0) {
+                continue;
+            }
+            for (int row = table.from(documentRow); row < table.to(documentRow); row++) {
+                if (wantedEntityId == table.entityId(row) && docIdToMentionRanges.get(docId).contains(table.position(row, neighborhoodType))) {
+                    // Remember that this document contains an mention for anentity in queryEntityIdsSet that's near a mention of wantedEntityId.
+                    matchingDocIds.add(docId);
+                    // Once is enough. Skip to the next doc.
+                    break;
+                }
+            }
+        }
+
+        return matchingDocIds;
+    }
+
+    /**
+     * Build up the range map of mention locations based on the given set of doc ids and query entity ids.
+     */
+    private static Map<Integer, RangeSet<Integer>> mentionRanges(MentionSource mentions, Collection<Integer> queryEntityIds, Collection<Integer> docIds, int distance, NeighborhoodType neighborhoodType) {
+        Set<Integer> queryEntityIdsSet = new HashSet<Integer>(queryEntityIds);
+        Map<Integer, RangeSet<Integer>> docIdToMentionRanges = new HashMap<Integer, RangeSet<Integer>>(docIds.size());
+        for (int docId : docIds) {
+            RangeSet<Integer> mentionRanges = TreeRangeSet.create();
+            docIdToMentionRanges.put(docId, mentionRanges);
+            MentionTable table = mentions.tableFor(docId);
+            int documentRow = table.documentRow(docId);
+            if (documentRow < 0) {
+                continue;
+            }
+            for (int row = table.from(documentRow); row < table.to(documentRow); row++) {
+                if (queryEntityIdsSet.contains(table.entityId(row))) {
+                    int pos = table.position(row, neighborhoodType);
+                    mentionRanges.add(Range.closed(pos - distance, pos + distance).canonical(DiscreteDomain.integers()));
+                }
+            }
+        }
+        return docIdToMentionRanges;
+    }
+}
@@ -0,0 +1,13 @@
+package edu.mit.ll.vizlincdb.relational;
+
+/**
+ * Supplies the MentionTable holding a given document's mentions. A single MentionTable holding every document is its
+ * own source; a lazy source may load and cache a small table per document.
+ */
+interface MentionSource {
+
+    /**
+     * Return a MentionTable that includes the mentions of the given document, if it has any.
+     */
+    MentionTable tableFor(int documentId);
+}
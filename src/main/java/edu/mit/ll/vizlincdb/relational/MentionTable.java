@@ -0,0 +1,243 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.MentionLocation;
+import edu.mit.ll.vizlincdb.util.IntArrays;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Packed table of mention locations, grouped by document, with one parallel column per MentionLocation field.
+ *
+ * The mentions of the document at key row k are the rows offsets[k]..offsets[k+1], sorted by (index, textStart).
+ * The textStartOrder column holds the same rows of each document re-sorted by (textStart, index), so that scans by
+ * either kind of position can go in order.
+ *
+ * Like DocumentEntityIndex, the columns are IntBuffers so they can be read in place from a ColumnarSnapshot.
+ */
+class MentionTable implements MentionSource {
+
+    private IntBuffer documentIds;
+    private IntBuffer offsets;
+    private IntBuffer entityIds;
+    private IntBuffer indexes;
+    private IntBuffer textStarts;
+    private IntBuffer textStops;
+    private ShortBuffer typeCodes;
+    private IntBuffer textStartOrder;
+
+    private MentionTable() {
+    }
+
+    /**
+     * Build a table from parallel arrays of mention rows, in any order. Only the first size elements of each array
+     * are used.
+     */
+    static MentionTable build(final int[] rowDocumentIds, int[] rowEntityIds, final int[] rowIndexes, final int[] rowTextStarts,
+                              int[] rowTextStops, short[] rowTypeCodes, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        IntArrays.sort(order, 0, size, new IntArrays.IntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int c = compareInts(rowDocumentIds[a], rowDocumentIds[b]);
+                if (c == 0) {
+                    c = compareInts(rowIndexes[a], rowIndexes[b]);
+                }
+                return c != 0 ? c : compareInts(rowTextStarts[a], rowTextStarts[b]);
+            }
+        });
+
+        int[] documentIds = IntArrays.sortedDistinct(rowDocumentIds, size);
+        int[] offsets = new int[documentIds.length + 1];
+        final int[] entityIds = new int[size];
+        final int[] indexes = new int[size];
+        final int[] textStarts = new int[size];
+        int[] textStops = new int[size];
+        short[] typeCodes = new short[size];
+        int documents = 0;
+        for (int k = 0; k < size; k++) {
+            int row = order[k];
+            while (documentIds[documents] != rowDocumentIds[row]) {
+                offsets[++documents] = k;
+            }
+            entityIds[k] = rowEntityIds[row];
+            indexes[k] = rowIndexes[row];
+            textStarts[k] = rowTextStarts[row];
+            textStops[k] = rowTextStops[row];
+            typeCodes[k] = rowTypeCodes[row];
+        }
+        while (documents < documentIds.length) {
+            offsets[++documents] = size;
+        }
+
+        int[] textStartOrder = new int[size];
+        for (int k = 0; k < size; k++) {
+            textStartOrder[k] = k;
+        }
+        IntArrays.IntComparator byTextStart = new IntArrays.IntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int c = compareInts(textStarts[a], textStarts[b]);
+                return c != 0 ? c : compareInts(indexes[a], indexes[b]);
+            }
+        };
+        for (int k = 0; k < documentIds.length; k++) {
+            IntArrays.sort(textStartOrder, offsets[k], offsets[k + 1], byTextStart);
+        }
+
+        MentionTable table = new MentionTable();
+        table.documentIds = IntBuffer.wrap(documentIds);
+        table.offsets = IntBuffer.wrap(offsets);
+        table.entityIds = IntBuffer.wrap(entityIds);
+        table.indexes = IntBuffer.wrap(indexes);
+        table.textStarts = IntBuffer.wrap(textStarts);
+        table.textStops = IntBuffer.wrap(textStops);
+        table.typeCodes = ShortBuffer.wrap(typeCodes);
+        table.textStartOrder = IntBuffer.wrap(textStartOrder);
+        return table;
+    }
+
+    private static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Add this table's columns to a snapshot, as sections whose names start with prefix.
+     */
+    void writeTo(ColumnarSnapshot.Writer writer, String prefix) {
+        writer.putInts(prefix + "documentIds", documentIds);
+        writer.putInts(prefix + "offsets", offsets);
+        writer.putInts(prefix + "entityIds", entityIds);
+        writer.putInts(prefix + "indexes", indexes);
+        writer.putInts(prefix + "textStarts", textStarts);
+        writer.putInts(prefix + "textStops", textStops);
+        writer.putShorts(prefix + "typeCodes", typeCodes);
+        writer.putInts(prefix + "textStartOrder", textStartOrder);
+    }
+
+    /**
+     * Return a table that reads directly from the sections of a snapshot written by writeTo(). Nothing is copied.
+     */
+    static MentionTable readFrom(ColumnarSnapshot snapshot, String prefix) {
+        MentionTable table = new MentionTable();
+        table.documentIds = snapshot.ints(prefix + "documentIds");
+        table.offsets = snapshot.ints(prefix + "offsets");
+        table.entityIds = snapshot.ints(prefix + "entityIds");
+        table.indexes = snapshot.ints(prefix + "indexes");
+        table.textStarts = snapshot.ints(prefix + "textStarts");
+        table.textStops = snapshot.ints(prefix + "textStops");
+        table.typeCodes = snapshot.shorts(prefix + "typeCodes");
+        table.textStartOrder = snapshot.ints(prefix + "textStartOrder");
+        return table;
+    }
+
+    @Override
+    public MentionTable tableFor(int documentId) {
+        return this;
+    }
+
+    /** Total number of mentions in the table. */
+    int size() {
+        return entityIds.limit();
+    }
+
+    /** Return the key row for a document id, or -1 if the document has no mentions. */
+    int documentRow(int documentId) {
+        return IntArrays.indexOf(documentIds, 0, documentIds.limit(), documentId);
+    }
+
+    /** First mention row of the document at the given key row. */
+    int from(int documentRow) {
+        return offsets.get(documentRow);
+    }
+
+    /** One past the last mention row of the document at the given key row. */
+    int to(int documentRow) {
+        return offsets.get(documentRow + 1);
+    }
+
+    int entityId(int row) {
+        return entityIds.get(row);
+    }
+
+    int index(int row) {
+        return indexes.get(row);
+    }
+
+    int textStart(int row) {
+        return textStarts.get(row);
+    }
+
+    int textStop(int row) {
+        return textStops.get(row);
+    }
+
+    short typeCode(int row) {
+        return typeCodes.get(row);
+    }
+
+    /** Return the position of a mention row, by index or by text start. */
+    int position(int row, VizLincRDBMem.NeighborhoodType neighborhoodType) {
+        return neighborhoodType == VizLincRDBMem.NeighborhoodType.BY_INDEX ? indexes.get(row) : textStarts.get(row);
+    }
+
+    /**
+     * Return the mention row that is k-th in the order matching the given kind of position. For k in
+     * [from(d), to(d)), the result is also in [from(d), to(d)).
+     */
+    int rowInOrder(int k, VizLincRDBMem.NeighborhoodType neighborhoodType) {
+        return neighborhoodType == VizLincRDBMem.NeighborhoodType.BY_INDEX ? k : textStartOrder.get(k);
+    }
+
+    /**
+     * Return a MentionLocation for a single row.
+     */
+    MentionLocation mentionLocation(int documentId, int row) {
+        return new MentionLocation(documentId, entityIds.get(row), indexes.get(row), textStarts.get(row), textStops.get(row), typeCodes.get(row));
+    }
+
+    /**
+     * Return a read-only List view of a document's mentions, in (index, textStart) order. Nothing is copied; each
+     * MentionLocation is created when it is fetched from the list. Returns an empty list if the document has no
+     * mentions.
+     */
+    List<MentionLocation> mentionLocations(int documentId) {
+        int row = documentRow(documentId);
+        if (row < 0) {
+            return new ArrayList<MentionLocation>(0);
+        }
+        return new MentionLocationList(documentId, from(row), to(row));
+    }
+
+    private class MentionLocationList extends AbstractList<MentionLocation> implements RandomAccess {
+
+        private final int documentId;
+        private final int from;
+        private final int to;
+
+        MentionLocationList(int documentId, int from, int to) {
+            this.documentId = documentId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public MentionLocation get(int i) {
+            if (i < 0 || i >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + (to - from));
+            }
+            return mentionLocation(documentId, from + i);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.util.Collection;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork-join tasks that split VizLincRDBMem's per-document queries by ranges of document ids and merge the partial
+ * results. Each document is independent, and the in-memory tables are read-only, so the subtasks share nothing but
+ * their inputs.
+ *
+ * A range of at most sequentialThreshold documents is processed directly rather than split further.
+ */
+class ParallelQueries {
+
+    // Not to be instantiated.
+    private ParallelQueries() {
+    }
+
+    /**
+     * Compute MentionProximity counts over docIds[from, to).
+     */
+    static class ProximityTask extends RecursiveTask<MentionProximity.Counts> {
+
+        private final MentionProximity proximity;
+        private final int[] docIds;
+        private final int from;
+        private final int to;
+        private final int sequentialThreshold;
+
+        ProximityTask(MentionProximity proximity, int[] docIds, int from, int to, int sequentialThreshold) {
+            this.proximity = proximity;
+            this.docIds = docIds;
+            this.from = from;
+            this.to = to;
+            this.sequentialThreshold = Math.max(1, sequentialThreshold);
+        }
+
+        @Override
+        protected MentionProximity.Counts compute() {
+            if (to - from <= sequentialThreshold) {
+                MentionProximity.Counts counts = proximity.newCounts();
+                for (int i = from; i < to; i++) {
+                    proximity.countDocument(docIds[i], counts);
+                }
+                return counts;
+            }
+            int mid = (from + to) >>> 1;
+            ProximityTask left = new ProximityTask(proximity, docIds, from, mid, sequentialThreshold);
+            ProximityTask right = new ProximityTask(proximity, docIds, mid, to, sequentialThreshold);
+            left.fork();
+            MentionProximity.Counts counts = right.compute();
+            counts.add(left.join());
+            return counts;
+        }
+    }
+
+    /**
+     * For each of the given entities, add up either its mention counts or its number of documents over
+     * sortedDocIds[from, to). The result is parallel to entityIds.
+     */
+    static class DocumentSumTask extends RecursiveTask<int[]> {
+
+        private final DocumentEntityIndex index;
+        private final int[] entityIds;
+        private final int[] sortedDocIds;
+        private final int from;
+        private final int to;
+        private final int sequentialThreshold;
+        private final boolean sumMentionCounts;
+
+        DocumentSumTask(DocumentEntityIndex index, int[] entityIds, int[] sortedDocIds, int from, int to, int sequentialThreshold, boolean sumMentionCounts) {
+            this.index = index;
+            this.entityIds = entityIds;
+            this.sortedDocIds = sortedDocIds;
+            this.from = from;
+            this.to = to;
+            this.sequentialThreshold = Math.max(1, sequentialThreshold);
+            this.sumMentionCounts = sumMentionCounts;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= sequentialThreshold) {
+                int[] sums = new int[entityIds.length];
+                for (int i = 0; i < entityIds.length; i++) {
+                    sums[i] = index.sumInDocuments(entityIds[i], sortedDocIds, from, to, sumMentionCounts);
+                }
+                return sums;
+            }
+            int mid = (from + to) >>> 1;
+            DocumentSumTask left = new DocumentSumTask(index, entityIds, sortedDocIds, from, mid, sequentialThreshold, sumMentionCounts);
+            DocumentSumTask right = new DocumentSumTask(index, entityIds, sortedDocIds, mid, to, sequentialThreshold, sumMentionCounts);
+            left.fork();
+            int[] sums = right.compute();
+            int[] leftSums = left.join();
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += leftSums[i];
+            }
+            return sums;
+        }
+    }
+
+    /** Copy a collection of ids, keeping duplicates and order. */
+    static int[] toArray(Collection<Integer> ids) {
+        int[] array = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            array[i++] = id;
+        }
+        return array;
+    }
+}
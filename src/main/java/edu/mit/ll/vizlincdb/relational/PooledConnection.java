@@ -0,0 +1,187 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A connection of a ConnectionPool, leased to the current thread for the duration of a query. Use it like this:
+ * <pre>
+ *   try (PooledConnection pc = rdb.connection()) {
+ *       PreparedStatement stmt = pc.prepareStatement(...);
+ *       ...
+ *   }
+ * </pre>
+ *
+ * A connection belongs to one thread at a time, so it keeps its prepared statements in a StatementCache and hands
+ * them out again on later leases. Don't prepare the same SQL again while reading a ResultSet from it. Other
+ * statements, and prepared statements when caching is off, are closed when the lease is closed. Run queries on a
+ * cached statement with executeQuery(), so that their ResultSets are closed too: some engines, like SQLite, keep a
+ * read transaction open, and later queries on the connection see the database as it was, until every ResultSet of
+ * the connection is closed.
+ */
+class PooledConnection implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private final List<Statement> leaseStatements = new ArrayList<Statement>();
+    private final List<ResultSet> leaseResults = new ArrayList<ResultSet>();
+    // The thread holding the connection, and its number of nested leases; guarded by this.
+    private Thread owner = null;
+    private int depth = 0;
+
+    /**
+     * @param pool the pool this connection returns to when the lease is closed
+     * @param connection
+     */
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection);
+    }
+
+    /**
+     * Lease this idle connection to thread.
+     */
+    synchronized void lease(Thread thread) {
+        owner = thread;
+        depth = 1;
+    }
+
+    /**
+     * Take one more lease for thread, if it still holds this connection.
+     */
+    synchronized boolean leaseAgain(Thread thread) {
+        if (owner != thread) {
+            return false;
+        }
+        depth++;
+        return true;
+    }
+
+    /**
+     * End one lease, and if it was the outermost one, return the thread that held the connection; otherwise null.
+     */
+    synchronized Thread endLease() {
+        if (owner == null) {
+            throw new IllegalStateException("Connection is not leased");
+        }
+        if (--depth > 0) {
+            return null;
+        }
+        Thread thread = owner;
+        owner = null;
+        return thread;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Return a PreparedStatement for sql, with its parameters cleared.
+     */
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        int capacity = pool.getStatementCacheSize();
+        if (capacity > 0) {
+            return statementCache.prepare(sql, capacity);
+        }
+        statementCache.trim(0);
+        return prepareLeaseStatement(sql);
+    }
+
+    /**
+     * Return a new PreparedStatement for sql that will be closed with the lease.
+     */
+    PreparedStatement prepareLeaseStatement(String sql) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql);
+        leaseStatements.add(stmt);
+        return stmt;
+    }
+
+    /**
+     * Run the query of stmt, and return its ResultSet, which will be closed with the lease.
+     */
+    ResultSet executeQuery(PreparedStatement stmt) throws SQLException {
+        ResultSet rs = stmt.executeQuery();
+        leaseResults.add(rs);
+        return rs;
+    }
+
+    /**
+     * Fill temporary id table number slot of this connection with the given ids, dropping duplicates, and return its
+     * name. The table has a primary key on its one column, id. It is created on first use and reused by later leases.
+     */
+    String fillIdTable(int slot, Collection<?> ids) throws SQLException {
+        String table = "vizlinc_ids_" + slot;
+        // DELETE rather than TRUNCATE, so as not to commit a transaction in progress on conn.
+        prepareStatement(pool.getDialect().createIdTable(table)).execute();
+        prepareStatement("DELETE FROM " + table).execute();
+        PreparedStatement insert = prepareStatement("INSERT INTO " + table + " VALUES(?)");
+        for (Object id : new HashSet<Object>(ids)) {
+            insert.setInt(1, (Integer) id);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        return table;
+    }
+
+    /**
+     * Return a Statement that will be closed with the lease.
+     */
+    Statement createStatement() throws SQLException {
+        Statement stmt = connection.createStatement();
+        leaseStatements.add(stmt);
+        return stmt;
+    }
+
+    /**
+     * Close the ResultSets and statements of this lease.
+     */
+    void closeLeaseStatements() throws SQLException {
+        try {
+            for (ResultSet rs : leaseResults) {
+                rs.close();
+            }
+            for (Statement stmt : leaseStatements) {
+                stmt.close();
+            }
+        } finally {
+            leaseResults.clear();
+            leaseStatements.clear();
+        }
+    }
+
+    /**
+     * Close all the statements, and the underlying connection if closeConnection is set.
+     */
+    void close(boolean closeConnection) throws SQLException {
+        try {
+            statementCache.close();
+            closeLeaseStatements();
+        } finally {
+            if (closeConnection) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * End the lease. The connection goes back to the pool when the thread's outermost lease ends.
+     */
+    @Override
+    public void close() throws SQLException {
+        pool.release(this);
+    }
+}
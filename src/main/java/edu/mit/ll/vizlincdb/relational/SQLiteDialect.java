@@ -0,0 +1,200 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQLite, through the xerial sqlite-jdbc driver. The database is one file, data.sqlite, in the database directory.
+ *
+ * Connections use write-ahead logging, so that readers and a writer don't block each other, and wait for locks
+ * rather than failing at once. SQLite has no streaming LOB type: texts are read whole. The driver's update counts
+ * include the rows changed by triggers, such as the table stamps.
+ */
+public class SQLiteDialect extends SqlDialect {
+
+    // Milliseconds to wait for another connection's lock.
+    private static final int BUSY_TIMEOUT = 30000;
+
+    private static final String[] STAMPED_CHANGES = {"INSERT", "UPDATE", "DELETE"};
+
+    @Override
+    public String url(String databasePath, boolean pooled) {
+        return "jdbc:sqlite:" + databasePath + "/data.sqlite";
+    }
+
+    @Override
+    public void initConnection(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement();
+        try {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA foreign_keys = ON");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public String schema() {
+        return SQLITE_SCHEMA;
+    }
+
+    @Override
+    public String createIdTable(String table) {
+        return "CREATE TEMP TABLE IF NOT EXISTS " + table + " (id INTEGER PRIMARY KEY)";
+    }
+
+    @Override
+    public String createStampTriggers(String table) {
+        // SQLite has only row triggers, each on one kind of change, written in SQL.
+        StringBuilder sql = new StringBuilder();
+        for (String change : STAMPED_CHANGES) {
+            sql.append("CREATE TRIGGER IF NOT EXISTS ").append(table).append("_stamp_").append(change.toLowerCase())
+                .append(" AFTER ").append(change).append(" ON ").append(table)
+                .append(" BEGIN INSERT OR REPLACE INTO table_stamp (table_name, stamp) VALUES ('").append(table)
+                .append("', random()); END;\n");
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String dropStampTriggers(String table) {
+        StringBuilder sql = new StringBuilder();
+        for (String change : STAMPED_CHANGES) {
+            sql.append("DROP TRIGGER IF EXISTS ").append(table).append("_stamp_").append(change.toLowerCase()).append(";\n");
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public Map<String, String> secondaryIndexes(Connection connection, Collection<String> tables) throws SQLException {
+        StringBuilder names = new StringBuilder();
+        for (String table : tables) {
+            names.append(names.length() == 0 ? "'" : ", '").append(table.toLowerCase()).append("'");
+        }
+        Map<String, String> indexes = new LinkedHashMap<String, String>();
+        Statement stmt = connection.createStatement();
+        try {
+            // Indexes made for constraints have no sql.
+            ResultSet rs = stmt.executeQuery(
+                "SELECT name, sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL" +
+                " AND LOWER(tbl_name) IN (" + names + ")");
+            while (rs.next()) {
+                indexes.put(rs.getString(1), rs.getString(2));
+            }
+        } finally {
+            stmt.close();
+        }
+        return indexes;
+    }
+
+    @Override
+    public String textRange(ResultSet rs, int column, int start, int stop) throws SQLException {
+        String text = rs.getString(column);
+        if (text == null) {
+            return null;
+        }
+        return start >= text.length() ? "" : text.substring(start, Math.min(stop, text.length()));
+    }
+
+    /**
+     * The schema of VizLincRDB.H2_SCHEMA, in SQLite. SQLite requires indexes to be named.
+     */
+    public static final String SQLITE_SCHEMA =
+"CREATE TABLE entity (\n" +
+"	entity_id INTEGER,\n" +
+"	type VARCHAR,\n" +
+"	text VARCHAR,\n" +
+"	created_by VARCHAR,\n" +
+"	num_documents INTEGER,\n" +
+"	num_mentions INTEGER,\n" +
+"	PRIMARY KEY (entity_id)\n" +
+"	);\n" +
+"\n" +
+"CREATE INDEX entity_type ON entity(type);\n" +
+"CREATE INDEX entity_created_by ON entity(created_by);\n" +
+"CREATE INDEX entity_num_documents ON entity(num_documents);\n" +
+"\n" +
+"CREATE TABLE geolocation (\n" +
+"	entity_id INTEGER,\n" +
+"	rank INTEGER,\n" +
+"	latitude DOUBLE,\n" +
+"	longitude DOUBLE,\n" +
+"	latitude_south DOUBLE,\n" +
+"	latitude_north DOUBLE,\n" +
+"	longitude_west DOUBLE,\n" +
+"	longitude_east DOUBLE,\n" +
+"	name VARCHAR,\n" +
+"	osm_type VARCHAR,\n" +
+"	nga_designation VARCHAR,\n" +
+"	country VARCHAR,\n" +
+"	source VARCHAR,\n" +
+"	PRIMARY KEY(entity_id, rank)\n" +
+"	);\n" +
+"\n" +
+"CREATE INDEX geolocation_rank ON geolocation(rank);\n" +
+"\n" +
+"CREATE TABLE date (\n" +
+"	entity_id INTEGER,\n" +
+"	canonical_text VARCHAR,\n" +
+"	canonical_date DATE,\n" +
+"	PRIMARY KEY (entity_id),\n" +
+"	FOREIGN KEY(entity_id) REFERENCES entity(entity_id) ON DELETE CASCADE ON UPDATE CASCADE\n" +
+"	);\n" +
+"\n" +
+"CREATE TABLE document (\n" +
+"	document_id INTEGER,\n" +
+"	name VARCHAR,\n" +
+"	path VARCHAR,\n" +
+"	text CLOB,\n" +
+"	PRIMARY KEY (document_id)\n" +
+"	);\n" +
+"\n" +
+"CREATE INDEX document_name ON document(name);\n" +
+"\n" +
+"CREATE TABLE mention (\n" +
+"	mention_id INTEGER,\n" +
+"	document_id INTEGER NOT NULL,\n" +
+"	entity_id INTEGER,\n" +
+"	type VARCHAR,\n" +
+"	text VARCHAR,\n" +
+"	\"INDEX\" INTEGER,\n" +
+"	global_id INTEGER,\n" +
+"	text_start INTEGER,\n" +
+"	text_stop INTEGER,\n" +
+"	PRIMARY KEY (mention_id),\n" +
+"	FOREIGN KEY (document_id) REFERENCES document(document_id) ON DELETE CASCADE ON UPDATE CASCADE,\n" +
+"	FOREIGN KEY (entity_id) REFERENCES entity(entity_id) ON DELETE CASCADE ON UPDATE CASCADE\n" +
+"	);\n" +
+"\n" +
+"CREATE INDEX mention_type ON mention(type);\n" +
+"CREATE INDEX mention_document_id ON mention(document_id);\n" +
+"CREATE INDEX mention_entity_id ON mention(entity_id);\n" +
+"CREATE INDEX mention_entity_document_text ON mention(entity_id, document_id, text);\n" +
+"\n" +
+"CREATE TABLE document_entity (\n" +
+"	document_id INTEGER NOT NULL,\n" +
+"	entity_id INTEGER NOT NULL,\n" +
+"	num_mentions INTEGER,\n" +
+"	PRIMARY KEY (document_id, entity_id),\n" +
+"	FOREIGN KEY (document_id) REFERENCES document(document_id) ON DELETE CASCADE ON UPDATE CASCADE,\n" +
+"	FOREIGN KEY (entity_id) REFERENCES entity(entity_id) ON DELETE CASCADE ON UPDATE CASCADE\n" +
+"	);\n" +
+"\n" +
+"CREATE INDEX document_entity_entity_id ON document_entity(entity_id);\n" +
+"\n" +
+"CREATE TABLE schema_version (\n" +
+"	version INTEGER\n" +
+"	);\n" +
+"\n" +
+"CREATE TABLE table_stamp (\n" +
+"	table_name VARCHAR PRIMARY KEY,\n" +
+"	stamp BIGINT\n" +
+"	);\n" +
+"";
+}
@@ -0,0 +1,229 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the state of the database tables a VizLincRDBMem snapshot was built from: the schema version, and for each
+ * table its stamp (see VizLincRDB.touchTables()), its row count and, optionally, a checksum of its rows. Comparing the
+ * stamps and row counts stored in a snapshot with those in the database tells which tables have changed since the
+ * snapshot was built, without reading the tables: triggers change a table's stamp on every change, and the row count
+ * catches what they can't see, such as a TRUNCATE or a change made while they were missing.
+ *
+ * Changes that neither alter the stamp nor the row count are only found by comparing checksums, which reads the whole
+ * table. The
+ * checksum of a table is the sum of a 64-bit hash of each row's values, over the columns the snapshot uses, so it
+ * does not depend on row order, and any change to a row (such as a mention being reassigned to another entity)
+ * changes it, short of a hash collision. Document text is not included, since the snapshot does not hold it.
+ */
+class SnapshotManifest {
+
+    /** The tables the snapshot is built from. */
+    static final List<String> TABLES = Collections.unmodifiableList(Arrays.asList("document", "entity", "mention", "geolocation", "document_entity"));
+
+    // The tables whose snapshot sections hold counts derived from the mention table: when the mentions change, these
+    // are rebuilt too, whether or not they were touched.
+    private static final List<String> DERIVED_FROM_MENTIONS = Arrays.asList("entity", "document_entity");
+
+    private static final Map<String, String> CHECKSUM_COLUMNS = new HashMap<String, String>();
+
+    static {
+        CHECKSUM_COLUMNS.put("document", "document_id, name, path");
+        CHECKSUM_COLUMNS.put("entity", "entity_id, type, text, created_by, num_documents, num_mentions");
+        CHECKSUM_COLUMNS.put("mention", "mention_id, document_id, entity_id, type, text, \"INDEX\", global_id, text_start, text_stop");
+        CHECKSUM_COLUMNS.put("geolocation", "entity_id, rank, latitude, longitude");
+        CHECKSUM_COLUMNS.put("document_entity", "document_id, entity_id, num_mentions");
+    }
+
+    private final int schemaVersion;
+    private final Map<String, Long> stamps = new HashMap<String, Long>();
+    private final Map<String, Long> rowCounts = new HashMap<String, Long>();
+    private final Map<String, Long> checksums = new HashMap<String, Long>();
+
+    SnapshotManifest(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * Return a manifest of the current stamps and row counts of the tables, without checksums.
+     */
+    static SnapshotManifest read(VizLincRDB rdb) throws SQLException {
+        SnapshotManifest manifest = new SnapshotManifest(VizLincRDB.SCHEMA_VERSION);
+        Map<String, Long> stamps = rdb.getTableStamps();
+        try (PooledConnection pc = rdb.connection()) {
+            for (String table : TABLES) {
+                // A table that has never been touched has no stamp, which is as good as stamp 0.
+                Long stamp = stamps.get(table);
+                manifest.stamps.put(table, stamp == null ? 0L : stamp);
+                // H2 keeps the row count of a table, so this does not read it.
+                ResultSet rs = pc.createStatement().executeQuery("SELECT COUNT(*) FROM " + table);
+                rs.next();
+                manifest.rowCounts.put(table, rs.getLong(1));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Compute the checksum of one table, reading all of it. Different tables may be checksummed concurrently, on a
+     * VizLincRDB with a connection pool.
+     */
+    void checksum(VizLincRDB rdb, String table) throws SQLException {
+        String columns = CHECKSUM_COLUMNS.get(table);
+        if (columns == null) {
+            throw new IllegalArgumentException("Not a snapshot table: " + table);
+        }
+        long sum = 0;
+        try (PooledConnection pc = rdb.connection()) {
+            ResultSet rs = pc.createStatement().executeQuery("SELECT " + columns + " FROM " + table);
+            int columnCount = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                long rowHash = 0;
+                for (int i = 1; i <= columnCount; i++) {
+                    String value = rs.getString(i);
+                    rowHash = mix(rowHash * 31 + (value == null ? -1L : ((long) value.length() << 32) + value.hashCode()));
+                }
+                sum += mix(rowHash);
+            }
+        }
+        synchronized (this) {
+            checksums.put(table, sum);
+        }
+    }
+
+    /**
+     * Compute the checksums of all the tables, one after another.
+     */
+    void checksumAll(VizLincRDB rdb) throws SQLException {
+        for (String table : TABLES) {
+            checksum(rdb, table);
+        }
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator: spreads every bit of x over all the bits of the result.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Copy the checksums of the given tables from another manifest, where it has them.
+     */
+    synchronized void copyChecksums(SnapshotManifest other, Collection<String> tables) {
+        synchronized (other) {
+            for (String table : tables) {
+                Long checksum = other.checksums.get(table);
+                if (checksum != null) {
+                    checksums.put(table, checksum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the tables whose stamp or row count differs between this manifest and other, together with the tables
+     * derived from them; or all the tables if the schema versions differ.
+     */
+    synchronized Set<String> changedTables(SnapshotManifest other) {
+        if (other == null || other.getSchemaVersion() != schemaVersion) {
+            return new LinkedHashSet<String>(TABLES);
+        }
+        Set<String> touched = new LinkedHashSet<String>();
+        synchronized (other) {
+            for (String table : TABLES) {
+                Long stamp = stamps.get(table);
+                Long rowCount = rowCounts.get(table);
+                if (stamp == null || !stamp.equals(other.stamps.get(table))
+                    || rowCount == null || !rowCount.equals(other.rowCounts.get(table))) {
+                    touched.add(table);
+                }
+            }
+        }
+        if (touched.contains("mention")) {
+            touched.addAll(DERIVED_FROM_MENTIONS);
+        }
+        // In TABLES order.
+        Set<String> changed = new LinkedHashSet<String>(TABLES);
+        changed.retainAll(touched);
+        return changed;
+    }
+
+    /**
+     * Return the tables that this manifest has checksums for and whose checksum differs from (or is missing in) other.
+     */
+    synchronized Set<String> changedChecksums(SnapshotManifest other) {
+        Set<String> changed = new LinkedHashSet<String>();
+        synchronized (other) {
+            for (String table : TABLES) {
+                Long checksum = checksums.get(table);
+                if (checksum != null && !checksum.equals(other.checksums.get(table))) {
+                    changed.add(table);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Add this manifest to a snapshot, as sections whose names start with prefix.
+     */
+    synchronized void writeTo(ColumnarSnapshot.Writer writer, String prefix) {
+        List<String> tables = new ArrayList<String>(stamps.keySet());
+        Collections.sort(tables);
+        List<String> stampValues = new ArrayList<String>(tables.size());
+        List<String> rowCountValues = new ArrayList<String>(tables.size());
+        List<String> checksumValues = new ArrayList<String>(tables.size());
+        for (String table : tables) {
+            Long checksum = checksums.get(table);
+            Long rowCount = rowCounts.get(table);
+            stampValues.add(Long.toString(stamps.get(table)));
+            rowCountValues.add(rowCount == null ? null : Long.toString(rowCount));
+            checksumValues.add(checksum == null ? null : Long.toString(checksum));
+        }
+        writer.putInts(prefix + "schemaVersion", new int[] {schemaVersion}, 1)
+            .putStrings(prefix + "tables", tables)
+            .putStrings(prefix + "stamps", stampValues)
+            .putStrings(prefix + "rowCounts", rowCountValues)
+            .putStrings(prefix + "checksums", checksumValues);
+    }
+
+    /**
+     * Return the manifest stored in a snapshot by writeTo(), or null if there is none.
+     */
+    static SnapshotManifest readFrom(ColumnarSnapshot snapshot, String prefix) {
+        if (!snapshot.has(prefix + "schemaVersion")) {
+            return null;
+        }
+        SnapshotManifest manifest = new SnapshotManifest(snapshot.ints(prefix + "schemaVersion").get(0));
+        List<String> tables = snapshot.strings(prefix + "tables");
+        List<String> stampValues = snapshot.strings(prefix + "stamps");
+        List<String> rowCountValues = snapshot.strings(prefix + "rowCounts");
+        List<String> checksumValues = snapshot.strings(prefix + "checksums");
+        for (int i = 0; i < tables.size(); i++) {
+            manifest.stamps.put(tables.get(i), Long.parseLong(stampValues.get(i)));
+            if (rowCountValues.get(i) != null) {
+                manifest.rowCounts.put(tables.get(i), Long.parseLong(rowCountValues.get(i)));
+            }
+            if (checksumValues.get(i) != null) {
+                manifest.checksums.put(tables.get(i), Long.parseLong(checksumValues.get(i)));
+            }
+        }
+        return manifest;
+    }
+}
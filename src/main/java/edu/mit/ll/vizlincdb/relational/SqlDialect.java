@@ -0,0 +1,110 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.Reader;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * What differs between the database engines a VizLincRDB can be stored in: how to connect, the schema DDL, temporary
+ * tables, index metadata and reading long texts. The queries themselves are written in SQL all of them accept; in
+ * particular the mention column "INDEX", a reserved word in some, is always quoted.
+ */
+public abstract class SqlDialect {
+
+    /**
+     * Return the JDBC URL for the database in the given directory.
+     *
+     * @param databasePath directory of the database
+     * @param pooled true if several connections will query it concurrently
+     */
+    public abstract String url(String databasePath, boolean pooled);
+
+    public String user() {
+        return "sa";
+    }
+
+    public String password() {
+        return "";
+    }
+
+    /**
+     * Prepare a newly opened connection for use, e.g. by setting per-connection options.
+     */
+    public void initConnection(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Return the statements that create the schema, of version VizLincRDB.SCHEMA_VERSION, in an empty database.
+     */
+    public abstract String schema();
+
+    /**
+     * Return a statement that creates, if it does not exist yet, a temporary table named table, with one column, id
+     * INT PRIMARY KEY, that is private to the connection. It must not commit a transaction in progress.
+     */
+    public abstract String createIdTable(String table);
+
+    /**
+     * Return the statements that create, where they don't exist, the triggers that call VizLincRDB.stampTables() for
+     * table after each insert, update or delete.
+     */
+    public abstract String createStampTriggers(String table);
+
+    /**
+     * Return the statements that drop the triggers made by createStampTriggers(), where they exist.
+     */
+    public abstract String dropStampTriggers(String table);
+
+    /**
+     * Return whether the database has the given table.
+     */
+    public boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[] {table, table.toUpperCase()}) {
+            ResultSet rs = metaData.getTables(null, null, name, null);
+            try {
+                if (rs.next()) {
+                    return true;
+                }
+            } finally {
+                rs.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the indexes of the given tables that don't belong to a primary key or other constraint, as a map from
+     * index name to the statement that creates it.
+     */
+    public abstract Map<String, String> secondaryIndexes(Connection connection, Collection<String> tables) throws SQLException;
+
+    /**
+     * Return a Reader over the text in the given column of the current row, or null if it is null.
+     */
+    public Reader textReader(ResultSet rs, int column) throws SQLException {
+        return rs.getCharacterStream(column);
+    }
+
+    /**
+     * Return the characters from start to stop of the text in the given column of the current row, clipped to the
+     * text, or null if it is null. This implementation reads only those characters of a CLOB.
+     */
+    public String textRange(ResultSet rs, int column, int start, int stop) throws SQLException {
+        Clob text = rs.getClob(column);
+        if (text == null) {
+            return null;
+        }
+        long length = text.length();
+        if (start >= length) {
+            return "";
+        }
+        // Clob positions start at 1.
+        return text.getSubString(start + 1, (int) Math.min(stop - start, length - start));
+    }
+}
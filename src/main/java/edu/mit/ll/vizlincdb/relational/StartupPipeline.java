@@ -0,0 +1,103 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the stages of VizLincRDBMem startup on an executor, each as soon as the stages it depends on are done, and
+ * records their timings in a StartupReport.
+ *
+ * Stages must be added after the stages they depend on. Because the executor starts stages in the order they are
+ * added, every stage a running stage waits for has already started, so a pool of any size cannot deadlock.
+ */
+class StartupPipeline {
+
+    /**
+     * The work of one stage.
+     */
+    interface Step {
+
+        void run() throws SQLException;
+    }
+
+    private final ExecutorService executor;
+    private final StartupReport report;
+    private final Map<String, Future<Void>> stages = new LinkedHashMap<String, Future<Void>>();
+
+    StartupPipeline(ExecutorService executor, StartupReport report) {
+        this.executor = executor;
+        this.report = report;
+    }
+
+    /**
+     * Add a stage that runs step once all the named stages are done. If one of those fails, so does this stage.
+     */
+    void add(final String name, final Step step, String... dependencies) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup stage: " + name);
+        }
+        final Future<?>[] waitFor = new Future<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            waitFor[i] = stages.get(dependencies[i]);
+            if (waitFor[i] == null) {
+                throw new IllegalArgumentException("Startup stage " + name + " depends on unknown stage " + dependencies[i]);
+            }
+        }
+        stages.put(name, executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (Future<?> dependency : waitFor) {
+                    dependency.get();
+                }
+                float startSeconds = report.secondsElapsed();
+                ElapsedTime timer = new ElapsedTime();
+                step.run();
+                report.record(name, startSeconds, timer);
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Wait for all the stages added so far. If any failed, throw the failure of the first one added.
+     */
+    void await() throws SQLException {
+        Throwable failure = null;
+        for (Future<Void> stage : stages.values()) {
+            try {
+                stage.get();
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = rootFailure(ex);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted during startup", ex);
+            }
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException("Startup stage failed", failure);
+        }
+    }
+
+    // A stage that failed because a dependency failed reports the dependency's failure.
+    private static Throwable rootFailure(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        while (cause instanceof ExecutionException) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,112 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Per-stage wall-clock timings of opening a VizLincRDBMem. Stages may run concurrently, so the stage times can add up
+ * to more than the total.
+ */
+public class StartupReport {
+
+    /**
+     * Timing of a single startup stage. Times are in seconds, measured from the start of startup.
+     */
+    public static class Stage {
+
+        public final String name;
+        public final float startSeconds;
+        public final float seconds;
+        public final String threadName;
+
+        public Stage(String name, float startSeconds, float seconds, String threadName) {
+            this.name = name;
+            this.startSeconds = startSeconds;
+            this.seconds = seconds;
+            this.threadName = threadName;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + String.format("%.2f", seconds) + " (at " + String.format("%.2f", startSeconds) + ", " + threadName + ")";
+        }
+    }
+
+    private final ElapsedTime clock = new ElapsedTime();
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private float totalSeconds = 0;
+
+    /**
+     * Return the seconds since the start of startup.
+     */
+    float secondsElapsed() {
+        return clock.secondsElapsed();
+    }
+
+    /**
+     * Record a stage that ran on the current thread for the given time, starting at startSeconds.
+     */
+    synchronized void record(String name, float startSeconds, ElapsedTime timer) {
+        stages.add(new Stage(name, startSeconds, timer.secondsElapsed(), Thread.currentThread().getName()));
+    }
+
+    /**
+     * Mark the end of startup.
+     */
+    synchronized void done() {
+        totalSeconds = clock.secondsElapsed();
+    }
+
+    /**
+     * Return the stages, in the order they started.
+     *
+     * @return List of Stage
+     */
+    public synchronized List<Stage> getStages() {
+        List<Stage> sorted = new ArrayList<Stage>(stages);
+        Collections.sort(sorted, new Comparator<Stage>() {
+            @Override
+            public int compare(Stage a, Stage b) {
+                return Float.compare(a.startSeconds, b.startSeconds);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Return the stage with the given name, or null if there was none.
+     *
+     * @param name
+     * @return Stage or null
+     */
+    public synchronized Stage getStage(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the wall-clock time of the whole startup, in seconds.
+     *
+     * @return seconds
+     */
+    public synchronized float getTotalSeconds() {
+        return totalSeconds;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : getStages()) {
+            sb.append(stage).append('\n');
+        }
+        sb.append("startup total: ").append(String.format("%.2f", getTotalSeconds())).append('\n');
+        return sb.toString();
+    }
+}
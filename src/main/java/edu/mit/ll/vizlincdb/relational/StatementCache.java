@@ -0,0 +1,92 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of one connection, keyed by SQL text and kept in least-recently-used order, so that a
+ * query run again is not parsed and planned again. When there are more than the given capacity, the least recently
+ * used ones are closed.
+ *
+ * Used by one thread at a time: whichever holds the connection's lease.
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    // Written only by the leasing thread; volatile so that statistics can be read from any thread.
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+    private volatile long evictions = 0;
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Return the statement for sql, with its parameters cleared, preparing it if it is not cached. Then close the
+     * least recently used statements beyond capacity.
+     *
+     * @param sql
+     * @param capacity at least 1
+     */
+    PreparedStatement prepare(String sql, int capacity) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null) {
+            hits++;
+            stmt.clearParameters();
+            return stmt;
+        }
+        misses++;
+        stmt = connection.prepareStatement(sql);
+        statements.put(sql, stmt);
+        trim(capacity);
+        return stmt;
+    }
+
+    /**
+     * Close the least recently used statements until at most capacity are left.
+     */
+    void trim(int capacity) throws SQLException {
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+        while (statements.size() > capacity) {
+            PreparedStatement stmt = iterator.next().getValue();
+            iterator.remove();
+            evictions++;
+            stmt.close();
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Close all the statements.
+     */
+    void close() throws SQLException {
+        try {
+            for (PreparedStatement stmt : statements.values()) {
+                stmt.close();
+            }
+        } finally {
+            statements.clear();
+        }
+    }
+}
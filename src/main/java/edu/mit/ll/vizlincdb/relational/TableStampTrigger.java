@@ -0,0 +1,65 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.h2.api.Trigger;
+import org.h2.engine.SessionInterface;
+import org.h2.jdbc.JdbcConnection;
+
+/**
+ * An H2 statement trigger that gives a table a new stamp (see VizLincRDB.touchTables()) whenever it is changed, by
+ * anything: VizLincRDB opens the database with one on each table a VizLincRDBMem snapshot is derived from. The stamp
+ * is changed once per transaction, not once per statement, where H2 can tell transactions apart.
+ *
+ * H2 loads this class by name, so it must be on the classpath of whatever writes to the database, including the H2
+ * console; otherwise writes to the stamped tables fail.
+ */
+public class TableStampTrigger implements Trigger {
+
+    private String table;
+    // The transaction that last changed the stamp, which H2 never reuses; null if unknown.
+    private volatile String lastTransactionId;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) {
+        table = tableName.toLowerCase();
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        // In auto-commit mode, each statement run here would try to commit when it finishes, which H2 does not allow
+        // within a trigger. The statement that fired the trigger commits what they change.
+        SessionInterface session = ((JdbcConnection) conn).getSession();
+        boolean autoCommit = session.getAutoCommit();
+        session.setAutoCommit(false);
+        try {
+            String transactionId;
+            Statement stmt = conn.createStatement();
+            try {
+                // Null if the database is in memory.
+                ResultSet rs = stmt.executeQuery("CALL TRANSACTION_ID()");
+                rs.next();
+                transactionId = rs.getString(1);
+            } finally {
+                stmt.close();
+            }
+            if (transactionId != null && transactionId.equals(lastTransactionId)) {
+                return;
+            }
+            VizLincRDB.stampTables(conn, table);
+            lastTransactionId = transactionId;
+        } finally {
+            session.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
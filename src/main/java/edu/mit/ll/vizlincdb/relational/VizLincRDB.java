@@ -1,5 +1,6 @@
 package edu.mit.ll.vizlincdb.relational;
 
+import com.google.common.collect.Lists;
 import edu.mit.ll.vizlincdb.document.Document;
 import edu.mit.ll.vizlincdb.geo.GeoBoundingBox;
 import edu.mit.ll.vizlincdb.geo.GeoLocation;
@@ -14,6 +15,9 @@ import edu.mit.ll.vizlincdb.entity.PersonEntity;
 import edu.mit.ll.vizlincdb.entity.DateEntity;
 import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
 import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -22,9 +26,14 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * An API to hide the details of an RDB version of the  VizLinc graph.
@@ -32,14 +41,18 @@ import java.util.Map;
 public class VizLincRDB {
 
     public enum Implementation {
-        H2(new String[] {"h2"});
+        H2(new String[] {"h2"}, new H2Dialect(false)),
+        H2_MVSTORE(new String[] {"h2mv"}, new H2Dialect(true)),
+        SQLITE(new String[] {"sqlite"}, new SQLiteDialect());
 
         public static Implementation DEFAULT = H2;
 
         public final String[] tags;
+        public final SqlDialect dialect;
 
-        Implementation(String[] tags) {
+        Implementation(String[] tags, SqlDialect dialect) {
             this.tags = tags;
+            this.dialect = dialect;
         }
 
         /**
@@ -60,8 +73,55 @@ public class VizLincRDB {
         }
     }
 
+    /**
+     * Version of H2_SCHEMA. Change this whenever H2_SCHEMA changes, and add a migration to MIGRATIONS.
+     */
+    public static final int SCHEMA_VERSION = 3;
+
+    /**
+     * Statements that upgrade an existing database from each earlier schema version to the next: MIGRATIONS[v - 1]
+     * upgrades version v. Databases of version 1 have no schema_version table.
+     */
+    private static final String[] MIGRATIONS = {
+        // 1 to 2: composite index for looking up mention texts by entity and document.
+        "CREATE TABLE IF NOT EXISTS schema_version (version INT);\n" +
+        "CREATE INDEX IF NOT EXISTS mention_entity_document_text ON mention(entity_id, document_id, text);\n",
+        // 2 to 3: change stamps of the tables, which VizLincRDBMem compares with those its snapshot was built from.
+        "CREATE TABLE IF NOT EXISTS table_stamp (table_name VARCHAR PRIMARY KEY, stamp BIGINT);\n",
+    };
+
+    /**
+     * Number of ids above which a query's list of ids is loaded into a temporary table rather than bound as
+     * parameters.
+     */
+    public static final int INLINE_ID_LIMIT = 128;
+
+    // Queries whose plans VizLincRDBSchemaTest checks, so that it checks the SQL actually run. A %s is a list of ids,
+    // filled in by prepareWithIds().
+    static final String SELECT_DOCUMENTS_WITH_IDS = "SELECT document_id, name, path FROM document WHERE document_id IN (%s)";
+    static final String SELECT_FIRST_N_GEO_POINTS = "SELECT latitude, longitude FROM geolocation WHERE entity_id = ? ORDER BY rank";
+    static final String SELECT_TOP_GEO_POINTS = "SELECT latitude, longitude, entity_id FROM geolocation WHERE entity_id IN (%s) AND rank = 0";
+    static final String SELECT_DISTINCT_MENTION_TEXTS_IN_DOCUMENT = "SELECT DISTINCT(text) FROM mention WHERE entity_id = ? AND document_id = ?";
+
+    /**
+     * Default number of connections for a pooled VizLincRDB.
+     */
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The primary connection, used for updates and transactions. Without a pool, queries use it too.
+     */
     public Connection conn;
 
+    // Connections for queries: a pool of conn alone if poolSize is 0, unless a temporary pool is in use.
+    private volatile ConnectionPool pool;
+    // The pool to go back to when a temporary one is ended, or null if none is in use.
+    private ConnectionPool savedPool;
+    private String url;
+    private int poolSize;
+    private SqlDialect dialect;
+    private boolean readOnly;
+
     /**
      * Open an existing VizLinc database or create a new one at the path specified by the File (which will be a directory).
      *
@@ -119,6 +179,50 @@ public class VizLincRDB {
      * @param impl which relational db is used to implement this VizLincRDB.
      */
     public VizLincRDB(String databasePath, boolean newDB, Implementation impl) throws SQLException {
+        this(databasePath, newDB, impl, 0);
+    }
+
+     /**
+     * Open an existing VizLinc database or create a new one at the path specified (which will be a directory).
+     *
+     * If poolSize is positive, queries run on a pool of up to poolSize connections, each leased to one thread at a
+     * time and keeping its own prepared statements, so that concurrent queries don't wait for each other. The
+     * database is then opened with H2's MULTI_THREADED setting, which lets its sessions run in parallel. (H2 cannot
+     * combine that with MVCC, which readers don't need.) H2 1.3 documents MULTI_THREADED as experimental. Updates
+     * and transactions still use conn.
+     *
+     * @param databasePath specifies a directory for the database.
+     * @param newDB true if a new database should be created. Will throw IllegalArgument exception if a non-empty directory exists
+     * and newDB is true, or if directory does not exists or is empty and newDB is false.
+     * should exist).
+     * @param impl which relational db is used to implement this VizLincRDB.
+     * @param poolSize maximum number of pooled query connections, or 0 for none
+     */
+    public VizLincRDB(String databasePath, boolean newDB, Implementation impl, int poolSize) throws SQLException {
+        this(databasePath, newDB, impl, poolSize, null);
+    }
+
+     /**
+     * Open an existing VizLinc database or create a new one at the path specified (which will be a directory), with
+     * the given H2 settings, e.g. H2Tuning.bulkLoad() for a database about to be loaded.
+     *
+     * @param databasePath specifies a directory for the database.
+     * @param newDB true if a new database should be created. Will throw IllegalArgument exception if a non-empty directory exists
+     * and newDB is true, or if directory does not exists or is empty and newDB is false.
+     * @param impl which relational db is used to implement this VizLincRDB; an H2 one if tuning is given.
+     * @param poolSize maximum number of pooled query connections, or 0 for none
+     * @param tuning H2 settings, or null for the Implementation's
+     */
+    public VizLincRDB(String databasePath, boolean newDB, Implementation impl, int poolSize, H2Tuning tuning) throws SQLException {
+        this.poolSize = poolSize;
+        if (tuning != null) {
+            if (!(impl.dialect instanceof H2Dialect)) {
+                throw new IllegalArgumentException("H2 tuning given for a " + impl + " database");
+            }
+            if (newDB && tuning.isReadOnly()) {
+                throw new IllegalArgumentException("Cannot create a new database read-only");
+            }
+        }
         File dir = new File(databasePath);
         if (dir.isDirectory() && dir.list().length > 0) {
             if (newDB) {
@@ -130,17 +234,29 @@ public class VizLincRDB {
             }
         }
 
-        switch (impl) {
-            case H2:
-                conn = DriverManager.getConnection("jdbc:h2:" + databasePath + "/data" + ";CACHE_SIZE=131072", "sa", "");
-
-                if (newDB) {
-                    Statement stmt = conn.createStatement();
-                    stmt.execute(H2_SCHEMA);
+        dialect = tuning == null ? impl.dialect : ((H2Dialect) impl.dialect).withTuning(tuning);
+        if (newDB) {
+            dir.mkdirs();
+        }
+        url = dialect.url(databasePath, poolSize > 0);
+        conn = DriverManager.getConnection(url, dialect.user(), dialect.password());
+        dialect.initConnection(conn);
+        readOnly = conn.isReadOnly();
 
-                }
-                break;
+        if (newDB) {
+            Statement stmt = conn.createStatement();
+            // executeUpdate, which runs every statement of a script in all the engines.
+            stmt.executeUpdate(dialect.schema());
+            stmt.close();
+            setSchemaVersion(SCHEMA_VERSION);
+        } else {
+            migrate();
         }
+        if (!readOnly) {
+            // Every time, since a loader that died may have left them dropped.
+            createStampTriggers();
+        }
+        pool = poolSize > 0 ? new ConnectionPool(url, dialect, poolSize) : new ConnectionPool(conn, dialect);
     }
 
      /**
@@ -152,6 +268,302 @@ public class VizLincRDB {
         this(databasePath, false);
     }
 
+    /**
+     * Open an existing VizLinc database at the path specified (which will be a directory), with a pool of query
+     * connections.
+     *
+     * @param databasePath
+     * @param poolSize maximum number of pooled query connections, or 0 for none
+     */
+    public VizLincRDB(String databasePath, int poolSize) throws SQLException {
+        this(databasePath, false, Implementation.implementationForPath(databasePath), poolSize);
+    }
+
+    /**
+     * Open an existing VizLinc database at the path specified (which will be a directory), with a pool of query
+     * connections and the given H2 settings, e.g. H2Tuning.readOnlyServing() for a query node.
+     *
+     * @param databasePath
+     * @param poolSize maximum number of pooled query connections, or 0 for none
+     * @param tuning H2 settings, or null for the Implementation's
+     */
+    public VizLincRDB(String databasePath, int poolSize, H2Tuning tuning) throws SQLException {
+        this(databasePath, false, Implementation.implementationForPath(databasePath), poolSize, tuning);
+    }
+
+    /**
+     * Return the schema version recorded in the database.
+     *
+     * @return version
+     */
+    public int getSchemaVersion() throws SQLException {
+        if (!dialect.tableExists(conn, "schema_version")) {
+            return 1;
+        }
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version");
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void setSchemaVersion(int version) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("DELETE FROM schema_version");
+            stmt.execute("INSERT INTO schema_version VALUES(" + version + ")");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Record that the given tables have changed, by giving each a new stamp in the table_stamp table, in the
+     * current transaction if there is one. The tables a VizLincRDBMem snapshot is derived from have triggers that do
+     * this on every change (see SqlDialect.createStampTriggers()), so this is only needed for changes made while the
+     * triggers are dropped, as VizLincRDBLoader does, or that the triggers would not see.
+     *
+     * @param tables
+     */
+    public void touchTables(String... tables) throws SQLException {
+        stampTables(conn, tables);
+    }
+
+    /**
+     * Give the given tables new stamps, on the given connection.
+     */
+    static void stampTables(Connection conn, String... tables) throws SQLException {
+        PreparedStatement update = conn.prepareStatement("UPDATE table_stamp SET stamp = ? WHERE table_name = ?");
+        PreparedStatement insert = conn.prepareStatement("INSERT INTO table_stamp (table_name, stamp) VALUES (?, ?)");
+        try {
+            for (String table : tables) {
+                // Random rather than counted, so that a stamp is never reused, even by a database restored from a copy.
+                long stamp = ThreadLocalRandom.current().nextLong();
+                update.setLong(1, stamp);
+                update.setString(2, table);
+                if (update.executeUpdate() == 0) {
+                    insert.setString(1, table);
+                    insert.setLong(2, stamp);
+                    insert.executeUpdate();
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Create the triggers that change the stamps of the snapshot tables whenever they change, where they don't exist.
+     */
+    void createStampTriggers() throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            for (String table : SnapshotManifest.TABLES) {
+                stmt.executeUpdate(dialect.createStampTriggers(table));
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Drop the triggers made by createStampTriggers().
+     */
+    void dropStampTriggers() throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            for (String table : SnapshotManifest.TABLES) {
+                stmt.executeUpdate(dialect.dropStampTriggers(table));
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Return the stamps of the tables that have been touched, by table name.
+     */
+    Map<String, Long> getTableStamps() throws SQLException {
+        Map<String, Long> stamps = new HashMap<String, Long>();
+        try (PooledConnection pc = connection()) {
+            ResultSet rs = pc.createStatement().executeQuery("SELECT table_name, stamp FROM table_stamp");
+            while (rs.next()) {
+                stamps.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return stamps;
+    }
+
+    /**
+     * Bring an existing database up to SCHEMA_VERSION, one version at a time.
+     */
+    private void migrate() throws SQLException {
+        int version = getSchemaVersion();
+        if (version > SCHEMA_VERSION) {
+            throw new RuntimeException("Database schema version " + version + " is newer than this code's, " + SCHEMA_VERSION);
+        }
+        if (version < SCHEMA_VERSION && conn.isReadOnly()) {
+            throw new RuntimeException("Database schema version " + version + " needs migrating to " + SCHEMA_VERSION
+                + ", which a read-only database can't be; open it once writable first");
+        }
+        for (; version < SCHEMA_VERSION; version++) {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.executeUpdate(MIGRATIONS[version - 1]);
+            } finally {
+                stmt.close();
+            }
+            setSchemaVersion(version + 1);
+        }
+    }
+
+    /**
+     * Return the SQL dialect of this database's engine.
+     *
+     * @return SqlDialect
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Return the maximum number of pooled query connections.
+     *
+     * @return pool size, or 0 if queries use the primary connection
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Set the maximum number of prepared statements kept by each query connection, most recently used first. Each
+     * query method prepares its statements through this cache, so repeated calls skip parsing and planning.
+     *
+     * @param statementCacheSize 0 to prepare statements afresh on each call
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        pool.setStatementCacheSize(statementCacheSize);
+    }
+
+    /**
+     * Return the statement cache statistics of all the query connections, as {hits, misses, evictions}.
+     *
+     * @return array of three counts
+     */
+    long[] getStatementCacheStats() {
+        return pool.statementCacheStats();
+    }
+
+    /**
+     * If this VizLincRDB has no pool, run queries on a temporary pool of up to size connections of their own until
+     * endTemporaryPool() is called, for work that queries from several threads at once, such as VizLincRDBMem's
+     * startup. The database keeps its settings: without MULTI_THREADED, H2 runs one statement at a time, but the
+     * threads don't wait for each other's results to be read. Not to be called while other threads run queries.
+     *
+     * @param size
+     * @return true if a temporary pool is now in use; false if this VizLincRDB has a pool already
+     */
+    boolean beginTemporaryPool(int size) {
+        if (poolSize > 0) {
+            return false;
+        }
+        if (savedPool != null) {
+            throw new IllegalStateException("A temporary pool is already in use");
+        }
+        savedPool = pool;
+        pool = new ConnectionPool(url, dialect, size);
+        return true;
+    }
+
+    /**
+     * Close the temporary pool and go back to running queries on conn.
+     */
+    void endTemporaryPool() throws SQLException {
+        if (savedPool == null) {
+            throw new IllegalStateException("No temporary pool is in use");
+        }
+        ConnectionPool temporaryPool = pool;
+        pool = savedPool;
+        savedPool = null;
+        temporaryPool.close();
+    }
+
+    /**
+     * Lease a connection for a query to the current thread: a pooled connection if there is a pool, otherwise conn,
+     * which other threads' queries then wait for. The lease must be closed.
+     */
+    PooledConnection connection() throws SQLException {
+        return pool.acquire();
+    }
+
+    /**
+     * Prepare sql, in which each %s stands for one of the idLists, to be used as "x IN (%s)", and bind the ids.
+     *
+     * A list of up to INLINE_ID_LIMIT ids becomes parameters in the SQL. The number of parameters is rounded up to a
+     * power of two, repeating the last id, so that a query has only a few distinct texts for the statement cache. A
+     * longer list is loaded into one of the connection's temporary id tables, whose primary key lets the planner look
+     * up each id by index, so the cost stays linear in the number of ids. A read-only database can't have temporary
+     * tables, so there a longer list must first be split with idChunks(), and the query run for each piece.
+     *
+     * Any other parameters of sql come after the ids'.
+     */
+    private PreparedStatement prepareWithIds(PooledConnection pc, String sql, Collection<?>... idLists) throws SQLException {
+        Object[] idSets = new Object[idLists.length];
+        for (int i = 0; i < idLists.length; i++) {
+            Collection<?> ids = idLists[i];
+            if (ids.isEmpty()) {
+                idSets[i] = "NULL";
+            } else if (ids.size() <= INLINE_ID_LIMIT) {
+                StringBuilder idSet = new StringBuilder("?");
+                for (int j = 1; j < parameterCount(ids.size()); j++) {
+                    idSet.append(", ?");
+                }
+                idSets[i] = idSet.toString();
+            } else if (readOnly) {
+                throw new IllegalArgumentException(ids.size() + " ids is more than a read-only database can take in one query");
+            } else {
+                idSets[i] = "SELECT id FROM " + pc.fillIdTable(i, ids);
+            }
+        }
+        PreparedStatement stmt = pc.prepareStatement(String.format(sql, idSets));
+        int parameter = 0;
+        for (Collection<?> ids : idLists) {
+            if (ids.isEmpty() || ids.size() > INLINE_ID_LIMIT) {
+                continue;
+            }
+            int id = 0;
+            for (Object each : ids) {
+                id = (Integer) each;
+                stmt.setInt(++parameter, id);
+            }
+            for (int j = ids.size(); j < parameterCount(ids.size()); j++) {
+                stmt.setInt(++parameter, id);
+            }
+        }
+        return stmt;
+    }
+
+    /**
+     * Return the pieces in which a list of ids must be passed to prepareWithIds(): the list itself, or on a read-only
+     * database, if it is longer than INLINE_ID_LIMIT, its distinct ids in pieces of INLINE_ID_LIMIT. Without
+     * duplicates, counts summed over the pieces are right.
+     */
+    private List<List<Integer>> idChunks(Collection<Integer> ids) {
+        if (!readOnly || ids.size() <= INLINE_ID_LIMIT) {
+            return Collections.singletonList(ids instanceof List ? (List<Integer>) ids : new ArrayList<Integer>(ids));
+        }
+        return Lists.partition(new ArrayList<Integer>(new LinkedHashSet<Integer>(ids)), INLINE_ID_LIMIT);
+    }
+
+    // The number of parameters for n ids: the next power of two.
+    private static int parameterCount(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
     /**
      * Commit a transaction in progress.
      */
@@ -166,10 +578,33 @@ public class VizLincRDB {
         conn.rollback();
     }
 
+    /**
+     * Return a loader for adding rows in bulk, with the default batch and commit sizes and deferred index creation.
+     * The loader must be closed when done.
+     *
+     * @return VizLincRDBLoader
+     */
+    public VizLincRDBLoader newLoader() throws SQLException {
+        return new VizLincRDBLoader(this);
+    }
+
+    /**
+     * Return a loader for adding rows in bulk. The loader must be closed when done.
+     *
+     * @param batchSize number of rows of one table sent to the database at once
+     * @param commitSize number of rows per transaction
+     * @param deferIndexes if true, drop the secondary indexes until the loader is closed
+     * @return VizLincRDBLoader
+     */
+    public VizLincRDBLoader newLoader(int batchSize, int commitSize, boolean deferIndexes) throws SQLException {
+        return new VizLincRDBLoader(this, batchSize, commitSize, deferIndexes);
+    }
+
     /**
      * Provide an explicit shutdown operation in case it needs to be done before the JVM shuts down.
      */
     public void shutdown() throws SQLException {
+        pool.close();
         conn.close();
     }
 
@@ -180,13 +615,15 @@ public class VizLincRDB {
      * @return all the document nodes
      */
     public List<Document> getDocuments() throws SQLException {
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT document_id, name, path FROM document");
-        List<Document> documents = new ArrayList<Document>();
-        while (rs.next()) {
-            documents.add(new Document(rs.getString("name"), rs.getString("path"), rs.getInt("document_id")));
+        try (PooledConnection pc = connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT document_id, name, path FROM document");
+            List<Document> documents = new ArrayList<Document>();
+            while (rs.next()) {
+                documents.add(new Document(rs.getString("name"), rs.getString("path"), rs.getInt("document_id")));
+            }
+            return documents;
         }
-        return documents;
     }
 
     /**
@@ -197,10 +634,12 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public Document getDocumentWithId(int documentId) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT name, path FROM document WHERE document_id = ?");
-        stmt.setInt(1, documentId);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next() ? new Document(rs.getString("name"), rs.getString("path"), documentId) : null;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement("SELECT name, path FROM document WHERE document_id = ?");
+            stmt.setInt(1, documentId);
+            ResultSet rs = pc.executeQuery(stmt);
+            return rs.next() ? new Document(rs.getString("name"), rs.getString("path"), documentId) : null;
+        }
     }
 
     /**
@@ -211,16 +650,17 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<Document> getDocumentsWithIds(List<Integer> documentIds) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-            "SELECT document_id, name, path FROM document, TABLE(id INT = ?) ids" +
-            " WHERE document.document_id = ids.id");
-        stmt.setObject(1, documentIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        List<Document> documents = new ArrayList<Document>();
-        while (rs.next()) {
-            documents.add(new Document(rs.getString("name"), rs.getString("path"), rs.getInt("document_id")));
-        }
-        return documents;
+        try (PooledConnection pc = connection()) {
+            List<Document> documents = new ArrayList<Document>();
+            for (List<Integer> chunk : idChunks(documentIds)) {
+                PreparedStatement stmt = prepareWithIds(pc, SELECT_DOCUMENTS_WITH_IDS, chunk);
+                ResultSet rs = pc.executeQuery(stmt);
+                while (rs.next()) {
+                    documents.add(new Document(rs.getString("name"), rs.getString("path"), rs.getInt("document_id")));
+                }
+            }
+            return documents;
+        }
    }
 
     /**
@@ -229,10 +669,104 @@ public class VizLincRDB {
      * @return String
      */
     public String getDocumentText(int documentId) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT text FROM document WHERE document_id = ?");
-        stmt.setInt(1, documentId);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next() ? rs.getString("text") : null;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement("SELECT text FROM document WHERE document_id = ?");
+            stmt.setInt(1, documentId);
+            ResultSet rs = pc.executeQuery(stmt);
+            return rs.next() ? rs.getString("text") : null;
+        }
+    }
+
+    /**
+     * Fetch the full texts of the documents with the given ids, in one query. Ids that are not found are left out.
+     *
+     * @param documentIds
+     * @return map from document id to text
+     */
+    public Map<Integer, String> getDocumentTexts(Collection<Integer> documentIds) throws SQLException {
+        try (PooledConnection pc = connection()) {
+            Map<Integer, String> texts = new HashMap<Integer, String>(documentIds.size());
+            for (List<Integer> chunk : idChunks(documentIds)) {
+                PreparedStatement stmt = prepareWithIds(pc,
+                    "SELECT document_id, text FROM document WHERE document_id IN (%s)", chunk);
+                ResultSet rs = pc.executeQuery(stmt);
+                while (rs.next()) {
+                    texts.put(rs.getInt(1), rs.getString(2));
+                }
+            }
+            return texts;
+        }
+    }
+
+    /**
+     * Return a Reader over the text of the document with the given id, so that a large text can be processed without
+     * holding all of it in memory. Return null if the document is not found or has no text.
+     *
+     * The Reader holds one of this VizLincRDB's query connections until it is closed, so close it promptly. Until
+     * then, queries on the thread that opened it use the same connection. It may be read and closed on another thread.
+     *
+     * @param documentId
+     * @return Reader or null
+     */
+    public Reader getDocumentTextReader(int documentId) throws SQLException {
+        final PooledConnection pc = connection();
+        boolean opened = false;
+        try {
+            // Not a cached statement: it must stay open while the text is read, whatever other queries run meanwhile.
+            PreparedStatement stmt = pc.prepareLeaseStatement("SELECT text FROM document WHERE document_id = ?");
+            stmt.setInt(1, documentId);
+            ResultSet rs = pc.executeQuery(stmt);
+            Reader text = rs.next() ? dialect.textReader(rs, 1) : null;
+            if (text == null) {
+                return null;
+            }
+            opened = true;
+            return new FilterReader(text) {
+                private boolean closed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        try {
+                            pc.close();
+                        } catch (SQLException ex) {
+                            throw new IOException(ex);
+                        }
+                    }
+                }
+            };
+        } finally {
+            if (!opened) {
+                pc.close();
+            }
+        }
+    }
+
+    /**
+     * Fetch part of the text of the document with the given id, e.g. to show a mention in context, without fetching
+     * the rest. The range is clipped to the text. Return null if the document is not found or has no text.
+     *
+     * @param documentId
+     * @param start offset of the first character
+     * @param stop offset after the last character
+     * @return the characters from start to stop, or null
+     */
+    public String getDocumentTextRange(int documentId, int start, int stop) throws SQLException {
+        if (start < 0 || stop < start) {
+            throw new IllegalArgumentException("bad text range: " + start + " to " + stop);
+        }
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement("SELECT text FROM document WHERE document_id = ?");
+            stmt.setInt(1, documentId);
+            ResultSet rs = pc.executeQuery(stmt);
+            return rs.next() ? dialect.textRange(rs, 1, start, stop) : null;
+        }
     }
 
 
@@ -245,14 +779,16 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public Entity getEntityWithId(int entityId) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT entity_id, type, text, created_by, num_documents, num_mentions FROM entity WHERE entity_id = ?");
-        stmt.setInt(1, entityId);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next()
-            ? Entity.create(rs.getString("type"), rs.getString("text"),
-                rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), entityId)
-            : null;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT entity_id, type, text, created_by, num_documents, num_mentions FROM entity WHERE entity_id = ?");
+            stmt.setInt(1, entityId);
+            ResultSet rs = pc.executeQuery(stmt);
+            return rs.next()
+                ? Entity.create(rs.getString("type"), rs.getString("text"),
+                    rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), entityId)
+                : null;
+        }
     }
 
 
@@ -263,14 +799,16 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public EntitySet getEntities() throws SQLException {
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT type, text, num_documents, num_mentions, created_by, entity_id FROM entity");
-        EntitySet entities = new EntitySet();
-        while (rs.next()) {
-            entities.add(Entity.create(rs.getString(1), rs.getString(2),
-                rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getInt(6)));
+        try (PooledConnection pc = connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT type, text, num_documents, num_mentions, created_by, entity_id FROM entity");
+            EntitySet entities = new EntitySet();
+            while (rs.next()) {
+                entities.add(Entity.create(rs.getString(1), rs.getString(2),
+                    rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getInt(6)));
+            }
+            return entities;
         }
-        return entities;
    }
 
     /**
@@ -281,17 +819,19 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public EntitySet getEntitiesWithIds(List<Integer> entityIds) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-            "SELECT type, text, num_documents, num_mentions, created_by, entity_id FROM entity, TABLE (id INT = ?) ids" +
-            " WHERE entity.entity_id = ids.id");
-        stmt.setObject(1, entityIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        EntitySet entities = new EntitySet();
-        while (rs.next()) {
-            entities.add(Entity.create(rs.getString(1), rs.getString(2),
-                rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getInt(6)));
-        }
-        return entities;
+        try (PooledConnection pc = connection()) {
+            EntitySet entities = new EntitySet();
+            for (List<Integer> chunk : idChunks(entityIds)) {
+                PreparedStatement stmt = prepareWithIds(pc,
+                    "SELECT type, text, num_documents, num_mentions, created_by, entity_id FROM entity WHERE entity_id IN (%s)", chunk);
+                ResultSet rs = pc.executeQuery(stmt);
+                while (rs.next()) {
+                    entities.add(Entity.create(rs.getString(1), rs.getString(2),
+                        rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getInt(6)));
+                }
+            }
+            return entities;
+        }
    }
 
     /**
@@ -300,12 +840,14 @@ public class VizLincRDB {
      * @return
      */
     Mention getMentionWithId(int mentionId) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT document_id, entity_id, type, text, index, global_id, text_start, text_stop FROM mention where mention_id = ?");
-        stmt.setInt(1, mentionId);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next()
-            ? new Mention(mentionId, rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getInt(5), (Integer) rs.getObject(6), rs.getInt(7), rs.getInt(8))
-            : null;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement("SELECT document_id, entity_id, type, text, \"INDEX\", global_id, text_start, text_stop FROM mention where mention_id = ?");
+            stmt.setInt(1, mentionId);
+            ResultSet rs = pc.executeQuery(stmt);
+            return rs.next()
+                ? new Mention(mentionId, rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getInt(5), (Integer) rs.getObject(6), rs.getInt(7), rs.getInt(8))
+                : null;
+        }
     }
 
     /**
@@ -315,13 +857,15 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<Mention> getMentions() throws SQLException {
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT mention_id, document_id, entity_id, type, text, index, global_id, text_start, text_stop FROM mention");
-        List<Mention> mentions = new ArrayList<Mention>();
-        while (rs.next()) {
-            mentions.add(new Mention(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getInt(6), (Integer) rs.getObject(7), rs.getInt(8), rs.getInt(9)));
+        try (PooledConnection pc = connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT mention_id, document_id, entity_id, type, text, \"INDEX\", global_id, text_start, text_stop FROM mention");
+            List<Mention> mentions = new ArrayList<Mention>();
+            while (rs.next()) {
+                mentions.add(new Mention(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getInt(6), (Integer) rs.getObject(7), rs.getInt(8), rs.getInt(9)));
+            }
+            return mentions;
         }
-        return mentions;
    }
 
     /**
@@ -331,13 +875,15 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<Mention> getMentionsWithoutText() throws SQLException {
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT mention_id, document_id, entity_id, type, index, global_id, text_start, text_stop FROM mention");
-        List<Mention> mentions = new ArrayList<Mention>();
-        while (rs.next()) {
-            mentions.add(new Mention(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), null, rs.getInt(5), (Integer) rs.getObject(6), rs.getInt(7), rs.getInt(8)));
+        try (PooledConnection pc = connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT mention_id, document_id, entity_id, type, \"INDEX\", global_id, text_start, text_stop FROM mention");
+            List<Mention> mentions = new ArrayList<Mention>();
+            while (rs.next()) {
+                mentions.add(new Mention(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), null, rs.getInt(5), (Integer) rs.getObject(6), rs.getInt(7), rs.getInt(8)));
+            }
+            return mentions;
         }
-        return mentions;
    }
 
     /**
@@ -347,13 +893,15 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<MentionLocation> getMentionLocations() throws SQLException {
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT document_id, entity_id, index, text_start, text_stop, type FROM mention");
-        List<MentionLocation> mentionLocations = new ArrayList<MentionLocation>();
-        while (rs.next()) {
-            mentionLocations.add(new MentionLocation(rs.getInt(1), (Integer)rs.getObject(2), rs.getInt(3), rs.getInt(4), rs.getInt(5),rs.getString(6)));
+        try (PooledConnection pc = connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT document_id, entity_id, \"INDEX\", text_start, text_stop, type FROM mention");
+            List<MentionLocation> mentionLocations = new ArrayList<MentionLocation>();
+            while (rs.next()) {
+                mentionLocations.add(new MentionLocation(rs.getInt(1), (Integer)rs.getObject(2), rs.getInt(3), rs.getInt(4), rs.getInt(5),rs.getString(6)));
+            }
+            return mentionLocations;
         }
-        return mentionLocations;
    }
 
 
@@ -387,31 +935,33 @@ public class VizLincRDB {
      * @return the list or null if none
      */
     public List<GeoLocation> getFirstNGeoLocations(int locationEntityId, int n) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT latitude, longitude, latitude_south, latitude_north, longitude_west, longitude_east," +
-                " name, osm_type, nga_designation, country, source FROM geolocation WHERE entity_id = ? ORDER BY rank" + ((n != -1) ? " LIMIT ?" : ""));
-        stmt.setInt(1, locationEntityId);
-        if (n != -1) {
-             stmt.setInt(2, n);
-        }
-        ResultSet rs = stmt.executeQuery();
-        List<GeoLocation> geoLocations = new ArrayList<GeoLocation>();
-        while (rs.next()) {
-            double latitudeSouth = rs.getDouble("latitude_south");
-            boolean hasBoundingBox = !rs.wasNull();
-
-            geoLocations.add(new GeoLocation(
-                    rs.getDouble("latitude"),
-                    rs.getDouble("longitude"),
-                    hasBoundingBox ? new GeoBoundingBox(latitudeSouth, rs.getDouble("latitude_north"), rs.getDouble("longitude_west"), rs.getDouble("longitude_east"))
-                        : null,
-                    rs.getString("name"),
-                    rs.getString("osm_type"),
-                    rs.getString("nga_designation"),
-                    rs.getString("country"),
-                    rs.getString("source")));
-        }
-        return geoLocations;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT latitude, longitude, latitude_south, latitude_north, longitude_west, longitude_east," +
+                    " name, osm_type, nga_designation, country, source FROM geolocation WHERE entity_id = ? ORDER BY rank" + ((n != -1) ? " LIMIT ?" : ""));
+            stmt.setInt(1, locationEntityId);
+            if (n != -1) {
+                 stmt.setInt(2, n);
+            }
+            ResultSet rs = pc.executeQuery(stmt);
+            List<GeoLocation> geoLocations = new ArrayList<GeoLocation>();
+            while (rs.next()) {
+                double latitudeSouth = rs.getDouble("latitude_south");
+                boolean hasBoundingBox = !rs.wasNull();
+
+                geoLocations.add(new GeoLocation(
+                        rs.getDouble("latitude"),
+                        rs.getDouble("longitude"),
+                        hasBoundingBox ? new GeoBoundingBox(latitudeSouth, rs.getDouble("latitude_north"), rs.getDouble("longitude_west"), rs.getDouble("longitude_east"))
+                            : null,
+                        rs.getString("name"),
+                        rs.getString("osm_type"),
+                        rs.getString("nga_designation"),
+                        rs.getString("country"),
+                        rs.getString("source")));
+            }
+            return geoLocations;
+        }
     }
 
    /**
@@ -432,18 +982,19 @@ public class VizLincRDB {
      * @return the list or null if none
      */
     public List<GeoPoint> getFirstNGeoPoints(int locationEntityId, int n) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT latitude, longitude FROM geolocation WHERE entity_id = ? ORDER BY rank" + ((n != -1) ? " LIMIT ?" : ""));
-        stmt.setInt(1, locationEntityId);
-        if (n != -1) {
-             stmt.setInt(2, n);
-        }
-        ResultSet rs = stmt.executeQuery();
-        List<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
-        while (rs.next()) {
-            geoPoints.add(new GeoPoint(rs.getDouble("latitude"), rs.getDouble("longitude"), locationEntityId));
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(SELECT_FIRST_N_GEO_POINTS + ((n != -1) ? " LIMIT ?" : ""));
+            stmt.setInt(1, locationEntityId);
+            if (n != -1) {
+                 stmt.setInt(2, n);
+            }
+            ResultSet rs = pc.executeQuery(stmt);
+            List<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
+            while (rs.next()) {
+                geoPoints.add(new GeoPoint(rs.getDouble("latitude"), rs.getDouble("longitude"), locationEntityId));
+            }
+            return geoPoints;
         }
-        return geoPoints;
     }
 
     /**
@@ -453,16 +1004,17 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<GeoPoint> getTopGeoPointsForLocationEntityIds(List<Integer> locationEntityIds) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-            "SELECT latitude, longitude, entity_id FROM geolocation, TABLE(id INT = ?) ids WHERE geolocation.entity_id = ids.id AND geolocation.rank = 0");
-        stmt.setObject(1, locationEntityIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        List<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
-        while (rs.next()) {
-            geoPoints.add(new GeoPoint(rs.getDouble("latitude"), rs.getDouble("longitude"), rs.getInt("entity_id")));
+        try (PooledConnection pc = connection()) {
+            List<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
+            for (List<Integer> chunk : idChunks(locationEntityIds)) {
+                PreparedStatement stmt = prepareWithIds(pc, SELECT_TOP_GEO_POINTS, chunk);
+                ResultSet rs = pc.executeQuery(stmt);
+                while (rs.next()) {
+                    geoPoints.add(new GeoPoint(rs.getDouble("latitude"), rs.getDouble("longitude"), rs.getInt("entity_id")));
+                }
+            }
+            return geoPoints;
         }
-        return geoPoints;
-
     }
 
     /**
@@ -471,16 +1023,18 @@ public class VizLincRDB {
      * @throws SQLException
      */
     public List<PersonEntity> getPersonEntities() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
-        stmt.setString(1, E_PERSON);
-        ResultSet rs = stmt.executeQuery();
-        List<PersonEntity> entities = new ArrayList<PersonEntity>();
-        while (rs.next()) {
-            entities.add(new PersonEntity(rs.getString("text"),
-                    rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
-        }
-        return entities;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
+            stmt.setString(1, E_PERSON);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<PersonEntity> entities = new ArrayList<PersonEntity>();
+            while (rs.next()) {
+                entities.add(new PersonEntity(rs.getString("text"),
+                        rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
+            }
+            return entities;
+        }
    }
 
     /**
@@ -489,16 +1043,18 @@ public class VizLincRDB {
      * @throws SQLException
      */
      public List<LocationEntity> getLocationEntities() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
-        stmt.setString(1, E_LOCATION);
-        ResultSet rs = stmt.executeQuery();
-        List<LocationEntity> entities = new ArrayList<LocationEntity>();
-        while (rs.next()) {
-            entities.add(new LocationEntity(rs.getString("text"),
-                    rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
-        }
-        return entities;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
+            stmt.setString(1, E_LOCATION);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<LocationEntity> entities = new ArrayList<LocationEntity>();
+            while (rs.next()) {
+                entities.add(new LocationEntity(rs.getString("text"),
+                        rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
+            }
+            return entities;
+        }
    }
 
     /**
@@ -507,16 +1063,18 @@ public class VizLincRDB {
      * @throws SQLException
      */
      public List<DateEntity> getDateEntities() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
-        stmt.setString(1, E_DATE);
-        ResultSet rs = stmt.executeQuery();
-        List<DateEntity> entities = new ArrayList<DateEntity>();
-        while (rs.next()) {
-            entities.add(new DateEntity(rs.getString("text"),
-                    rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
-        }
-        return entities;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
+            stmt.setString(1, E_DATE);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<DateEntity> entities = new ArrayList<DateEntity>();
+            while (rs.next()) {
+                entities.add(new DateEntity(rs.getString("text"),
+                        rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
+            }
+            return entities;
+        }
    }
 
     /**
@@ -525,16 +1083,18 @@ public class VizLincRDB {
      * @throws SQLException
      */
      public List<OrganizationEntity> getOrganizationEntities() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
-        stmt.setString(1, E_ORGANIZATION);
-        ResultSet rs = stmt.executeQuery();
-        List<OrganizationEntity> entities = new ArrayList<OrganizationEntity>();
-        while (rs.next()) {
-            entities.add(new OrganizationEntity(rs.getString("text"),
-                    rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
-        }
-        return entities;
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement(
+                    "SELECT entity_id, text, created_by, num_documents, num_mentions FROM entity WHERE type = ?");
+            stmt.setString(1, E_ORGANIZATION);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<OrganizationEntity> entities = new ArrayList<OrganizationEntity>();
+            while (rs.next()) {
+                entities.add(new OrganizationEntity(rs.getString("text"),
+                        rs.getInt("num_documents"), rs.getInt("num_mentions"), rs.getString("created_by"), rs.getInt("entity_id")));
+            }
+            return entities;
+        }
    }
 
 
@@ -545,20 +1105,29 @@ public class VizLincRDB {
       * @throws SQLException
       */
      public List<Integer> getDocumentIdsWithAllOfTheseEntityIds(List<Integer> entityIds) throws SQLException {
-        // http://stackoverflow.com/questions/7364969/how-to-filter-sql-results-in-a-has-many-through-relation/
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT de.document_id FROM document_entity de, TABLE(id INT = ?) ids" +
-                " WHERE de.entity_id = ids.id" +
-                " GROUP BY de.document_id HAVING COUNT(de.document_id) = ?");
-        stmt.setObject(1, entityIds.toArray());
-        stmt.setInt(2, entityIds.size());
-        ResultSet rs = stmt.executeQuery();
-        List<Integer> documentIds = new ArrayList<Integer>();
-        while (rs.next()) {
-            documentIds.add(rs.getInt(1));
-
+        try (PooledConnection pc = connection()) {
+            // The documents with all the entities of every chunk.
+            Set<Integer> documentIds = null;
+            for (List<Integer> chunk : idChunks(entityIds)) {
+                // http://stackoverflow.com/questions/7364969/how-to-filter-sql-results-in-a-has-many-through-relation/
+                PreparedStatement stmt = prepareWithIds(pc,
+                        "SELECT document_id FROM document_entity WHERE entity_id IN (%s)" +
+                        " GROUP BY document_id HAVING COUNT(document_id) = ?", chunk);
+                // Each entity counts once, however often it is listed.
+                stmt.setInt(stmt.getParameterMetaData().getParameterCount(), new HashSet<Integer>(chunk).size());
+                ResultSet rs = pc.executeQuery(stmt);
+                Set<Integer> chunkDocumentIds = new LinkedHashSet<Integer>();
+                while (rs.next()) {
+                    chunkDocumentIds.add(rs.getInt(1));
+                }
+                if (documentIds == null) {
+                    documentIds = chunkDocumentIds;
+                } else {
+                    documentIds.retainAll(chunkDocumentIds);
+                }
+            }
+            return new ArrayList<Integer>(documentIds);
         }
-        return documentIds;
     }
 
    /**
@@ -569,14 +1138,16 @@ public class VizLincRDB {
     */
     public List<String> getDistinctMentionTextsForEntityId(int entityId) throws SQLException
     {
-        PreparedStatement stmt = conn.prepareStatement("SELECT DISTINCT(text) FROM mention WHERE entity_id = ?");
-        stmt.setInt(1, entityId);
-        ResultSet rs = stmt.executeQuery();
-        List<String> entities = new ArrayList<String>();
-        while (rs.next()) {
-            entities.add(rs.getString(1));
+        try (PooledConnection pc = connection()) {
+            PreparedStatement stmt = pc.prepareStatement("SELECT DISTINCT(text) FROM mention WHERE entity_id = ?");
+            stmt.setInt(1, entityId);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<String> entities = new ArrayList<String>();
+            while (rs.next()) {
+                entities.add(rs.getString(1));
+            }
+            return entities;
         }
-        return entities;
     }
 
    /**
@@ -587,18 +1158,19 @@ public class VizLincRDB {
     */
     public List<String> getDistinctMentionTextsForEntityIdInDocument(int entityId, int documentId) throws SQLException
     {
-        // PreparedStatement stmt = conn.prepareStatement("SELECT DISTINCT(text) FROM mention WHERE document_id = ? AND entity_id = ?");
-        // This is faster because it forces the use of the document_id index. Ugh.
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT DISTINCT(text) FROM mention WHERE mention_id IN (SELECT mention_id FROM mention WHERE document_id = ?) AND entity_id = ?");
-        stmt.setInt(1, documentId);
-        stmt.setInt(2, entityId);
-        ResultSet rs = stmt.executeQuery();
-        List<String> entities = new ArrayList<String>();
-        while (rs.next()) {
-            entities.add(rs.getString(1));
+        try (PooledConnection pc = connection()) {
+            // The mention(entity_id, document_id, text) index finds the rows; H2 1.3 has no index-only scans, so each
+            // row is still read from the table.
+            PreparedStatement stmt = pc.prepareStatement(SELECT_DISTINCT_MENTION_TEXTS_IN_DOCUMENT);
+            stmt.setInt(1, entityId);
+            stmt.setInt(2, documentId);
+            ResultSet rs = pc.executeQuery(stmt);
+            List<String> entities = new ArrayList<String>();
+            while (rs.next()) {
+                entities.add(rs.getString(1));
+            }
+            return entities;
         }
-        return entities;
     }
 
     /**
@@ -609,16 +1181,18 @@ public class VizLincRDB {
      */
     public List<Integer> getEntityIdsInAnyofTheseDocumentIds(List<Integer> docIds) throws SQLException
     {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT DISTINCT(document_entity.entity_id) FROM document_entity, TABLE (id INT = ?) ids" +
-                " WHERE document_entity.document_id = ids.id");
-        stmt.setObject(1, docIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        List<Integer> entityIds = new ArrayList<Integer>();
-        while (rs.next()) {
-            entityIds.add(rs.getInt(1));
+        try (PooledConnection pc = connection()) {
+            Set<Integer> entityIds = new LinkedHashSet<Integer>();
+            for (List<Integer> chunk : idChunks(docIds)) {
+                PreparedStatement stmt = prepareWithIds(pc,
+                        "SELECT DISTINCT(entity_id) FROM document_entity WHERE document_id IN (%s)", chunk);
+                ResultSet rs = pc.executeQuery(stmt);
+                while (rs.next()) {
+                    entityIds.add(rs.getInt(1));
+                }
+            }
+            return new ArrayList<Integer>(entityIds);
         }
-        return entityIds;
     }
 
     /**
@@ -630,27 +1204,30 @@ public class VizLincRDB {
      */
     public Map<Integer,Integer> getMentionCountsForEntitiesInDocuments(Collection<Integer> entityIds, Collection<Integer> docIds) throws SQLException
     {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT SUM(num_mentions), entity_id FROM document_entity, TABLE(id INT = ?) entity_ids, TABLE(id INT = ?) document_ids" +
-                " WHERE document_entity.document_id = document_ids.id AND document_entity.entity_id = entity_ids.id" +
-                " GROUP BY entity_id");
-        stmt.setObject(1, entityIds.toArray());
-        stmt.setObject(2, docIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        HashMap<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
-        while (rs.next()) {
-            int count = rs.getInt(1);
-            int entity_id = rs.getInt(2);
-            entityIdToMentionCount.put(entity_id, count);
-        }
-        // If a document,entity pair was not in document_entity, it will not be added to entityIdToMentionCount.
-        // So add any missing entities, and set their mentionCount to 0.
-        for (int entityId : entityIds) {
-            if (!entityIdToMentionCount.containsKey(entityId)) {
-                entityIdToMentionCount.put(entityId, 0);
+        try (PooledConnection pc = connection()) {
+            HashMap<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
+            List<List<Integer>> docChunks = idChunks(docIds);
+            for (List<Integer> entityChunk : idChunks(entityIds)) {
+                for (List<Integer> docChunk : docChunks) {
+                    PreparedStatement stmt = prepareWithIds(pc,
+                            "SELECT SUM(num_mentions), entity_id FROM document_entity" +
+                            " WHERE entity_id IN (%s) AND document_id IN (%s)" +
+                            " GROUP BY entity_id", entityChunk, docChunk);
+                    ResultSet rs = pc.executeQuery(stmt);
+                    while (rs.next()) {
+                        addCount(entityIdToMentionCount, rs.getInt(2), rs.getInt(1));
+                    }
+                }
+            }
+            // If a document,entity pair was not in document_entity, it will not be added to entityIdToMentionCount.
+            // So add any missing entities, and set their mentionCount to 0.
+            for (int entityId : entityIds) {
+                if (!entityIdToMentionCount.containsKey(entityId)) {
+                    entityIdToMentionCount.put(entityId, 0);
+                }
             }
+            return entityIdToMentionCount;
         }
-        return entityIdToMentionCount;
     }
 
     /**
@@ -662,23 +1239,31 @@ public class VizLincRDB {
     public Map<Integer, Integer> getDocumentCountsForEntitiesInDocuments(Collection<Integer> entityIds,
             Collection<Integer> docIds) throws SQLException
     {
-        PreparedStatement stmt  = conn.prepareStatement(
-                "SELECT COUNT(de.document_id), de.entity_id FROM document_entity de, TABLE(id INT = ?) entity_ids, TABLE(id INT = ?) doc_ids" +
-                " WHERE de.document_id = doc_ids.id" +
-                " AND de.entity_id = entity_ids.id" +
-                " GROUP BY de.entity_id");
-        stmt.setObject(1, entityIds.toArray());
-        stmt.setObject(2, docIds.toArray());
-        ResultSet rs = stmt.executeQuery();
-        HashMap<Integer, Integer> entityIdToDocumentCount = new HashMap<Integer, Integer>();
-        while (rs.next()) {
-            int count = rs.getInt(1);
-            int entity_id = rs.getInt(2);
-            entityIdToDocumentCount.put(entity_id, count);
-        }
-        return entityIdToDocumentCount;
+        try (PooledConnection pc = connection()) {
+            HashMap<Integer, Integer> entityIdToDocumentCount = new HashMap<Integer, Integer>();
+            List<List<Integer>> docChunks = idChunks(docIds);
+            for (List<Integer> entityChunk : idChunks(entityIds)) {
+                for (List<Integer> docChunk : docChunks) {
+                    PreparedStatement stmt = prepareWithIds(pc,
+                            "SELECT COUNT(document_id), entity_id FROM document_entity" +
+                            " WHERE entity_id IN (%s) AND document_id IN (%s)" +
+                            " GROUP BY entity_id", entityChunk, docChunk);
+                    ResultSet rs = pc.executeQuery(stmt);
+                    while (rs.next()) {
+                        addCount(entityIdToDocumentCount, rs.getInt(2), rs.getInt(1));
+                    }
+                }
+            }
+            return entityIdToDocumentCount;
+        }
    }
 
+    // Add count to the count of key in counts, which is 0 if absent.
+    private static void addCount(Map<Integer, Integer> counts, int key, int count) {
+        Integer existing = counts.get(key);
+        counts.put(key, existing == null ? count : existing + count);
+    }
+
 
 
     /**
@@ -759,6 +1344,7 @@ public class VizLincRDB {
 "CREATE INDEX on mention(type);\n" +
 "CREATE INDEX on mention(document_id);\n" +
 "CREATE INDEX on mention(entity_id);\n" +
+"CREATE INDEX mention_entity_document_text ON mention(entity_id, document_id, text);\n" +
 "\n" +
 "\n" +
 "CREATE TABLE document_entity (\n" +
@@ -771,6 +1357,19 @@ public class VizLincRDB {
 "       );\n" +
 "\n" +
 "CREATE INDEX on document_entity(entity_id);\n" +
+"\n" +
+"\n" +
+"CREATE TABLE schema_version (\n" +
+"       version INT\n" +
+"       );\n" +
+"\n" +
+"\n" +
+"-- A stamp for each table, changed by a trigger or touchTables() whenever the table is. Tables never touched have\n" +
+"-- no row. The triggers are created when the database is opened.\n" +
+"CREATE TABLE table_stamp (\n" +
+"       table_name VARCHAR PRIMARY KEY,\n" +
+"       stamp BIGINT\n" +
+"       );\n" +
 "";
 
 }
@@ -0,0 +1,161 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.entity.Mention;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import edu.mit.ll.vizlincdb.relational.VizLincRDB.Implementation;
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The same synthetic database, loaded into each Implementation, and the load time and per-call latency of the
+ * read-heavy VizLincRDB queries in each.
+ */
+public class VizLincRDBEngineBenchmark {
+
+    private static final int CALLS = 10000;
+    private static final int ENTITIES_PER_DOCUMENT = 20;
+
+    private interface Lookup {
+        void call(int i) throws SQLException;
+    }
+
+    private static void time(String label, int calls, Lookup lookup) throws SQLException {
+        // Warm up first.
+        for (int i = 0; i < calls / 10; i++) {
+            lookup.call(i);
+        }
+        ElapsedTime t = new ElapsedTime();
+        for (int i = 0; i < calls; i++) {
+            lookup.call(i);
+        }
+        System.out.println(String.format("  %-44s %8.1f us/call", label, t.secondsElapsed() * 1e6 / calls));
+    }
+
+    private static void load(VizLincRDB rdb, int documents, int entities) throws SQLException {
+        // The same data for every engine.
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4000) {
+            text.append("the quick brown fox jumps over the lazy dog ");
+        }
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int e = 1; e <= entities; e++) {
+                loader.addEntity(Entity.create(e % 2 == 0 ? "PERSON" : "LOCATION", "entity" + e, 1, 1, "benchmark", e));
+                if (e % 2 != 0) {
+                    for (int rank = 0; rank < 3; rank++) {
+                        loader.addGeoLocation(e, rank, new GeoLocation(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                                null, "entity" + e, null, null, "US", "benchmark"));
+                    }
+                }
+            }
+            int mentionId = 0;
+            for (int d = 1; d <= documents; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, text.toString());
+                // Distinct entities in each document.
+                int first = random.nextInt(entities);
+                for (int m = 0; m < ENTITIES_PER_DOCUMENT; m++) {
+                    int entityId = 1 + (first + m) % entities;
+                    loader.addMention(new Mention(++mentionId, d, entityId, entityId % 2 == 0 ? "PERSON" : "LOCATION",
+                            "entity" + entityId, m, null, 10 * m, 10 * m + 6));
+                    loader.addDocumentEntity(d, entityId, 1);
+                }
+            }
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @param args optionally, the number of documents to generate
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        final int documents = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int entities = Math.max(2 * ENTITIES_PER_DOCUMENT, documents / 5);
+        final List<Integer> someDocumentIds = new ArrayList<Integer>();
+        for (int d = 1; d <= Math.min(documents, 500); d++) {
+            someDocumentIds.add(d);
+        }
+        final List<Integer> someEntityIds = new ArrayList<Integer>();
+        for (int e = 1; e <= Math.min(entities, 50); e++) {
+            someEntityIds.add(e);
+        }
+
+        File root = Files.createTempDirectory("vizlinc-engines").toFile();
+        try {
+            for (Implementation impl : Implementation.values()) {
+                System.out.println(impl + ":");
+                File dbFolder = new File(root, "db." + impl.tags[0]);
+                ElapsedTime t = new ElapsedTime();
+                VizLincRDB loading = new VizLincRDB(dbFolder.getPath(), true, impl);
+                load(loading, documents, entities);
+                loading.shutdown();
+                System.out.println(String.format("  %-44s %8.2f s", "load " + documents + " documents", t.secondsElapsed()));
+
+                final VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), 1);
+                time("getDocumentWithId", CALLS, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getDocumentWithId(1 + i % documents);
+                    }
+                });
+                time("getDocumentText", CALLS, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getDocumentText(1 + i % documents);
+                    }
+                });
+                time("getEntityWithId", CALLS, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getEntityWithId(1 + i % entities);
+                    }
+                });
+                time("getFirstNGeoPoints(id, 1)", CALLS, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getFirstNGeoPoints(1 + 2 * (i % (entities / 2)), 1);
+                    }
+                });
+                time("getDistinctMentionTextsForEntityIdInDocument", CALLS, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getDistinctMentionTextsForEntityIdInDocument(1 + i % entities, 1 + i % documents);
+                    }
+                });
+                time("getDocumentsWithIds(500 ids)", CALLS / 100, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getDocumentsWithIds(someDocumentIds);
+                    }
+                });
+                time("getMentionCountsForEntitiesInDocuments", CALLS / 100, new Lookup() {
+                    @Override
+                    public void call(int i) throws SQLException {
+                        rdb.getMentionCountsForEntitiesInDocuments(someEntityIds, someDocumentIds);
+                    }
+                });
+                rdb.shutdown();
+            }
+        } finally {
+            delete(root);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.entity.Mention;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk loader for a VizLincRDB. Rows are added with batched PreparedStatements inside transactions of commitSize
+ * rows, instead of one auto-committed statement per row.
+ *
+ * If deferIndexes is set, the secondary indexes of the loaded tables (those not backing a primary key or a foreign
+ * key) are dropped when the loader is created and recreated when it is closed, so each is built once rather than
+ * maintained row by row. Closing the loader also runs ANALYZE, so the query planner sees the new row counts.
+ * The triggers that stamp the tables on every change (see VizLincRDB.touchTables()) are dropped while the loader is
+ * open, since they would fire for every row, and each commit touches the tables it added rows to instead.
+ *
+ * Add each document and entity before the rows that reference it. Tables are batched separately, so whenever a batch
+ * is sent to the database, the pending rows of the tables it references are sent first.
+ *
+ * Not thread-safe. Use it like this:
+ * <pre>
+ *   VizLincRDBLoader loader = rdb.newLoader();
+ *   try {
+ *       loader.addDocument(...);
+ *       ...
+ *   } finally {
+ *       loader.close();
+ *   }
+ * </pre>
+ */
+public class VizLincRDBLoader implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_SIZE = 100000;
+
+    // The loaded tables, parents before children.
+    private static final String[] TABLES = {"document", "entity", "mention", "document_entity", "geolocation"};
+    private static final int DOCUMENT = 0;
+    private static final int ENTITY = 1;
+    private static final int MENTION = 2;
+    private static final int DOCUMENT_ENTITY = 3;
+    private static final int GEOLOCATION = 4;
+
+    private final VizLincRDB rdb;
+    private final Connection conn;
+    private final SqlDialect dialect;
+    private final int batchSize;
+    private final int commitSize;
+    private final boolean savedAutoCommit;
+    private final PreparedStatement[] inserts = new PreparedStatement[TABLES.length];
+    private final int[] pending = new int[TABLES.length];
+    // Whether rows have been added to each table since the last commit.
+    private final boolean[] touched = new boolean[TABLES.length];
+    private final List<String> droppedIndexes = new ArrayList<String>();
+    private boolean droppedStampTriggers = false;
+    private int uncommitted = 0;
+    private long rowsLoaded = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a loader with the default batch and commit sizes, deferring index creation.
+     *
+     * @param rdb
+     */
+    public VizLincRDBLoader(VizLincRDB rdb) throws SQLException {
+        this(rdb, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_SIZE, true);
+    }
+
+    /**
+     * Create a loader.
+     *
+     * @param rdb
+     * @param batchSize number of rows of one table sent to the database at once
+     * @param commitSize number of rows per transaction
+     * @param deferIndexes if true, drop the secondary indexes now and rebuild them in close()
+     */
+    public VizLincRDBLoader(VizLincRDB rdb, int batchSize, int commitSize, boolean deferIndexes) throws SQLException {
+        if (batchSize < 1 || commitSize < 1) {
+            throw new IllegalArgumentException("batchSize and commitSize must be positive");
+        }
+        this.rdb = rdb;
+        this.conn = rdb.conn;
+        this.dialect = rdb.getDialect();
+        this.batchSize = batchSize;
+        this.commitSize = commitSize;
+        savedAutoCommit = conn.getAutoCommit();
+        // The indexes are dropped last, and if anything fails they are recreated here, since there is no loader to
+        // close.
+        try {
+            inserts[DOCUMENT] = conn.prepareStatement("INSERT INTO document (document_id, name, path, text) VALUES (?, ?, ?, ?)");
+            inserts[ENTITY] = conn.prepareStatement(
+                "INSERT INTO entity (entity_id, type, text, created_by, num_documents, num_mentions) VALUES (?, ?, ?, ?, ?, ?)");
+            inserts[MENTION] = conn.prepareStatement(
+                "INSERT INTO mention (mention_id, document_id, entity_id, type, text, \"INDEX\", global_id, text_start, text_stop)" +
+                " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            inserts[DOCUMENT_ENTITY] = conn.prepareStatement("INSERT INTO document_entity (document_id, entity_id, num_mentions) VALUES (?, ?, ?)");
+            inserts[GEOLOCATION] = conn.prepareStatement(
+                "INSERT INTO geolocation (entity_id, rank, latitude, longitude, latitude_south, latitude_north, longitude_west, longitude_east," +
+                " name, osm_type, nga_designation, country, source) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            conn.setAutoCommit(false);
+            droppedStampTriggers = true;
+            rdb.dropStampTriggers();
+            if (deferIndexes) {
+                dropSecondaryIndexes();
+            }
+        } catch (SQLException ex) {
+            closed = true;
+            throw restore(ex, false);
+        }
+    }
+
+    /**
+     * Drop the indexes on the loaded tables that don't belong to a constraint, remembering how to recreate them.
+     */
+    private void dropSecondaryIndexes() throws SQLException {
+        Map<String, String> indexes = dialect.secondaryIndexes(conn,
+            Arrays.asList("document", "entity", "mention", "document_entity", "geolocation"));
+        Statement stmt = conn.createStatement();
+        try {
+            for (Map.Entry<String, String> index : indexes.entrySet()) {
+                stmt.execute("DROP INDEX \"" + index.getKey() + "\"");
+                droppedIndexes.add(index.getValue());
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Add a document.
+     *
+     * @param documentId
+     * @param name
+     * @param path
+     * @param text may be null
+     */
+    public void addDocument(int documentId, String name, String path, String text) throws SQLException {
+        PreparedStatement stmt = inserts[DOCUMENT];
+        int i = 0;
+        stmt.setInt(++i, documentId);
+        stmt.setString(++i, name);
+        stmt.setString(++i, path);
+        stmt.setString(++i, text);
+        added(DOCUMENT);
+    }
+
+    /**
+     * Add an entity.
+     *
+     * @param entity
+     */
+    public void addEntity(Entity entity) throws SQLException {
+        PreparedStatement stmt = inserts[ENTITY];
+        int i = 0;
+        stmt.setInt(++i, entity.getId());
+        stmt.setString(++i, entity.getType());
+        stmt.setString(++i, entity.getText());
+        stmt.setString(++i, entity.getCreatedBy());
+        stmt.setInt(++i, entity.getNumDocuments());
+        stmt.setInt(++i, entity.getNumMentions());
+        added(ENTITY);
+    }
+
+    /**
+     * Add a mention.
+     *
+     * @param mention
+     */
+    public void addMention(Mention mention) throws SQLException {
+        addMention(mention.getId(), mention.getDocumentId(), mention.getEntityId(), mention.getType(), mention.getText(),
+                   mention.getIndex(), mention.getGlobalId(), mention.getTextStart(), mention.getTextStop());
+    }
+
+    /**
+     * Add a mention, which need not belong to an entity.
+     *
+     * @param mentionId
+     * @param documentId
+     * @param entityId null if the mention has not been assigned to an entity
+     * @param type
+     * @param text
+     * @param index
+     * @param globalId may be null
+     * @param textStart
+     * @param textStop
+     */
+    public void addMention(int mentionId, int documentId, Integer entityId, String type, String text, int index,
+                           Integer globalId, int textStart, int textStop) throws SQLException {
+        PreparedStatement stmt = inserts[MENTION];
+        int i = 0;
+        stmt.setInt(++i, mentionId);
+        stmt.setInt(++i, documentId);
+        if (entityId == null) {
+            stmt.setNull(++i, Types.INTEGER);
+        } else {
+            stmt.setInt(++i, entityId);
+        }
+        stmt.setString(++i, type);
+        stmt.setString(++i, text);
+        stmt.setInt(++i, index);
+        if (globalId == null) {
+            stmt.setNull(++i, Types.INTEGER);
+        } else {
+            stmt.setInt(++i, globalId);
+        }
+        stmt.setInt(++i, textStart);
+        stmt.setInt(++i, textStop);
+        added(MENTION);
+    }
+
+    /**
+     * Add the number of mentions of an entity in a document.
+     *
+     * @param documentId
+     * @param entityId
+     * @param numMentions
+     */
+    public void addDocumentEntity(int documentId, int entityId, int numMentions) throws SQLException {
+        PreparedStatement stmt = inserts[DOCUMENT_ENTITY];
+        int i = 0;
+        stmt.setInt(++i, documentId);
+        stmt.setInt(++i, entityId);
+        stmt.setInt(++i, numMentions);
+        added(DOCUMENT_ENTITY);
+    }
+
+    /**
+     * Add one of the ranked geolocations of a location entity.
+     *
+     * @param locationEntityId
+     * @param rank 0 for the best geolocation
+     * @param geoLocation
+     */
+    public void addGeoLocation(int locationEntityId, int rank, GeoLocation geoLocation) throws SQLException {
+        PreparedStatement stmt = inserts[GEOLOCATION];
+        int i = 0;
+        stmt.setInt(++i, locationEntityId);
+        stmt.setInt(++i, rank);
+        stmt.setDouble(++i, geoLocation.latitude);
+        stmt.setDouble(++i, geoLocation.longitude);
+        if (geoLocation.boundingBox == null) {
+            stmt.setNull(++i, Types.DOUBLE);
+            stmt.setNull(++i, Types.DOUBLE);
+            stmt.setNull(++i, Types.DOUBLE);
+            stmt.setNull(++i, Types.DOUBLE);
+        } else {
+            stmt.setDouble(++i, geoLocation.boundingBox.latitudeSouth);
+            stmt.setDouble(++i, geoLocation.boundingBox.latitudeNorth);
+            stmt.setDouble(++i, geoLocation.boundingBox.longitudeWest);
+            stmt.setDouble(++i, geoLocation.boundingBox.longitudeEast);
+        }
+        stmt.setString(++i, geoLocation.name);
+        stmt.setString(++i, geoLocation.osmType);
+        stmt.setString(++i, geoLocation.ngaDesignation);
+        stmt.setString(++i, geoLocation.country);
+        stmt.setString(++i, geoLocation.source);
+        added(GEOLOCATION);
+    }
+
+    private void added(int table) throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("VizLincRDBLoader is closed");
+        }
+        inserts[table].addBatch();
+        pending[table]++;
+        touched[table] = true;
+        rowsLoaded++;
+        if (++uncommitted >= commitSize) {
+            commit();
+        } else if (pending[table] >= batchSize) {
+            sendBatches(table);
+        }
+    }
+
+    /**
+     * Send the pending rows of the given table, and first those of the tables before it.
+     */
+    private void sendBatches(int upToTable) throws SQLException {
+        for (int table = 0; table <= upToTable; table++) {
+            if (pending[table] > 0) {
+                inserts[table].executeBatch();
+                pending[table] = 0;
+            }
+        }
+    }
+
+    /**
+     * Send all pending rows and commit them.
+     */
+    public void commit() throws SQLException {
+        sendBatches(TABLES.length - 1);
+        List<String> touchedTables = new ArrayList<String>();
+        for (int table = 0; table < TABLES.length; table++) {
+            if (touched[table]) {
+                touchedTables.add(TABLES[table]);
+            }
+        }
+        rdb.touchTables(touchedTables.toArray(new String[touchedTables.size()]));
+        conn.commit();
+        Arrays.fill(touched, false);
+        uncommitted = 0;
+    }
+
+    /**
+     * Return the number of rows added so far.
+     *
+     * @return number of rows
+     */
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /**
+     * Commit any pending rows, recreate the deferred indexes, and update the table statistics. The indexes are
+     * recreated even if the final commit fails, in which case the uncommitted rows are rolled back, and the commit's
+     * exception is thrown with any later failures added to it as suppressed exceptions.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        SQLException failure = null;
+        try {
+            commit();
+        } catch (SQLException ex) {
+            failure = ex;
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                failure.addSuppressed(rollbackEx);
+            }
+        } finally {
+            failure = restore(failure, true);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close the statements, restore auto-commit, recreate the dropped indexes and stamp triggers, and if analyze is
+     * set, run ANALYZE.
+     * Each step is tried even if an earlier one fails.
+     *
+     * @param failure the exception that is ending the load, if any
+     * @return failure with the exceptions of the steps added as suppressed, or if failure is null, the first of
+     * them with the rest suppressed, or null if none
+     */
+    private SQLException restore(SQLException failure, boolean analyze) {
+        for (PreparedStatement stmt : inserts) {
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException ex) {
+                    failure = suppress(failure, ex);
+                }
+            }
+        }
+        try {
+            conn.setAutoCommit(savedAutoCommit);
+        } catch (SQLException ex) {
+            failure = suppress(failure, ex);
+        }
+        if (droppedStampTriggers) {
+            try {
+                rdb.createStampTriggers();
+            } catch (SQLException ex) {
+                failure = suppress(failure, ex);
+            }
+        }
+        List<String> statements = new ArrayList<String>(droppedIndexes);
+        if (analyze) {
+            statements.add("ANALYZE");
+        }
+        for (String sql : statements) {
+            try {
+                Statement stmt = conn.createStatement();
+                try {
+                    stmt.execute(sql);
+                } finally {
+                    stmt.close();
+                }
+            } catch (SQLException ex) {
+                failure = suppress(failure, ex);
+            }
+        }
+        return failure;
+    }
+
+    private static SQLException suppress(SQLException failure, SQLException ex) {
+        if (failure == null) {
+            return ex;
+        }
+        failure.addSuppressed(ex);
+        return failure;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.document.Document;
+import edu.mit.ll.vizlincdb.entity.LocationEntity;
+import edu.mit.ll.vizlincdb.entity.PersonEntity;
+import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Per-call latency of the VizLincRDB point lookups, with statements prepared afresh on each call and then with the
+ * statement cache.
+ */
+public class VizLincRDBLookupBenchmark {
+
+    private static final int CALLS = 20000;
+
+    private interface Lookup {
+        void call(int i) throws SQLException;
+    }
+
+    private static void time(String label, Lookup lookup) throws SQLException {
+        // Warm up first.
+        for (int i = 0; i < CALLS / 10; i++) {
+            lookup.call(i);
+        }
+        ElapsedTime t = new ElapsedTime();
+        for (int i = 0; i < CALLS; i++) {
+            lookup.call(i);
+        }
+        System.out.println(String.format("%-40s %8.1f us/call", label, t.secondsElapsed() * 1e6 / CALLS));
+    }
+
+    /**
+     * @param args the database directory
+     */
+    public static void main(String[] args) throws SQLException {
+        if (args.length != 1) {
+            System.err.println("usage: VizLincRDBLookupBenchmark database-directory");
+            System.exit(1);
+        }
+        final VizLincRDB db = new VizLincRDB(args[0]);
+        List<Document> documents = db.getDocuments();
+        List<PersonEntity> persons = db.getPersonEntities();
+        List<LocationEntity> locations = db.getLocationEntities();
+        final int[] documentIds = new int[documents.size()];
+        for (int i = 0; i < documentIds.length; i++) {
+            documentIds[i] = documents.get(i).getId();
+        }
+        final int[] entityIds = new int[persons.size()];
+        for (int i = 0; i < entityIds.length; i++) {
+            entityIds[i] = persons.get(i).getId();
+        }
+        final int[] locationIds = new int[locations.size()];
+        for (int i = 0; i < locationIds.length; i++) {
+            locationIds[i] = locations.get(i).getId();
+        }
+        if (documentIds.length == 0 || entityIds.length == 0 || locationIds.length == 0) {
+            System.err.println("Need documents, person entities and location entities to look up");
+            System.exit(1);
+        }
+
+        for (int cacheSize : new int[] {0, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE}) {
+            db.setStatementCacheSize(cacheSize);
+            System.out.println(cacheSize == 0 ? "Without statement cache:" : "With statement cache of " + cacheSize + ":");
+            time("getDocumentWithId", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getDocumentWithId(documentIds[i % documentIds.length]);
+                }
+            });
+            time("getEntityWithId", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getEntityWithId(entityIds[i % entityIds.length]);
+                }
+            });
+            time("getDocumentText", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getDocumentText(documentIds[i % documentIds.length]);
+                }
+            });
+            time("getFirstNGeoPoints(id, 1)", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getFirstNGeoPoints(locationIds[i % locationIds.length], 1);
+                }
+            });
+            time("getGeoLocations", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getGeoLocations(locationIds[i % locationIds.length]);
+                }
+            });
+            time("getDistinctMentionTextsForEntityId", new Lookup() {
+                @Override
+                public void call(int i) throws SQLException {
+                    db.getDistinctMentionTextsForEntityId(entityIds[i % entityIds.length]);
+                }
+            });
+        }
+        long[] stats = db.getStatementCacheStats();
+        System.out.println(String.format("statement cache: %d hits, %d misses, %d evictions", stats[0], stats[1], stats[2]));
+        db.shutdown();
+    }
+}
@@ -7,34 +7,39 @@ import edu.mit.ll.vizlincdb.entity.OrganizationEntity;
 import edu.mit.ll.vizlincdb.entity.EntitySet;
 import edu.mit.ll.vizlincdb.entity.PersonEntity;
 import edu.mit.ll.vizlincdb.entity.DateEntity;
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import com.google.common.collect.DiscreteDomain;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.LoadingCache;
 import edu.mit.ll.vizlincdb.document.Document;
 import edu.mit.ll.vizlincdb.util.ElapsedTime;
+import edu.mit.ll.vizlincdb.util.IntArrays;
 import edu.mit.ll.vizlincdb.geo.GeoPoint;
 import edu.mit.ll.vizlincdb.entity.Mention;
 import edu.mit.ll.vizlincdb.entity.MentionLocation;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An API to hide the details of an RDB version of the VizLinc graph. Wraps a
@@ -42,19 +47,115 @@ import java.util.Set;
  */
 public class VizLincRDBMem {
 
+    /**
+     * Base name of the snapshot file kept in the database directory. Each rebuilt snapshot is saved as a new
+     * generation, SNAPSHOT_FILE_NAME.1, SNAPSHOT_FILE_NAME.2, ..., since the one in use stays mapped.
+     */
+    public static final String SNAPSHOT_FILE_NAME = "vizlincrdbmem.snapshot";
+    /**
+     * Content version of the snapshot. Change this whenever the set or meaning of the snapshot sections changes, so
+     * that old snapshot files are rebuilt.
+     */
+    static final int SNAPSHOT_VERSION = 5;
+    /**
+     * Default for the number of documents below which a query stays sequential when a query pool is set.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+    /**
+     * Default for the number of documents whose mentions are cached in LAZY mode.
+     */
+    public static final int DEFAULT_MENTION_CACHE_SIZE = 10000;
+    /**
+     * Default for the total number of characters of document text kept in memory.
+     */
+    public static final long DEFAULT_DOCUMENT_TEXT_CACHE_CHARACTERS = 16L * 1024 * 1024;
+    // Number of threads for the startup pipeline: enough to run all the independent stages at once.
+    private static final int STARTUP_THREADS = 5;
+
+    /**
+     * How the in-memory structures are loaded.
+     */
+    public enum LoadMode {
+
+        /**
+         * Load everything when the database is opened, building the snapshot
+         * file first if there is no usable one.
+         */
+        EAGER,
+        /**
+         * Load each structure the first time it is used. A usable snapshot
+         * file is used, but none is built; without one, mentions are read from
+         * the database a document at a time and kept in a bounded LRU cache.
+         */
+        LAZY
+    }
+
     public VizLincRDB rdb;
-    Kryo kryo;
-    private EntitySet allEntities;
-    private List<Document> allDocuments;
-    private Map<Integer, Entity> entityIdToEntity;
-    private Map<Integer, Document> documentIdToDocument;
-    private Map<Integer, GeoPoint> entityIdToGeoPoint;
-    // entityIdToDocumentIds could be subsumbed by entityIdToDocumentIdToMentionCount, but include it anyway in case the mention counts don'timer exist.
-    private Map<Integer, HashSet<Integer>> entityIdToDocumentIds;
-    private Map<Integer, HashSet<Integer>> documentIdToEntityIds;
-    private Map<Integer, HashMap<Integer, Integer>> entityIdToDocumentIdToMentionCount;
-    private Map<Integer, ArrayList<MentionLocation>> documentIdToMentionLocations;
-    private ElapsedTime timer = new ElapsedTime();
+    private final String databasePath;
+    private final LoadMode loadMode;
+    // Null in LAZY mode if there is no usable snapshot file.
+    private final ColumnarSnapshot snapshot;
+    private final int mentionCacheSize;
+    private final StartupReport startupReport = new StartupReport();
+    private final Map<String, Short> mentionTypeCodes = new HashMap<String, Short>();
+    private final List<String> mentionTypes = new ArrayList<String>();
+    private ForkJoinPool queryPool = null;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile DocumentTextCache documentTextCache;
+
+    /*
+     * Each in-memory structure is loaded the first time it is asked for: from the snapshot if there is one, and
+     * otherwise (only in LAZY mode) from the database. Each has its own lock, so that independent structures can be
+     * loaded concurrently during startup.
+     */
+    private final Supplier<List<Document>> allDocuments = Suppliers.memoize(new Supplier<List<Document>>() {
+        @Override
+        public List<Document> get() {
+            return loadDocuments();
+        }
+    });
+    private final Supplier<Map<Integer, Document>> documentIdToDocument = Suppliers.memoize(new Supplier<Map<Integer, Document>>() {
+        @Override
+        public Map<Integer, Document> get() {
+            return indexDocuments(allDocuments());
+        }
+    });
+    private final Supplier<EntitySet> allEntities = Suppliers.memoize(new Supplier<EntitySet>() {
+        @Override
+        public EntitySet get() {
+            return loadEntities();
+        }
+    });
+    private final Supplier<Map<Integer, Entity>> entityIdToEntity = Suppliers.memoize(new Supplier<Map<Integer, Entity>>() {
+        @Override
+        public Map<Integer, Entity> get() {
+            return indexEntities(allEntities());
+        }
+    });
+    private final Supplier<MentionSource> mentions = Suppliers.memoize(new Supplier<MentionSource>() {
+        @Override
+        public MentionSource get() {
+            return loadMentions();
+        }
+    });
+    private final Supplier<Map<Integer, GeoPoint>> entityIdToGeoPoint = Suppliers.memoize(new Supplier<Map<Integer, GeoPoint>>() {
+        @Override
+        public Map<Integer, GeoPoint> get() {
+            return loadGeoPoints();
+        }
+    });
+    private final Supplier<DocumentEntityIndex> documentEntityIndex = Suppliers.memoize(new Supplier<DocumentEntityIndex>() {
+        @Override
+        public DocumentEntityIndex get() {
+            return loadDocumentEntityIndex();
+        }
+    });
+    private final Supplier<DocumentBitmaps> documentBitmaps = Suppliers.memoize(new Supplier<DocumentBitmaps>() {
+        @Override
+        public DocumentBitmaps get() {
+            return new DocumentBitmaps(documentEntityIndex(), IntArrays.toSortedDistinct(documentIdToDocument().keySet()));
+        }
+    });
 
     /**
      * Open an existing VizLinc database specified at the path specified by the
@@ -73,275 +174,725 @@ public class VizLincRDBMem {
      * @param databasePath specifies a directory for the database.
      */
     public VizLincRDBMem(String databasePath) throws SQLException {
-        rdb = new VizLincRDB(databasePath);
-        kryo = new Kryo();
-
-        // Prefetch data from the database.
-        fetchDocuments(databasePath);
-        fetchEntities(databasePath);
-        fetchMentionLocations(databasePath);
-        fetchGeoPoints(databasePath);
-        fetchDocumentEntityAndMentionMaps(databasePath);
-    }
-
-    private void fetchDocuments(String databasePath) throws SQLException {
-        timer.reset();
-        File allDocumentsKyroFile = new File(databasePath, "allDocuments.kryo");
-        allDocuments = (List<Document>) fetchKryo(allDocumentsKyroFile, ArrayList.class);
-        if (allDocuments != null) {
-            timer.done("fetch all documents from kryo");
+        this(databasePath, LoadMode.EAGER);
+    }
+
+    /**
+     * Open an existing VizLinc database at the path specified (which will be a
+     * directory), loading it as specified.
+     *
+     * @param databasePath specifies a directory for the database.
+     * @param loadMode
+     */
+    public VizLincRDBMem(String databasePath, LoadMode loadMode) throws SQLException {
+        this(databasePath, loadMode, DEFAULT_MENTION_CACHE_SIZE);
+    }
+
+    /**
+     * Open an existing VizLinc database at the path specified (which will be a
+     * directory), loading it as specified.
+     *
+     * In EAGER mode, startup runs as a pipeline of stages on a temporary
+     * thread pool: building the snapshot, if needed, reads each table on its
+     * own connection, and the structures are then decoded and indexed
+     * concurrently. See getStartupReport() for the stage timings.
+     *
+     * The snapshot records the stamp (see VizLincRDB.touchTables()) and row
+     * count of each table it was built from. Triggers change a table's stamp
+     * whenever it changes. If a table has changed since, EAGER mode rebuilds
+     * just the parts of the snapshot derived from it, and LAZY mode ignores
+     * the snapshot. Checking the stamps and row counts does not read the
+     * tables; verifySnapshot() checks the tables themselves.
+     *
+     * EAGER mode checks the whole snapshot file against its checksums, and
+     * rebuilds it if it is corrupt. LAZY mode checks each part of the file the
+     * first time it is read, and a query that reads a corrupt part throws
+     * IllegalStateException.
+     *
+     * @param databasePath specifies a directory for the database.
+     * @param loadMode
+     * @param mentionCacheSize in LAZY mode without a snapshot, the maximum
+     * number of documents whose mentions are kept in memory
+     */
+    public VizLincRDBMem(String databasePath, LoadMode loadMode, int mentionCacheSize) throws SQLException {
+        this(databasePath, loadMode, mentionCacheSize, 0);
+    }
+
+    /**
+     * Open an existing VizLinc database at the path specified (which will be a
+     * directory), loading it as specified, with a pool of query connections
+     * (see VizLincRDB(String, int)) if poolSize is positive. Without one,
+     * queries run on a single connection, and only building the snapshot
+     * uses connections of its own, which are closed when it is done.
+     *
+     * @param databasePath specifies a directory for the database.
+     * @param loadMode
+     * @param mentionCacheSize in LAZY mode without a snapshot, the maximum
+     * number of documents whose mentions are kept in memory
+     * @param poolSize maximum number of pooled query connections, or 0 for none
+     */
+    public VizLincRDBMem(String databasePath, LoadMode loadMode, int mentionCacheSize, int poolSize) throws SQLException {
+        rdb = new VizLincRDB(databasePath, poolSize);
+        this.databasePath = databasePath;
+        this.loadMode = loadMode;
+        this.mentionCacheSize = mentionCacheSize;
+        this.documentTextCache = new DocumentTextCache(rdb, DEFAULT_DOCUMENT_TEXT_CACHE_CHARACTERS, 0);
+
+        ElapsedTime timer = new ElapsedTime();
+        // EAGER mode reads all of the snapshot anyway, so it checks all of it up front and rebuilds it if it is
+        // corrupt. LAZY mode only checks each section when it is first read.
+        ColumnarSnapshot existing = openSnapshot(loadMode == LoadMode.EAGER);
+        startupReport.record("open snapshot", 0, timer);
+
+        if (loadMode == LoadMode.EAGER) {
+            ExecutorService executor = Executors.newFixedThreadPool(STARTUP_THREADS);
+            try {
+                // Rebuild whatever parts of the snapshot are missing or out of date, then load everything from it.
+                SnapshotManifest manifest = readManifest();
+                Set<String> changedTables = changedTables(existing, manifest);
+                if (changedTables.isEmpty()) {
+                    snapshot = existing;
+                } else {
+                    boolean temporaryPool = rdb.beginTemporaryPool(STARTUP_THREADS);
+                    try {
+                        snapshot = buildSnapshot(new StartupPipeline(executor, startupReport), existing, changedTables, manifest);
+                    } finally {
+                        if (temporaryPool) {
+                            rdb.endTemporaryPool();
+                        }
+                    }
+                }
+                prefetch(new StartupPipeline(executor, startupReport));
+            } finally {
+                executor.shutdown();
+            }
+        } else if (existing != null) {
+            // Without the means to rebuild it, use the snapshot only if it is entirely up to date.
+            SnapshotManifest manifest = readManifest();
+            snapshot = changedTables(existing, manifest).isEmpty() ? existing : null;
         } else {
-            allDocuments = rdb.getDocuments();
-            timer.done("no kryo: fetch all documents from db");
-            saveKryo(allDocumentsKyroFile, allDocuments);
-            timer.done("save documents to kryo");
+            snapshot = null;
         }
+        startupReport.done();
+        System.out.print(startupReport);
+    }
 
-        documentIdToDocument = new HashMap<Integer, Document>(allDocuments.size());
-        for (Document doc : allDocuments) {
-            documentIdToDocument.put(doc.getId(), doc);
-        }
-        timer.done("build document index");
+    /**
+     * Return how this database's in-memory structures are loaded.
+     *
+     * @return LoadMode
+     */
+    public LoadMode getLoadMode() {
+        return loadMode;
     }
 
-    private void fetchEntities(String databasePath) throws SQLException {
-        timer.reset();
-        File allEntitiesKryoFile = new File(databasePath, "allEntities.kryo");
-        allEntities = (EntitySet) fetchKryo(allEntitiesKryoFile, EntitySet.class);
-        if (allEntities != null) {
-            timer.done("fetch all entities from kryo");
-        } else {
-            allEntities = rdb.getEntities();
-            timer.done("no kryo: fetch all entities from db");
-            saveKryo(allEntitiesKryoFile, allEntities);
-            timer.done("save entities to kryo");
+    /**
+     * Return the timings of the stages of opening this database.
+     *
+     * @return StartupReport
+     */
+    public StartupReport getStartupReport() {
+        return startupReport;
+    }
+
+    /**
+     * Open the newest usable generation of the snapshot file in the database directory, and if verify is set, check
+     * the checksums of all its sections; return null if there is none.
+     */
+    private ColumnarSnapshot openSnapshot(boolean verify) {
+        for (File snapshotFile : ColumnarSnapshot.generations(new File(databasePath), SNAPSHOT_FILE_NAME)) {
+            try {
+                ColumnarSnapshot snapshot = ColumnarSnapshot.open(snapshotFile, SNAPSHOT_VERSION);
+                if (verify) {
+                    snapshot.verify();
+                }
+                return snapshot;
+            } catch (IOException ex) {
+                System.err.println("unusable snapshot: " + ex.getMessage());
+            }
         }
+        return null;
+    }
 
-        entityIdToEntity = new HashMap<Integer, Entity>(allEntities.size());
+    /**
+     * Read the current stamps and row counts of the snapshot's source tables.
+     */
+    private SnapshotManifest readManifest() throws SQLException {
+        float startSeconds = startupReport.secondsElapsed();
+        ElapsedTime timer = new ElapsedTime();
+        SnapshotManifest manifest = SnapshotManifest.read(rdb);
+        startupReport.record("check snapshot", startSeconds, timer);
+        return manifest;
+    }
+
+    /**
+     * Return the tables that have changed since the snapshot was built: all of them if there is no snapshot or it has
+     * no manifest.
+     */
+    private static Set<String> changedTables(ColumnarSnapshot snapshot, SnapshotManifest current) {
+        SnapshotManifest stored = null;
+        try {
+            stored = snapshot == null ? null : SnapshotManifest.readFrom(snapshot, "manifest.");
+        } catch (IllegalStateException ex) {
+            System.err.println("unusable snapshot manifest: " + ex.getMessage());
+        }
+        Set<String> changedTables = current.changedTables(stored);
+        if (snapshot != null && !changedTables.isEmpty()) {
+            System.out.println("snapshot out of date for tables " + changedTables);
+        }
+        return changedTables;
+    }
 
-        for (Entity e : allEntities.getDateEntities()) {
-            entityIdToEntity.put(e.getId(), e);
+    /**
+     * Build a new snapshot and save it. The sections derived from changedTables are rebuilt from the database, each
+     * table on its own connection and into its own writer, and checksummed for verifySnapshot(); the other sections
+     * and their checksums are copied from the existing snapshot. The parts are combined in a fixed order so that the
+     * file does not depend on scheduling.
+     */
+    private ColumnarSnapshot buildSnapshot(StartupPipeline pipeline, ColumnarSnapshot existing, Set<String> changedTables,
+                                           final SnapshotManifest manifest) throws SQLException {
+        Map<String, ColumnarSnapshot.Writer> rebuilt = new HashMap<String, ColumnarSnapshot.Writer>();
+        for (final String table : changedTables) {
+            final ColumnarSnapshot.Writer part = new ColumnarSnapshot.Writer(SNAPSHOT_VERSION);
+            rebuilt.put(table, part);
+            pipeline.add("snapshot: fetch " + table + " from db", new StartupPipeline.Step() {
+                @Override
+                public void run() throws SQLException {
+                    snapshotTable(table, part);
+                }
+            });
+            pipeline.add("snapshot: checksum " + table, new StartupPipeline.Step() {
+                @Override
+                public void run() throws SQLException {
+                    manifest.checksum(rdb, table);
+                }
+            });
         }
+        SnapshotManifest stored = existing == null ? null : SnapshotManifest.readFrom(existing, "manifest.");
+        if (stored != null) {
+            List<String> unchangedTables = new ArrayList<String>(SnapshotManifest.TABLES);
+            unchangedTables.removeAll(changedTables);
+            manifest.copyChecksums(stored, unchangedTables);
+        }
+        pipeline.await();
+
+        float startSeconds = startupReport.secondsElapsed();
+        ElapsedTime timer = new ElapsedTime();
+        ColumnarSnapshot.Writer writer = new ColumnarSnapshot.Writer(SNAPSHOT_VERSION);
+        for (String table : SnapshotManifest.TABLES) {
+            ColumnarSnapshot.Writer part = rebuilt.get(table);
+            if (part != null) {
+                writer.putAll(part);
+            } else {
+                writer.putAll(existing, sectionPrefix(table));
+            }
+        }
+        manifest.writeTo(writer, "manifest.");
+        try {
+            // A new generation, since existing may still be mapped from the file it replaces.
+            File snapshotFile = writer.writeGeneration(new File(databasePath), SNAPSHOT_FILE_NAME);
+            // Map the file just written rather than keeping the heap copies around.
+            return ColumnarSnapshot.open(snapshotFile, SNAPSHOT_VERSION);
+        } catch (IOException ex) {
+            System.err.println("unexpected snapshot save error: " + ex);
+            return writer.toSnapshot();
+        } finally {
+            startupReport.record("save snapshot", startSeconds, timer);
+        }
+    }
 
-        for (Entity e : allEntities.getLocationEntities()) {
-            entityIdToEntity.put(e.getId(), e);
+    /**
+     * Check the tables the snapshot in use was built from against the checksums recorded when it was built, to find
+     * changes that neither changed a table's stamp nor its row count, and so were not seen when the database was
+     * opened, such as those made while the stamp triggers were dropped. The changed tables are touched, so that the
+     * next open rebuilds the snapshot sections derived from them; this VizLincRDBMem keeps using the snapshot it has.
+     * This reads every table in full.
+     *
+     * @return the tables found changed, or an empty set if there are none or no snapshot is in use
+     */
+    public Set<String> verifySnapshot() throws SQLException {
+        if (snapshot == null) {
+            return Collections.emptySet();
         }
+        SnapshotManifest stored = SnapshotManifest.readFrom(snapshot, "manifest.");
+        SnapshotManifest current = new SnapshotManifest(VizLincRDB.SCHEMA_VERSION);
+        current.checksumAll(rdb);
+        Set<String> changedTables = stored == null ? new LinkedHashSet<String>(SnapshotManifest.TABLES) : current.changedChecksums(stored);
+        if (!changedTables.isEmpty()) {
+            System.out.println("snapshot out of date for tables " + changedTables);
+            rdb.touchTables(changedTables.toArray(new String[changedTables.size()]));
+        }
+        return changedTables;
+    }
 
-        for (Entity e : allEntities.getOrganizationEntities()) {
-            entityIdToEntity.put(e.getId(), e);
+    /**
+     * Return the prefix of the names of the snapshot sections derived from a table.
+     */
+    private static String sectionPrefix(String table) {
+        switch (table) {
+            case "document":
+                return "document.";
+            case "entity":
+                return "entity.";
+            case "mention":
+                return "mention.";
+            case "geolocation":
+                return "geo.";
+            case "document_entity":
+                return "documentEntity.";
+            default:
+                throw new IllegalArgumentException("Not a snapshot table: " + table);
         }
+    }
 
-        for (Entity e : allEntities.getPersonEntities()) {
-            entityIdToEntity.put(e.getId(), e);
+    /**
+     * Add the snapshot sections derived from a table.
+     */
+    private void snapshotTable(String table, ColumnarSnapshot.Writer writer) throws SQLException {
+        switch (table) {
+            case "document":
+                snapshotDocuments(writer);
+                break;
+            case "entity":
+                snapshotEntities(writer);
+                break;
+            case "mention":
+                snapshotMentionLocations(writer);
+                break;
+            case "geolocation":
+                snapshotGeoPoints(writer);
+                break;
+            case "document_entity":
+                fetchDocumentEntityIndex().writeTo(writer, "documentEntity.");
+                break;
+            default:
+                throw new IllegalArgumentException("Not a snapshot table: " + table);
         }
-        timer.done("index entities");
     }
 
-    private void fetchMentionLocations(String databasePath) throws SQLException {
-        timer.reset();
-        File documentIdToMentionLocationsKryoFile = new File(databasePath, "documentIdToMentionLocations.kryo");
-        File mentionTypeCodeTableKryoFile = new File(databasePath, "mentionTypeCodeTable.kryo");
-        documentIdToMentionLocations = (HashMap<Integer, ArrayList<MentionLocation>>) fetchKryo(documentIdToMentionLocationsKryoFile, HashMap.class);
-        Map<Short,String> mentionTypeCodeTable = (HashMap<Short,String>) fetchKryo(mentionTypeCodeTableKryoFile, HashMap.class);
-        
-        if (documentIdToMentionLocations != null && mentionTypeCodeTable != null) 
-        {
-            MentionLocation.setTypeCodeTable(mentionTypeCodeTable);
-            timer.done("fetch docId->mentionLocations map from kryo");
-        } else {
-            // Get the mention locations from the db.
-            List<MentionLocation> allMentionLocations = rdb.getMentionLocations();
-            timer.done("fetch mention locations from db");
-
-            // Count up how many mentions for each document, so that we may create ArrayLists of exactly the right size.
-            Map<Integer, Integer> mentionCounts = new HashMap<Integer, Integer>(allMentionLocations.size());
-            for (MentionLocation ml : allMentionLocations) {
-                int documentId = ml.getDocumentId();
-                if (!mentionCounts.containsKey(documentId)) {
-                    mentionCounts.put(documentId, 0);
-                }
-                mentionCounts.put(documentId, mentionCounts.get(documentId) + 1);
+    /**
+     * Load all the in-memory structures. Decoding each structure and building its indexes are separate stages, so
+     * that index building overlaps with decoding the others.
+     */
+    private void prefetch(StartupPipeline pipeline) throws SQLException {
+        pipeline.add("fetch all documents", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                allDocuments();
             }
-
-            // Set up the map of ArrayLists of the right size.
-            documentIdToMentionLocations = new HashMap<Integer, ArrayList<MentionLocation>>(mentionCounts.size());
-            for (int documentId : mentionCounts.keySet()) {
-                documentIdToMentionLocations.put(documentId, new ArrayList<MentionLocation>(mentionCounts.get(documentId)));
+        });
+        pipeline.add("fetch all entities", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                allEntities();
+            }
+        });
+        pipeline.add("fetch mention locations", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                mentions();
+            }
+        });
+        pipeline.add("fetch rank 0 geopoints for all location entities", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                entityIdToGeoPoint();
+            }
+        });
+        pipeline.add("fetch document<->entity index", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                documentEntityIndex();
+            }
+        });
+        pipeline.add("index documents", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                documentIdToDocument();
             }
+        }, "fetch all documents");
+        pipeline.add("index entities", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                entityIdToEntity();
+            }
+        }, "fetch all entities");
+        pipeline.add("build document bitmaps", new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                documentBitmaps();
+            }
+        }, "index documents", "fetch document<->entity index");
+        pipeline.await();
+    }
+
+    private void snapshotDocuments(ColumnarSnapshot.Writer writer) throws SQLException {
+        List<Document> documents = rdb.getDocuments();
+        int[] ids = new int[documents.size()];
+        List<String> names = new ArrayList<String>(documents.size());
+        List<String> paths = new ArrayList<String>(documents.size());
+        int i = 0;
+        for (Document doc : documents) {
+            ids[i++] = doc.getId();
+            names.add(doc.getName());
+            paths.add(doc.getPath());
+        }
+        writer.putInts("document.ids", ids, ids.length).putStrings("document.names", names).putStrings("document.paths", paths);
+    }
+
+    private void snapshotEntities(ColumnarSnapshot.Writer writer) throws SQLException {
+        EntitySet entities = rdb.getEntities();
+        List<Entity> all = new ArrayList<Entity>(entities.size());
+        all.addAll(entities.getDateEntities());
+        all.addAll(entities.getLocationEntities());
+        all.addAll(entities.getOrganizationEntities());
+        all.addAll(entities.getPersonEntities());
+
+        int[] ids = new int[all.size()];
+        int[] numDocuments = new int[all.size()];
+        int[] numMentions = new int[all.size()];
+        List<String> types = new ArrayList<String>(all.size());
+        List<String> texts = new ArrayList<String>(all.size());
+        List<String> createdBys = new ArrayList<String>(all.size());
+        int i = 0;
+        for (Entity e : all) {
+            ids[i] = e.getId();
+            numDocuments[i] = e.getNumDocuments();
+            numMentions[i] = e.getNumMentions();
+            types.add(e.getType());
+            texts.add(e.getText());
+            createdBys.add(e.getCreatedBy());
+            i++;
+        }
+        writer.putInts("entity.ids", ids, ids.length)
+            .putInts("entity.numDocuments", numDocuments, numDocuments.length)
+            .putInts("entity.numMentions", numMentions, numMentions.length)
+            .putStrings("entity.types", types)
+            .putStrings("entity.texts", texts)
+            .putStrings("entity.createdBys", createdBys);
+    }
+
+    /**
+     * Mentions are stored as a MentionTable. Mention types are stored as short codes into the mention.types string
+     * column.
+     */
+    private void snapshotMentionLocations(ColumnarSnapshot.Writer writer) throws SQLException {
+        MentionTable table = fetchMentionTable(null);
+        table.writeTo(writer, "mention.");
+        synchronized (this) {
+            writer.putStrings("mention.types", mentionTypes);
+        }
+    }
 
-            // Now run through all the mention locations again, and save them by doc id.
-            for (MentionLocation ml : allMentionLocations) {
-                documentIdToMentionLocations.get(ml.getDocumentId()).add(ml);
+    /**
+     * Read the mentions of one document, or of all documents if documentId is null, from the database.
+     */
+    private MentionTable fetchMentionTable(Integer documentId) throws SQLException {
+        String where = documentId == null ? "" : " WHERE document_id = ?";
+        try (PooledConnection pc = rdb.connection()) {
+            PreparedStatement countStmt = pc.prepareStatement("SELECT COUNT(*) FROM mention" + where);
+            PreparedStatement stmt = pc.prepareStatement("SELECT document_id, entity_id, \"INDEX\", text_start, text_stop, type FROM mention" + where);
+            if (documentId != null) {
+                countStmt.setInt(1, documentId);
+                stmt.setInt(1, documentId);
             }
-            timer.done("build docId->mentionLocations map");
+            ResultSet rs = pc.executeQuery(countStmt);
+            rs.next();
+            int size = rs.getInt(1);
+            int[] documentIds = new int[size];
+            int[] entityIds = new int[size];
+            int[] indexes = new int[size];
+            int[] textStarts = new int[size];
+            int[] textStops = new int[size];
+            short[] typeCodes = new short[size];
+
+            rs = pc.executeQuery(stmt);
+            int n = 0;
+            while (rs.next() && n < size) {
+                documentIds[n] = rs.getInt(1);
+                int entityId = rs.getInt(2);
+                entityIds[n] = rs.wasNull() ? -1 : entityId;
+                indexes[n] = rs.getInt(3);
+                textStarts[n] = rs.getInt(4);
+                textStops[n] = rs.getInt(5);
+                typeCodes[n] = mentionTypeCode(rs.getString(6));
+                n++;
+            }
+            return MentionTable.build(documentIds, entityIds, indexes, textStarts, textStops, typeCodes, n);
+        }
+    }
+
+    /**
+     * Return the code for a mention type, assigning the next code if the type is new.
+     */
+    private synchronized short mentionTypeCode(String type) {
+        Short code = mentionTypeCodes.get(type);
+        if (code == null) {
+            code = (short) mentionTypes.size();
+            mentionTypeCodes.put(type, code);
+            mentionTypes.add(type);
+            MentionLocation.getTypeCodeTable().put(code, type);
+        }
+        return code;
+    }
 
-            saveKryo(documentIdToMentionLocationsKryoFile, documentIdToMentionLocations);
-            saveKryo(mentionTypeCodeTableKryoFile, MentionLocation.getTypeCodeTable());
-            timer.done("save docId->mentionLocations map to kryo");
+    /**
+     * Replace the mention type codes, here and in MentionLocation, with the given list of types, indexed by code.
+     */
+    private synchronized void setMentionTypes(List<String> types) {
+        mentionTypeCodes.clear();
+        mentionTypes.clear();
+        MentionLocation.setTypeCodeTable(Collections.synchronizedMap(new HashMap<Short, String>()));
+        for (String type : types) {
+            mentionTypeCode(type);
+        }
+    }
 
+    private void snapshotGeoPoints(ColumnarSnapshot.Writer writer) throws SQLException {
+        Map<Integer, GeoPoint> geoPoints = fetchGeoPoints();
+        int[] entityIds = new int[geoPoints.size()];
+        double[] latitudes = new double[geoPoints.size()];
+        double[] longitudes = new double[geoPoints.size()];
+        int n = 0;
+        for (GeoPoint gp : geoPoints.values()) {
+            entityIds[n] = gp.locationEntityId;
+            latitudes[n] = gp.latitude;
+            longitudes[n] = gp.longitude;
+            n++;
         }
+        writer.putInts("geo.entityIds", entityIds, n).putDoubles("geo.latitudes", latitudes, n).putDoubles("geo.longitudes", longitudes, n);
     }
 
-    private void fetchGeoPoints(String databasePath) throws SQLException {
-        Statement stmt = rdb.conn.createStatement();
-        ResultSet rs;
-        File entityIdToGeoPointKryoFile = new File(databasePath, "entityIdToGeoPoint.kryo");
-        timer.reset();
-        entityIdToGeoPoint = (Map<Integer, GeoPoint>) fetchKryo(entityIdToGeoPointKryoFile, HashMap.class);
-        if (entityIdToGeoPoint != null) {
-            timer.done("fetch rank 0 geopoints for all location entities from kryo");
-        } else {
-            rs = stmt.executeQuery("SELECT latitude, longitude, entity_id FROM geolocation WHERE geolocation.rank = 0");
-            entityIdToGeoPoint = new HashMap<Integer, GeoPoint>(allEntities.getLocationEntities().size());
+    private Map<Integer, GeoPoint> fetchGeoPoints() throws SQLException {
+        try (PooledConnection pc = rdb.connection()) {
+            ResultSet rs = pc.createStatement().executeQuery("SELECT latitude, longitude, entity_id FROM geolocation WHERE geolocation.rank = 0");
+            Map<Integer, GeoPoint> geoPoints = new HashMap<Integer, GeoPoint>();
             while (rs.next()) {
                 GeoPoint gp = new GeoPoint(rs.getDouble(1), rs.getDouble(2), rs.getInt(3));
-                entityIdToGeoPoint.put(gp.locationEntityId, gp);
+                geoPoints.put(gp.locationEntityId, gp);
             }
-            timer.done("no kryo: fetch rank 0 geopoints for all location entities from db");
-            saveKryo(entityIdToGeoPointKryoFile, entityIdToGeoPoint);
-            timer.done("save rank 0 geopoints to kryo");
+            return geoPoints;
         }
     }
 
-    private void fetchDocumentEntityAndMentionMaps(String databasePath) throws SQLException {
-        ResultSet rs;
+    private DocumentEntityIndex fetchDocumentEntityIndex() throws SQLException {
+        try (PooledConnection pc = rdb.connection()) {
+            Statement stmt = pc.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM document_entity");
+            rs.next();
+            int size = rs.getInt(1);
+            int[] documentIds = new int[size];
+            int[] entityIds = new int[size];
+            int[] mentionCounts = new int[size];
 
-        timer.reset();
-        Statement stmt = rdb.conn.createStatement();
-        File documentIdToEntityIdsKryoFile = new File(databasePath, "documentIdToEntityIds.kryo");
-        documentIdToEntityIds = (Map<Integer, HashSet<Integer>>) fetchKryo(documentIdToEntityIdsKryoFile, HashMap.class);
-        File entityIdToDocumentIdsKryoFile = new File(databasePath, "entityIdToDocumentIds.kryo");
-        entityIdToDocumentIds = (Map<Integer, HashSet<Integer>>) fetchKryo(entityIdToDocumentIdsKryoFile, HashMap.class);
-        File entityIdToDocumentIdToMentionCountKryoFile = new File(databasePath, "entityIdToDocumentIdToMentionCount.kryo");
-        entityIdToDocumentIdToMentionCount = (Map<Integer, HashMap<Integer, Integer>>) fetchKryo(entityIdToDocumentIdToMentionCountKryoFile, HashMap.class);
-        if (documentIdToEntityIds != null && entityIdToDocumentIds != null && entityIdToDocumentIdToMentionCount != null) {
-            timer.done("fetch document<->entity and document->entity->mention_count maps from kryo");
-        } else {
-            documentIdToEntityIds = new HashMap<Integer, HashSet<Integer>>();
-            entityIdToDocumentIds = new HashMap<Integer, HashSet<Integer>>();
-            entityIdToDocumentIdToMentionCount = new HashMap<Integer, HashMap<Integer, Integer>>();
             rs = stmt.executeQuery("SELECT document_id, entity_id, num_mentions FROM document_entity");
-            while (rs.next()) {
-                int documentId = rs.getInt(1);
-                int entityId = rs.getInt(2);
-                int numMentionLocations = rs.getInt(3);
+            int n = 0;
+            while (rs.next() && n < size) {
+                documentIds[n] = rs.getInt(1);
+                entityIds[n] = rs.getInt(2);
+                mentionCounts[n] = rs.getInt(3);
+                n++;
+            }
+            return DocumentEntityIndex.build(documentIds, entityIds, mentionCounts, n);
+        }
+    }
 
-                HashSet<Integer> entityIdSet = documentIdToEntityIds.get(documentId);
-                if (entityIdSet == null) {
-                    entityIdSet = new HashSet<Integer>();
-                }
-                entityIdSet.add(entityId);
-                documentIdToEntityIds.put(documentId, entityIdSet);
+    private List<Document> loadDocuments() {
+        if (snapshot == null) {
+            try {
+                return rdb.getDocuments();
+            } catch (SQLException ex) {
+                throw new RuntimeException("Unable to load documents", ex);
+            }
+        }
+        IntBuffer ids = snapshot.ints("document.ids");
+        List<String> names = snapshot.strings("document.names");
+        List<String> paths = snapshot.strings("document.paths");
+        List<Document> documents = new ArrayList<Document>(ids.limit());
+        for (int i = 0; i < ids.limit(); i++) {
+            documents.add(new Document(names.get(i), paths.get(i), ids.get(i)));
+        }
+        return documents;
+    }
 
-                HashSet<Integer> documentIdSet = entityIdToDocumentIds.get(entityId);
-                if (documentIdSet == null) {
-                    documentIdSet = new HashSet<Integer>();
-                }
-                documentIdSet.add(documentId);
-                entityIdToDocumentIds.put(entityId, documentIdSet);
+    private static Map<Integer, Document> indexDocuments(List<Document> documents) {
+        Map<Integer, Document> index = new HashMap<Integer, Document>(documents.size());
+        for (Document doc : documents) {
+            index.put(doc.getId(), doc);
+        }
+        return index;
+    }
 
-                HashMap<Integer, Integer> documentIdToMentionCount = entityIdToDocumentIdToMentionCount.get(entityId);
-                if (documentIdToMentionCount == null) {
-                    documentIdToMentionCount = new HashMap<Integer, Integer>();
-                }
-                documentIdToMentionCount.put(documentId, numMentionLocations);
-                entityIdToDocumentIdToMentionCount.put(entityId, documentIdToMentionCount);
+    private EntitySet loadEntities() {
+        if (snapshot == null) {
+            try {
+                return rdb.getEntities();
+            } catch (SQLException ex) {
+                throw new RuntimeException("Unable to load entities", ex);
             }
+        }
+        IntBuffer ids = snapshot.ints("entity.ids");
+        IntBuffer numDocuments = snapshot.ints("entity.numDocuments");
+        IntBuffer numMentions = snapshot.ints("entity.numMentions");
+        List<String> types = snapshot.strings("entity.types");
+        List<String> texts = snapshot.strings("entity.texts");
+        List<String> createdBys = snapshot.strings("entity.createdBys");
+        EntitySet entities = new EntitySet();
+        for (int i = 0; i < ids.limit(); i++) {
+            entities.add(Entity.create(types.get(i), texts.get(i), numDocuments.get(i), numMentions.get(i), createdBys.get(i), ids.get(i)));
+        }
+        return entities;
+    }
 
-            timer.done("build document<->entity and document->entity->mention_count maps from db");
-            saveKryo(documentIdToEntityIdsKryoFile, documentIdToEntityIds);
-            saveKryo(entityIdToDocumentIdsKryoFile, entityIdToDocumentIds);
-            timer.done("save kryo document<->entity maps");
+    private static Map<Integer, Entity> indexEntities(EntitySet entities) {
+        Map<Integer, Entity> index = new HashMap<Integer, Entity>(entities.size());
+        for (Entity e : entities.getDateEntities()) {
+            index.put(e.getId(), e);
+        }
+        for (Entity e : entities.getLocationEntities()) {
+            index.put(e.getId(), e);
+        }
+        for (Entity e : entities.getOrganizationEntities()) {
+            index.put(e.getId(), e);
+        }
+        for (Entity e : entities.getPersonEntities()) {
+            index.put(e.getId(), e);
+        }
+        return index;
+    }
 
-            saveKryo(entityIdToDocumentIdToMentionCountKryoFile, entityIdToDocumentIdToMentionCount);
-            timer.done("save kryo ocument->entity->mention_count map");
+    private MentionSource loadMentions() {
+        if (snapshot != null) {
+            setMentionTypes(snapshot.strings("mention.types"));
+            // Used in place; nothing is read until it is queried.
+            return MentionTable.readFrom(snapshot, "mention.");
         }
+        setMentionTypes(new ArrayList<String>());
+        final LoadingCache<Integer, MentionTable> cache = CacheBuilder.newBuilder()
+            .maximumSize(mentionCacheSize)
+            .build(new CacheLoader<Integer, MentionTable>() {
+                @Override
+                public MentionTable load(Integer documentId) throws SQLException {
+                    return fetchMentionTable(documentId);
+                }
+            });
+        return new MentionSource() {
+            @Override
+            public MentionTable tableFor(int documentId) {
+                return cache.getUnchecked(documentId);
+            }
+        };
     }
 
-    /**
-     * Fetch a serialized object from a file, if it exists; if not, return null
-     *
-     * @param serFile
-     * @return null or the object
-     */
-    private Object fetchSerialized(File serFile) {
-        if (serFile.exists()) {
+    private Map<Integer, GeoPoint> loadGeoPoints() {
+        if (snapshot == null) {
             try {
-                FileInputStream fileIn = new FileInputStream(serFile);
-                ObjectInputStream in = new ObjectInputStream(fileIn);
-                Object obj = in.readObject();
-                in.close();
-                fileIn.close();
-                return obj;
-            } catch (Exception ex) {
-                System.err.println("unexpected fetchSerialized error: " + ex.getMessage());
-                return null;
+                return fetchGeoPoints();
+            } catch (SQLException ex) {
+                throw new RuntimeException("Unable to load geopoints", ex);
             }
-        } else {
-            return null;
         }
+        IntBuffer entityIds = snapshot.ints("geo.entityIds");
+        DoubleBuffer latitudes = snapshot.doubles("geo.latitudes");
+        DoubleBuffer longitudes = snapshot.doubles("geo.longitudes");
+        Map<Integer, GeoPoint> geoPoints = new HashMap<Integer, GeoPoint>(entityIds.limit());
+        for (int i = 0; i < entityIds.limit(); i++) {
+            GeoPoint gp = new GeoPoint(latitudes.get(i), longitudes.get(i), entityIds.get(i));
+            geoPoints.put(gp.locationEntityId, gp);
+        }
+        return geoPoints;
     }
 
-    /**
-     * Fetch a serialized object from a file, if it exists; if not, return null
-     *
-     * @param kryoFile
-     * @return null or the object
-     */
-    private Object fetchKryo(File kryoFile, Class cls) {
-        if (kryoFile.exists()) {
+    private DocumentEntityIndex loadDocumentEntityIndex() {
+        if (snapshot == null) {
             try {
-                Input input = new Input(new FileInputStream(kryoFile));
-                Object obj = kryo.readObject(input, cls);
-                input.close();
-                return obj;
-            } catch (Exception ex) {
-                System.err.println("unexpected fetchKryo error: " + ex.getMessage());
-                return null;
+                return fetchDocumentEntityIndex();
+            } catch (SQLException ex) {
+                throw new RuntimeException("Unable to load document<->entity index", ex);
             }
-        } else {
-            return null;
         }
+        // Used in place; nothing is read until it is queried.
+        return DocumentEntityIndex.readFrom(snapshot, "documentEntity.");
+    }
+
+    private List<Document> allDocuments() {
+        return allDocuments.get();
+    }
+
+    private Map<Integer, Document> documentIdToDocument() {
+        return documentIdToDocument.get();
+    }
+
+    private EntitySet allEntities() {
+        return allEntities.get();
+    }
+
+    private Map<Integer, Entity> entityIdToEntity() {
+        return entityIdToEntity.get();
+    }
+
+    private MentionSource mentions() {
+        return mentions.get();
+    }
+
+    private Map<Integer, GeoPoint> entityIdToGeoPoint() {
+        return entityIdToGeoPoint.get();
+    }
+
+    private DocumentEntityIndex documentEntityIndex() {
+        return documentEntityIndex.get();
+    }
+
+    private DocumentBitmaps documentBitmaps() {
+        return documentBitmaps.get();
     }
 
     /**
-     * Save a serialized object into a file.
+     * Provide an explicit shutdown operation in case it needs to be done before
+     * the JVM shuts down.
+     */
+    public void shutdown() throws SQLException {
+        rdb.shutdown();
+    }
+
+    /**
+     * Run the co-occurrence queries (getEntitiesMentionedNearEntities*,
+     * getMentionCountsForEntitiesInDocuments and
+     * getDocumentCountsForEntitiesInDocuments) in parallel on the given pool,
+     * splitting the documents into ranges. Queries over fewer than
+     * sequentialThreshold documents, and ranges that small, are done
+     * sequentially. A null pool, the default, makes all queries sequential.
      *
-     * @param serFile
+     * @param pool ForkJoinPool to use, or null
+     * @param sequentialThreshold number of documents
      */
-    private void saveSerialized(File serFile, Object obj) {
-        try {
-            FileOutputStream fileOut = new FileOutputStream(serFile);
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            out.writeObject(obj);
-            out.close();
-            fileOut.close();
-        } catch (Exception ex) {
-            System.err.println("unexpected saveSerialized error: " + ex);
-        }
+    public void setQueryParallelism(ForkJoinPool pool, int sequentialThreshold) {
+        this.queryPool = pool;
+        this.parallelThreshold = sequentialThreshold;
     }
 
     /**
-     * Save a serialized object into a file.
+     * Replace the document text cache with an empty one of the given size. Texts evicted from it are dropped, or if
+     * maxCompressedBytes is positive, kept compressed in a second tier of that many bytes.
      *
-     * @param kryoFile
+     * @param maxCharacters total length of the texts kept; 0 to keep none
+     * @param maxCompressedBytes total size of the compressed texts kept; 0 to keep none
      */
-    private void saveKryo(File kryoFile, Object obj) {
-        try {
-            Output output = new Output(new FileOutputStream(kryoFile));
-            kryo.writeObject(output, obj);
-            output.close();
-        } catch (Exception ex) {
-            System.err.println("unexpected saveKryo error: " + ex);
-        }
+    public void setDocumentTextCacheSize(long maxCharacters, long maxCompressedBytes) {
+        documentTextCache = new DocumentTextCache(rdb, maxCharacters, maxCompressedBytes);
     }
 
     /**
-     * Provide an explicit shutdown operation in case it needs to be done before
-     * the JVM shuts down.
+     * Return the document text cache, for its statistics.
+     *
+     * @return DocumentTextCache
      */
-    public void shutdown() throws SQLException {
-        rdb.shutdown();
+    public DocumentTextCache getDocumentTextCache() {
+        return documentTextCache;
+    }
+
+    private boolean runInParallel(Collection<Integer> docIds) {
+        return queryPool != null && docIds.size() > parallelThreshold;
     }
 
     /**
@@ -350,7 +901,7 @@ public class VizLincRDBMem {
      * @return all the document nodes
      */
     public List<Document> getDocuments() {
-        return allDocuments;
+        return allDocuments();
     }
 
     /**
@@ -360,7 +911,7 @@ public class VizLincRDBMem {
      * @return Document or null
      */
     public Document getDocumentWithId(int documentId) {
-        return documentIdToDocument.get(documentId);
+        return documentIdToDocument().get(documentId);
     }
 
     /**
@@ -384,7 +935,7 @@ public class VizLincRDBMem {
      * @return a subclass of Entity or null
      */
     public Entity getEntityWithId(int entityId) {
-        return entityIdToEntity.get(entityId);
+        return entityIdToEntity().get(entityId);
     }
 
     /**
@@ -393,7 +944,7 @@ public class VizLincRDBMem {
      * @return EntitySet
      */
     public EntitySet getEntities() {
-        return allEntities;
+        return allEntities();
     }
 
     /**
@@ -429,17 +980,50 @@ public class VizLincRDBMem {
      * @throws SQLException
      */
     public String getDocumentText(Document doc) throws SQLException {
-        return rdb.getDocumentText(doc);
+        return doc.getText(this);
     }
     
     /**
-     * Return the document's text, given the document id.
+     * Return the document's text, given the document id. Texts are kept in the document text cache.
      * @param documentId
      * @return null if not a document, otherwise the text as a String
      * @throws SQLException 
      */
     public String getDocumentText(int documentId) throws SQLException {
-        return rdb.getDocumentText(documentId);
+        return documentTextCache.get(documentId);
+    }
+
+    /**
+     * Return the texts of the documents with the given ids, fetching the ones not in the document text cache in one
+     * query.
+     * @param documentIds
+     * @return map from document id to text; ids not found are left out
+     * @throws SQLException
+     */
+    public Map<Integer, String> getDocumentTexts(Collection<Integer> documentIds) throws SQLException {
+        return documentTextCache.getAll(documentIds);
+    }
+
+    /**
+     * Return a Reader over the document's text, given the document id. See VizLincRDB.getDocumentTextReader().
+     * @param documentId
+     * @return Reader, or null if not a document
+     * @throws SQLException
+     */
+    public Reader getDocumentTextReader(int documentId) throws SQLException {
+        return rdb.getDocumentTextReader(documentId);
+    }
+
+    /**
+     * Return part of the document's text, given the document id and a range of character offsets.
+     * @param documentId
+     * @param start
+     * @param stop
+     * @return the text in the range, clipped to the text, or null if not a document
+     * @throws SQLException
+     */
+    public String getDocumentTextRange(int documentId, int start, int stop) throws SQLException {
+        return rdb.getDocumentTextRange(documentId, start, stop);
     }
 
     /**
@@ -453,7 +1037,7 @@ public class VizLincRDBMem {
     public List<GeoPoint> getTopGeoPointsForLocationEntityIds(List<Integer> locationEntityIds) throws SQLException {
         List<GeoPoint> geoPoints = new ArrayList<GeoPoint>(locationEntityIds.size());
         for (int id : locationEntityIds) {
-            geoPoints.add(entityIdToGeoPoint.get(id));
+            geoPoints.add(entityIdToGeoPoint().get(id));
         }
         return geoPoints;
     }
@@ -464,7 +1048,7 @@ public class VizLincRDBMem {
      * @return person entities
      */
     public List<PersonEntity> getPersonEntities() {
-        return allEntities.getPersonEntities();
+        return allEntities().getPersonEntities();
     }
 
     /**
@@ -473,7 +1057,7 @@ public class VizLincRDBMem {
      * @return location entities
      */
     public List<LocationEntity> getLocationEntities() {
-        return allEntities.getLocationEntities();
+        return allEntities().getLocationEntities();
     }
 
     /**
@@ -482,7 +1066,7 @@ public class VizLincRDBMem {
      * @return date entities
      */
     public List<DateEntity> getDateEntities() {
-        return allEntities.getDateEntities();
+        return allEntities().getDateEntities();
     }
 
     /**
@@ -491,7 +1075,7 @@ public class VizLincRDBMem {
      * @return the organization entities
      */
     public List<OrganizationEntity> getOrganizationEntities() {
-        return allEntities.getOrganizationEntities();
+        return allEntities().getOrganizationEntities();
     }
 
     /**
@@ -502,22 +1086,41 @@ public class VizLincRDBMem {
      * @return List of document ids
      */
     public List<Integer> getDocumentIdsWithAllOfTheseEntityIds(List<Integer> entityIds) {
-        // First get all the documents that have any of these ids.
-        Set<Integer> possibleDocumentIds = new HashSet<Integer>();
-        for (int entityId : entityIds) {
-            possibleDocumentIds.addAll(entityIdToDocumentIds.get(entityId));
-        }
-
-        // Now revisit all the documents and choose the ones that have all the given entity ids.
-        Set<Integer> entityIdsSet = new HashSet(entityIds);
-        List<Integer> matchingDocumentIds = new ArrayList<Integer>();
-        for (int docId : possibleDocumentIds) {
-            if (documentIdToEntityIds.get(docId).containsAll(entityIdsSet)) {
-                matchingDocumentIds.add(docId);
-            }
-        }
+        int[] documentIds = documentEntityIndex().documentIdsWithAllEntities(IntArrays.toSortedDistinct(entityIds));
+        return new ArrayList<Integer>(IntArrays.asList(documentIds));
+    }
 
-        return matchingDocumentIds;
+    /**
+     * Return the ids, in increasing order, of the documents that refer to ALL
+     * of the entities in allOfEntityIds, to AT LEAST ONE of the entities in
+     * anyOfEntityIds (unless it is empty), and to NONE of the entities in
+     * noneOfEntityIds. If allOfEntityIds and anyOfEntityIds are both empty,
+     * all documents are candidates. Computed with bitmap operations.
+     *
+     * @param allOfEntityIds
+     * @param anyOfEntityIds
+     * @param noneOfEntityIds
+     * @return List of document ids
+     */
+    public List<Integer> getDocumentIdsMatching(Collection<Integer> allOfEntityIds, Collection<Integer> anyOfEntityIds, Collection<Integer> noneOfEntityIds) {
+        return documentBitmaps().documentIds(matchingDocuments(allOfEntityIds, anyOfEntityIds, noneOfEntityIds));
+    }
+
+    /**
+     * Return the number of documents that getDocumentIdsMatching() would
+     * return, without listing them.
+     *
+     * @param allOfEntityIds
+     * @param anyOfEntityIds
+     * @param noneOfEntityIds
+     * @return number of documents
+     */
+    public int countDocumentsMatching(Collection<Integer> allOfEntityIds, Collection<Integer> anyOfEntityIds, Collection<Integer> noneOfEntityIds) {
+        return matchingDocuments(allOfEntityIds, anyOfEntityIds, noneOfEntityIds).cardinality();
+    }
+
+    private BitSet matchingDocuments(Collection<Integer> allOfEntityIds, Collection<Integer> anyOfEntityIds, Collection<Integer> noneOfEntityIds) {
+        return documentBitmaps().matching(IntArrays.toSortedDistinct(allOfEntityIds), IntArrays.toSortedDistinct(anyOfEntityIds), IntArrays.toSortedDistinct(noneOfEntityIds));
     }
 
     /**
@@ -550,17 +1153,8 @@ public class VizLincRDBMem {
      * @throws SQLException
      */
     public List<Integer> getEntityIdsInAnyofTheseDocumentIds(List<Integer> docIds) throws SQLException {
-        Set<Integer> entityIdsSet = new HashSet<Integer>();
-        // Take the union of all the entities for the given docs.
-        for (int docId : docIds) {
-            
-            Set<Integer> eIds = documentIdToEntityIds.get(docId);
-            if(eIds != null)
-            {
-                entityIdsSet.addAll(eIds);
-            }
-        }
-        return new ArrayList<Integer>(entityIdsSet);
+        int[] entityIds = documentEntityIndex().entityIdsInAnyDocuments(IntArrays.toSortedDistinct(docIds));
+        return new ArrayList<Integer>(IntArrays.asList(entityIds));
     }
 
     /**
@@ -573,24 +1167,7 @@ public class VizLincRDBMem {
      * set of documents as value
      */
     public Map<Integer, Integer> getMentionCountsForEntitiesInDocuments(Collection<Integer> entityIds, Collection<Integer> docIds) throws SQLException {
-        // Put the docIds in a set for fast lookup.
-        Set<Integer> docIdsSet = new HashSet<Integer>(docIds);
-
-        // Create map for returned values.
-        Map<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
-
-        // For all the given entities, get the document->mention_count maps and add up all the mention counts for the given docs.
-        for (int entityId : entityIds) {
-            int totalMentionCountForEntity = 0;
-            Map<Integer, Integer> documentIdToMentionCount = entityIdToDocumentIdToMentionCount.get(entityId);
-            for (int docId : documentIdToMentionCount.keySet()) {
-                if (docIdsSet.contains(docId)) {
-                    totalMentionCountForEntity += documentIdToMentionCount.get(docId);
-                }
-            }
-            entityIdToMentionCount.put(entityId, totalMentionCountForEntity);
-        }
-        return entityIdToMentionCount;
+        return sumForEntitiesInDocuments(entityIds, docIds, true);
     }
 
     /**
@@ -603,22 +1180,32 @@ public class VizLincRDBMem {
      * the given set of documents
      */
     public Map<Integer, Integer> getDocumentCountsForEntitiesInDocuments(Collection<Integer> entityIds, Collection<Integer> docIds) {
-        // Put the docIds in a set for fast lookup.
-        Set<Integer> docIdsSet = new HashSet<Integer>(docIds);
-
-        // Create map for returned values.
-        Map<Integer, Integer> entityIdToDocumentCount = new HashMap<Integer, Integer>();
+        return sumForEntitiesInDocuments(entityIds, docIds, false);
+    }
 
-        for (int entityId : entityIds) {
-            int docCount = 0;
-            for (int docId : entityIdToDocumentIds.get(entityId)) {
-                if (docIdsSet.contains(docId)) {
-                    docCount++;
-                }
+    /**
+     * Common routine to implement getMentionCountsForEntitiesInDocuments and
+     * getDocumentCountsForEntitiesInDocuments.
+     */
+    private Map<Integer, Integer> sumForEntitiesInDocuments(Collection<Integer> entityIds, Collection<Integer> docIds, boolean sumMentionCounts) {
+        int[] sortedDocIds = IntArrays.toSortedDistinct(docIds);
+        int[] entityIdArray = ParallelQueries.toArray(entityIds);
+        int[] sums;
+        if (runInParallel(docIds)) {
+            sums = queryPool.invoke(new ParallelQueries.DocumentSumTask(documentEntityIndex(), entityIdArray, sortedDocIds, 0, sortedDocIds.length, parallelThreshold, sumMentionCounts));
+        } else {
+            sums = new int[entityIdArray.length];
+            for (int i = 0; i < entityIdArray.length; i++) {
+                sums[i] = documentEntityIndex().sumInDocuments(entityIdArray[i], sortedDocIds, 0, sortedDocIds.length, sumMentionCounts);
             }
-            entityIdToDocumentCount.put(entityId, docCount);
         }
-        return entityIdToDocumentCount;
+
+        // Create map for returned values.
+        Map<Integer, Integer> entityIdToSum = new HashMap<Integer, Integer>();
+        for (int i = 0; i < entityIdArray.length; i++) {
+            entityIdToSum.put(entityIdArray[i], sums[i]);
+        }
+        return entityIdToSum;
     }
 
     /**
@@ -675,79 +1262,12 @@ public class VizLincRDBMem {
      * getEntitiesMentionedNearEntitiesByTextOffset.
      */
     protected Map<Integer, EntityCounts> getEntitiesMentionedNearEntities(Collection<Integer> queryEntityIds, Collection<Integer> wantedEntityIds, Collection<Integer> docIds, int distance, NeighborhoodType neighborhoodType) {
-        // Make sets for fast lookups.
-        Set<Integer> queryEntityIdsSet = new HashSet<Integer>(queryEntityIds);
-        Set<Integer> wantedEntityIdsSet = new HashSet<Integer>(wantedEntityIds);
-        Map<Integer, RangeSet<Integer>> docIdToMentionRanges = new HashMap<Integer, RangeSet<Integer>>(docIds.size());
-
-        // The map for the return value.
-        Map<Integer, EntityCounts> entityIdToCounts = new HashMap<Integer, EntityCounts>();
-
-        // Set up docIdToMentionRanges with empty TreeRangeSets.
-        for (int docId : docIds) {
-            RangeSet<Integer> mentionRanges = TreeRangeSet.create();
-            // Compiler complains if TreeRangeSet.create() is second arg. Odd.
-            docIdToMentionRanges.put(docId, mentionRanges);
-        }
-
-        // Build up the range map of mention locations based on the given set of doc ids and query entity ids.
-        for (int docId : docIds) {
-            for (MentionLocation ml : documentIdToMentionLocations.get(docId)) {
-                if (queryEntityIdsSet.contains(ml.getEntityId())) {
-                    int pos = 0;
-                    switch (neighborhoodType) {
-                        case BY_INDEX:
-                            pos = ml.getIndex();
-                            break;
-                        case BY_TEXT_START:
-                            pos = ml.getTextStart();
-                            break;
-                    }
-                    docIdToMentionRanges.get(docId).add(Range.closed(pos - distance, pos + distance).canonical(DiscreteDomain.integers()));
-                }
-            }
+        MentionProximity proximity = new MentionProximity(mentions(), queryEntityIds, wantedEntityIds, distance, neighborhoodType);
+        if (runInParallel(docIds)) {
+            int[] docIdArray = ParallelQueries.toArray(docIds);
+            return queryPool.invoke(new ParallelQueries.ProximityTask(proximity, docIdArray, 0, docIdArray.length, parallelThreshold)).toMap();
         }
-
-        // Now look at all the mentions for each document and see if their positions are inside the range set. Cull out any mentions for entities we're not interested in.
-        for (int docId : docIds) {
-            // Accumulate the mention counts for the current document.
-            Map<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
-            for (MentionLocation ml : documentIdToMentionLocations.get(docId)) {
-                int entityId = ml.getEntityId();
-                int pos = 0;
-                switch (neighborhoodType) {
-                    case BY_INDEX:
-                        pos = ml.getIndex();
-                        break;
-                    case BY_TEXT_START:
-                        pos = ml.getTextStart();
-                        break;
-                }
-                if (wantedEntityIdsSet.contains(entityId) && docIdToMentionRanges.get(docId).contains(pos)) {
-                    // This is a mention in the desired entity set, within range. Remember it and increment its count.
-                    Integer mentionCount = entityIdToMentionCount.get(entityId);
-                    if (mentionCount == null) {
-                        entityIdToMentionCount.put(entityId, 1);
-                    } else {
-                        entityIdToMentionCount.put(entityId, mentionCount + 1);
-                    }
-                }
-            }
-
-            // Now accumulate the mention counts for this doc in the counts for all docs.
-            for (int entityId : entityIdToMentionCount.keySet()) {
-                int mentionCount = entityIdToMentionCount.get(entityId);
-                EntityCounts counts = entityIdToCounts.get(entityId);
-                if (counts == null) {
-                    entityIdToCounts.put(entityId, new EntityCounts(mentionCount, 1));  /* 1 document */
-                } else {
-                    counts.mentionCount += mentionCount;
-                    counts.documentCount++;
-                }
-            }
-        }
-
-        return entityIdToCounts;
+        return proximity.entityCounts(docIds);
     }
 
 
@@ -788,97 +1308,48 @@ public class VizLincRDBMem {
      * getDocumentsForEntitiesMentionedNearEntityByTextOffset.
      */
     protected Set<Integer> getDocumentsForEntitiesMentionedNearEntity(Collection<Integer> queryEntityIds, int wantedEntityId, Collection<Integer> docIds, int distance, NeighborhoodType neighborhoodType) {
-        // Make sets for fast lookups.
-        Set<Integer> queryEntityIdsSet = new HashSet<Integer>(queryEntityIds);
-        Map<Integer, RangeSet<Integer>> docIdToMentionRanges = new HashMap<Integer, RangeSet<Integer>>(docIds.size());
-
-        // Return value.
-        Set<Integer> matchingDocIds = new HashSet<Integer>();
-
-        // Set up docIdToMentionRanges with empty TreeRangeSets.
-        for (int docId : docIds) {
-            RangeSet<Integer> mentionRanges = TreeRangeSet.create();
-            // Compiler complains if TreeRangeSet.create() is second arg. Odd.
-            docIdToMentionRanges.put(docId, mentionRanges);
-        }
-
-        // Build up the range map of mention locations based on the given set of doc ids and query entity ids.
-        for (int docId : docIds) {
-            for (MentionLocation ml : documentIdToMentionLocations.get(docId)) {
-                if (queryEntityIdsSet.contains(ml.getEntityId())) {
-                    int pos = 0;
-                    switch (neighborhoodType) {
-                        case BY_INDEX:
-                            pos = ml.getIndex();
-                            break;
-                        case BY_TEXT_START:
-                            pos = ml.getTextStart();
-                            break;
-                    }
-                    docIdToMentionRanges.get(docId).add(Range.closed(pos - distance, pos + distance).canonical(DiscreteDomain.integers()));
-                }
-            }
-        }
-
-        // Now look at all the mentions for each document and see if their positions are inside the range set. Cull out any mentions for entities we're not interested in.
-        for (int docId : docIds) {
-            // Accumulate the mention counts for the current document.
-            Map<Integer, Integer> entityIdToMentionCount = new HashMap<Integer, Integer>();
-            for (MentionLocation ml : documentIdToMentionLocations.get(docId)) {
-                int entityId = ml.getEntityId();
-                int pos = 0;
-                switch (neighborhoodType) {
-                    case BY_INDEX:
-                        pos = ml.getIndex();
-                        break;
-                    case BY_TEXT_START:
-                        pos = ml.getTextStart();
-                        break;
-                }
-                if (wantedEntityId == entityId && docIdToMentionRanges.get(docId).contains(pos)) {
-                    // Remember that this document contains an mention for anentity in queryEntityIdsSet that's near a mention of wantedEntityId.
-                    matchingDocIds.add(docId);
-                    // Once is enough. Skip to the next doc.
-                    break;
-                }
-            }
-        }
-
-        return matchingDocIds;
+        return new MentionProximity(mentions(), queryEntityIds, Arrays.asList(wantedEntityId), distance, neighborhoodType).documentsNear(docIds);
     }
-    
+
+    /**
+     * Return all the mention locations in the given document, ordered by index. The list is a read-only view of the
+     * packed mention table; MentionLocation objects are created as they are fetched.
+     *
+     * @param docId
+     * @return List of MentionLocations, empty if the document has no mentions
+     */
     public List<MentionLocation> getMentionLocationsForDocument(int docId)
     {
-        List<MentionLocation> mLocs = this.documentIdToMentionLocations.get(docId);
-        if(mLocs == null)
-        {
-            return new LinkedList<>();
-        }
-        return mLocs;
+        return mentions().tableFor(docId).mentionLocations(docId);
     }
-    
+
+    /**
+     * Return the mention locations in the given document for any of the given entities, ordered by index.
+     *
+     * @param entityIds
+     * @param documentId
+     * @return List of MentionLocations
+     */
     public List<MentionLocation> getMentionLocationsForEntitiesIdInDocument(List<Integer> entityIds, int documentId)
     {
-        List<MentionLocation> result = new LinkedList<>();
-        List<MentionLocation> allMLocs = this.documentIdToMentionLocations.get(documentId);
-        
-        //Create entity hash
-        Set<Integer> entitySet = new HashSet<>();
-        for(Integer id: entityIds)
+        List<MentionLocation> result = new ArrayList<MentionLocation>();
+        MentionTable mentionTable = mentions().tableFor(documentId);
+        int documentRow = mentionTable.documentRow(documentId);
+        if (documentRow < 0)
         {
-            entitySet.add(id);
+            return result;
         }
-        
-        //Make a pass over all locations and extract those that correspond to the entities of interest
-        for(MentionLocation mL : allMLocs)
+        int[] sortedEntityIds = IntArrays.toSortedDistinct(entityIds);
+
+        //Make a pass over the entity column and extract the rows that correspond to the entities of interest
+        for (int row = mentionTable.from(documentRow); row < mentionTable.to(documentRow); row++)
         {
-            int id = mL.getEntityId();
-            if(entitySet.contains(id))
+            if (IntArrays.indexOf(sortedEntityIds, 0, sortedEntityIds.length, mentionTable.entityId(row)) >= 0)
             {
-                result.add(mL);
+                result.add(mentionTable.mentionLocation(documentId, row));
             }
         }
-        
+
         return result;
     }
 }
\ No newline at end of file
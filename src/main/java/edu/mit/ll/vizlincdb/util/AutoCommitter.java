@@ -0,0 +1,141 @@
+package edu.mit.ll.vizlincdb.util;
+
+/**
+ * Commits a transaction every so many mutations or milliseconds, so that a long run of writes doesn't build up one
+ * huge transaction, and keeps counts of commits, their latency and the rate of mutations.
+ *
+ * The writer calls mutated() after each change. The time limit is checked there too, since transactions usually
+ * belong to the writing thread and can't be committed from a timer. So the time limit is only checked when there is a
+ * mutation: after the last mutation of a run, the pending ones stay uncommitted until the writer calls commit().
+ * Not thread-safe.
+ */
+public class AutoCommitter {
+
+    /**
+     * What is committed.
+     */
+    public interface Committable {
+        void commit();
+    }
+
+    private final Committable target;
+    private final int maxMutations;
+    private final long maxNanos;
+    private final long startNanos = System.nanoTime();
+    // When the first pending mutation was counted.
+    private long transactionStartNanos;
+    private int pending = 0;
+    private long mutations = 0;
+    private long commits = 0;
+    private long commitNanos = 0;
+    private long maxCommitNanos = 0;
+
+    /**
+     * @param target
+     * @param maxMutations commit after this many mutations, or 0 for no limit
+     * @param maxMillis commit at the first mutation this long after the first pending one, or 0 for no limit
+     */
+    public AutoCommitter(Committable target, int maxMutations, long maxMillis) {
+        if (maxMutations < 0 || maxMillis < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.target = target;
+        this.maxMutations = maxMutations;
+        this.maxNanos = maxMillis * 1000000;
+    }
+
+    /**
+     * Count one mutation, and commit if a limit is reached.
+     */
+    public void mutated() {
+        mutated(1);
+    }
+
+    /**
+     * Count n mutations, and commit if a limit is reached.
+     *
+     * @return true if this committed
+     */
+    public boolean mutated(int n) {
+        if (pending == 0 && n > 0) {
+            transactionStartNanos = System.nanoTime();
+        }
+        pending += n;
+        mutations += n;
+        if ((maxMutations > 0 && pending >= maxMutations)
+                || (maxNanos > 0 && System.nanoTime() - transactionStartNanos >= maxNanos)) {
+            commit();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Commit now, whatever the limits.
+     */
+    public void commit() {
+        long start = System.nanoTime();
+        target.commit();
+        long end = System.nanoTime();
+        commits++;
+        commitNanos += end - start;
+        maxCommitNanos = Math.max(maxCommitNanos, end - start);
+        pending = 0;
+    }
+
+    /**
+     * Forget the pending mutations, e.g. when the transaction was rolled back.
+     */
+    public void reset() {
+        mutations -= pending;
+        pending = 0;
+    }
+
+    public int getMaxMutations() {
+        return maxMutations;
+    }
+
+    public long getMaxMillis() {
+        return maxNanos / 1000000;
+    }
+
+    /**
+     * Number of mutations not yet committed.
+     */
+    public int getPendingMutations() {
+        return pending;
+    }
+
+    /**
+     * Number of mutations counted, including pending ones.
+     */
+    public long getMutations() {
+        return mutations;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    public double getMeanCommitMillis() {
+        return commits == 0 ? 0 : commitNanos / 1e6 / commits;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1e6;
+    }
+
+    /**
+     * Mutations per second since this was created.
+     */
+    public double getMutationsPerSecond() {
+        long nanos = System.nanoTime() - startNanos;
+        return nanos == 0 ? 0 : mutations * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d mutations (%d pending), %.0f/s; %d commits, mean %.2f ms, max %.2f ms",
+                mutations, pending, getMutationsPerSecond(), commits, getMeanCommitMillis(), getMaxCommitMillis());
+    }
+}
@@ -0,0 +1,177 @@
+package edu.mit.ll.vizlincdb.util;
+
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Small helpers for working with sorted primitive int arrays, used by the compact in-memory indexes.
+ */
+public final class IntArrays {
+
+    // Not to be instantiated.
+    private IntArrays() {
+    }
+
+    /**
+     * Return the distinct values of the given collection as a sorted int array.
+     *
+     * @param values
+     * @return sorted array with no duplicates
+     */
+    public static int[] toSortedDistinct(Collection<Integer> values) {
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (int value : values) {
+            array[i++] = value;
+        }
+        return sortedDistinct(array, array.length);
+    }
+
+    /**
+     * Return the distinct values among the first size elements of the given array, sorted. The given array is not
+     * modified.
+     *
+     * @param values
+     * @param size number of elements of values to use
+     * @return sorted array with no duplicates
+     */
+    public static int[] sortedDistinct(int[] values, int size) {
+        int[] array = Arrays.copyOf(values, size);
+        Arrays.sort(array);
+        int n = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (n == 0 || array[n - 1] != array[i]) {
+                array[n++] = array[i];
+            }
+        }
+        return n == array.length ? array : Arrays.copyOf(array, n);
+    }
+
+    /**
+     * Binary search for key in the range [from, to) of a sorted array.
+     *
+     * @return the index of key, or -1 if not present
+     */
+    public static int indexOf(int[] sorted, int from, int to, int key) {
+        int i = Arrays.binarySearch(sorted, from, to, key);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * Binary search for key in the range [from, to) of a sorted IntBuffer, using absolute gets so the buffer's
+     * position is not disturbed.
+     *
+     * @return the index of key if present; otherwise (-(insertion point) - 1), as for Arrays.binarySearch
+     */
+    public static int binarySearch(IntBuffer sorted, int from, int to, int key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = sorted.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Binary search for key in the range [from, to) of a sorted IntBuffer.
+     *
+     * @return the index of key, or -1 if not present
+     */
+    public static int indexOf(IntBuffer sorted, int from, int to, int key) {
+        int i = binarySearch(sorted, from, to, key);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * Compares two ints, such as row numbers, by some property of what they refer to.
+     */
+    public interface IntComparator {
+
+        int compare(int a, int b);
+    }
+
+    /**
+     * Stably sort the range [from, to) of an int array using the given comparator. This is a merge sort, so it does
+     * not box the values.
+     */
+    public static void sort(int[] values, int from, int to, IntComparator comparator) {
+        int[] scratch = Arrays.copyOfRange(values, from, to);
+        mergeSort(scratch, values, from, to, -from, comparator);
+    }
+
+    /**
+     * Sort dest[from, to), using src[from + srcOffset, to + srcOffset), which holds the same values, as scratch space.
+     */
+    private static void mergeSort(int[] src, int[] dest, int from, int to, int srcOffset, IntComparator comparator) {
+        int length = to - from;
+        if (length < 8) {
+            // Insertion sort for short runs.
+            for (int i = from + 1; i < to; i++) {
+                int value = dest[i];
+                int j = i;
+                while (j > from && comparator.compare(dest[j - 1], value) > 0) {
+                    dest[j] = dest[j - 1];
+                    j--;
+                }
+                dest[j] = value;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // Sort each half of src, using dest as scratch, then merge the halves back into dest.
+        mergeSort(dest, src, from + srcOffset, mid + srcOffset, -srcOffset, comparator);
+        mergeSort(dest, src, mid + srcOffset, to + srcOffset, -srcOffset, comparator);
+        int p = from + srcOffset;
+        int q = mid + srcOffset;
+        int pEnd = mid + srcOffset;
+        int qEnd = to + srcOffset;
+        for (int i = from; i < to; i++) {
+            if (q >= qEnd || (p < pEnd && comparator.compare(src[p], src[q]) <= 0)) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Return a read-only List view of an int array. No copy is made.
+     *
+     * @param array
+     * @return List of Integers backed by the array
+     */
+    public static List<Integer> asList(final int[] array) {
+        return new IntList(array);
+    }
+
+    private static class IntList extends AbstractList<Integer> implements RandomAccess {
+
+        private final int[] array;
+
+        IntList(int[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return array[index];
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+    }
+}
@@ -38,7 +38,8 @@ public final class VizLincProperties {
     public final static String NODE_TYPE_DOCUMENT = "document";
 
     /**
-     * Mention nodes have properties: P_MENTION_TYPE, P_MENTION_INDEX, P_MENTION_GLOBAL_ID, P_MENTION_TEXT, P_MENTION_TEXT_START, P_MENTION_TEXT_STOP.
+     * Mention nodes have properties: P_MENTION_TYPE, P_MENTION_INDEX, P_MENTION_GLOBAL_ID, P_MENTION_TEXT, P_MENTION_TEXT_START, P_MENTION_TEXT_STOP,
+     * P_MENTION_DOCUMENT_ID.
      * They may have in edges labeled  L_DOCUMENT_TO_MENTION that come from document nodes.
      */
     public final static String NODE_TYPE_MENTION = "mention";
@@ -110,6 +111,16 @@ public final class VizLincProperties {
      * The character (not byte) offset of the end of a mention of a named entity in a document.
      */
     public final static String P_MENTION_TEXT_STOP = "mention_text_stop";
+    /**
+     * The id of the document node of a mention, the node at the other end of its L_DOCUMENT_TO_MENTION edge, so the
+     * document can be found without walking the edge. Missing in databases made before it was added, until
+     * VizLincDB.backfillMentionDocumentIds() is run.
+     * Nothing updates it when the document is deleted, and Neo4j reuses the ids of deleted nodes, so it may name some
+     * other node; VizLincDB.getDocumentForMention() falls back to the edge when it does not name a document. A
+     * deleted document's id reused by a new document is not detected; run backfillMentionDocumentIds() after
+     * deleting documents.
+     */
+    public final static String P_MENTION_DOCUMENT_ID = "mention_document_id";
     /**
      * A string labeling how this entity was created (by what algorithm, date of run, etc.)
      */
@@ -0,0 +1,131 @@
+package edu.mit.ll.vizlincdb.graph;
+
+import com.tinkerpop.blueprints.Vertex;
+import static edu.mit.ll.vizlincdb.util.VizLincProperties.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class VizLincDBEntityLoaderTest {
+
+    @ClassRule
+    public static TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static VizLincDB vizlincDB;
+    private static List<Vertex> documents = new ArrayList<Vertex>();
+    // mentions.get(d) are the mentions of documents.get(d).
+    private static List<List<Vertex>> mentions = new ArrayList<List<Vertex>>();
+
+    public VizLincDBEntityLoaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        vizlincDB = new VizLincDB(tempDir.newFolder(), true);
+        for (int d = 0; d < 3; d++) {
+            Vertex document = vizlincDB.newDocument("doc" + d, "dir/doc" + d, "document " + d + " text");
+            documents.add(document);
+            List<Vertex> documentMentions = new ArrayList<Vertex>();
+            for (int m = 0; m < 4; m++) {
+                documentMentions.add(vizlincDB.newMention(document, "PERSON", "person" + m, m, null, 10 * m, 10 * m + 7));
+            }
+            mentions.add(documentMentions);
+        }
+        vizlincDB.commit();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        vizlincDB.shutdown();
+    }
+
+    /**
+     * Test of newEntity method, of class VizLincDBEntityLoader.
+     */
+    @Test
+    public void testNewEntity() {
+        VizLincDBEntityLoader loader = vizlincDB.newEntityLoader(2);
+        Vertex entity;
+        try {
+            // Two mentions in document 0 and one in document 1.
+            entity = loader.newEntity(Arrays.asList(mentions.get(0).get(0), mentions.get(0).get(1), mentions.get(1).get(0)),
+                "PERSON", "person0", "loadertest1");
+            assertEquals(3, loader.getCachedMentionCount());
+            assertEquals(1, loader.getEntitiesLoaded());
+            assertEquals(5, loader.getEdgesLoaded());
+            assertEquals(3, loader.getCommitter().getCommits());
+        } finally {
+            loader.close();
+        }
+        assertEquals("person0", entity.getProperty(P_ENTITY_TEXT));
+        assertEquals(VizLincDB.makeSetOfIds(Arrays.asList(mentions.get(0).get(0), mentions.get(0).get(1), mentions.get(1).get(0))),
+            VizLincDB.makeSetOfIds(vizlincDB.getMentionsForEntity(entity)));
+        // Each document once, as with VizLincDB.newEntity.
+        assertEquals(2, VizLincDB.count(vizlincDB.getDocumentsForEntity(entity)));
+        assertEquals(VizLincDB.makeSetOfIds(documents.subList(0, 2)),
+            VizLincDB.makeSetOfIds(vizlincDB.getDocumentsForEntity(entity)));
+        vizlincDB.deleteNode(entity);
+        vizlincDB.commit();
+    }
+
+    /**
+     * Test of newEntityForMentionIds and cacheMentionDocuments methods, of class VizLincDBEntityLoader.
+     */
+    @Test
+    public void testNewEntityForMentionIds() {
+        VizLincDBEntityLoader loader = vizlincDB.newEntityLoader();
+        List<Vertex> entities = new ArrayList<Vertex>();
+        try {
+            assertEquals(12, loader.cacheMentionDocuments());
+            for (int m = 0; m < 4; m++) {
+                List<Object> mentionIds = new ArrayList<Object>();
+                for (List<Vertex> documentMentions : mentions) {
+                    mentionIds.add(documentMentions.get(m).getId());
+                }
+                entities.add(loader.newEntityForMentionIds(mentionIds, "PERSON", "person" + m, "loadertest2"));
+            }
+        } finally {
+            loader.close();
+        }
+        assertEquals(VizLincDB.makeSetOfIds(entities), VizLincDB.makeSetOfIds(vizlincDB.getEntitiesCreatedBy("loadertest2")));
+        for (Vertex entity : entities) {
+            assertEquals(3, VizLincDB.count(vizlincDB.getMentionsForEntity(entity)));
+            assertEquals(new HashSet<Object>(VizLincDB.makeSetOfIds(documents)),
+                VizLincDB.makeSetOfIds(vizlincDB.getDocumentsForEntity(entity)));
+            vizlincDB.deleteNode(entity);
+        }
+        vizlincDB.commit();
+    }
+
+    /**
+     * Test of commit by commit size, of class VizLincDBEntityLoader.
+     */
+    @Test
+    public void testCommitSize() {
+        VizLincDBEntityLoader loader = vizlincDB.newEntityLoader(1);
+        Vertex entity = loader.newEntity(Arrays.asList(mentions.get(2).get(3)), "PERSON", "person3", "loadertest3");
+        // Each vertex and edge was committed as it was added, so there's nothing to roll back.
+        vizlincDB.rollback();
+        assertEquals(1, VizLincDB.count(vizlincDB.getEntitiesCreatedBy("loadertest3")));
+        assertEquals(1, VizLincDB.count(vizlincDB.getMentionsForEntity(entity)));
+        loader.close();
+        try {
+            loader.newEntity("PERSON", "person3", "loadertest3");
+            fail("loaded after close");
+        } catch (IllegalStateException ex) {
+        }
+        vizlincDB.deleteNode(entity);
+        vizlincDB.commit();
+    }
+}
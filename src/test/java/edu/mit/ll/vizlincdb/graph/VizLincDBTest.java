@@ -204,6 +204,35 @@ public class VizLincDBTest {
         assertFalse(it.hasNext());
     }
 
+    /**
+     * Test of setAutoCommit method, of class VizLincDB.
+     */
+    @Test
+    public void testSetAutoCommit() {
+        if (!vizlincDB.isTransactional()) {
+            return;
+        }
+        vizlincDB.setAutoCommit(3, 0);
+        try {
+            for (int i = 0; i < 4; i++) {
+                vizlincDB.newEntity("TESTAUTOCOMMIT", "abc" + i, "testing");
+            }
+            assertEquals(1, vizlincDB.getAutoCommitter().getCommits());
+            // The fourth entity was not committed yet.
+            vizlincDB.rollback();
+            assertEquals(3, VizLincDB.count(vizlincDB.getEntitiesOfType("TESTAUTOCOMMIT")));
+            assertEquals(3, vizlincDB.getAutoCommitter().getMutations());
+            for (Vertex entity : VizLincDB.makeList(vizlincDB.getEntitiesOfType("TESTAUTOCOMMIT"))) {
+                vizlincDB.deleteNode(entity);
+            }
+            vizlincDB.commit();
+            assertEquals(0, VizLincDB.count(vizlincDB.getEntitiesOfType("TESTAUTOCOMMIT")));
+        } finally {
+            vizlincDB.setAutoCommit(0, 0);
+        }
+        assertNull(vizlincDB.getAutoCommitter());
+    }
+
     /**
      * Test of deleteNode method, of class VizLincDB.
      */
@@ -289,6 +318,44 @@ public class VizLincDBTest {
         assertEquals(document1Id, vizlincDB.getDocumentForMention(mention1Lexington).getId());
     }
 
+    /**
+     * Test of getDocumentForMention method, of class VizLincDB, with a P_MENTION_DOCUMENT_ID that is not a document.
+     */
+    @Test
+    public void testGetDocumentForMentionWithReusedId() throws Exception {
+        // As if the document's id had been reused for an entity.
+        mention1Lexington.setProperty(P_MENTION_DOCUMENT_ID, entityLexingtonId);
+        vizlincDB.commit();
+        try {
+            assertEquals(document1Id, vizlincDB.getDocumentForMention(mention1Lexington).getId());
+            assertEquals(new HashSet<Object>(Arrays.asList(mention1LexingtonId)),
+                VizLincDB.makeSetOfIds(vizlincDB.getMentionsInDocumentsForEntity(Arrays.asList(document1), entityLexington)));
+        } finally {
+            mention1Lexington.setProperty(P_MENTION_DOCUMENT_ID, document1Id);
+            vizlincDB.commit();
+        }
+    }
+
+    /**
+     * Test of backfillMentionDocumentIds method, of class VizLincDB.
+     */
+    @Test
+    public void testBackfillMentionDocumentIds() throws Exception {
+        assertEquals(document1Id, mention1Bob1.getProperty(P_MENTION_DOCUMENT_ID));
+        assertEquals(0, vizlincDB.backfillMentionDocumentIds());
+        // As in a database made before P_MENTION_DOCUMENT_ID.
+        mention1Bob1.removeProperty(P_MENTION_DOCUMENT_ID);
+        mention2Bob.removeProperty(P_MENTION_DOCUMENT_ID);
+        vizlincDB.commit();
+        assertEquals(document1Id, vizlincDB.getDocumentForMention(mention1Bob1).getId());
+        assertEquals(new HashSet<Object>(Arrays.asList(mention2BobId)),
+            VizLincDB.makeSetOfIds(vizlincDB.getMentionsInDocumentsForEntity(Arrays.asList(document2), entityBob)));
+        assertEquals(2, vizlincDB.backfillMentionDocumentIds());
+        vizlincDB.commit();
+        assertEquals(document1Id, mention1Bob1.getProperty(P_MENTION_DOCUMENT_ID));
+        assertEquals(document2Id, mention2Bob.getProperty(P_MENTION_DOCUMENT_ID));
+    }
+
     /**
      * Test of getDocumentsWithMentions method, of class VizLincDB.
      */
@@ -521,6 +588,41 @@ public class VizLincDBTest {
         assertFalse(vizlincDB.edgeExists(document1, mention2Bob, L_DOCUMENT_TO_MENTION));
     }
 
+    /**
+     * Test of outEdgeExists and edgeExists methods, of class VizLincDB, with a hub vertex whose neighbors are cached.
+     */
+    @Test
+    public void testEdgeExistsWithHub() {
+        Vertex hub = vizlincDB.newDocument("hub", "hub/hub", "hub text");
+        List<Vertex> leaves = new ArrayList<Vertex>();
+        for (int m = 0; m < VertexDegrees.HUB_DEGREE + 1; m++) {
+            leaves.add(vizlincDB.newMention(hub, "PERSON", "leaf" + m, m, null, 0, 4));
+        }
+        vizlincDB.commit();
+        try {
+            assertEquals(VertexDegrees.HUB_DEGREE + 1, vizlincDB.getDegree(hub, Direction.OUT, L_DOCUMENT_TO_MENTION));
+            for (Vertex leaf : leaves) {
+                assertTrue(vizlincDB.outEdgeExists(hub, leaf, L_DOCUMENT_TO_MENTION));
+                assertFalse(vizlincDB.outEdgeExists(leaf, hub, L_DOCUMENT_TO_MENTION));
+                assertTrue(vizlincDB.edgeExists(leaf, hub, L_DOCUMENT_TO_MENTION));
+            }
+            assertFalse(vizlincDB.outEdgeExists(hub, mention1Alice, L_DOCUMENT_TO_MENTION));
+            assertFalse(vizlincDB.edgeExists(mention1Alice, hub, L_DOCUMENT_TO_MENTION));
+            // A vertex is not its own neighbor.
+            assertFalse(vizlincDB.edgeExists(hub, hub, L_DOCUMENT_TO_MENTION));
+            // A new edge is seen in the cached neighbors.
+            Vertex leaf = vizlincDB.newMention(hub, "PERSON", "leaf", 0, null, 0, 4);
+            leaves.add(leaf);
+            assertTrue(vizlincDB.outEdgeExists(hub, leaf, L_DOCUMENT_TO_MENTION));
+        } finally {
+            for (Vertex leaf : leaves) {
+                vizlincDB.deleteNode(leaf);
+            }
+            vizlincDB.deleteNode(hub);
+            vizlincDB.commit();
+        }
+    }
+
     /**
      * Test of allInEdgesExist method, of class VizLincDB.
      */
@@ -562,6 +664,94 @@ public class VizLincDBTest {
                 VizLincDB.makeSetOfIds(vizlincDB.getDocumentsWithAllOfTheseEntities(Arrays.asList(entityAlice, entityBob))));
     }
 
+    /**
+     * Test of getDegree method, of class VizLincDB.
+     */
+    @Test
+    public void testGetDegree() {
+        assertEquals(2, vizlincDB.getDegree(entityAlice, Direction.IN, L_DOCUMENT_TO_ENTITY));
+        assertEquals(3, vizlincDB.getDegree(document1, Direction.OUT, L_DOCUMENT_TO_ENTITY));
+        assertEquals(4, vizlincDB.getDegree(document1, Direction.OUT, L_DOCUMENT_TO_MENTION));
+        assertEquals(0, vizlincDB.getDegree(document1, Direction.IN, L_DOCUMENT_TO_ENTITY));
+        // Adding an edge changes the cached degrees.
+        Vertex entity = vizlincDB.newEntity(Arrays.asList(mention2Alice), "PERSON", "Ailey", "testdegree");
+        assertEquals(3, vizlincDB.getDegree(document2, Direction.OUT, L_DOCUMENT_TO_ENTITY));
+        assertEquals(1, vizlincDB.getDegree(entity, Direction.IN, L_DOCUMENT_TO_ENTITY));
+        vizlincDB.deleteNode(entity);
+        vizlincDB.commit();
+        assertEquals(2, vizlincDB.getDegree(document2, Direction.OUT, L_DOCUMENT_TO_ENTITY));
+        // So does adding one with addEdge.
+        entity = vizlincDB.newEntity("PERSON", "Ailey", "testdegree");
+        assertEquals(0, vizlincDB.getDegree(entity, Direction.IN, L_DOCUMENT_TO_ENTITY));
+        vizlincDB.addEdge(document2, entity, L_DOCUMENT_TO_ENTITY);
+        assertEquals(3, vizlincDB.getDegree(document2, Direction.OUT, L_DOCUMENT_TO_ENTITY));
+        assertEquals(1, vizlincDB.getDegree(entity, Direction.IN, L_DOCUMENT_TO_ENTITY));
+        vizlincDB.deleteNode(entity);
+        vizlincDB.commit();
+        assertEquals(2, vizlincDB.getDegree(document2, Direction.OUT, L_DOCUMENT_TO_ENTITY));
+    }
+
+    /**
+     * Test of the bound on the degrees cached, of class VertexDegrees.
+     */
+    @Test
+    public void testDegreeCacheIsBounded() {
+        VertexDegrees degrees = new VertexDegrees(3);
+        for (Vertex v : Arrays.asList(document1, document2, entityAlice, entityBob, entityLexington)) {
+            degrees.degree(v, Direction.BOTH, L_DOCUMENT_TO_ENTITY);
+            degrees.degree(v, Direction.BOTH, L_DOCUMENT_TO_MENTION);
+        }
+        assertTrue(degrees.size() <= 2);
+        assertTrue(degrees.isCached(entityLexington, Direction.BOTH, L_DOCUMENT_TO_MENTION));
+        assertFalse(degrees.isCached(document1, Direction.BOTH, L_DOCUMENT_TO_ENTITY));
+        assertEquals(3, degrees.degree(document1, Direction.BOTH, L_DOCUMENT_TO_ENTITY));
+    }
+
+    /**
+     * Test of getDocumentsWithAllOfTheseEntities and getEntitiesInAllOfTheseDocuments methods, of class VizLincDB,
+     * where one entity is in many more documents than the others.
+     */
+    @Test
+    public void testAllOfTheseWithHub() {
+        List<Vertex> hubDocuments = new ArrayList<Vertex>();
+        List<Vertex> hubMentions = new ArrayList<Vertex>();
+        for (int d = 0; d < 20; d++) {
+            Vertex document = vizlincDB.newDocument("hubdoc" + d, "hub/doc" + d, "hub document " + d);
+            hubDocuments.add(document);
+            hubMentions.add(vizlincDB.newMention(document, "ORGANIZATION", "Hub", 0, null, 0, 3));
+        }
+        hubMentions.add(mention2Bob);
+        Vertex hub = vizlincDB.newEntity(hubMentions, "ORGANIZATION", "Hub", "testhub");
+        Vertex rare = vizlincDB.newEntity(Arrays.asList(mention2Alice, hubMentions.get(7)), "PERSON", "Rare", "testhub");
+        vizlincDB.commit();
+        try {
+            // With nothing cached, the hub's documents are not all counted.
+            vizlincDB.clearDegreeCache();
+            assertEquals(new HashSet<Object>(Arrays.asList(document2Id, hubDocuments.get(7).getId())),
+                    VizLincDB.makeSetOfIds(vizlincDB.getDocumentsWithAllOfTheseEntities(Arrays.asList(hub, rare))));
+            assertFalse(vizlincDB.isDegreeCached(hub, Direction.IN, L_DOCUMENT_TO_ENTITY));
+            assertTrue(vizlincDB.isDegreeCached(rare, Direction.IN, L_DOCUMENT_TO_ENTITY));
+            assertEquals(new HashSet<Object>(Arrays.asList(document2Id, hubDocuments.get(7).getId())),
+                    VizLincDB.makeSetOfIds(vizlincDB.getDocumentsWithAllOfTheseEntities(Arrays.asList(hub, rare))));
+            assertEquals(new HashSet<Object>(Arrays.asList(document2Id)),
+                    VizLincDB.makeSetOfIds(vizlincDB.getDocumentsWithAllOfTheseEntities(Arrays.asList(hub, rare, entityBob))));
+            assertEquals(0, VizLincDB.count(vizlincDB.getDocumentsWithAllOfTheseEntities(Arrays.asList(hub, entityLexington))));
+            assertEquals(0, VizLincDB.count(vizlincDB.getDocumentsWithAllOfTheseEntities(new ArrayList<Vertex>())));
+            assertEquals(new HashSet<Object>(Arrays.asList(hub.getId(), rare.getId())),
+                    VizLincDB.makeSetOfIds(vizlincDB.getEntitiesInAllOfTheseDocuments(Arrays.asList(hubDocuments.get(7), document2))));
+        } finally {
+            vizlincDB.deleteNode(hub);
+            vizlincDB.deleteNode(rare);
+            for (Vertex mention : hubMentions.subList(0, 20)) {
+                vizlincDB.deleteNode(mention);
+            }
+            for (Vertex document : hubDocuments) {
+                vizlincDB.deleteNode(document);
+            }
+            vizlincDB.commit();
+        }
+    }
+
     /**
      * Test of getDocumentsWithMentions method, of class VizLincDB.
      */
@@ -0,0 +1,94 @@
+package edu.mit.ll.vizlincdb.io;
+
+import com.tinkerpop.blueprints.Vertex;
+import edu.mit.ll.vizlincdb.document.Document;
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.entity.EntitySet;
+import edu.mit.ll.vizlincdb.geo.GeoBoundingBox;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import edu.mit.ll.vizlincdb.graph.VizLincDB;
+import edu.mit.ll.vizlincdb.relational.VizLincRDB;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class VizLincGraphToRDBConverterTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    public VizLincGraphToRDBConverterTest() {
+    }
+
+    /**
+     * Test of convert method, of class VizLincGraphToRDBConverter.
+     */
+    @Test
+    public void testConvert() throws IOException, SQLException {
+        VizLincDB graphDB = new VizLincDB(tempFolder.newFolder(), true);
+        int documents = 20;
+        Vertex alice = graphDB.newEntity("PERSON", "Alice Ailey", "test");
+        Vertex lexington = graphDB.newEntity("LOCATION", "Lexington", "test");
+        Vertex other = graphDB.newEntity("MISC", "something", "test");
+        graphDB.setGeoLocations(lexington, new GeoLocation[] {
+            new GeoLocation(42.4473, -71.2272, null, "Lexington", "town", null, "US", "osm"),
+            new GeoLocation(38.0, -84.5, new GeoBoundingBox(37.9, 38.1, -84.6, -84.4), "Lexington", null, "PPL", "US", "nga")});
+        for (int d = 0; d < documents; d++) {
+            Vertex document = graphDB.newDocument("doc" + d, "dir/doc" + d, "Alice went to Lexington. Alice " + d);
+            Vertex alice1 = graphDB.newMention(document, "PERSON", "Alice", 0, null, 0, 5);
+            Vertex lexington1 = graphDB.newMention(document, "LOCATION", "Lexington", 1, 7, 14, 23);
+            Vertex alice2 = graphDB.newMention(document, "PERSON", "Alice", 2, null, 25, 30);
+            graphDB.newMention(document, "PERSON", "nobody", 3, null, 31, 33);
+            Vertex misc = graphDB.newMention(document, "MISC", "something", 4, null, 31, 33);
+            graphDB.connectEntityToMentionsAndDocuments(alice, Arrays.asList(alice1, alice2));
+            graphDB.connectEntityToMentionsAndDocuments(lexington, Arrays.asList(lexington1));
+            graphDB.connectEntityToMentionsAndDocuments(other, Arrays.asList(misc));
+        }
+        graphDB.commit();
+
+        VizLincRDB rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        VizLincGraphToRDBConverter converter = new VizLincGraphToRDBConverter(graphDB, rdb, 3, 7);
+        converter.convert();
+        graphDB.shutdown();
+
+        assertEquals(2, converter.getEntityCount());
+        assertEquals(1, converter.getSkippedEntityCount());
+        assertEquals(documents, converter.getDocumentCount());
+        assertEquals(5 * documents, converter.getMentionCount());
+        // entities + geolocations + documents + mentions + document_entity rows
+        assertEquals(2 + 2 + documents + 5 * documents + 2 * documents, converter.getRowsLoaded());
+
+        List<Document> rdbDocuments = rdb.getDocuments();
+        assertEquals(documents, rdbDocuments.size());
+        EntitySet entities = rdb.getEntities();
+        assertEquals(2, entities.size());
+        Entity aliceEntity = entities.getPersonEntities().get(0);
+        assertEquals("Alice Ailey", aliceEntity.getText());
+        assertEquals(documents, aliceEntity.getNumDocuments());
+        assertEquals(2 * documents, aliceEntity.getNumMentions());
+        Entity lexingtonEntity = entities.getLocationEntities().get(0);
+        assertEquals(documents, lexingtonEntity.getNumMentions());
+        int aliceId = aliceEntity.getId();
+        int lexingtonId = lexingtonEntity.getId();
+        assertEquals(2, rdb.getGeoLocations(lexingtonId).size());
+        assertEquals(new GeoBoundingBox(37.9, 38.1, -84.6, -84.4), rdb.getGeoLocations(lexingtonId).get(1).boundingBox);
+
+        Document document = rdbDocuments.get(0);
+        assertTrue(rdb.getDocumentText(document.getId()).startsWith("Alice went to Lexington."));
+        assertEquals(Arrays.asList("Alice"), rdb.getDistinctMentionTextsForEntityIdInDocument(aliceId, document.getId()));
+        Map<Integer, Integer> counts = rdb.getMentionCountsForEntitiesInDocuments(Arrays.asList(aliceId, lexingtonId),
+                Arrays.asList(document.getId()));
+        assertEquals(2, (int) counts.get(aliceId));
+        assertEquals(1, (int) counts.get(lexingtonId));
+        rdb.shutdown();
+    }
+}
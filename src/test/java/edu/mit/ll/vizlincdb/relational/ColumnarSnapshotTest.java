@@ -0,0 +1,243 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class ColumnarSnapshotTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static final int CONTENT_VERSION = 42;
+    static ColumnarSnapshot.Writer writer;
+
+    public ColumnarSnapshotTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        writer = new ColumnarSnapshot.Writer(CONTENT_VERSION)
+            .putInts("ints", new int[] {3, -1, 7, 99}, 3)
+            .putShorts("shorts", new short[] {5, 6, 7}, 3)
+            .putDoubles("doubles", new double[] {42.4473, -71.2272}, 2)
+            .putStrings("strings", Arrays.asList("Alice", null, "", "Lexington, Massachusetts é"));
+    }
+
+    private static void assertContents(ColumnarSnapshot snapshot) {
+        IntBuffer ints = snapshot.ints("ints");
+        assertEquals(3, ints.limit());
+        assertEquals(3, ints.get(0));
+        assertEquals(-1, ints.get(1));
+        assertEquals(7, ints.get(2));
+
+        ShortBuffer shorts = snapshot.shorts("shorts");
+        assertEquals(3, shorts.limit());
+        assertEquals(6, shorts.get(1));
+
+        DoubleBuffer doubles = snapshot.doubles("doubles");
+        assertEquals(42.4473, doubles.get(0), 0.0);
+        assertEquals(-71.2272, doubles.get(1), 0.0);
+
+        assertEquals(Arrays.asList("Alice", null, "", "Lexington, Massachusetts é"), snapshot.strings("strings"));
+        assertTrue(snapshot.has("ints"));
+        assertFalse(snapshot.has("missing"));
+        assertEquals(CONTENT_VERSION, snapshot.getContentVersion());
+    }
+
+    /**
+     * Test of write and open methods, of class ColumnarSnapshot.
+     */
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        File file = tempFolder.newFile();
+        writer.write(file);
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(file, CONTENT_VERSION);
+        assertContents(snapshot);
+        snapshot.verify();
+    }
+
+    /**
+     * Test of toSnapshot method, of class ColumnarSnapshot.Writer.
+     */
+    @Test
+    public void testToSnapshot() throws IOException {
+        ColumnarSnapshot snapshot = writer.toSnapshot();
+        assertContents(snapshot);
+        snapshot.verify();
+    }
+
+    /**
+     * Test of open method, of class ColumnarSnapshot, with the wrong content version.
+     */
+    @Test(expected = IOException.class)
+    public void testOpenWrongVersion() throws IOException {
+        File file = tempFolder.newFile();
+        writer.write(file);
+        ColumnarSnapshot.open(file, CONTENT_VERSION + 1);
+    }
+
+    /**
+     * Test of open method, of class ColumnarSnapshot, with a truncated file.
+     */
+    @Test(expected = IOException.class)
+    public void testOpenTruncated() throws IOException {
+        File file = tempFolder.newFile();
+        writer.write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        ColumnarSnapshot.open(file, CONTENT_VERSION);
+    }
+
+    /**
+     * Test of verify method, of class ColumnarSnapshot.
+     */
+    @Test
+    public void testVerifyDetectsCorruption() throws IOException {
+        File file = tempFolder.newFile();
+        writer.write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xFF);
+        raf.close();
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(file, CONTENT_VERSION);
+        try {
+            snapshot.verify();
+            fail("corrupt section not detected");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("strings.utf8"));
+        }
+    }
+
+    /**
+     * Test of bytes method, of class ColumnarSnapshot, reading a corrupt section.
+     */
+    @Test
+    public void testBytesDetectsCorruption() throws IOException {
+        File file = tempFolder.newFile();
+        writer.write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xFF);
+        raf.close();
+
+        // The other sections can still be read.
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(file, CONTENT_VERSION);
+        assertEquals(7, snapshot.ints("ints").get(2));
+        assertEquals(-71.2272, snapshot.doubles("doubles").get(1), 0.0);
+        try {
+            snapshot.strings("strings");
+            fail("corrupt section not detected");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage().contains("strings.utf8"));
+        }
+    }
+
+    /**
+     * Test of write method, of class ColumnarSnapshot.Writer, replacing an existing file.
+     */
+    @Test
+    public void testWriteReplacesExistingFile() throws IOException {
+        File dir = tempFolder.newFolder();
+        File file = new File(dir, "snapshot");
+        writer.write(file);
+        ColumnarSnapshot before = ColumnarSnapshot.open(file, CONTENT_VERSION);
+
+        new ColumnarSnapshot.Writer(CONTENT_VERSION).putInts("ints", new int[] {8}, 1).write(file);
+        ColumnarSnapshot after = ColumnarSnapshot.open(file, CONTENT_VERSION);
+        assertEquals(1, after.ints("ints").limit());
+        assertEquals(8, after.ints("ints").get(0));
+        assertFalse(after.has("strings.utf8"));
+
+        // The earlier mapping still sees the file it mapped, and no temporary file is left behind.
+        assertContents(before);
+        before.verify();
+        assertEquals(Arrays.asList("snapshot"), Arrays.asList(dir.list()));
+    }
+
+    /**
+     * Test of writeGeneration method, of class ColumnarSnapshot.Writer.
+     */
+    @Test
+    public void testWriteGeneration() throws IOException {
+        File dir = tempFolder.newFolder();
+        // A file with the base name itself is the oldest generation.
+        writer.write(new File(dir, "snapshot"));
+        File first = writer.writeGeneration(dir, "snapshot");
+        assertEquals(new File(dir, "snapshot.1"), first);
+        ColumnarSnapshot before = ColumnarSnapshot.open(first, CONTENT_VERSION);
+
+        File second = new ColumnarSnapshot.Writer(CONTENT_VERSION).putInts("ints", new int[] {8}, 1).writeGeneration(dir, "snapshot");
+        assertEquals(new File(dir, "snapshot.2"), second);
+        assertEquals(Arrays.asList(second), ColumnarSnapshot.generations(dir, "snapshot"));
+        ColumnarSnapshot after = ColumnarSnapshot.open(second, CONTENT_VERSION);
+        assertEquals(8, after.ints("ints").get(0));
+
+        // The earlier mapping still sees the file it mapped, and only the newest generation is left.
+        assertContents(before);
+        before.verify();
+        assertEquals(Arrays.asList("snapshot.2"), Arrays.asList(dir.list()));
+    }
+
+    /**
+     * Test of generations method, of class ColumnarSnapshot.
+     */
+    @Test
+    public void testGenerations() throws IOException {
+        File dir = tempFolder.newFolder();
+        for (String name : Arrays.asList("snapshot", "snapshot.9", "snapshot.10", "snapshot.2", "snapshot.x", "snapshot.3.tmp", "other.4")) {
+            new File(dir, name).createNewFile();
+        }
+        assertEquals(Arrays.asList(new File(dir, "snapshot.10"), new File(dir, "snapshot.9"), new File(dir, "snapshot.2"), new File(dir, "snapshot")),
+                     ColumnarSnapshot.generations(dir, "snapshot"));
+        assertTrue(ColumnarSnapshot.generations(tempFolder.newFolder(), "snapshot").isEmpty());
+    }
+
+    /**
+     * Test of write method, of class ColumnarSnapshot.Writer, with compressible strings.
+     */
+    @Test
+    public void testCompressedStrings() throws IOException {
+        List<String> strings = new ArrayList<String>();
+        int rawLength = 0;
+        for (int i = 0; i < 10000; i++) {
+            String s = i % 7 == 0 ? null : "Lexington, Massachusetts " + (i % 10);
+            strings.add(s);
+            rawLength += s == null ? 0 : s.length();
+        }
+        File file = tempFolder.newFile();
+        new ColumnarSnapshot.Writer(CONTENT_VERSION).putStrings("strings", strings).write(file);
+        assertTrue(file.length() < rawLength / 2);
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(file, CONTENT_VERSION);
+        snapshot.verify();
+        assertEquals(rawLength, snapshot.bytes("strings.utf8").limit());
+        assertEquals(strings, snapshot.strings("strings"));
+        // A second read uses the inflated copy.
+        assertEquals(strings, snapshot.strings("strings"));
+
+        // Copying sections from a compressed snapshot gets the uncompressed bytes.
+        ColumnarSnapshot copy = new ColumnarSnapshot.Writer(CONTENT_VERSION).putAll(snapshot, "strings.").toSnapshot();
+        assertEquals(strings, copy.strings("strings"));
+    }
+}
@@ -0,0 +1,274 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.document.Document;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class ConnectionPoolTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int DOCUMENTS = 50;
+    private static File dbFolder;
+    private static VizLincRDB rdb;
+
+    public ConnectionPoolTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException, SQLException {
+        dbFolder = tempFolder.newFolder();
+        rdb = new VizLincRDB(dbFolder, true);
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int d = 0; d < DOCUMENTS; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of doc" + d);
+            }
+        } finally {
+            loader.close();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws SQLException {
+        rdb.shutdown();
+    }
+
+    private static String url() {
+        return "jdbc:h2:" + dbFolder.getPath() + "/data";
+    }
+
+    /**
+     * Test of acquire method, of class ConnectionPool.
+     */
+    @Test
+    public void testAcquire() throws Exception {
+        final ConnectionPool pool = new ConnectionPool(url(), VizLincRDB.Implementation.H2.dialect, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Boolean> acquireElsewhere = new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws SQLException {
+                    try (PooledConnection pc = pool.acquire()) {
+                        return pc.getConnection().isValid(1);
+                    }
+                }
+            };
+            PooledConnection outer = pool.acquire();
+            PooledConnection inner = pool.acquire();
+            // Reentrant: the same thread gets the same connection.
+            assertSame(outer, inner);
+            inner.close();
+            // Still held by the outer lease, so another thread must wait.
+            Future<Boolean> waiting = executor.submit(acquireElsewhere);
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                fail("pool of size 1 leased a second connection");
+            } catch (TimeoutException ex) {
+                // expected
+            }
+            outer.close();
+            assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+        try {
+            pool.acquire();
+            fail("closed pool leased a connection");
+        } catch (SQLException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of release method, of class ConnectionPool, on another thread than the one that took the lease.
+     */
+    @Test
+    public void testReleaseOnAnotherThread() throws Exception {
+        final ConnectionPool pool = new ConnectionPool(url(), VizLincRDB.Implementation.H2.dialect, 1);
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        try {
+            Callable<PooledConnection> acquire = new Callable<PooledConnection>() {
+                @Override
+                public PooledConnection call() throws SQLException {
+                    return pool.acquire();
+                }
+            };
+            final PooledConnection pc = first.submit(acquire).get();
+            second.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws SQLException {
+                    pc.close();
+                    return null;
+                }
+            }).get();
+            // The first thread's lease has ended, so the second thread can take the connection, and then the first
+            // must wait for it rather than share it.
+            assertSame(pc, second.submit(acquire).get(5, TimeUnit.SECONDS));
+            Future<PooledConnection> waiting = first.submit(acquire);
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                fail("connection leased to two threads");
+            } catch (TimeoutException ex) {
+                // expected
+            }
+            pc.close();
+            assertSame(pc, waiting.get(5, TimeUnit.SECONDS));
+            pc.close();
+        } finally {
+            first.shutdownNow();
+            second.shutdownNow();
+            pool.close();
+        }
+    }
+
+    /**
+     * Test of getDocumentTextReader method, of class VizLincRDB, closing the Reader on another thread.
+     */
+    @Test
+    public void testDocumentTextReaderOnAnotherThread() throws Exception {
+        final VizLincRDB pooled = new VizLincRDB(dbFolder.getPath(), 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Reader reader = pooled.getDocumentTextReader(3);
+            assertEquals("text of doc3", executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    try {
+                        char[] buffer = new char[100];
+                        return new String(buffer, 0, reader.read(buffer));
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }).get());
+            // The only connection is free for another thread.
+            assertEquals("text of doc4", executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws SQLException {
+                    return pooled.getDocumentText(4);
+                }
+            }).get(5, TimeUnit.SECONDS));
+            assertEquals("text of doc5", pooled.getDocumentText(5));
+        } finally {
+            executor.shutdown();
+            pooled.shutdown();
+        }
+    }
+
+    /**
+     * Test of beginTemporaryPool and endTemporaryPool methods, of class VizLincRDB.
+     */
+    @Test
+    public void testTemporaryPool() throws Exception {
+        assertTrue(rdb.beginTemporaryPool(2));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The other thread's query does not wait for this thread's lease.
+            try (PooledConnection pc = rdb.connection()) {
+                assertEquals("text of doc1", executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws SQLException {
+                        return rdb.getDocumentText(1);
+                    }
+                }).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+            rdb.endTemporaryPool();
+        }
+        assertEquals("text of doc2", rdb.getDocumentText(2));
+        try {
+            rdb.endTemporaryPool();
+            fail("ended a temporary pool that was not in use");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        VizLincRDB pooled = new VizLincRDB(dbFolder.getPath(), 2);
+        try {
+            assertFalse(pooled.beginTemporaryPool(2));
+        } finally {
+            pooled.shutdown();
+        }
+    }
+
+    /**
+     * Test of prepareStatement method, of class PooledConnection.
+     */
+    @Test
+    public void testPrepareStatement() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(url(), VizLincRDB.Implementation.H2.dialect, 2);
+        String sql = "SELECT name FROM document WHERE document_id = ?";
+        PreparedStatement first;
+        try (PooledConnection pc = pool.acquire()) {
+            first = pc.prepareStatement(sql);
+            first.setInt(1, 3);
+            assertTrue(first.executeQuery().next());
+        }
+        try (PooledConnection pc = pool.acquire()) {
+            assertSame(first, pc.prepareStatement(sql));
+        }
+        pool.close();
+        assertTrue(first.isClosed());
+    }
+
+    /**
+     * Test of concurrent queries on a VizLincRDB with a connection pool.
+     */
+    @Test
+    public void testPooledQueries() throws Exception {
+        final VizLincRDB pooled = new VizLincRDB(dbFolder.getPath(), 3);
+        assertEquals(3, pooled.getPoolSize());
+        assertEquals(0, rdb.getPoolSize());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws SQLException {
+                        int found = 0;
+                        for (int i = 0; i < 200; i++) {
+                            int d = (i + offset) % DOCUMENTS;
+                            Document doc = pooled.getDocumentWithId(d);
+                            if (doc.getName().equals("doc" + d) && pooled.getDocumentText(d).equals("text of doc" + d)) {
+                                found++;
+                            }
+                        }
+                        return found;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(200, (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+            pooled.shutdown();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class DocumentBitmapsTest {
+
+    static final int DOCUMENTS = 500;
+    static final int ENTITIES = 20;
+    static DocumentBitmaps bitmaps;
+    // For each entity, the documents that mention it, for computing expected answers directly.
+    static List<Set<Integer>> entityDocuments;
+    static int[] allDocumentIds;
+
+    public DocumentBitmapsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        // Entity 100 + e is in about 1 in 2^(e/2) documents, so there is a mix of dense and sparse entities.
+        Random random = new Random(5);
+        int[] documentIds = new int[DOCUMENTS * ENTITIES];
+        int[] entityIds = new int[DOCUMENTS * ENTITIES];
+        int[] mentionCounts = new int[DOCUMENTS * ENTITIES];
+        entityDocuments = new ArrayList<Set<Integer>>();
+        int n = 0;
+        for (int e = 0; e < ENTITIES; e++) {
+            Set<Integer> documents = new HashSet<Integer>();
+            for (int d = 0; d < DOCUMENTS; d++) {
+                if (random.nextInt(1 << (e / 2)) == 0) {
+                    documentIds[n] = 10 * d;
+                    entityIds[n] = 100 + e;
+                    mentionCounts[n] = 1;
+                    documents.add(10 * d);
+                    n++;
+                }
+            }
+            entityDocuments.add(documents);
+        }
+        // Document ids are 0, 10, 20, ...; some documents mention no entities.
+        allDocumentIds = new int[DOCUMENTS];
+        for (int d = 0; d < DOCUMENTS; d++) {
+            allDocumentIds[d] = 10 * d;
+        }
+        bitmaps = new DocumentBitmaps(DocumentEntityIndex.build(documentIds, entityIds, mentionCounts, n), allDocumentIds);
+    }
+
+    private static List<Integer> expected(int[] allOf, int[] anyOf, int[] noneOf) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int documentId : allDocumentIds) {
+            boolean match = true;
+            for (int entityId : allOf) {
+                match &= mentions(entityId, documentId);
+            }
+            if (anyOf.length > 0) {
+                boolean any = false;
+                for (int entityId : anyOf) {
+                    any |= mentions(entityId, documentId);
+                }
+                match &= any;
+            }
+            for (int entityId : noneOf) {
+                match &= !mentions(entityId, documentId);
+            }
+            if (match) {
+                result.add(documentId);
+            }
+        }
+        return result;
+    }
+
+    private static boolean mentions(int entityId, int documentId) {
+        int e = entityId - 100;
+        return e >= 0 && e < ENTITIES && entityDocuments.get(e).contains(documentId);
+    }
+
+    private static void check(int[] allOf, int[] anyOf, int[] noneOf) {
+        BitSet result = bitmaps.matching(allOf, anyOf, noneOf);
+        List<Integer> expected = expected(allOf, anyOf, noneOf);
+        assertEquals(expected, bitmaps.documentIds(result));
+        assertEquals(expected.size(), result.cardinality());
+    }
+
+    /**
+     * Test of matching method, of class DocumentBitmaps.
+     */
+    @Test
+    public void testMatching() {
+        int[] none = new int[0];
+        check(new int[] {100, 101}, none, none);
+        check(new int[] {100, 115}, none, none);
+        check(new int[] {102, 104, 106}, none, none);
+        check(none, new int[] {110, 117, 119}, none);
+        check(none, new int[] {100, 101}, new int[] {102, 112});
+        check(new int[] {101}, new int[] {108, 114}, new int[] {103});
+        check(none, none, new int[] {100});
+        check(none, none, none);
+    }
+
+    /**
+     * Test of matching method, of class DocumentBitmaps, with unknown entities.
+     */
+    @Test
+    public void testMatchingUnknownEntities() {
+        int[] none = new int[0];
+        check(new int[] {100, 999}, none, none);
+        check(none, new int[] {999}, none);
+        check(new int[] {101}, none, new int[] {999});
+    }
+}
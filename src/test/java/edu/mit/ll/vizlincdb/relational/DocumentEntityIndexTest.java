@@ -0,0 +1,80 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class DocumentEntityIndexTest {
+
+    // Rows of (document id, entity id, mention count), deliberately out of order and with sparse ids.
+    static final int[] DOCUMENT_IDS = {30, 10, 20, 10, 30, 20, 10};
+    static final int[] ENTITY_IDS = {7, 5, 5, 9, 5, 7, 7};
+    static final int[] MENTION_COUNTS = {1, 2, 3, 4, 5, 6, 7};
+
+    static DocumentEntityIndex index;
+
+    public DocumentEntityIndexTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        index = DocumentEntityIndex.build(DOCUMENT_IDS, ENTITY_IDS, MENTION_COUNTS, DOCUMENT_IDS.length);
+    }
+
+    /**
+     * Test of build method, of class DocumentEntityIndex.
+     */
+    @Test
+    public void testBuild() {
+        assertEquals(7, index.size());
+        assertEquals(-1, index.entityRow(6));
+        assertEquals(-1, index.documentRow(15));
+        assertTrue(index.entityRow(9) >= 0);
+        assertTrue(index.documentRow(30) >= 0);
+    }
+
+    /**
+     * Test of documentIdsWithAllEntities method, of class DocumentEntityIndex.
+     */
+    @Test
+    public void testDocumentIdsWithAllEntities() {
+        assertArrayEquals(new int[] {10, 20, 30}, index.documentIdsWithAllEntities(new int[] {5, 7}));
+        assertArrayEquals(new int[] {10}, index.documentIdsWithAllEntities(new int[] {5, 7, 9}));
+        assertArrayEquals(new int[] {}, index.documentIdsWithAllEntities(new int[] {5, 6}));
+        assertArrayEquals(new int[] {}, index.documentIdsWithAllEntities(new int[] {}));
+    }
+
+    /**
+     * Test of entityIdsInAnyDocuments method, of class DocumentEntityIndex.
+     */
+    @Test
+    public void testEntityIdsInAnyDocuments() {
+        assertArrayEquals(new int[] {5, 7, 9}, index.entityIdsInAnyDocuments(new int[] {10}));
+        assertArrayEquals(new int[] {5, 7}, index.entityIdsInAnyDocuments(new int[] {20, 30, 99}));
+        assertArrayEquals(new int[] {}, index.entityIdsInAnyDocuments(new int[] {99}));
+    }
+
+    /**
+     * Test of mentionCountInDocuments method, of class DocumentEntityIndex.
+     */
+    @Test
+    public void testMentionCountInDocuments() {
+        assertEquals(2 + 3 + 5, index.mentionCountInDocuments(5, new int[] {10, 20, 30}));
+        assertEquals(7 + 1, index.mentionCountInDocuments(7, new int[] {10, 30}));
+        assertEquals(0, index.mentionCountInDocuments(9, new int[] {20, 30}));
+        assertEquals(0, index.mentionCountInDocuments(6, new int[] {10}));
+    }
+
+    /**
+     * Test of documentCountInDocuments method, of class DocumentEntityIndex.
+     */
+    @Test
+    public void testDocumentCountInDocuments() {
+        assertEquals(3, index.documentCountInDocuments(5, new int[] {1, 10, 20, 30, 40}));
+        assertEquals(1, index.documentCountInDocuments(9, new int[] {10}));
+        assertEquals(0, index.documentCountInDocuments(9, new int[] {}));
+    }
+}
@@ -0,0 +1,128 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class DocumentTextCacheTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static VizLincRDB rdb;
+
+    public DocumentTextCacheTest() {
+    }
+
+    private static String textOf(int documentId) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            text.append("text of document ").append(documentId).append(' ');
+        }
+        return text.toString();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws SQLException, IOException {
+        rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int d = 1; d <= 5; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, textOf(d));
+            }
+        } finally {
+            loader.close();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws SQLException {
+        rdb.shutdown();
+    }
+
+    /**
+     * Test of get method, of class DocumentTextCache.
+     */
+    @Test
+    public void testGet() throws SQLException {
+        // Room for two texts.
+        DocumentTextCache cache = new DocumentTextCache(rdb, 2 * textOf(1).length(), 0);
+        assertEquals(textOf(1), cache.get(1));
+        assertEquals(textOf(1), cache.get(1));
+        assertNull(cache.get(-1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.get(2);
+        cache.get(1);
+        // 2 is now least recently used, so it is the one evicted.
+        cache.get(3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.get(1);
+        assertEquals(3, cache.getHitCount());
+        cache.get(2);
+        assertEquals(5, cache.getMissCount());
+        assertEquals(0, cache.compressedSize());
+    }
+
+    /**
+     * Test of get method, of class DocumentTextCache, with a compressed tier.
+     */
+    @Test
+    public void testGetCompressed() throws SQLException {
+        DocumentTextCache cache = new DocumentTextCache(rdb, textOf(1).length(), 1000);
+        cache.get(1);
+        cache.get(2);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.compressedSize());
+        assertEquals(textOf(1), cache.get(1));
+        assertEquals(1, cache.getCompressedHitCount());
+        assertEquals(2, cache.getMissCount());
+        // 1 was moved back to the uncompressed tier, and 2 took its place in the compressed one.
+        assertEquals(1, cache.compressedSize());
+        assertEquals(textOf(2), cache.get(2));
+        assertEquals(2, cache.getCompressedHitCount());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.compressedSize());
+    }
+
+    /**
+     * Test of getAll method, of class DocumentTextCache.
+     */
+    @Test
+    public void testGetAll() throws SQLException {
+        DocumentTextCache cache = new DocumentTextCache(rdb, 100000, 0);
+        cache.get(1);
+        Map<Integer, String> texts = cache.getAll(Arrays.asList(1, 2, 3, -1));
+        assertEquals(3, texts.size());
+        assertEquals(textOf(3), texts.get(3));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(3, cache.size());
+    }
+
+    /**
+     * Test of compress and decompress methods, of class DocumentTextCache.
+     */
+    @Test
+    public void testCompress() {
+        String text = textOf(1) + "é中";
+        byte[] compressed = DocumentTextCache.compress(text);
+        assertTrue(compressed.length < text.length());
+        assertEquals(text, DocumentTextCache.decompress(compressed));
+        assertEquals("", DocumentTextCache.decompress(DocumentTextCache.compress("")));
+    }
+}
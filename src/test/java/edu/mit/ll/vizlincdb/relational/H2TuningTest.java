@@ -0,0 +1,166 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.relational.VizLincRDB.Implementation;
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class H2TuningTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int DOCUMENTS = VizLincRDB.INLINE_ID_LIMIT + 20;
+
+    public H2TuningTest() {
+    }
+
+    /**
+     * Test of urlSettings method, of class H2Tuning.
+     */
+    @Test
+    public void testUrlSettings() {
+        assertEquals(";CACHE_SIZE=131072;LOG=2;LOCK_MODE=3;MAX_MEMORY_ROWS=10000", H2Tuning.DEFAULT.urlSettings());
+        assertEquals(";CACHE_SIZE=1024;LOG=0;LOCK_MODE=0;MAX_MEMORY_ROWS=5000;ACCESS_MODE_DATA=r",
+            H2Tuning.DEFAULT.withCacheSize(1024).withLog(0).withLockMode(0).withMaxMemoryRows(5000).withReadOnly(true).urlSettings());
+        String bulkLoad = H2Tuning.bulkLoad().urlSettings();
+        assertTrue(bulkLoad, bulkLoad.contains(";LOG=0;LOCK_MODE=0"));
+        assertFalse(H2Tuning.bulkLoad().isReadOnly());
+        assertTrue(H2Tuning.readOnlyServing().isReadOnly());
+        assertTrue(H2Tuning.readOnlyServing().getCacheSize() >= H2Tuning.DEFAULT.getCacheSize());
+        // The presets leave the store to the Implementation.
+        assertNull(H2Tuning.readOnlyServing().getMvStore());
+    }
+
+    /**
+     * Test of url method, of class H2Dialect, with an H2Tuning.
+     */
+    @Test
+    public void testUrl() {
+        H2Dialect dialect = new H2Dialect(true).withTuning(H2Tuning.DEFAULT.withCacheSize(1024));
+        assertEquals("jdbc:h2:db/data;CACHE_SIZE=1024;LOG=2;LOCK_MODE=3;MAX_MEMORY_ROWS=10000;MV_STORE=TRUE;MULTI_THREADED=1", dialect.url("db", true));
+        dialect = new H2Dialect(true).withTuning(H2Tuning.DEFAULT.withMvStore(false));
+        assertEquals("jdbc:h2:db/data;CACHE_SIZE=131072;LOG=2;LOCK_MODE=3;MAX_MEMORY_ROWS=10000", dialect.url("db", false));
+        try {
+            new H2Dialect(false).withTuning(H2Tuning.bulkLoad()).url("db", true);
+            fail("LOCK_MODE=0 with a pool");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /**
+     * Test of loading a database with H2Tuning.bulkLoad(), then serving it with H2Tuning.readOnlyServing().
+     */
+    @Test
+    public void testBulkLoadThenReadOnlyServing() throws SQLException {
+        File dbFolder = new File(tempFolder.getRoot(), "tuned.h2");
+        VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), true, Implementation.H2, 0, H2Tuning.bulkLoad());
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int d = 1; d <= DOCUMENTS; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of document " + d);
+            }
+        } finally {
+            loader.close();
+        }
+        rdb.shutdown();
+
+        rdb = new VizLincRDB(dbFolder.getPath(), 2, H2Tuning.readOnlyServing());
+        assertTrue(rdb.conn.isReadOnly());
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int d = 1; d <= DOCUMENTS; d++) {
+            ids.add(d);
+        }
+        // More ids than are bound as parameters, which a read-only database can't put in a temporary table.
+        assertEquals(DOCUMENTS, rdb.getDocumentsWithIds(ids).size());
+        assertEquals("text of document 7", rdb.getDocumentText(7));
+        Statement stmt = rdb.conn.createStatement();
+        try {
+            stmt.executeUpdate("DELETE FROM document");
+            fail("changed a read-only database");
+        } catch (SQLException ex) {
+        } finally {
+            stmt.close();
+        }
+        rdb.shutdown();
+    }
+
+    /**
+     * Test of queries with more than INLINE_ID_LIMIT ids, of class VizLincRDB, on a database opened with
+     * H2Tuning.readOnlyServing(), which runs them in pieces.
+     */
+    @Test
+    public void testReadOnlyLongIdLists() throws SQLException {
+        // Every entity is in documents 1 and 2, and the first entity is in all of them.
+        final int entities = VizLincRDB.INLINE_ID_LIMIT + 10;
+        File dbFolder = new File(tempFolder.getRoot(), "longids.h2");
+        VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), true, Implementation.H2, 0, H2Tuning.DEFAULT);
+        VizLincRDBLoader loader = rdb.newLoader();
+        List<Integer> entityIds = new ArrayList<Integer>();
+        try {
+            for (int d = 1; d <= DOCUMENTS; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of document " + d);
+            }
+            for (int e = 1001; e < 1001 + entities; e++) {
+                entityIds.add(e);
+                loader.addEntity(Entity.create("PERSON", "person" + e, 2, 2, "test", e));
+            }
+            for (int d = 1; d <= DOCUMENTS; d++) {
+                for (int e : d <= 2 ? entityIds : entityIds.subList(0, 1)) {
+                    loader.addDocumentEntity(d, e, 1);
+                }
+            }
+        } finally {
+            loader.close();
+        }
+        rdb.shutdown();
+
+        rdb = new VizLincRDB(dbFolder.getPath(), 2, H2Tuning.readOnlyServing());
+        // With duplicates, and many ids that aren't there.
+        List<Integer> documentIds = new ArrayList<Integer>();
+        for (int d = 1; d <= 40000; d++) {
+            documentIds.add(d);
+            documentIds.add(d);
+        }
+        assertEquals(DOCUMENTS, rdb.getDocumentsWithIds(documentIds).size());
+        assertEquals(DOCUMENTS, rdb.getDocumentTexts(documentIds).size());
+        assertEquals(entities, rdb.getEntitiesWithIds(entityIds).size());
+        assertEquals(entities, rdb.getEntityIdsInAnyofTheseDocumentIds(documentIds).size());
+        assertEquals(Arrays.asList(1, 2), rdb.getDocumentIdsWithAllOfTheseEntityIds(entityIds));
+        Map<Integer, Integer> mentionCounts = rdb.getMentionCountsForEntitiesInDocuments(entityIds, documentIds);
+        assertEquals(entities, mentionCounts.size());
+        assertEquals(DOCUMENTS, (int) mentionCounts.get(1001));
+        assertEquals(2, (int) mentionCounts.get(1002));
+        assertEquals(mentionCounts, rdb.getDocumentCountsForEntitiesInDocuments(entityIds, documentIds));
+        rdb.shutdown();
+    }
+
+    /**
+     * Test of the VizLincRDB constructor with an H2Tuning it can't use.
+     */
+    @Test
+    public void testBadTuning() throws SQLException {
+        try {
+            new VizLincRDB(new File(tempFolder.getRoot(), "new.h2").getPath(), true, Implementation.H2, 0, H2Tuning.readOnlyServing());
+            fail("created a read-only database");
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            new VizLincRDB(new File(tempFolder.getRoot(), "new.sqlite").getPath(), true, Implementation.SQLITE, 0, H2Tuning.DEFAULT);
+            fail("tuned a SQLite database");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
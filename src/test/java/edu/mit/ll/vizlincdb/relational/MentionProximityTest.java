@@ -0,0 +1,113 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.EntityCounts;
+import edu.mit.ll.vizlincdb.relational.VizLincRDBMem.NeighborhoodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class MentionProximityTest {
+
+    static final int DOCUMENTS = 40;
+    static final int ENTITIES = 12;
+    static MentionTable table;
+    static List<Integer> docIds;
+
+    public MentionProximityTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        // Random mentions, with many ties in position so that the sweep's boundary cases are exercised.
+        Random random = new Random(17);
+        int size = 2000;
+        int[] documentIds = new int[size];
+        int[] entityIds = new int[size];
+        int[] indexes = new int[size];
+        int[] textStarts = new int[size];
+        int[] textStops = new int[size];
+        short[] typeCodes = new short[size];
+        for (int i = 0; i < size; i++) {
+            documentIds[i] = 1 + random.nextInt(DOCUMENTS);
+            entityIds[i] = 100 + random.nextInt(ENTITIES);
+            indexes[i] = random.nextInt(60);
+            textStarts[i] = random.nextInt(400);
+            textStops[i] = textStarts[i] + 5;
+        }
+        table = MentionTable.build(documentIds, entityIds, indexes, textStarts, textStops, typeCodes, size);
+
+        // Include a document listed twice and one with no mentions.
+        docIds = new ArrayList<Integer>();
+        for (int docId = 1; docId <= DOCUMENTS; docId += 2) {
+            docIds.add(docId);
+        }
+        docIds.add(3);
+        docIds.add(999);
+    }
+
+    /**
+     * Test of entityCounts method, of class MentionProximity, against referenceEntityCounts.
+     */
+    @Test
+    public void testEntityCountsMatchesReference() {
+        List<List<Integer>> queries = Arrays.asList(Arrays.asList(100), Arrays.asList(101, 105, 110), Arrays.<Integer>asList());
+        List<Integer> wanted = Arrays.asList(100, 102, 103, 105, 111, 500);
+        for (NeighborhoodType neighborhoodType : NeighborhoodType.values()) {
+            for (List<Integer> query : queries) {
+                for (int distance : new int[] {0, 1, 3, 10, 1000}) {
+                    Map<Integer, EntityCounts> expected = MentionProximity.referenceEntityCounts(table, query, wanted, docIds, distance, neighborhoodType);
+                    Map<Integer, EntityCounts> result = new MentionProximity(table, query, wanted, distance, neighborhoodType).entityCounts(docIds);
+                    assertEquals(neighborhoodType + " " + query + " " + distance, expected, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of documentsNear method, of class MentionProximity, against referenceDocumentsNear.
+     */
+    @Test
+    public void testDocumentsNearMatchesReference() {
+        List<Integer> query = Arrays.asList(104, 107);
+        for (NeighborhoodType neighborhoodType : NeighborhoodType.values()) {
+            for (int wantedEntityId : new int[] {100, 104, 109, 500}) {
+                for (int distance : new int[] {0, 2, 20}) {
+                    assertEquals(neighborhoodType + " " + wantedEntityId + " " + distance,
+                            MentionProximity.referenceDocumentsNear(table, query, wantedEntityId, docIds, distance, neighborhoodType),
+                            new MentionProximity(table, query, Arrays.asList(wantedEntityId), distance, neighborhoodType).documentsNear(docIds));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of ParallelQueries.ProximityTask, against entityCounts.
+     */
+    @Test
+    public void testProximityTaskMatchesSequential() {
+        List<Integer> query = Arrays.asList(101, 105);
+        List<Integer> wanted = Arrays.asList(100, 101, 102, 108);
+        int[] docIdArray = ParallelQueries.toArray(docIds);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (NeighborhoodType neighborhoodType : NeighborhoodType.values()) {
+                MentionProximity proximity = new MentionProximity(table, query, wanted, 4, neighborhoodType);
+                for (int threshold : new int[] {1, 3, 1000}) {
+                    assertEquals(proximity.entityCounts(docIds),
+                            pool.invoke(new ParallelQueries.ProximityTask(proximity, docIdArray, 0, docIdArray.length, threshold)).toMap());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
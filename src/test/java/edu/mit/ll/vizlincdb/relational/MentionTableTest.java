@@ -0,0 +1,77 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.MentionLocation;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class MentionTableTest {
+
+    // Mention rows, deliberately out of order. In document 20, index order and text start order differ.
+    static final int[] DOCUMENT_IDS = {20, 10, 20, 10, 20, 30};
+    static final int[] ENTITY_IDS = {5, 7, 6, 5, -1, 7};
+    static final int[] INDEXES = {2, 1, 0, 0, 1, 0};
+    static final int[] TEXT_STARTS = {10, 30, 50, 0, 40, 3};
+    static final int[] TEXT_STOPS = {15, 35, 55, 4, 45, 8};
+    static final short[] TYPE_CODES = {0, 1, 1, 0, 2, 1};
+
+    static MentionTable table;
+
+    public MentionTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        table = MentionTable.build(DOCUMENT_IDS, ENTITY_IDS, INDEXES, TEXT_STARTS, TEXT_STOPS, TYPE_CODES, DOCUMENT_IDS.length);
+    }
+
+    /**
+     * Test of build method, of class MentionTable.
+     */
+    @Test
+    public void testBuild() {
+        assertEquals(6, table.size());
+        assertEquals(-1, table.documentRow(15));
+
+        int row = table.documentRow(20);
+        assertEquals(3, table.to(row) - table.from(row));
+        int[] entityIdsByIndex = new int[3];
+        int[] entityIdsByTextStart = new int[3];
+        for (int k = table.from(row); k < table.to(row); k++) {
+            entityIdsByIndex[k - table.from(row)] = table.entityId(table.rowInOrder(k, VizLincRDBMem.NeighborhoodType.BY_INDEX));
+            entityIdsByTextStart[k - table.from(row)] = table.entityId(table.rowInOrder(k, VizLincRDBMem.NeighborhoodType.BY_TEXT_START));
+        }
+        assertArrayEquals(new int[] {6, -1, 5}, entityIdsByIndex);
+        assertArrayEquals(new int[] {5, -1, 6}, entityIdsByTextStart);
+    }
+
+    /**
+     * Test of writeTo and readFrom methods, of class MentionTable.
+     */
+    @Test
+    public void testWriteToReadFrom() {
+        ColumnarSnapshot.Writer writer = new ColumnarSnapshot.Writer(1);
+        table.writeTo(writer, "m.");
+        MentionTable copy = MentionTable.readFrom(writer.toSnapshot(), "m.");
+        for (int documentId : new int[] {10, 20, 30}) {
+            assertEquals(table.mentionLocations(documentId), copy.mentionLocations(documentId));
+        }
+    }
+
+    /**
+     * Test of mentionLocations method, of class MentionTable.
+     */
+    @Test
+    public void testMentionLocations() {
+        assertEquals(Arrays.asList(
+                new MentionLocation(10, 5, 0, 0, 4, (short) 0),
+                new MentionLocation(10, 7, 1, 30, 35, (short) 1)),
+                table.mentionLocations(10));
+        assertEquals(1, table.mentionLocations(30).size());
+        assertTrue(table.mentionLocations(99).isEmpty());
+    }
+}
@@ -0,0 +1,170 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class SnapshotManifestTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static VizLincRDB rdb;
+
+    public SnapshotManifestTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException, SQLException {
+        File dbFolder = tempFolder.newFolder();
+        rdb = new VizLincRDB(dbFolder, true);
+        Statement stmt = rdb.conn.createStatement();
+        stmt.execute("INSERT INTO document (document_id, name, path, text) VALUES (1, 'doc1', 'dir1/doc1', 'abc')");
+        stmt.execute("INSERT INTO entity (entity_id, type, text, created_by, num_documents, num_mentions) VALUES (10, 'PERSON', 'Alice', 'x', 1, 1)");
+        stmt.execute("INSERT INTO mention (mention_id, document_id, entity_id, type, text, index, text_start, text_stop) VALUES (100, 1, 10, 'PERSON', 'Alice', 0, 0, 5)");
+        stmt.execute("INSERT INTO document_entity (document_id, entity_id, num_mentions) VALUES (1, 10, 1)");
+        stmt.close();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws SQLException {
+        rdb.shutdown();
+    }
+
+    /**
+     * Test of writeTo and readFrom methods, of class SnapshotManifest.
+     */
+    @Test
+    public void testWriteToAndReadFrom() throws SQLException {
+        SnapshotManifest manifest = SnapshotManifest.read(rdb);
+        manifest.checksum(rdb, "mention");
+        ColumnarSnapshot.Writer writer = new ColumnarSnapshot.Writer(1);
+        manifest.writeTo(writer, "manifest.");
+        SnapshotManifest read = SnapshotManifest.readFrom(writer.toSnapshot(), "manifest.");
+        assertEquals(VizLincRDB.SCHEMA_VERSION, read.getSchemaVersion());
+        assertTrue(manifest.changedTables(read).isEmpty());
+        assertTrue(manifest.changedChecksums(read).isEmpty());
+        assertNull(SnapshotManifest.readFrom(writer.toSnapshot(), "other."));
+    }
+
+    /**
+     * Test of changedTables method, of class SnapshotManifest.
+     */
+    @Test
+    public void testChangedTables() throws SQLException {
+        SnapshotManifest before = SnapshotManifest.read(rdb);
+        assertEquals(new LinkedHashSet<String>(SnapshotManifest.TABLES), before.changedTables(null));
+        assertEquals(new LinkedHashSet<String>(SnapshotManifest.TABLES), before.changedTables(new SnapshotManifest(VizLincRDB.SCHEMA_VERSION + 1)));
+        assertTrue(SnapshotManifest.read(rdb).changedTables(before).isEmpty());
+
+        rdb.touchTables("geolocation", "document");
+        SnapshotManifest afterTouch = SnapshotManifest.read(rdb);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("document", "geolocation")), afterTouch.changedTables(before));
+
+        // The entity and document_entity sections hold counts of mentions, so they change with the mentions.
+        rdb.touchTables("mention");
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("entity", "mention", "document_entity")),
+            SnapshotManifest.read(rdb).changedTables(afterTouch));
+    }
+
+    /**
+     * Test of changedTables method, of class SnapshotManifest, for changes that are not touched.
+     */
+    @Test
+    public void testChangedTablesWithoutTouch() throws SQLException {
+        // The triggers change the stamp of a table whenever it changes.
+        SnapshotManifest before = SnapshotManifest.read(rdb);
+        Statement stmt = rdb.conn.createStatement();
+        stmt.execute("UPDATE document SET path = 'dir2/doc1' WHERE document_id = 1");
+        SnapshotManifest afterUpdate = SnapshotManifest.read(rdb);
+        assertEquals(Collections.singleton("document"), afterUpdate.changedTables(before));
+
+        // Without them, a change in the number of rows is still seen.
+        rdb.dropStampTriggers();
+        try {
+            stmt.execute("INSERT INTO geolocation (entity_id, rank, latitude, longitude) VALUES (10, 0, 1.0, 2.0)");
+            SnapshotManifest afterInsert = SnapshotManifest.read(rdb);
+            assertEquals(Collections.singleton("geolocation"), afterInsert.changedTables(afterUpdate));
+            stmt.execute("DELETE FROM geolocation");
+        } finally {
+            rdb.createStampTriggers();
+        }
+        stmt.execute("UPDATE document SET path = 'dir1/doc1' WHERE document_id = 1");
+        stmt.close();
+    }
+
+    /**
+     * Test of the loader touching the tables it loads, of class SnapshotManifest.
+     */
+    @Test
+    public void testChangedTablesAfterLoad() throws SQLException {
+        SnapshotManifest before = SnapshotManifest.read(rdb);
+        VizLincRDBLoader loader = rdb.newLoader(10, 10, false);
+        try {
+            loader.addDocument(2, "doc2", "dir1/doc2", "def");
+        } finally {
+            loader.close();
+        }
+        SnapshotManifest afterLoad = SnapshotManifest.read(rdb);
+        assertEquals(Collections.singleton("document"), afterLoad.changedTables(before));
+        // The loader drops the stamp triggers while it loads, and puts them back.
+        Statement stmt = rdb.conn.createStatement();
+        stmt.execute("UPDATE document SET name = 'doc2a' WHERE document_id = 2");
+        assertEquals(Collections.singleton("document"), SnapshotManifest.read(rdb).changedTables(afterLoad));
+        stmt.execute("DELETE FROM document WHERE document_id = 2");
+        stmt.close();
+    }
+
+    /**
+     * Test of checksum and changedChecksums methods, of class SnapshotManifest.
+     */
+    @Test
+    public void testChangedChecksums() throws SQLException {
+        Statement stmt = rdb.conn.createStatement();
+        stmt.execute("INSERT INTO entity (entity_id, type, text, created_by, num_documents, num_mentions) VALUES (11, 'PERSON', 'Bob', 'x', 1, 1)");
+        stmt.execute("INSERT INTO mention (mention_id, document_id, entity_id, type, text, index, text_start, text_stop) VALUES (101, 1, 11, 'PERSON', 'Bob', 1, 10, 13)");
+        stmt.execute("INSERT INTO mention (mention_id, document_id, entity_id, type, text, index, text_start, text_stop) VALUES (102, 1, 10, 'PERSON', 'Alice', 2, 20, 25)");
+        stmt.execute("INSERT INTO document_entity (document_id, entity_id, num_mentions) VALUES (1, 11, 1)");
+        stmt.execute("UPDATE entity SET num_mentions = 2 WHERE entity_id = 10");
+        stmt.execute("UPDATE document_entity SET num_mentions = 2 WHERE entity_id = 10");
+        SnapshotManifest before = SnapshotManifest.read(rdb);
+        before.checksumAll(rdb);
+        SnapshotManifest unchanged = SnapshotManifest.read(rdb);
+        unchanged.checksumAll(rdb);
+        assertTrue(unchanged.changedChecksums(before).isEmpty());
+
+        // Reassign one of Alice's mentions in doc1 to Bob, and move the counts with it: the changes within each table
+        // balance out, so only a hash of each row tells them apart.
+        stmt.execute("UPDATE mention SET entity_id = 11 WHERE mention_id = 102");
+        stmt.execute("UPDATE entity SET num_mentions = 3 - num_mentions WHERE entity_id IN (10, 11)");
+        stmt.execute("UPDATE document_entity SET num_mentions = 3 - num_mentions WHERE entity_id IN (10, 11)");
+        SnapshotManifest after = SnapshotManifest.read(rdb);
+        after.checksumAll(rdb);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("entity", "mention", "document_entity")), after.changedChecksums(before));
+
+        // Only the tables checksummed are compared.
+        SnapshotManifest partial = SnapshotManifest.read(rdb);
+        partial.checksum(rdb, "document");
+        assertTrue(partial.changedChecksums(before).isEmpty());
+
+        stmt.execute("DELETE FROM mention WHERE mention_id IN (101, 102)");
+        stmt.execute("DELETE FROM document_entity WHERE entity_id = 11");
+        stmt.execute("DELETE FROM entity WHERE entity_id = 11");
+        stmt.execute("UPDATE entity SET num_mentions = 1 WHERE entity_id = 10");
+        stmt.execute("UPDATE document_entity SET num_mentions = 1 WHERE entity_id = 10");
+        stmt.close();
+    }
+}
@@ -0,0 +1,166 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.entity.Mention;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import edu.mit.ll.vizlincdb.relational.VizLincRDB.Implementation;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The same database, loaded into each Implementation, must answer queries the same way.
+ */
+public class SqlDialectTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int DOCUMENTS = VizLincRDB.INLINE_ID_LIMIT + 20;
+
+    public SqlDialectTest() {
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static File load(Implementation impl) throws SQLException, IOException {
+        File dbFolder = new File(tempFolder.getRoot(), "db." + impl.tags[0]);
+        VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), true, impl);
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int e = 1; e <= 10; e++) {
+                loader.addEntity(Entity.create(e % 2 == 0 ? "PERSON" : "LOCATION", "entity" + e, 1, 1, "test", e));
+                loader.addGeoLocation(e, 0, new GeoLocation(e, -e, null, "entity" + e, null, null, "US", "test"));
+                loader.addGeoLocation(e, 1, new GeoLocation(e + 0.5, -e, null, "entity" + e, null, null, "US", "test"));
+            }
+            int mentionId = 0;
+            for (int d = 1; d <= DOCUMENTS; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of document " + d);
+                for (int m = 0; m < 3; m++) {
+                    int entityId = 1 + (d + m) % 10;
+                    loader.addMention(new Mention(++mentionId, d, entityId, "PERSON", "entity" + entityId, m, null, 5 * m, 5 * m + 4));
+                    loader.addDocumentEntity(d, entityId, 1);
+                }
+            }
+        } finally {
+            loader.close();
+        }
+        rdb.shutdown();
+        return dbFolder;
+    }
+
+    /**
+     * Test of implementationForPath method, of class VizLincRDB.Implementation.
+     */
+    @Test
+    public void testImplementationForPath() {
+        assertEquals(Implementation.H2, Implementation.implementationForPath("100docs.h2.per"));
+        assertEquals(Implementation.H2_MVSTORE, Implementation.implementationForPath("100docs.h2mv"));
+        assertEquals(Implementation.SQLITE, Implementation.implementationForPath("100docs.sqlite.per"));
+        assertEquals(Implementation.DEFAULT, Implementation.implementationForPath("100docs"));
+    }
+
+    /**
+     * Test of the queries of class VizLincRDB, on each Implementation.
+     */
+    @Test
+    public void testQueries() throws Exception {
+        for (Implementation impl : Implementation.values()) {
+            File dbFolder = load(impl);
+            VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), 2);
+            String name = impl.toString();
+            assertEquals(name, VizLincRDB.SCHEMA_VERSION, rdb.getSchemaVersion());
+            assertEquals(name, DOCUMENTS, rdb.getDocuments().size());
+            assertEquals(name, 3, rdb.getDocumentsWithIds(Arrays.asList(1, 2, 3, -1)).size());
+            assertEquals(name, DOCUMENTS, rdb.getDocumentsWithIds(range(1, DOCUMENTS + 5)).size());
+            assertEquals(name, "text of document 7", rdb.getDocumentText(7));
+            assertEquals(name, DOCUMENTS, rdb.getDocumentTexts(range(1, DOCUMENTS)).size());
+            assertEquals(name, "document", rdb.getDocumentTextRange(7, 8, 16));
+            Reader reader = rdb.getDocumentTextReader(7);
+            char[] buffer = new char[4];
+            assertEquals(name, 4, reader.read(buffer));
+            assertEquals(name, "text", new String(buffer));
+            reader.close();
+            assertEquals(name, 10, rdb.getEntities().size());
+            assertEquals(name, 5, rdb.getPersonEntities().size());
+            assertEquals(name, 3, rdb.getEntitiesWithIds(Arrays.asList(1, 2, 3)).size());
+            assertEquals(name, 3 * DOCUMENTS, rdb.getMentions().size());
+            assertEquals(name, 3 * DOCUMENTS, rdb.getMentionLocations().size());
+            assertEquals(name, 2, rdb.getMentionWithId(3).getIndex());
+            assertEquals(name, 2, rdb.getGeoLocations(4).size());
+            assertEquals(name, 4.0, rdb.getFirstNGeoPoints(4, 1).get(0).latitude, 0);
+            assertEquals(name, 10, rdb.getTopGeoPointsForLocationEntityIds(range(1, 10)).size());
+            assertEquals(name, Arrays.asList("entity5"), rdb.getDistinctMentionTextsForEntityIdInDocument(5, 4));
+            assertEquals(name, 10, rdb.getEntityIdsInAnyofTheseDocumentIds(range(1, DOCUMENTS)).size());
+            Map<Integer, Integer> counts = rdb.getMentionCountsForEntitiesInDocuments(range(1, 10), range(1, DOCUMENTS));
+            int total = 0;
+            for (int count : counts.values()) {
+                total += count;
+            }
+            assertEquals(name, 3 * DOCUMENTS, total);
+            assertEquals(name, counts, rdb.getDocumentCountsForEntitiesInDocuments(range(1, 10), range(1, DOCUMENTS)));
+            assertFalse(name, rdb.getDocumentIdsWithAllOfTheseEntityIds(Arrays.asList(2, 3)).isEmpty());
+            rdb.shutdown();
+
+            // The in-memory structures, and the snapshot manifest's stamps and checksums, work the same.
+            VizLincRDBMem mem = new VizLincRDBMem(dbFolder.getPath());
+            assertEquals(name, 3, mem.getMentionLocationsForDocument(1).size());
+            assertEquals(name, "text of document 1", mem.getDocumentText(1));
+            assertTrue(name, mem.verifySnapshot().isEmpty());
+            mem.shutdown();
+            mem = new VizLincRDBMem(dbFolder.getPath());
+            assertNull(name, mem.getStartupReport().getStage("save snapshot"));
+            mem.shutdown();
+
+            // A change made with plain SQL is seen by the stamp triggers.
+            rdb = new VizLincRDB(dbFolder.getPath());
+            Statement stmt = rdb.conn.createStatement();
+            stmt.execute("UPDATE mention SET text = 'changed' WHERE mention_id = 3");
+            stmt.close();
+            rdb.shutdown();
+            mem = new VizLincRDBMem(dbFolder.getPath());
+            assertNotNull(name, mem.getStartupReport().getStage("snapshot: fetch mention from db"));
+            assertNull(name, mem.getStartupReport().getStage("snapshot: fetch document from db"));
+            mem.shutdown();
+        }
+    }
+
+    /**
+     * Test that a query run on a pooled connection sees what was committed since its last query, on each
+     * Implementation.
+     */
+    @Test
+    public void testQueriesSeeCommittedChanges() throws Exception {
+        for (Implementation impl : Implementation.values()) {
+            File dbFolder = new File(tempFolder.getRoot(), "changes." + impl.tags[0]);
+            VizLincRDB rdb = new VizLincRDB(dbFolder.getPath(), true, impl, 1);
+            String name = impl.toString();
+            Statement stmt = rdb.conn.createStatement();
+            stmt.executeUpdate("INSERT INTO document VALUES(1, 'doc1', 'dir/doc1', 'text of document 1')");
+            stmt.executeUpdate("INSERT INTO document VALUES(2, 'doc2', 'dir/doc2', 'text of document 2')");
+            // Reads only the first row of its ResultSet.
+            assertEquals(name, "text of document 1", rdb.getDocumentText(1));
+            stmt.executeUpdate("INSERT INTO document VALUES(3, 'doc3', 'dir/doc3', 'text of document 3')");
+            stmt.close();
+            assertEquals(name, 3, rdb.getDocuments().size());
+            assertEquals(name, "text of document 3", rdb.getDocumentText(3));
+            rdb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class StartupPipelineTest {
+
+    ExecutorService executor;
+
+    public StartupPipelineTest() {
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private static StartupPipeline.Step appendTo(final List<String> done, final String name) {
+        return new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                done.add(name);
+            }
+        };
+    }
+
+    /**
+     * Test of add and await methods, of class StartupPipeline.
+     */
+    @Test
+    public void testDependencies() throws SQLException {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        StartupReport report = new StartupReport();
+        StartupPipeline pipeline = new StartupPipeline(executor, report);
+        pipeline.add("a", appendTo(done, "a"));
+        pipeline.add("b", appendTo(done, "b"));
+        pipeline.add("c", appendTo(done, "c"), "a");
+        pipeline.add("d", appendTo(done, "d"), "b", "c");
+        pipeline.await();
+
+        assertEquals(4, done.size());
+        assertTrue(done.indexOf("a") < done.indexOf("c"));
+        assertTrue(done.indexOf("b") < done.indexOf("d"));
+        assertTrue(done.indexOf("c") < done.indexOf("d"));
+        assertEquals(4, report.getStages().size());
+        assertNotNull(report.getStage("d"));
+        assertTrue(report.getStage("d").startSeconds >= report.getStage("c").startSeconds);
+        assertNull(report.getStage("e"));
+    }
+
+    /**
+     * Test of add method, of class StartupPipeline, with independent stages.
+     */
+    @Test
+    public void testIndependentStagesRunConcurrently() throws Exception {
+        // Each stage waits for the other to start, so this only finishes if they run at the same time.
+        final CountDownLatch started = new CountDownLatch(2);
+        StartupPipeline.Step step = new StartupPipeline.Step() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    assertTrue(started.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        StartupPipeline pipeline = new StartupPipeline(executor, new StartupReport());
+        pipeline.add("a", step);
+        pipeline.add("b", step);
+        pipeline.await();
+        assertEquals(0, started.getCount());
+    }
+
+    /**
+     * Test of await method, of class StartupPipeline, when a stage fails.
+     */
+    @Test
+    public void testFailure() {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        StartupPipeline pipeline = new StartupPipeline(executor, new StartupReport());
+        pipeline.add("a", new StartupPipeline.Step() {
+            @Override
+            public void run() throws SQLException {
+                throw new SQLException("a failed");
+            }
+        });
+        pipeline.add("b", appendTo(done, "b"), "a");
+        pipeline.add("c", appendTo(done, "c"));
+        try {
+            pipeline.await();
+            fail("failure not reported");
+        } catch (SQLException ex) {
+            assertEquals("a failed", ex.getMessage());
+        }
+        assertEquals(Collections.singletonList("c"), done);
+    }
+
+    /**
+     * Test of add method, of class StartupPipeline, with an unknown dependency.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() {
+        new StartupPipeline(executor, new StartupReport()).add("a", appendTo(new ArrayList<String>(), "a"), "b");
+    }
+}
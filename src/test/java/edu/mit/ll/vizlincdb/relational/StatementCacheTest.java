@@ -0,0 +1,71 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class StatementCacheTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    public StatementCacheTest() {
+    }
+
+    /**
+     * Test of prepare method, of class StatementCache.
+     */
+    @Test
+    public void testPrepare() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:", "sa", "");
+        StatementCache cache = new StatementCache(connection);
+        PreparedStatement one = cache.prepare("SELECT 1", 2);
+        PreparedStatement two = cache.prepare("SELECT 2", 2);
+        assertSame(one, cache.prepare("SELECT 1", 2));
+        // "SELECT 2" is now least recently used, so it is the one evicted.
+        PreparedStatement three = cache.prepare("SELECT 3", 2);
+        assertEquals(2, cache.size());
+        assertTrue(two.isClosed());
+        assertFalse(one.isClosed());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+
+        cache.close();
+        assertTrue(one.isClosed());
+        assertTrue(three.isClosed());
+        assertEquals(0, cache.size());
+        connection.close();
+    }
+
+    /**
+     * Test of setStatementCacheSize method, of class VizLincRDB.
+     */
+    @Test
+    public void testSetStatementCacheSize() throws SQLException, IOException {
+        VizLincRDB rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        rdb.getDocumentWithId(1);
+        rdb.getDocumentWithId(2);
+        long[] stats = rdb.getStatementCacheStats();
+        assertEquals(1, stats[0]);
+        assertEquals(1, stats[1]);
+
+        rdb.setStatementCacheSize(0);
+        rdb.getDocumentWithId(1);
+        rdb.getDocumentWithId(2);
+        stats = rdb.getStatementCacheStats();
+        assertEquals(1, stats[0]);
+        assertEquals(1, stats[1]);
+        assertEquals(1, stats[2]);
+        rdb.shutdown();
+    }
+}
@@ -0,0 +1,139 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.entity.EntitySet;
+import edu.mit.ll.vizlincdb.entity.Mention;
+import edu.mit.ll.vizlincdb.geo.GeoBoundingBox;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class VizLincRDBLoaderTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    public VizLincRDBLoaderTest() {
+    }
+
+    private static int count(VizLincRDB rdb, String sql) throws SQLException {
+        Statement stmt = rdb.conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        int n = rs.getInt(1);
+        stmt.close();
+        return n;
+    }
+
+    private static final String INDEX_COUNT = "SELECT COUNT(*) FROM information_schema.indexes WHERE table_schema = SCHEMA()";
+
+    /**
+     * Test of load methods, of class VizLincRDBLoader.
+     */
+    @Test
+    public void testLoad() throws SQLException, IOException {
+        File dbFolder = tempFolder.newFolder();
+        VizLincRDB rdb = new VizLincRDB(dbFolder, true);
+        int indexes = count(rdb, INDEX_COUNT);
+
+        // Small batch and commit sizes, so that batches of different tables interleave.
+        VizLincRDBLoader loader = rdb.newLoader(2, 5, true);
+        assertTrue(count(rdb, INDEX_COUNT) < indexes);
+        try {
+            for (int d = 1; d <= 3; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of doc" + d);
+                Entity entity = Entity.create("PERSON", "person" + d, 1, 2, "test", 100 + d);
+                loader.addEntity(entity);
+                loader.addMention(new Mention(1000 + 2 * d, d, 100 + d, "PERSON", "person" + d, 0, null, 0, 7));
+                loader.addMention(new Mention(1001 + 2 * d, d, 100 + d, "PERSON", "person" + d, 1, 5, 10, 17));
+                loader.addDocumentEntity(d, 100 + d, 2);
+            }
+            loader.addEntity(Entity.create("LOCATION", "Lexington", 1, 1, "test", 200));
+            loader.addGeoLocation(200, 0, new GeoLocation(42.4473, -71.2272, null, "Lexington", "town", null, "US", "osm"));
+            loader.addGeoLocation(200, 1, new GeoLocation(38.0, -84.5, new GeoBoundingBox(37.9, 38.1, -84.6, -84.4), "Lexington", null, "PPL", "US", "nga"));
+        } finally {
+            loader.close();
+        }
+
+        assertEquals(18, loader.getRowsLoaded());
+        assertEquals(indexes, count(rdb, INDEX_COUNT));
+        assertTrue(rdb.conn.getAutoCommit());
+        assertEquals(3, rdb.getDocuments().size());
+        assertEquals("text of doc2", rdb.getDocumentText(2));
+        EntitySet entities = rdb.getEntities();
+        assertEquals(4, entities.size());
+        assertEquals(6, count(rdb, "SELECT COUNT(*) FROM mention"));
+        assertEquals(Arrays.asList("person3"), rdb.getDistinctMentionTextsForEntityIdInDocument(103, 3));
+        assertEquals(3, count(rdb, "SELECT COUNT(*) FROM document_entity"));
+        assertEquals(2, rdb.getGeoLocations(200).size());
+        assertEquals(new GeoBoundingBox(37.9, 38.1, -84.6, -84.4), rdb.getGeoLocations(200).get(1).boundingBox);
+        assertNull(rdb.getGeoLocations(200).get(0).boundingBox);
+        rdb.shutdown();
+
+        // The loaded database opens as a VizLincRDBMem.
+        VizLincRDBMem mem = new VizLincRDBMem(dbFolder);
+        assertEquals(2, mem.getMentionLocationsForDocument(1).size());
+        assertEquals(Arrays.asList(2), mem.getDocumentIdsMatching(Arrays.asList(102), Arrays.<Integer>asList(), Arrays.<Integer>asList()));
+        mem.shutdown();
+    }
+
+    /**
+     * Test of close method, of class VizLincRDBLoader, when a row is rejected.
+     */
+    @Test
+    public void testCloseAfterFailure() throws SQLException, IOException {
+        VizLincRDB rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        int indexes = count(rdb, INDEX_COUNT);
+        VizLincRDBLoader loader = rdb.newLoader(10, 10, true);
+        try {
+            loader.addDocument(1, "doc1", "dir/doc1", null);
+            // No such entity.
+            loader.addDocumentEntity(1, 999, 1);
+            loader.close();
+            fail("foreign key violation not reported");
+        } catch (SQLException ex) {
+            // Expected.
+        }
+        assertEquals(indexes, count(rdb, INDEX_COUNT));
+        assertEquals(0, count(rdb, "SELECT COUNT(*) FROM document"));
+        rdb.shutdown();
+    }
+
+    /**
+     * Test of close method, of class VizLincRDBLoader, when both the commit and recreating an index fail.
+     */
+    @Test
+    public void testCloseKeepsCommitFailure() throws SQLException, IOException {
+        VizLincRDB rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        VizLincRDBLoader loader = rdb.newLoader(10, 10, true);
+        // Take the name of a dropped index, so that recreating it fails.
+        Statement stmt = rdb.conn.createStatement();
+        stmt.execute("CREATE INDEX mention_entity_document_text ON mention(entity_id)");
+        stmt.close();
+        try {
+            loader.addDocument(1, "doc1", "dir/doc1", null);
+            // No such entity.
+            loader.addDocumentEntity(1, 999, 1);
+            loader.close();
+            fail("foreign key violation not reported");
+        } catch (SQLException ex) {
+            assertFalse(ex.getMessage(), ex.getMessage().toUpperCase().contains("MENTION_ENTITY_DOCUMENT_TEXT"));
+            assertEquals(1, ex.getSuppressed().length);
+            assertTrue(ex.getSuppressed()[0].getMessage().toUpperCase().contains("MENTION_ENTITY_DOCUMENT_TEXT"));
+        }
+        assertTrue(rdb.conn.getAutoCommit());
+        assertEquals(0, count(rdb, "SELECT COUNT(*) FROM document"));
+        rdb.shutdown();
+    }
+}
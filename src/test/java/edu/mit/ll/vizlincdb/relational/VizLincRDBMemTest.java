@@ -10,19 +10,23 @@ import edu.mit.ll.vizlincdb.entity.LocationEntity;
 import edu.mit.ll.vizlincdb.geo.GeoLocation;
 import edu.mit.ll.vizlincdb.entity.PersonEntity;
 import edu.mit.ll.vizlincdb.entity.Mention;
+import edu.mit.ll.vizlincdb.entity.MentionLocation;
 import edu.mit.ll.vizlincdb.entity.EntitySet;
 import edu.mit.ll.vizlincdb.entity.Entity;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import static java.sql.Types.*;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.*;
@@ -82,6 +86,8 @@ public class VizLincRDBMemTest {
     public static Set<Integer> createdBy2EntityIds;
     public static Set<Integer> document1EntityIds;
     public static Set<Integer> document2EntityIds;
+    public static File lazyDbFolder;
+    public static File staleDbFolder;
 
     public VizLincRDBMemTest() {
     }
@@ -363,6 +369,14 @@ public class VizLincRDBMemTest {
 
         // Shutdown the backing VizLincRDB and reopen it as a VizLincRDBMem.
         rdb.shutdown();
+        // Keep a copy without a snapshot file, for opening in LAZY mode.
+        lazyDbFolder = tempDir.newFolder();
+        // And another, to be changed after its snapshot is built.
+        staleDbFolder = tempDir.newFolder();
+        for (File file : dbFolder.listFiles()) {
+            Files.copy(file.toPath(), new File(lazyDbFolder, file.getName()).toPath());
+            Files.copy(file.toPath(), new File(staleDbFolder, file.getName()).toPath());
+        }
         db = new VizLincRDBMem(dbFolder);
         // Loading the VizLincRDBMem the first time will create the prefetched serialization files. Load it again to make use of them.
         db.shutdown();
@@ -393,6 +407,22 @@ public class VizLincRDBMemTest {
         // TODO
     }
 
+    /**
+     * Test of opening a VizLincRDBMem with and without a pool of query connections.
+     */
+    @Test
+    public void testPoolSize() throws Exception {
+        assertEquals(0, db.rdb.getPoolSize());
+        VizLincRDBMem pooled = new VizLincRDBMem(lazyDbFolder.getPath(), VizLincRDBMem.LoadMode.LAZY,
+                                                 VizLincRDBMem.DEFAULT_MENTION_CACHE_SIZE, 2);
+        try {
+            assertEquals(2, pooled.rdb.getPoolSize());
+            assertEquals(db.getDocumentText(document1Id), pooled.getDocumentText(document1Id));
+        } finally {
+            pooled.shutdown();
+        }
+    }
+
     /**
      * Test of getDocuments method, of class VizLincRDBMem.
      */
@@ -429,6 +459,22 @@ public class VizLincRDBMemTest {
         assertEquals(document1Text, db.getDocumentText(db.getDocumentWithId(document1Id)));
     }
 
+    /**
+     * Test of setDocumentTextCacheSize method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testSetDocumentTextCacheSize() throws Exception {
+        db.setDocumentTextCacheSize(document1Text.length(), 0);
+        DocumentTextCache cache = db.getDocumentTextCache();
+        assertEquals(document1Text, db.getDocumentText(db.getDocumentWithId(document1Id)));
+        assertEquals(document1Text, db.getDocumentText(db.getDocumentWithId(document1Id)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        db.getDocumentText(document2Id);
+        assertEquals(1, cache.getEvictionCount());
+        db.setDocumentTextCacheSize(VizLincRDBMem.DEFAULT_DOCUMENT_TEXT_CACHE_CHARACTERS, 0);
+    }
+
 
     /**
      * Test of getTopGeoPointsForLocationEntityIds method, of class VizLincRDBMem.
@@ -774,4 +820,204 @@ public class VizLincRDBMemTest {
 
     }
 
+    /**
+     * Test of getMentionLocationsForDocument method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testGetMentionLocationsForDocument() {
+        List<MentionLocation> expected = Arrays.asList(
+                new MentionLocation(document1Id, entityAliceId, 0, 10, 15, (short) 0),
+                new MentionLocation(document1Id, entityBobId, 1, 20, 23, (short) 0),
+                new MentionLocation(document1Id, entityBobId, 3, 30, 33, (short) 0),
+                new MentionLocation(document1Id, entityLexingtonId, 4, 44, 53, (short) 0));
+        List<MentionLocation> result = db.getMentionLocationsForDocument(document1Id);
+        assertEquals(expected, result);
+        assertEquals("LOCATION", result.get(3).getMentionType());
+        assertTrue(db.getMentionLocationsForDocument(999).isEmpty());
+    }
+
+    /**
+     * Test of getMentionLocationsForEntitiesIdInDocument method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testGetMentionLocationsForEntitiesIdInDocument() {
+        List<MentionLocation> expected = Arrays.asList(
+                new MentionLocation(document1Id, entityBobId, 1, 20, 23, (short) 0),
+                new MentionLocation(document1Id, entityBobId, 3, 30, 33, (short) 0),
+                new MentionLocation(document1Id, entityLexingtonId, 4, 44, 53, (short) 0));
+        assertEquals(expected, db.getMentionLocationsForEntitiesIdInDocument(Arrays.asList(entityLexingtonId, entityBobId), document1Id));
+        assertTrue(db.getMentionLocationsForEntitiesIdInDocument(Arrays.asList(entityLincolnLabId), document1Id).isEmpty());
+        assertTrue(db.getMentionLocationsForEntitiesIdInDocument(Arrays.asList(entityBobId), 999).isEmpty());
+    }
+
+    /**
+     * Test of setQueryParallelism method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testSetQueryParallelism() throws SQLException {
+        List<Integer> queryEntityIds = Arrays.asList(entityAliceId);
+        List<Integer> wantedEntityIds = Arrays.asList(entityAliceId, entityBobId, entityLexingtonId, entityLincolnLabId);
+        List<Integer> docIds = Arrays.asList(document1Id, document2Id, document1Id);
+        Map<Integer, EntityCounts> nearByIndex = db.getEntitiesMentionedNearEntitiesByIndex(queryEntityIds, wantedEntityIds, docIds, 5);
+        Map<Integer, EntityCounts> nearByTextOffset = db.getEntitiesMentionedNearEntitiesByTextOffset(queryEntityIds, wantedEntityIds, docIds, 10);
+        Map<Integer, Integer> mentionCounts = db.getMentionCountsForEntitiesInDocuments(wantedEntityIds, docIds);
+        Map<Integer, Integer> documentCounts = db.getDocumentCountsForEntitiesInDocuments(wantedEntityIds, docIds);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // A threshold of 1 splits down to single documents.
+            db.setQueryParallelism(pool, 1);
+            assertEquals(nearByIndex, db.getEntitiesMentionedNearEntitiesByIndex(queryEntityIds, wantedEntityIds, docIds, 5));
+            assertEquals(nearByTextOffset, db.getEntitiesMentionedNearEntitiesByTextOffset(queryEntityIds, wantedEntityIds, docIds, 10));
+            assertEquals(mentionCounts, db.getMentionCountsForEntitiesInDocuments(wantedEntityIds, docIds));
+            assertEquals(documentCounts, db.getDocumentCountsForEntitiesInDocuments(wantedEntityIds, docIds));
+        } finally {
+            db.setQueryParallelism(null, VizLincRDBMem.DEFAULT_PARALLEL_THRESHOLD);
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test of getDocumentIdsMatching method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testGetDocumentIdsMatching() {
+        List<Integer> none = Arrays.asList();
+        assertEquals(Arrays.asList(document1Id, document2Id), db.getDocumentIdsMatching(Arrays.asList(entityAliceId, entityBobId), none, none));
+        assertEquals(Arrays.asList(document1Id), db.getDocumentIdsMatching(Arrays.asList(entityAliceId), Arrays.asList(entityLexingtonId, entityLincolnLabId), Arrays.asList(entityDate2012Id)));
+        assertEquals(Arrays.asList(document2Id), db.getDocumentIdsMatching(none, Arrays.asList(entityLincolnLabId, entityDate2012Id), none));
+        assertEquals(Arrays.asList(document2Id), db.getDocumentIdsMatching(none, none, Arrays.asList(entityLexingtonId)));
+        assertEquals(Arrays.asList(), db.getDocumentIdsMatching(Arrays.asList(entityLexingtonId, entityLincolnLabId), none, none));
+    }
+
+    /**
+     * Test of countDocumentsMatching method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testCountDocumentsMatching() {
+        List<Integer> none = Arrays.asList();
+        assertEquals(2, db.countDocumentsMatching(none, none, none));
+        assertEquals(2, db.countDocumentsMatching(Arrays.asList(entityBobId), none, none));
+        assertEquals(1, db.countDocumentsMatching(Arrays.asList(entityBobId), none, Arrays.asList(entityLexingtonId)));
+        assertEquals(0, db.countDocumentsMatching(Arrays.asList(entityAliceId), none, Arrays.asList(entityBobId)));
+    }
+
+    /**
+     * Test of LAZY LoadMode, of class VizLincRDBMem, without a snapshot file.
+     */
+    @Test
+    public void testLazyLoadMode() throws SQLException {
+        // A cache of one document makes every change of document a reload from the database.
+        VizLincRDBMem lazyDb = new VizLincRDBMem(lazyDbFolder.getPath(), VizLincRDBMem.LoadMode.LAZY, 1);
+        try {
+            assertEquals(VizLincRDBMem.LoadMode.LAZY, lazyDb.getLoadMode());
+            assertTrue(ColumnarSnapshot.generations(lazyDbFolder, VizLincRDBMem.SNAPSHOT_FILE_NAME).isEmpty());
+
+            List<Integer> queryEntityIds = Arrays.asList(entityAliceId);
+            List<Integer> wantedEntityIds = Arrays.asList(entityAliceId, entityBobId, entityLexingtonId, entityLincolnLabId);
+            List<Integer> docIds = Arrays.asList(document1Id, document2Id, document1Id);
+            assertEquals(db.getMentionLocationsForDocument(document1Id), lazyDb.getMentionLocationsForDocument(document1Id));
+            assertEquals("LOCATION", lazyDb.getMentionLocationsForDocument(document1Id).get(3).getMentionType());
+            assertEquals(db.getMentionLocationsForDocument(document2Id), lazyDb.getMentionLocationsForDocument(document2Id));
+            assertEquals(db.getEntitiesMentionedNearEntitiesByIndex(queryEntityIds, wantedEntityIds, docIds, 5),
+                         lazyDb.getEntitiesMentionedNearEntitiesByIndex(queryEntityIds, wantedEntityIds, docIds, 5));
+            assertEquals(db.getEntitiesMentionedNearEntitiesByTextOffset(queryEntityIds, wantedEntityIds, docIds, 10),
+                         lazyDb.getEntitiesMentionedNearEntitiesByTextOffset(queryEntityIds, wantedEntityIds, docIds, 10));
+            assertEquals(db.getMentionCountsForEntitiesInDocuments(wantedEntityIds, docIds), lazyDb.getMentionCountsForEntitiesInDocuments(wantedEntityIds, docIds));
+            assertEquals(db.getEntityWithId(entityBobId), lazyDb.getEntityWithId(entityBobId));
+            assertEquals(db.getDocumentWithId(document1Id).getName(), lazyDb.getDocumentWithId(document1Id).getName());
+            assertEquals(db.getTopGeoPointsForLocationEntityIds(Arrays.asList(entityLexingtonId)),
+                         lazyDb.getTopGeoPointsForLocationEntityIds(Arrays.asList(entityLexingtonId)));
+            List<Integer> none = Arrays.asList();
+            assertEquals(db.getDocumentIdsMatching(Arrays.asList(entityBobId), none, Arrays.asList(entityLexingtonId)),
+                         lazyDb.getDocumentIdsMatching(Arrays.asList(entityBobId), none, Arrays.asList(entityLexingtonId)));
+            assertTrue(ColumnarSnapshot.generations(lazyDbFolder, VizLincRDBMem.SNAPSHOT_FILE_NAME).isEmpty());
+        } finally {
+            lazyDb.shutdown();
+        }
+    }
+
+    /**
+     * Test of getStartupReport method, of class VizLincRDBMem.
+     */
+    @Test
+    public void testGetStartupReport() {
+        StartupReport report = db.getStartupReport();
+        // The snapshot was built by the first open, so this one loads from it.
+        assertNotNull(report.getStage("open snapshot"));
+        assertNull(report.getStage("save snapshot"));
+        for (String name : Arrays.asList("fetch all documents", "fetch all entities", "fetch mention locations",
+                                         "fetch rank 0 geopoints for all location entities", "fetch document<->entity index",
+                                         "index documents", "index entities", "build document bitmaps")) {
+            assertNotNull(name, report.getStage(name));
+        }
+        assertTrue(report.getStage("build document bitmaps").startSeconds >= report.getStage("index documents").startSeconds);
+        assertTrue(report.getTotalSeconds() > 0);
+    }
+
+    /**
+     * Test of rebuilding an out of date snapshot, of class VizLincRDBMem.
+     */
+    @Test
+    public void testOutOfDateSnapshot() throws SQLException {
+        VizLincRDBMem staleDb = new VizLincRDBMem(staleDbFolder);
+        assertNotNull(staleDb.getStartupReport().getStage("snapshot: fetch mention from db"));
+        staleDb.shutdown();
+
+        // Change only the mention table, with plain SQL: reassign Bob's second mention in doc1 to Alice.
+        VizLincRDB rdb = new VizLincRDB(staleDbFolder);
+        PreparedStatement update = rdb.conn.prepareStatement("UPDATE mention SET entity_id = ? WHERE mention_id = ?");
+        update.setInt(1, entityAliceId);
+        update.setInt(2, mentionDoc1Bob2Id);
+        assertEquals(1, update.executeUpdate());
+        rdb.shutdown();
+
+        // LAZY mode can't rebuild the snapshot, so it reads from the database instead.
+        staleDb = new VizLincRDBMem(staleDbFolder.getPath(), VizLincRDBMem.LoadMode.LAZY);
+        assertEquals(entityAliceId, staleDb.getMentionLocationsForDocument(document1Id).get(2).getEntityId());
+        staleDb.shutdown();
+
+        // EAGER mode rebuilds only the mention sections and those derived from mentions.
+        staleDb = new VizLincRDBMem(staleDbFolder);
+        StartupReport report = staleDb.getStartupReport();
+        for (String table : Arrays.asList("mention", "entity", "document_entity")) {
+            assertNotNull(table, report.getStage("snapshot: fetch " + table + " from db"));
+        }
+        for (String table : Arrays.asList("document", "geolocation")) {
+            assertNull(table, report.getStage("snapshot: fetch " + table + " from db"));
+        }
+        assertNotNull(report.getStage("save snapshot"));
+        // The rebuilt snapshot is a new generation; the one it replaces was still mapped when it was written.
+        assertEquals(Arrays.asList(new File(staleDbFolder, VizLincRDBMem.SNAPSHOT_FILE_NAME + ".2")),
+                     ColumnarSnapshot.generations(staleDbFolder, VizLincRDBMem.SNAPSHOT_FILE_NAME));
+        assertEquals(entityAliceId, staleDb.getMentionLocationsForDocument(document1Id).get(2).getEntityId());
+        assertEquals("LOCATION", staleDb.getMentionLocationsForDocument(document1Id).get(3).getMentionType());
+        assertEquals(db.getEntityWithId(entityBobId), staleDb.getEntityWithId(entityBobId));
+        staleDb.shutdown();
+
+        // And then the snapshot is up to date.
+        staleDb = new VizLincRDBMem(staleDbFolder);
+        assertNull(staleDb.getStartupReport().getStage("save snapshot"));
+        assertEquals(entityAliceId, staleDb.getMentionLocationsForDocument(document1Id).get(2).getEntityId());
+        assertTrue(staleDb.verifySnapshot().isEmpty());
+        staleDb.shutdown();
+
+        // A change made without the stamp triggers goes unseen on opening, until verifySnapshot() finds it.
+        rdb = new VizLincRDB(staleDbFolder);
+        rdb.dropStampTriggers();
+        update = rdb.conn.prepareStatement("UPDATE mention SET entity_id = ? WHERE mention_id = ?");
+        update.setInt(1, entityBobId);
+        update.setInt(2, mentionDoc1Bob2Id);
+        assertEquals(1, update.executeUpdate());
+        rdb.shutdown();
+        staleDb = new VizLincRDBMem(staleDbFolder.getPath(), VizLincRDBMem.LoadMode.LAZY);
+        assertEquals(entityAliceId, staleDb.getMentionLocationsForDocument(document1Id).get(2).getEntityId());
+        assertEquals(Collections.singleton("mention"), staleDb.verifySnapshot());
+        staleDb.shutdown();
+        staleDb = new VizLincRDBMem(staleDbFolder);
+        assertNotNull(staleDb.getStartupReport().getStage("snapshot: fetch mention from db"));
+        assertEquals(entityBobId, staleDb.getMentionLocationsForDocument(document1Id).get(2).getEntityId());
+        staleDb.shutdown();
+    }
+
 }
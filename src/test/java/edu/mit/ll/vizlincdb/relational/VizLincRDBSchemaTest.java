@@ -0,0 +1,247 @@
+package edu.mit.ll.vizlincdb.relational;
+
+import edu.mit.ll.vizlincdb.entity.Entity;
+import edu.mit.ll.vizlincdb.geo.GeoLocation;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Schema migration, and the query plans of the queries the schema's indexes are for. A failing plan test means a
+ * query no longer uses its index.
+ */
+public class VizLincRDBSchemaTest {
+
+    @ClassRule
+    public static TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int DOCUMENTS = 2 * VizLincRDB.INLINE_ID_LIMIT;
+    private static VizLincRDB rdb;
+
+    public VizLincRDBSchemaTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws SQLException, IOException {
+        rdb = new VizLincRDB(tempFolder.newFolder(), true);
+        // Enough rows, in enough documents and entities, for the planner's statistics to matter.
+        VizLincRDBLoader loader = rdb.newLoader();
+        try {
+            for (int e = 1; e <= 50; e++) {
+                loader.addEntity(Entity.create("LOCATION", "location" + e, 1, 1, "test", e));
+                for (int rank = 0; rank < 3; rank++) {
+                    loader.addGeoLocation(e, rank, new GeoLocation(e, rank, null, "location" + e, null, null, "US", "test"));
+                }
+            }
+            int mentionId = 0;
+            for (int d = 1; d <= DOCUMENTS; d++) {
+                loader.addDocument(d, "doc" + d, "dir/doc" + d, "text of doc" + d);
+                for (int m = 0; m < 20; m++) {
+                    loader.addMention(++mentionId, d, entityOfMention(d, m), "LOCATION", "location" + m, m, null, 0, 1);
+                    loader.addDocumentEntity(d, entityOfMention(d, m), 1);
+                }
+            }
+        } finally {
+            loader.close();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws SQLException {
+        rdb.shutdown();
+    }
+
+    // Each document mentions 20 different entities, once each.
+    private static int entityOfMention(int documentId, int m) {
+        return 1 + (documentId + m) % 50;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static String explain(String sql, Object... parameters) throws SQLException {
+        return explain(rdb.conn, sql, parameters);
+    }
+
+    private static String explain(Connection connection, String sql, Object... parameters) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement("EXPLAIN " + sql);
+        for (int i = 0; i < parameters.length; i++) {
+            stmt.setObject(i + 1, parameters[i]);
+        }
+        ResultSet rs = stmt.executeQuery();
+        rs.next();
+        String plan = rs.getString(1).replaceAll("\\s+", " ");
+        stmt.close();
+        return plan;
+    }
+
+    /**
+     * Test of getSchemaVersion method, of class VizLincRDB.
+     */
+    @Test
+    public void testGetSchemaVersion() throws SQLException {
+        assertEquals(VizLincRDB.SCHEMA_VERSION, rdb.getSchemaVersion());
+    }
+
+    /**
+     * Test of migration from schema version 1, of class VizLincRDB.
+     */
+    @Test
+    public void testMigrate() throws SQLException, IOException {
+        File dbFolder = tempFolder.newFolder();
+        VizLincRDB old = new VizLincRDB(dbFolder, true);
+        Statement stmt = old.conn.createStatement();
+        stmt.execute("INSERT INTO document VALUES(1, 'doc1', 'dir/doc1', 'text of doc1')");
+        // Make it a version 1 database.
+        old.dropStampTriggers();
+        stmt.execute("DROP INDEX mention_entity_document_text");
+        stmt.execute("DROP TABLE schema_version");
+        stmt.execute("DROP TABLE table_stamp");
+        stmt.close();
+        assertEquals(1, old.getSchemaVersion());
+        old.shutdown();
+
+        VizLincRDB migrated = new VizLincRDB(dbFolder);
+        assertEquals(VizLincRDB.SCHEMA_VERSION, migrated.getSchemaVersion());
+        stmt = migrated.conn.createStatement();
+        ResultSet rs = stmt.executeQuery(
+            "SELECT COUNT(*) FROM information_schema.indexes WHERE index_name = 'MENTION_ENTITY_DOCUMENT_TEXT'");
+        rs.next();
+        assertEquals(3, rs.getInt(1));
+        stmt.close();
+        assertEquals("text of doc1", migrated.getDocumentText(1));
+        // The stamp triggers are back.
+        stmt = migrated.conn.createStatement();
+        stmt.execute("UPDATE document SET name = 'doc1' WHERE document_id = 1");
+        stmt.close();
+        assertTrue(migrated.getTableStamps().containsKey("document"));
+        migrated.shutdown();
+
+        // Opening it again leaves it as it is.
+        migrated = new VizLincRDB(dbFolder);
+        assertEquals(VizLincRDB.SCHEMA_VERSION, migrated.getSchemaVersion());
+        migrated.shutdown();
+    }
+
+    /**
+     * Test of the query plan of getDistinctMentionTextsForEntityIdInDocument, of class VizLincRDB.
+     */
+    @Test
+    public void testPlanGetDistinctMentionTextsForEntityIdInDocument() throws SQLException {
+        String plan = explain(VizLincRDB.SELECT_DISTINCT_MENTION_TEXTS_IN_DOCUMENT, 2, 1);
+        assertTrue(plan, plan.contains("/* PUBLIC.MENTION_ENTITY_DOCUMENT_TEXT: ENTITY_ID = ?1 AND DOCUMENT_ID = ?2 */"));
+        assertEquals(Arrays.asList("location0"), rdb.getDistinctMentionTextsForEntityIdInDocument(2, 1));
+    }
+
+    /**
+     * Test of the query plan of getTopGeoPointsForLocationEntityIds, of class VizLincRDB.
+     */
+    @Test
+    public void testPlanGetTopGeoPointsForLocationEntityIds() throws SQLException {
+        String plan = explain(String.format(VizLincRDB.SELECT_TOP_GEO_POINTS, "?, ?"), 1, 2);
+        // The rank is part of the index lookup, not a filter applied afterwards.
+        assertTrue(plan, plan.matches(".*/\\* PUBLIC\\.PRIMARY_KEY_\\w+: ENTITY_ID IN\\(\\?1, \\?2\\) AND RANK = 0 \\*/.*"));
+        assertEquals(2, rdb.getTopGeoPointsForLocationEntityIds(Arrays.asList(1, 2)).size());
+    }
+
+    /**
+     * Test of the query plan of getFirstNGeoPoints, of class VizLincRDB.
+     */
+    @Test
+    public void testPlanGetFirstNGeoPoints() throws SQLException {
+        String plan = explain(VizLincRDB.SELECT_FIRST_N_GEO_POINTS + " LIMIT ?", 1, 1);
+        assertTrue(plan, plan.matches(".*/\\* PUBLIC\\.PRIMARY_KEY_\\w+: ENTITY_ID = \\?1 \\*/.*"));
+    }
+
+    /**
+     * Test of the query plan of getDocumentsWithIds, of class VizLincRDB, with few and with many ids.
+     */
+    @Test
+    public void testPlanGetDocumentsWithIds() throws SQLException {
+        String plan = explain(String.format(VizLincRDB.SELECT_DOCUMENTS_WITH_IDS, "?, ?"), 1, 2);
+        assertTrue(plan, plan.matches(".*/\\* PUBLIC\\.PRIMARY_KEY_\\w+: DOCUMENT_ID IN\\(\\?1, \\?2\\) \\*/.*"));
+        try (PooledConnection pc = rdb.connection()) {
+            String table = pc.fillIdTable(0, range(1, DOCUMENTS));
+            plan = explain(pc.getConnection(), String.format(VizLincRDB.SELECT_DOCUMENTS_WITH_IDS, "SELECT id FROM " + table));
+            // Each id is looked up in the primary key, rather than the whole table scanned.
+            assertTrue(plan, plan.matches(".*/\\* PUBLIC\\.PRIMARY_KEY_\\w+: DOCUMENT_ID IN\\(SELECT ID FROM PUBLIC\\.VIZLINC_IDS_0 .*"));
+        }
+    }
+
+    /**
+     * Test of getDocumentsWithIds method, of class VizLincRDB, with more than INLINE_ID_LIMIT ids.
+     */
+    @Test
+    public void testGetDocumentsWithManyIds() throws SQLException {
+        List<Integer> ids = range(1, DOCUMENTS + 10);
+        ids.addAll(range(1, 10));
+        assertEquals(DOCUMENTS, rdb.getDocumentsWithIds(ids).size());
+        assertEquals(DOCUMENTS, rdb.getDocumentTexts(ids).size());
+        // Fewer, padded to a power of two.
+        assertEquals(3, rdb.getDocumentsWithIds(Arrays.asList(1, 2, 3)).size());
+        assertEquals(0, rdb.getDocumentsWithIds(Arrays.<Integer>asList()).size());
+    }
+
+    /**
+     * Test of getMentionCountsForEntitiesInDocuments and getDocumentCountsForEntitiesInDocuments methods, of class
+     * VizLincRDB, with few and with many ids.
+     */
+    @Test
+    public void testCountsForEntitiesInManyDocuments() throws SQLException {
+        for (int documents : new int[] {VizLincRDB.INLINE_ID_LIMIT / 2, DOCUMENTS}) {
+            List<Integer> documentIds = range(1, documents);
+            List<Integer> entityIds = range(1, 50);
+            Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+            for (int entityId : entityIds) {
+                expected.put(entityId, 0);
+            }
+            for (int d : documentIds) {
+                for (int m = 0; m < 20; m++) {
+                    int entityId = entityOfMention(d, m);
+                    expected.put(entityId, expected.get(entityId) + 1);
+                }
+            }
+            assertEquals(expected, rdb.getMentionCountsForEntitiesInDocuments(entityIds, documentIds));
+            assertEquals(expected, rdb.getDocumentCountsForEntitiesInDocuments(entityIds, documentIds));
+        }
+    }
+
+    /**
+     * Test of getDocumentIdsWithAllOfTheseEntityIds method, of class VizLincRDB, with repeated ids.
+     */
+    @Test
+    public void testGetDocumentIdsWithAllOfTheseEntityIds() throws SQLException {
+        List<Integer> documentIds = rdb.getDocumentIdsWithAllOfTheseEntityIds(Arrays.asList(2, 21, 2));
+        // Entities 2 and 21 are both in the documents whose first entity is 2 through 21 - 19.
+        assertFalse(documentIds.isEmpty());
+        for (int d : documentIds) {
+            Set<Integer> entities = new HashSet<Integer>();
+            for (int m = 0; m < 20; m++) {
+                entities.add(entityOfMention(d, m));
+            }
+            assertTrue(entities.contains(2) && entities.contains(21));
+        }
+    }
+}
@@ -13,6 +13,7 @@ import edu.mit.ll.vizlincdb.entity.Mention;
 import edu.mit.ll.vizlincdb.entity.EntitySet;
 import edu.mit.ll.vizlincdb.entity.Entity;
 import java.io.IOException;
+import java.io.Reader;
 import static java.sql.Types.*;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -444,6 +445,56 @@ public class VizLincRDBTest {
         assertEquals(document1Text, db.getDocumentText(db.getDocumentWithId(document1Id)));
     }
 
+    /**
+     * Test of getText method, of class Document, which keeps the text fetched from a VizLincRDB.
+     */
+    @Test
+    public void testDocumentGetText() throws Exception {
+        Document document = db.getDocumentWithId(document1Id);
+        String text = document.getText(db);
+        assertEquals(document1Text, text);
+        assertSame(text, document.getText(db));
+    }
+
+    /**
+     * Test of getDocumentTexts method, of class VizLincRDB.
+     */
+    @Test
+    public void testGetDocumentTexts() throws Exception {
+        Map<Integer, String> texts = db.getDocumentTexts(Arrays.asList(document1Id, document2Id, -1));
+        assertEquals(2, texts.size());
+        assertEquals(document1Text, texts.get(document1Id));
+        assertEquals(db.getDocumentText(document2Id), texts.get(document2Id));
+    }
+
+    /**
+     * Test of getDocumentTextReader method, of class VizLincRDB.
+     */
+    @Test
+    public void testGetDocumentTextReader() throws Exception {
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = db.getDocumentTextReader(document1Id)) {
+            char[] buffer = new char[4];
+            int n;
+            while ((n = reader.read(buffer)) >= 0) {
+                text.append(buffer, 0, n);
+            }
+        }
+        assertEquals(document1Text, text.toString());
+        assertNull(db.getDocumentTextReader(-1));
+    }
+
+    /**
+     * Test of getDocumentTextRange method, of class VizLincRDB.
+     */
+    @Test
+    public void testGetDocumentTextRange() throws Exception {
+        assertEquals("def", db.getDocumentTextRange(document1Id, 4, 7));
+        assertEquals("jkl", db.getDocumentTextRange(document1Id, 12, 100));
+        assertEquals("", db.getDocumentTextRange(document1Id, 100, 200));
+        assertNull(db.getDocumentTextRange(-1, 0, 1));
+    }
+
     /**
      * Test of getGeoLocations method, of class VizLincRDB.
      */
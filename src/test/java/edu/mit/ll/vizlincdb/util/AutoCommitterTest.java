@@ -0,0 +1,83 @@
+package edu.mit.ll.vizlincdb.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class AutoCommitterTest {
+
+    public AutoCommitterTest() {
+    }
+
+    private static class CountingTarget implements AutoCommitter.Committable {
+        int commits = 0;
+
+        @Override
+        public void commit() {
+            commits++;
+        }
+    }
+
+    /**
+     * Test of mutated method, of class AutoCommitter, with a mutation limit.
+     */
+    @Test
+    public void testMutatedMaxMutations() {
+        CountingTarget target = new CountingTarget();
+        AutoCommitter committer = new AutoCommitter(target, 3, 0);
+        committer.mutated();
+        committer.mutated();
+        assertEquals(0, target.commits);
+        assertEquals(2, committer.getPendingMutations());
+        committer.mutated();
+        assertEquals(1, target.commits);
+        assertEquals(0, committer.getPendingMutations());
+        assertTrue(committer.mutated(5));
+        assertEquals(2, committer.getCommits());
+        assertEquals(8, committer.getMutations());
+        assertTrue(committer.getMutationsPerSecond() > 0);
+        assertTrue(committer.getMaxCommitMillis() >= committer.getMeanCommitMillis());
+    }
+
+    /**
+     * Test of mutated method, of class AutoCommitter, with a time limit.
+     */
+    @Test
+    public void testMutatedMaxMillis() throws InterruptedException {
+        CountingTarget target = new CountingTarget();
+        AutoCommitter committer = new AutoCommitter(target, 0, 20);
+        assertFalse(committer.mutated(1000));
+        Thread.sleep(30);
+        assertTrue(committer.mutated(1));
+        assertEquals(1, target.commits);
+
+        // Time without pending mutations doesn't count.
+        Thread.sleep(30);
+        assertFalse(committer.mutated(1));
+        assertEquals(1, committer.getPendingMutations());
+        committer.commit();
+        Thread.sleep(30);
+        committer.reset();
+        assertFalse(committer.mutated(1));
+        assertEquals(2, target.commits);
+    }
+
+    /**
+     * Test of commit and reset methods, of class AutoCommitter.
+     */
+    @Test
+    public void testCommitAndReset() {
+        CountingTarget target = new CountingTarget();
+        AutoCommitter committer = new AutoCommitter(target, 0, 0);
+        committer.mutated(10);
+        committer.commit();
+        committer.mutated(4);
+        committer.reset();
+        assertEquals(1, target.commits);
+        assertEquals(10, committer.getMutations());
+        assertEquals(0, committer.getPendingMutations());
+        assertFalse(committer.toString().isEmpty());
+    }
+}